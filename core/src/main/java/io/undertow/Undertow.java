@@ -8,6 +8,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+
 import io.undertow.ajp.AjpOpenListener;
 import io.undertow.security.api.AuthenticationMechanism;
 import io.undertow.security.api.AuthenticationMode;
@@ -42,11 +45,13 @@ import org.xnio.IoUtils;
 import org.xnio.OptionMap;
 import org.xnio.Options;
 import org.xnio.Pool;
+import org.xnio.Sequence;
 import org.xnio.StreamConnection;
 import org.xnio.Xnio;
 import org.xnio.XnioWorker;
 import org.xnio.channels.AcceptingChannel;
 import org.xnio.channels.SslConnection;
+import org.xnio.ssl.JsseXnioSsl;
 import org.xnio.ssl.XnioSsl;
 
 /**
@@ -64,6 +69,10 @@ public class Undertow {
     private final int workerThreads;
     private final int cacheSize;
     private final boolean directBuffers;
+    private final int sslSessionCacheSize;
+    private final int sslSessionTimeout;
+    private final String[] sslCipherSuites;
+    private final String[] sslProtocols;
     private final List<ListenerConfig> listeners = new ArrayList<ListenerConfig>();
     private final List<VirtualHost> hosts = new ArrayList<VirtualHost>();
 
@@ -78,6 +87,10 @@ public class Undertow {
         this.workerThreads = builder.workerThreads;
         this.cacheSize = builder.cacheSize;
         this.directBuffers = builder.directBuffers;
+        this.sslSessionCacheSize = builder.sslSessionCacheSize;
+        this.sslSessionTimeout = builder.sslSessionTimeout;
+        this.sslCipherSuites = builder.sslCipherSuites;
+        this.sslProtocols = builder.sslProtocols;
         this.listeners.addAll(builder.listeners);
         this.hosts.addAll(builder.hosts);
     }
@@ -153,7 +166,13 @@ public class Undertow {
                     HttpOpenListener openListener = new HttpOpenListener(buffers, OptionMap.create(UndertowOptions.BUFFER_PIPELINED_DATA, true), bufferSize);
                     openListener.setRootHandler(rootHandler);
                     ChannelListener<AcceptingChannel<StreamConnection>> acceptListener = ChannelListeners.openListenerAdapter(openListener);
-                    XnioSsl xnioSsl = xnio.getSslProvider(OptionMap.create(Options.USE_DIRECT_BUFFERS, true));
+                    XnioSsl xnioSsl;
+                    if (listener.sslContext != null) {
+                        configureSessionContext(listener.sslContext.getServerSessionContext());
+                        xnioSsl = new JsseXnioSsl(xnio, sslOptions(), listener.sslContext);
+                    } else {
+                        xnioSsl = xnio.getSslProvider(sslOptions());
+                    }
                     AcceptingChannel < SslConnection > sslServer = xnioSsl.createSslConnectionServer(worker, new InetSocketAddress(Inet4Address.getByName(listener.host), listener.port), (ChannelListener) acceptListener, serverOptions);
                     sslServer.resumeAccepts();
                     channels.add(sslServer);
@@ -166,6 +185,40 @@ public class Undertow {
         }
     }
 
+    private OptionMap sslOptions() {
+        final OptionMap.Builder builder = OptionMap.builder()
+                .set(Options.USE_DIRECT_BUFFERS, directBuffers);
+        if (sslSessionCacheSize >= 0) {
+            builder.set(Options.SSL_SERVER_SESSION_CACHE_SIZE, sslSessionCacheSize);
+        }
+        if (sslSessionTimeout >= 0) {
+            builder.set(Options.SSL_SERVER_SESSION_TIMEOUT, sslSessionTimeout);
+        }
+        if (sslCipherSuites != null) {
+            builder.set(Options.SSL_ENABLED_CIPHER_SUITES, Sequence.of(sslCipherSuites));
+        }
+        if (sslProtocols != null) {
+            builder.set(Options.SSL_ENABLED_PROTOCOLS, Sequence.of(sslProtocols));
+        }
+        return builder.getMap();
+    }
+
+    /**
+     * Applies the session cache settings to a user supplied SSL context. The session options are only used by
+     * XNIO when it creates the context itself.
+     */
+    private void configureSessionContext(final SSLSessionContext sessionContext) {
+        if (sessionContext == null) {
+            return;
+        }
+        if (sslSessionCacheSize >= 0) {
+            sessionContext.setSessionCacheSize(sslSessionCacheSize);
+        }
+        if (sslSessionTimeout >= 0) {
+            sessionContext.setSessionTimeout(sslSessionTimeout);
+        }
+    }
+
     public synchronized void stop() {
         for (AcceptingChannel<? extends StreamConnection> channel : channels) {
             IoUtils.safeClose(channel);
@@ -245,11 +298,17 @@ public class Undertow {
         final ListenerType type;
         final int port;
         final String host;
+        final SSLContext sslContext;
 
         private ListenerConfig(final ListenerType type, final int port, final String host) {
+            this(type, port, host, null);
+        }
+
+        private ListenerConfig(final ListenerType type, final int port, final String host, final SSLContext sslContext) {
             this.type = type;
             this.port = port;
             this.host = host;
+            this.sslContext = sslContext;
         }
     }
 
@@ -383,6 +442,10 @@ public class Undertow {
         private int workerThreads;
         private boolean directBuffers;
         private int cacheSize;
+        private int sslSessionCacheSize = -1;
+        private int sslSessionTimeout = -1;
+        private String[] sslCipherSuites;
+        private String[] sslProtocols;
         private final List<ListenerConfig> listeners = new ArrayList<ListenerConfig>();
         private final List<VirtualHost> hosts = new ArrayList<VirtualHost>();
         private final VirtualHost defaultHost = new VirtualHost(true);
@@ -431,6 +494,57 @@ public class Undertow {
             return this;
         }
 
+        /**
+         * Adds a HTTPS listener that uses an SSL context created by XNIO from the system key and trust stores.
+         */
+        public Builder addHttpsListener(int port, String host) {
+            listeners.add(new ListenerConfig(ListenerType.HTTPS, port, host));
+            return this;
+        }
+
+        /**
+         * Adds a HTTPS listener.
+         * <p/>
+         * The server session cache of the context can be monitored with {@link SSLContext#getServerSessionContext()}.
+         *
+         * @param sslContext The SSL context to use for the listener
+         */
+        public Builder addHttpsListener(int port, String host, SSLContext sslContext) {
+            listeners.add(new ListenerConfig(ListenerType.HTTPS, port, host, sslContext));
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of SSL sessions that are cached for resumption by HTTPS listeners. Resuming a
+         * session avoids a full handshake when a client reconnects.
+         *
+         * @param sslSessionCacheSize The number of sessions to cache, or 0 for no limit
+         */
+        public Builder setSslSessionCacheSize(final int sslSessionCacheSize) {
+            this.sslSessionCacheSize = sslSessionCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets the time after which cached SSL sessions can no longer be resumed.
+         *
+         * @param sslSessionTimeout The timeout in seconds, or 0 for no limit
+         */
+        public Builder setSslSessionTimeout(final int sslSessionTimeout) {
+            this.sslSessionTimeout = sslSessionTimeout;
+            return this;
+        }
+
+        public Builder setSslCipherSuites(final String... sslCipherSuites) {
+            this.sslCipherSuites = sslCipherSuites;
+            return this;
+        }
+
+        public Builder setSslProtocols(final String... sslProtocols) {
+            this.sslProtocols = sslProtocols;
+            return this;
+        }
+
         public Builder setBufferSize(final int bufferSize) {
             this.bufferSize = bufferSize;
             return this;
@@ -168,4 +168,16 @@ public interface UndertowMessages {
 
     @Message(id = 47, value = "The number of parameters exceeded the maximum of %s")
     IllegalStateException tooManyParameters(int maxValues);
+
+    @Message(id = 48, value = "Exchange cannot be recycled as it has not completed")
+    IllegalStateException cannotRecycleIncompleteExchange();
+
+    @Message(id = 49, value = "Invalid subnet %s, subnets must be specified as an IP address optionally followed by / and a prefix length")
+    IllegalArgumentException invalidSubnet(String subnet);
+
+    @Message(id = 50, value = "No executor named %s has been registered")
+    IllegalArgumentException executorNotRegistered(String name);
+
+    @Message(id = 51, value = "An executor named %s has already been registered")
+    IllegalStateException executorAlreadyRegistered(String name);
 }
@@ -95,6 +95,17 @@ public class UndertowOptions {
      */
     public static final Option<Boolean> ALLOW_ENCODED_SLASH = Option.simple(UndertowOptions.class, "ALLOW_ENCODED_SLASH", Boolean.class);
 
+    /**
+     * If exchanges should be recycled between requests on the same connection.
+     *
+     * When this is enabled the exchange, its header maps and the per request conduits are reset and re-used for the
+     * next request on a persistent connection, rather than being re-allocated. This only happens if the exchange was
+     * completed in the IO thread, so handlers must not retain a reference to the exchange once it has been completed.
+     *
+     * Defaults to false
+     */
+    public static final Option<Boolean> RECYCLE_EXCHANGES = Option.simple(UndertowOptions.class, "RECYCLE_EXCHANGES", Boolean.class);
+
     private UndertowOptions() {
 
     }
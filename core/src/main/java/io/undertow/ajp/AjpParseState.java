@@ -25,13 +25,24 @@ import io.undertow.util.HttpString;
     public static final int READING_ATTRIBUTES = 14;
     public static final int DONE = 15;
 
+    /**
+     * The initial size of the buffer that strings are read into. It is grown if a longer string is sent.
+     */
+    private static final int DEFAULT_STRING_BUFFER_SIZE = 256;
+
     int state;
 
     byte prefix;
 
-    //the length of the string being read
+    //the length of the string being read, or -1 if the length has not been read yet
     int stringLength = -1;
-    StringBuilder currentString;
+
+    //the bytes of the string that is being read, or of the last string that was read. This is re-used
+    //for every string in the request, so a request can be parsed without allocating intermediate objects
+    byte[] stringBytes = new byte[DEFAULT_STRING_BUFFER_SIZE];
+
+    //the number of bytes of the current string that have been read
+    int stringBytesRead;
 
     //when reading the first byte of an integer this stores the first value. It is set to -1 to signify that
     //the first byte has not been read yet.
@@ -41,11 +52,50 @@ import io.undertow.util.HttpString;
 
     int numHeaders = 0;
 
+    int readHeaders = 0;
+
     HttpString currentHeader;
 
-    String currentAttribute;
+    //the code of the attribute that is being read, or -1 if the attribute code has not been read yet
+    int currentAttribute = -1;
+
+    //the name of the req_attribute that is being read
+    String currentAttributeName;
+
+    String remoteAddress;
+
+    String remoteHost;
+
+    int remotePort = -1;
+
+    String serverName;
+
+    int serverPort = -1;
 
     public boolean isComplete() {
-        return state == 15;
+        return state == DONE;
+    }
+
+    /**
+     * Resets the state so it can be used to parse the next request on the connection. The string buffer
+     * is retained.
+     */
+    void reset() {
+        state = BEGIN;
+        prefix = 0;
+        stringLength = -1;
+        stringBytesRead = 0;
+        currentIntegerPart = -1;
+        dataSize = 0;
+        numHeaders = 0;
+        readHeaders = 0;
+        currentHeader = null;
+        currentAttribute = -1;
+        currentAttributeName = null;
+        remoteAddress = null;
+        remoteHost = null;
+        remotePort = -1;
+        serverName = null;
+        serverPort = -1;
     }
 }
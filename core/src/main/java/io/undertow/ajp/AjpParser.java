@@ -1,10 +1,20 @@
 package io.undertow.ajp;
 
+import io.undertow.server.HttpServerConnection;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
+import io.undertow.util.NetworkUtils;
+import io.undertow.util.Protocols;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
 
 import static io.undertow.util.Methods.ACL;
 import static io.undertow.util.Methods.BASELINE_CONTROL;
@@ -39,15 +49,33 @@ import static io.undertow.util.Methods.VERSION_CONTROL;
  */
 public class AjpParser {
 
-    public static final int STRING_LENGTH_MASK = 1 << 31;
-
     public static final AjpParser INSTANCE = new AjpParser();
 
+    /**
+     * The attributes that were sent by the front end server, such as the SSL cipher or the route. Request
+     * attributes that were set with <code>JkEnvVar</code> or <code>ProxySet</code> are stored under their own
+     * names. The secret is not stored.
+     */
+    public static final AttachmentKey<Map<String, String>> REQUEST_ATTRIBUTES = AttachmentKey.create(Map.class);
+
+    /**
+     * The request attribute that mod_jk and mod_proxy_ajp use to send the port of the client
+     */
+    public static final String AJP_REMOTE_PORT = "AJP_REMOTE_PORT";
+
     public static final int FORWARD_REQUEST = 2;
     public static final int CPING = 10;
     public static final int SHUTDOWN = 7;
 
+    private static final int QUERY_STRING = 0x05;
+    private static final int REQ_ATTRIBUTE = 0x0A;
+    private static final int SSL_KEY_SIZE = 0x0B;
+    private static final int SECRET = 0x0C;
+    private static final int STORED_METHOD = 0x0D;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
 
+    private static final HttpString[] PROTOCOLS = {Protocols.HTTP_1_1, Protocols.HTTP_1_0, Protocols.HTTP_0_9};
 
     private static final HttpString[] HTTP_METHODS;
     private static final HttpString[] HTTP_HEADERS;
@@ -117,28 +145,42 @@ public class AjpParser {
     }
 
 
+    /**
+     * Returned by {@link #readString(ByteBuffer, AjpParseState, boolean)} if the string has not been completely read
+     */
+    private static final int INCOMPLETE = -1;
+
+    /**
+     * Returned by {@link #readString(ByteBuffer, AjpParseState, boolean)} if a null string was sent
+     */
+    private static final int NULL_STRING = -2;
+
+    /**
+     * Returned by {@link #readString(ByteBuffer, AjpParseState, boolean)} if a header name was sent as a code,
+     * in which case {@link AjpParseState#currentHeader} has been set
+     */
+    private static final int CODED_HEADER = -3;
+
     public void parse(final ByteBuffer buf, final AjpParseState state, final HttpServerExchange exchange) {
         if (!buf.hasRemaining()) {
             return;
         }
         switch (state.state) {
             case AjpParseState.BEGIN: {
-                IntegerHolder result = parse16BitInteger(buf, state);
-                if (!result.readComplete) {
+                final int result = parse16BitInteger(buf, state);
+                if (result == -1) {
                     return;
-                } else {
-                    if (result.value != 0x1234) {
-                        throw new IllegalStateException("Wrong magic number");
-                    }
+                } else if (result != 0x1234) {
+                    throw new IllegalStateException("Wrong magic number");
                 }
             }
             case AjpParseState.READING_DATA_SIZE: {
-                IntegerHolder result = parse16BitInteger(buf, state);
-                if (!result.readComplete) {
+                final int result = parse16BitInteger(buf, state);
+                if (result == -1) {
                     state.state = AjpParseState.READING_DATA_SIZE;
                     return;
                 } else {
-                    state.dataSize = result.value;
+                    state.dataSize = result;
                 }
             }
             case AjpParseState.READING_PREFIX_CODE: {
@@ -159,71 +201,65 @@ public class AjpParser {
                     state.state = AjpParseState.READING_METHOD;
                     return;
                 } else {
-                    int method = buf.get();
+                    final int method = buf.get() & 0xFF;
                     if (method > 0 && method < 28) {
                         exchange.setRequestMethod(HTTP_METHODS[method]);
-                    } else {
+                    } else if (method != 0xFF) {
+                        //0xFF means the method is sent in the stored_method attribute
                         throw new IllegalArgumentException("Unknown method type " + method);
                     }
                 }
             }
             case AjpParseState.READING_PROTOCOL: {
-                StringHolder result = parseString(buf, state, false);
-                if (result.readComplete) {
-                    //TODO: more efficient way of doing this
-                    exchange.setProtocol(HttpString.tryFromString(result.value));
-                } else {
+                final int length = readString(buf, state, false);
+                if (length == INCOMPLETE) {
                     state.state = AjpParseState.READING_PROTOCOL;
                     return;
                 }
+                exchange.setProtocol(protocol(state.stringBytes, length));
             }
             case AjpParseState.READING_REQUEST_URI: {
-                StringHolder result = parseString(buf, state, false);
-                if (result.readComplete) {
-                    String res = result.value;
-                    exchange.setRequestURI(res);
-                    exchange.setRequestPath(res);
-                    exchange.setRelativePath(res);
-                } else {
+                final int length = readString(buf, state, false);
+                if (length == INCOMPLETE) {
                     state.state = AjpParseState.READING_REQUEST_URI;
                     return;
                 }
+                final String res = stringValue(state, length);
+                exchange.setRequestURI(res);
+                exchange.setRequestPath(res);
+                exchange.setRelativePath(res);
             }
             case AjpParseState.READING_REMOTE_ADDR: {
-                StringHolder result = parseString(buf, state, false);
-                if (result.readComplete) {
-                    //exchange.setRequestURI(result.value);
-                } else {
+                final int length = readString(buf, state, false);
+                if (length == INCOMPLETE) {
                     state.state = AjpParseState.READING_REMOTE_ADDR;
                     return;
                 }
+                state.remoteAddress = stringValue(state, length);
             }
             case AjpParseState.READING_REMOTE_HOST: {
-                StringHolder result = parseString(buf, state, false);
-                if (result.readComplete) {
-                    //exchange.setRequestURI(result.value);
-                } else {
+                final int length = readString(buf, state, false);
+                if (length == INCOMPLETE) {
                     state.state = AjpParseState.READING_REMOTE_HOST;
                     return;
                 }
+                state.remoteHost = stringValue(state, length);
             }
             case AjpParseState.READING_SERVER_NAME: {
-                StringHolder result = parseString(buf, state, false);
-                if (result.readComplete) {
-                    //exchange.setRequestURI(result.value);
-                } else {
+                final int length = readString(buf, state, false);
+                if (length == INCOMPLETE) {
                     state.state = AjpParseState.READING_SERVER_NAME;
                     return;
                 }
+                state.serverName = stringValue(state, length);
             }
             case AjpParseState.READING_SERVER_PORT: {
-                IntegerHolder result = parse16BitInteger(buf, state);
-                if (result.readComplete) {
-                    //exchange.setRequestURI(result.value);
-                } else {
+                final int result = parse16BitInteger(buf, state);
+                if (result == -1) {
                     state.state = AjpParseState.READING_SERVER_PORT;
                     return;
                 }
+                state.serverPort = result;
             }
             case AjpParseState.READING_IS_SSL: {
                 if (!buf.hasRemaining()) {
@@ -231,112 +267,125 @@ public class AjpParser {
                     return;
                 } else {
                     final byte isSsl = buf.get();
+                    exchange.setRequestScheme(isSsl != 0 ? "https" : "http");
                 }
             }
             case AjpParseState.READING_NUM_HEADERS: {
-                IntegerHolder result = parse16BitInteger(buf, state);
-                if (!result.readComplete) {
+                final int result = parse16BitInteger(buf, state);
+                if (result == -1) {
                     state.state = AjpParseState.READING_NUM_HEADERS;
                     return;
                 } else {
-                    state.numHeaders = result.value;
+                    state.numHeaders = result;
                 }
             }
             case AjpParseState.READING_HEADERS: {
-                int readHeaders = exchange.getRequestHeaders().getHeaderNames().size();
-                while (readHeaders < state.numHeaders) {
+                while (state.readHeaders < state.numHeaders) {
                     if (state.currentHeader == null) {
-                        StringHolder result = parseString(buf, state, true);
-                        if (!result.readComplete) {
+                        final int length = readString(buf, state, true);
+                        if (length == INCOMPLETE) {
                             state.state = AjpParseState.READING_HEADERS;
                             return;
-                        }
-                        if (result.header != null) {
-                            state.currentHeader = result.header;
-                        } else {
-                            state.currentHeader = HttpString.tryFromString(result.value);
+                        } else if (length == NULL_STRING) {
+                            throw new IllegalArgumentException("Null header name");
+                        } else if (length != CODED_HEADER) {
+                            state.currentHeader = new HttpString(state.stringBytes, 0, length);
                         }
                     }
-                    StringHolder result = parseString(buf, state, false);
-                    if (!result.readComplete) {
+                    final int length = readString(buf, state, false);
+                    if (length == INCOMPLETE) {
                         state.state = AjpParseState.READING_HEADERS;
                         return;
                     }
-                    exchange.getRequestHeaders().add(state.currentHeader, result.value);
+                    final String value = stringValue(state, length);
+                    exchange.getRequestHeaders().add(state.currentHeader, value == null ? "" : value);
                     state.currentHeader = null;
-                    ++readHeaders;
+                    ++state.readHeaders;
                 }
             }
             case AjpParseState.READING_ATTRIBUTES: {
                 for (; ; ) {
-                    if (state.currentAttribute == null && state.currentIntegerPart == -1) {
+                    if (state.currentAttribute == -1) {
                         if (!buf.hasRemaining()) {
                             state.state = AjpParseState.READING_ATTRIBUTES;
                             return;
                         }
-                        int val = (0xFF & buf.get());
+                        final int val = (0xFF & buf.get());
                         if (val == 0xFF) {
-                            state.state = AjpParseState.DONE;
-                            return;
-                        } else if (val == 0x0A) {
-                            //we need to read the name. We overload currentIntegerPart to avoid adding another state field
-                            state.currentIntegerPart = 1;
-                        } else {
-                            state.currentAttribute = ATTRIBUTES[val];
+                            break;
+                        } else if (val >= ATTRIBUTES.length || ATTRIBUTES[val] == null) {
+                            throw new IllegalArgumentException("Unknown attribute type " + val);
                         }
+                        state.currentAttribute = val;
                     }
-                    if (state.currentIntegerPart == 1) {
-                        StringHolder result = parseString(buf, state, false);
-                        if (!result.readComplete) {
+                    final int attribute = state.currentAttribute;
+                    if (attribute == SSL_KEY_SIZE) {
+                        //the key size is the only attribute that is sent as an integer
+                        final int result = parse16BitInteger(buf, state);
+                        if (result == -1) {
                             state.state = AjpParseState.READING_ATTRIBUTES;
                             return;
                         }
-                        state.currentAttribute = result.value;
-                        state.currentIntegerPart = -1;
-                    }
-                    StringHolder result = parseString(buf, state, false);
-                    if (!result.readComplete) {
-                        state.state = AjpParseState.READING_ATTRIBUTES;
-                        return;
-                    }
-                    //query string.
-                    if(state.currentAttribute.equals(ATTRIBUTES[5])) {
-                        String res = result.value;
-                        exchange.setQueryString(res == null ? "" : res);
-                        int stringStart = 0;
-                        String attrName = null;
-                        for (int i = 0; i < res.length(); ++i) {
-                            char c = res.charAt(i);
-                            if(c == '=' && attrName == null) {
-                                attrName = res.substring(stringStart, i);
-                                stringStart = i+1;
-                            } else if(c == '&') {
-                                if(attrName != null) {
-                                    exchange.addQueryParam(attrName, res.substring(stringStart, i));
-                                } else {
-                                    exchange.addQueryParam(res.substring(stringStart, i), "");
-                                }
-                                stringStart = i+1;
-                                attrName = null;
+                        addAttribute(exchange, ATTRIBUTES[attribute], Integer.toString(result));
+                    } else {
+                        if (attribute == REQ_ATTRIBUTE && state.currentAttributeName == null) {
+                            final int length = readString(buf, state, false);
+                            if (length == INCOMPLETE) {
+                                state.state = AjpParseState.READING_ATTRIBUTES;
+                                return;
                             }
+                            final String name = stringValue(state, length);
+                            state.currentAttributeName = name == null ? "" : name;
+                        }
+                        final int length = readString(buf, state, false);
+                        if (length == INCOMPLETE) {
+                            state.state = AjpParseState.READING_ATTRIBUTES;
+                            return;
                         }
-                        if(attrName != null) {
-                            exchange.addQueryParam(attrName, res.substring(stringStart, res.length()));
-                        } else if(res.length() != stringStart) {
-                            exchange.addQueryParam(res.substring(stringStart, res.length()), "");
+                        final String value = stringValue(state, length);
+                        switch (attribute) {
+                            case QUERY_STRING:
+                                exchange.setParsedQueryString(value == null ? "" : value);
+                                break;
+                            case STORED_METHOD:
+                                if (value != null) {
+                                    exchange.setRequestMethod(new HttpString(value));
+                                }
+                                break;
+                            case SECRET:
+                                //the secret is only used to authenticate the front end server, it is not exposed to the application
+                                break;
+                            case REQ_ATTRIBUTE:
+                                if (state.currentAttributeName.equals(AJP_REMOTE_PORT) && value != null) {
+                                    try {
+                                        state.remotePort = Integer.parseInt(value);
+                                    } catch (NumberFormatException e) {
+                                        //ignore, the connection port will be used
+                                    }
+                                }
+                                addAttribute(exchange, state.currentAttributeName, value);
+                                break;
+                            default:
+                                addAttribute(exchange, ATTRIBUTES[attribute], value);
                         }
                     }
-                    //TODO: do something with the attributes
-                    state.currentAttribute = null;
+                    state.currentAttribute = -1;
+                    state.currentAttributeName = null;
                 }
+                setAddresses(state, exchange);
             }
         }
         state.state = AjpParseState.DONE;
     }
 
-    private IntegerHolder parse16BitInteger(ByteBuffer buf, AjpParseState state) {
+    /**
+     * Reads a 16 bit integer from the buffer.
+     *
+     * @return The integer, or -1 if more data is required
+     */
+    private static int parse16BitInteger(final ByteBuffer buf, final AjpParseState state) {
         if (!buf.hasRemaining()) {
-            return new IntegerHolder(-1, false);
+            return -1;
         }
         int number = state.currentIntegerPart;
         if (number == -1) {
@@ -344,93 +393,141 @@ public class AjpParser {
         }
         if (buf.hasRemaining()) {
             final byte b = buf.get();
-            int result = ((0xFF & number) << 8) + (b & 0xFF);
             state.currentIntegerPart = -1;
-            return new IntegerHolder(result, true);
+            return (number << 8) + (b & 0xFF);
         } else {
             state.currentIntegerPart = number;
-            return new IntegerHolder(-1, false);
+            return -1;
         }
     }
 
-    private StringHolder parseString(ByteBuffer buf, AjpParseState state, boolean header) {
-        if (!buf.hasRemaining()) {
-            return new StringHolder(null, false);
-        }
+    /**
+     * Reads a string into {@link AjpParseState#stringBytes}. The bytes remain valid until the next string is read.
+     *
+     * @param header <code>true</code> if this is a header name, which may be sent as a code
+     * @return The length of the string, or one of {@link #INCOMPLETE}, {@link #NULL_STRING} or {@link #CODED_HEADER}
+     */
+    private static int readString(final ByteBuffer buf, final AjpParseState state, final boolean header) {
         int stringLength = state.stringLength;
         if (stringLength == -1) {
-            int number = buf.get() & 0xFF;
-            if (buf.hasRemaining()) {
-                final byte b = buf.get();
-                stringLength = ((0xFF & number) << 8) + (b & 0xFF);
-            } else {
-                state.stringLength = number | STRING_LENGTH_MASK;
-                return new StringHolder(null, false);
+            final int number = parse16BitInteger(buf, state);
+            if (number == -1) {
+                return INCOMPLETE;
+            }
+            if (header && (number & 0xFF00) == 0xA000) {
+                final int code = number & 0xFF;
+                if (code >= HTTP_HEADERS.length || HTTP_HEADERS[code] == null) {
+                    throw new IllegalArgumentException("Unknown header code " + code);
+                }
+                state.currentHeader = HTTP_HEADERS[code];
+                return CODED_HEADER;
+            }
+            if (number == 0xFFFF) {
+                //OxFFFF means null, there is no terminator
+                return NULL_STRING;
+            }
+            stringLength = number;
+            state.stringLength = number;
+            state.stringBytesRead = 0;
+            if (state.stringBytes.length < number) {
+                state.stringBytes = new byte[Math.max(number, state.stringBytes.length * 2)];
             }
-        } else if ((stringLength & STRING_LENGTH_MASK) != 0) {
-            int number = stringLength & ~STRING_LENGTH_MASK;
-            stringLength = ((0xFF & number) << 8) + (buf.get() & 0xFF);
         }
-        if (header && (stringLength & 0xFF00) != 0) {
-            state.stringLength = -1;
-            return new StringHolder(HTTP_HEADERS[stringLength & 0xFF]);
+        int read = state.stringBytesRead;
+        if (read < stringLength) {
+            final int toRead = Math.min(stringLength - read, buf.remaining());
+            buf.get(state.stringBytes, read, toRead);
+            read += toRead;
+            state.stringBytesRead = read;
+            if (read < stringLength) {
+                return INCOMPLETE;
+            }
         }
-        if (stringLength == 0xFFFF) {
-            //OxFFFF means null
-            state.stringLength = -1;
-            return new StringHolder(null, true);
+        if (!buf.hasRemaining()) {
+            return INCOMPLETE;
         }
-        StringBuilder builder = state.currentString;
+        buf.get(); //null terminator
+        state.stringLength = -1;
+        return stringLength;
+    }
 
-        if (builder == null) {
-            builder = new StringBuilder();
-            state.currentString = builder;
+    private static String stringValue(final AjpParseState state, final int length) {
+        if (length == NULL_STRING) {
+            return null;
         }
-        int length = builder.length();
-        while (length < stringLength) {
-            if (!buf.hasRemaining()) {
-                state.stringLength = stringLength;
-                return new StringHolder(null, false);
+        return new String(state.stringBytes, 0, length, ISO_8859_1);
+    }
+
+    private static HttpString protocol(final byte[] bytes, final int length) {
+        if (length == NULL_STRING) {
+            return null;
+        }
+        for (final HttpString protocol : PROTOCOLS) {
+            if (protocol.length() == length) {
+                int i = 0;
+                while (i < length && protocol.byteAt(i) == bytes[i]) {
+                    ++i;
+                }
+                if (i == length) {
+                    return protocol;
+                }
             }
-            builder.append((char) buf.get());
-            ++length;
         }
+        return new HttpString(bytes, 0, length);
+    }
 
-        if (buf.hasRemaining()) {
-            buf.get(); //null terminator
-            state.currentString = null;
-            state.stringLength = -1;
-            return new StringHolder(builder.toString(), true);
-        } else {
-            return new StringHolder(null, false);
+    private static void addAttribute(final HttpServerExchange exchange, final String name, final String value) {
+        if (value == null) {
+            return;
+        }
+        Map<String, String> attributes = exchange.getAttachment(REQUEST_ATTRIBUTES);
+        if (attributes == null) {
+            exchange.putAttachment(REQUEST_ATTRIBUTES, attributes = new HashMap<String, String>());
         }
+        attributes.put(name, value);
     }
 
-    private static class IntegerHolder {
-        final int value;
-        final boolean readComplete;
-
-        private IntegerHolder(int value, boolean readComplete) {
-            this.value = value;
-            this.readComplete = readComplete;
+    /**
+     * Sets the source and destination addresses of the exchange to the addresses that were seen by the front
+     * end server. No DNS lookups are performed.
+     */
+    private static void setAddresses(final AjpParseState state, final HttpServerExchange exchange) {
+        if (state.remoteAddress != null) {
+            final InetAddress address = parseAddress(state.remoteAddress, state.remoteHost);
+            if (address != null) {
+                exchange.setSourceAddress(new InetSocketAddress(address, state.remotePort == -1 ? 0 : state.remotePort));
+            }
+        }
+        final HttpServerConnection connection = exchange.getConnection();
+        if (state.serverName != null && connection != null) {
+            final InetSocketAddress local = connection.getLocalAddress(InetSocketAddress.class);
+            if (local != null && local.getAddress() != null) {
+                try {
+                    //the address is the one the front end server connected to, but it is named after the server the client used
+                    final InetAddress address = InetAddress.getByAddress(state.serverName, local.getAddress().getAddress());
+                    exchange.setDestinationAddress(new InetSocketAddress(address, state.serverPort));
+                } catch (UnknownHostException e) {
+                    //ignore, the connection address will be used
+                }
+            }
         }
     }
 
-    private static class StringHolder {
-        final String value;
-        final HttpString header;
-        final boolean readComplete;
-
-        private StringHolder(String value, boolean readComplete) {
-            this.value = value;
-            this.readComplete = readComplete;
-            this.header = null;
+    /**
+     * Creates an address from a textual IP address, without performing a DNS lookup. If the host name is
+     * known it is attached to the address, so that it will not be looked up either.
+     *
+     * @return The address, or <code>null</code> if it is not a valid IP address
+     */
+    private static InetAddress parseAddress(final String address, final String host) {
+        final InetAddress result = NetworkUtils.parseIpAddress(address);
+        if (result == null || host == null || host.equals(address)) {
+            return result;
         }
-
-        private StringHolder(HttpString value) {
-            this.value = null;
-            this.readComplete = true;
-            this.header = value;
+        try {
+            return InetAddress.getByAddress(host, result.getAddress());
+        } catch (UnknownHostException e) {
+            return result;
         }
     }
 }
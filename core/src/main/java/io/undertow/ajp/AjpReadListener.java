@@ -37,7 +37,7 @@ final class AjpReadListener implements ChannelListener<StreamSourceChannel>, Exc
 
     private static final byte[] CPONG = {'A', 'B', 0, 0, 0, 1, 9}; //CPONG response data
 
-    private AjpParseState state = new AjpParseState();
+    private final AjpParseState state = new AjpParseState();
     private HttpServerExchange httpServerExchange;
     private final HttpServerConnection connection;
 
@@ -52,7 +52,7 @@ final class AjpReadListener implements ChannelListener<StreamSourceChannel>, Exc
 
     public void startRequest() {
         connection.resetChannel();
-        state = new AjpParseState();
+        state.reset();
         httpServerExchange = new HttpServerExchange(connection);
         httpServerExchange.addExchangeCompleteListener(this);
         read = 0;
@@ -158,8 +158,6 @@ final class AjpReadListener implements ChannelListener<StreamSourceChannel>, Exc
             connection.getChannel().getSourceChannel().setConduit(createSourceConduit(connection.getChannel().getSourceChannel().getConduit(), responseConduit, httpServerExchange));
 
             try {
-                httpServerExchange.setRequestScheme(connection.getSslSession() != null ? "https" : "http"); //todo: determine if this is https
-                state = null;
                 this.httpServerExchange = null;
                 httpServerExchange.setPersistent(true);
                 HttpHandlers.executeRootHandler(connection.getRootHandler(), httpServerExchange, Thread.currentThread() instanceof XnioExecutor);
@@ -179,7 +177,7 @@ final class AjpReadListener implements ChannelListener<StreamSourceChannel>, Exc
     }
 
     private void handleCPing() {
-        state = new AjpParseState();
+        state.reset();
         final StreamConnection underlyingChannel = connection.getChannel();
         underlyingChannel.getSourceChannel().suspendReads();
         final ByteBuffer buffer = ByteBuffer.wrap(CPONG);
@@ -64,6 +64,13 @@ public class AjpRequestConduit extends AbstractStreamSourceConduit<StreamSourceC
      */
     private long state;
 
+    /**
+     * If the next chunk has already been requested from the web server. The next chunk is requested as soon
+     * as the header of the current chunk has been read, so that it is sent while the current chunk is being
+     * consumed rather than after a round trip.
+     */
+    private boolean nextChunkRequested;
+
     /**
      * There is a packet coming from apache.
      */
@@ -112,7 +119,7 @@ public class AjpRequestConduit extends AbstractStreamSourceConduit<StreamSourceC
     @Override
     public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
         long total = 0;
-        for (int i = offset; i < length; ++i) {
+        for (int i = offset; i < offset + length; ++i) {
             while (dsts[i].hasRemaining()) {
                 int r = read(dsts[i]);
                 if (r <= 0 && total > 0) {
@@ -184,6 +191,11 @@ public class AjpRequestConduit extends AbstractStreamSourceConduit<StreamSourceC
                     }
                     return -1;
                 }
+                if (remaining == -1 || remaining > chunkRemaining) {
+                    //there is more data to come, so we request it now
+                    nextChunkRequested = true;
+                    ajpResponseConduit.doGetRequestBodyChunk(READ_BODY_CHUNK.duplicate(), this);
+                }
             }
         } else {
             chunkRemaining = this.state & STATE_MASK;
@@ -191,10 +203,13 @@ public class AjpRequestConduit extends AbstractStreamSourceConduit<StreamSourceC
 
         int limit = dst.limit();
         try {
-            if (limit > chunkRemaining) {
+            if (dst.remaining() > chunkRemaining) {
                 dst.limit((int) (dst.position() + chunkRemaining));
             }
             int read = next.read(dst);
+            if (read == -1) {
+                return -1;
+            }
             chunkRemaining -= read;
             if(remaining != -1) {
                 remaining -= read;
@@ -207,7 +222,12 @@ public class AjpRequestConduit extends AbstractStreamSourceConduit<StreamSourceC
                 }
             } else if (chunkRemaining == 0) {
                 headerBuffer.clear();
-                this.state = STATE_SEND_REQUIRED;
+                if (nextChunkRequested) {
+                    nextChunkRequested = false;
+                    this.state = STATE_READING;
+                } else {
+                    this.state = STATE_SEND_REQUIRED;
+                }
             } else {
                 this.state = (state & ~STATE_MASK) | chunkRemaining;
             }
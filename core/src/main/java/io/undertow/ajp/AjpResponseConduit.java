@@ -36,6 +36,7 @@ import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.StatusCodes;
 import org.jboss.logging.Logger;
+import org.xnio.Buffers;
 import org.xnio.IoUtils;
 import org.xnio.Pool;
 import org.xnio.Pooled;
@@ -51,6 +52,12 @@ import static org.xnio.Bits.anyAreSet;
 /**
  * AJP response channel. For now we are going to assume that the buffers are sized to
  * fit complete packets. As AJP packets are limited to 8k this is a reasonable assumption.
+ * <p/>
+ * Packets are queued in a pooled buffer rather than being written out straight away, so that the
+ * <code>SEND_HEADERS</code> packet, small <code>SEND_BODY_CHUNK</code> packets and the <code>END_RESPONSE</code>
+ * packet are sent to the web server in a single write. Data that does not fit in the buffer is written directly
+ * from the user's buffer, in a gathering write together with the queued packets. Queued packets are only
+ * guaranteed to be written out once the channel has been flushed.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  * @author Stuart Douglas
@@ -61,6 +68,21 @@ final class AjpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCondu
 
     private static final int MAX_DATA_SIZE = 8186;
 
+    /**
+     * The size of the packet header, prefix code and length of a <code>SEND_BODY_CHUNK</code> packet
+     */
+    private static final int CHUNK_HEADER_SIZE = 7;
+
+    /**
+     * The size of the terminator of a <code>SEND_BODY_CHUNK</code> packet
+     */
+    private static final int CHUNK_FOOTER_SIZE = 1;
+
+    /**
+     * The size of an <code>END_RESPONSE</code> packet
+     */
+    private static final int END_RESPONSE_SIZE = 6;
+
     private static final Map<HttpString, Integer> HEADER_MAP;
 
     private final Pool<ByteBuffer> pool;
@@ -74,14 +96,21 @@ final class AjpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCondu
     private static final AtomicIntegerFieldUpdater<AjpResponseConduit> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(AjpResponseConduit.class, "state");
 
     /**
-     * The current data buffer. This will be released once it has been written out.
+     * The buffer that holds the packets that have not been written out yet. This buffer is always
+     * in fill mode, and is released once the response is done.
      */
     private Pooled<ByteBuffer> currentDataBuffer;
+
+    /**
+     * The header and terminator of a body chunk that is written directly from the user's buffer
+     */
+    private final ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+    private final ByteBuffer chunkFooter = ByteBuffer.allocate(CHUNK_FOOTER_SIZE);
+
     /**
-     * The current packet header and data buffer combined, in a form that allows them to be written out
-     * in a gathering write.
+     * Array that is used for gathering writes, to avoid allocating a new array for every write
      */
-    private ByteBuffer[] packetHeaderAndDataBuffer;
+    private final ByteBuffer[] gatherArray = new ByteBuffer[4];
 
     private final HttpServerExchange exchange;
 
@@ -90,12 +119,10 @@ final class AjpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCondu
 
 
     /**
-     * An AJP request channel that wants access to the underlying sink channel.
-     * <p/>
-     * When this is then then any remaining data will be written out, and then ownership of
-     * the underlying channel will be transferred to the request channel.
+     * A <code>GET_BODY_CHUNK</code> packet that the request channel wants to send.
      * <p/>
-     * While this field is set attempts to write will always return 0.
+     * This is added to the queued packets by the next write, and the queued packets are then written
+     * out, so that the web server receives the request even if the response is being buffered.
      */
     private volatile ByteBuffer readBodyChunkBuffer;
 
@@ -129,12 +156,12 @@ final class AjpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCondu
         state = FLAG_START;
     }
 
-    private void putInt(final ByteBuffer buf, int value) {
+    private static void putInt(final ByteBuffer buf, int value) {
         buf.put((byte) ((value >> 8) & 0xFF));
         buf.put((byte) (value & 0xFF));
     }
 
-    private void putString(final ByteBuffer buf, String value) {
+    private static void putString(final ByteBuffer buf, String value) {
         final int length = value.length();
         putInt(buf, length);
         for (int i = 0; i < length; ++i) {
@@ -144,226 +171,219 @@ final class AjpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCondu
     }
 
     /**
-     * Handles writing out the header data, plus any current buffers. Returns true if the write can proceed,
-     * false if there are still cached bufers
+     * Attempts to claim the right to write to the underlying channel. If this returns true then
+     * {@link #exitWrite()} must be called once the write is done.
      *
-     * @return
-     * @throws java.io.IOException
+     * @return <code>false</code> if another thread is currently writing
      */
-    private boolean processWrite() throws IOException {
+    private boolean enterWrite() {
         int oldState;
-        int writeEnteredState;
         do {
             oldState = this.state;
-            if ((oldState & FLAG_WRITE_ENTERED) != 0) {
+            if (anyAreSet(oldState, FLAG_WRITE_ENTERED)) {
                 return false;
             }
-            if (anyAreSet(state, FLAG_DELEGATE_SHUTDOWN)) {
-                return true;
-            }
-            writeEnteredState = oldState | FLAG_WRITE_ENTERED;
-        } while (!stateUpdater.compareAndSet(this, state, writeEnteredState));
-        int newState = writeEnteredState;
-
-        //if currentDataBuffer is set then we just
-        if (anyAreSet(oldState, FLAG_START)) {
-            if (readBodyChunkBuffer == null) {
-                currentDataBuffer = pool.allocate();
-                final ByteBuffer buffer = currentDataBuffer.getResource();
-                packetHeaderAndDataBuffer = new ByteBuffer[1];
-                packetHeaderAndDataBuffer[0] = buffer;
-                buffer.put((byte) 'A');
-                buffer.put((byte) 'B');
-                buffer.put((byte) 0); //we fill the size in later
-                buffer.put((byte) 0);
-                buffer.put((byte) 4);
-                putInt(buffer, exchange.getResponseCode());
-                putString(buffer, StatusCodes.getReason(exchange.getResponseCode()));
-
-                int headers = 0;
-                //we need to count the headers
-                final HeaderMap responseHeaders = exchange.getResponseHeaders();
-                for (HttpString name : responseHeaders.getHeaderNames()) {
-                    headers += responseHeaders.get(name).size();
-                }
-
-                putInt(buffer, headers);
-
+        } while (!stateUpdater.compareAndSet(this, oldState, oldState | FLAG_WRITE_ENTERED));
+        return true;
+    }
 
-                for (final HttpString header : responseHeaders.getHeaderNames()) {
-                    for (String headerValue : responseHeaders.get(header)) {
-                        Integer headerCode = HEADER_MAP.get(header);
-                        if (headerCode != null) {
-                            putInt(buffer, headerCode);
-                        } else {
-                            putString(buffer, header.toString());
-                        }
-                        putString(buffer, headerValue);
-                    }
-                }
+    private void exitWrite() {
+        int oldState;
+        do {
+            oldState = this.state;
+        } while (!stateUpdater.compareAndSet(this, oldState, oldState & ~FLAG_WRITE_ENTERED));
+    }
 
-                int dataLength = buffer.position() - 4;
-                buffer.put(2, (byte) ((dataLength >> 8) & 0xFF));
-                buffer.put(3, (byte) (dataLength & 0xFF));
-                buffer.flip();
-                newState = (newState & ~FLAG_START);
-            } else {
-                //otherwise we just write out the get request body chunk and return
-                ByteBuffer readBuffer = readBodyChunkBuffer;
-                do {
-                    int res = next.write(readBuffer);
-                    if (res == 0) {
-                        stateUpdater.set(this, newState & ~FLAG_WRITE_ENTERED); //clear the write entered flag
-                        return false;
-                    }
-                } while (readBodyChunkBuffer.hasRemaining());
-                readBodyChunkBuffer = null;
-                stateUpdater.set(this, newState & ~FLAG_WRITE_ENTERED); //clear the write entered flag
-                return true;
-            }
-        }
+    private void setFlags(final int flags) {
+        int oldState;
+        do {
+            oldState = this.state;
+        } while (!stateUpdater.compareAndSet(this, oldState, oldState | flags));
+    }
 
-        if (currentDataBuffer != null) {
-            if (!writeCurrentBuffer()) {
-                stateUpdater.set(this, newState & ~FLAG_WRITE_ENTERED); //clear the write entered flag
-                return false;
-            }
+    /**
+     * Queues the packets that must be sent before any more data: the response headers if they have not been
+     * generated yet, and a pending <code>GET_BODY_CHUNK</code> request. Must be called with the write flag set.
+     *
+     * @param generateHeaders <code>false</code> if the response headers should not be generated, as the response
+     *                        may not be ready yet
+     * @return The buffer holding the queued packets
+     */
+    private ByteBuffer queuePackets(final boolean generateHeaders) {
+        Pooled<ByteBuffer> pooled = currentDataBuffer;
+        if (pooled == null) {
+            currentDataBuffer = pooled = pool.allocate();
         }
-
-        //now next writing to the active request channel, so it can send
-        //its messages
-        ByteBuffer readBuffer = readBodyChunkBuffer;
+        final ByteBuffer buffer = pooled.getResource();
+        final ByteBuffer readBuffer = readBodyChunkBuffer;
         if (readBuffer != null) {
-            do {
-                int res = next.write(readBuffer);
-                if (res == 0) {
-                    stateUpdater.set(this, newState & ~FLAG_WRITE_ENTERED); //clear the write entered flag
-                    return false;
-                }
-            } while (readBodyChunkBuffer.hasRemaining());
+            buffer.put(readBuffer);
             readBodyChunkBuffer = null;
         }
-
-        if (anyAreSet(state, FLAG_SHUTDOWN) && allAreClear(state, FLAG_CLOSE_QUEUED)) {
-            newState = newState | FLAG_CLOSE_QUEUED;
-            currentDataBuffer = pool.allocate();
-            final ByteBuffer buffer = currentDataBuffer.getResource();
-            packetHeaderAndDataBuffer = new ByteBuffer[1];
-            packetHeaderAndDataBuffer[0] = buffer;
-            buffer.put((byte) 'A');
-            buffer.put((byte) 'B');
-            buffer.put((byte) 0);
-            buffer.put((byte) 2);
-            buffer.put((byte) 5);
-            buffer.put((byte) (exchange.isPersistent() ? 1 : 0)); //reuse
-            buffer.flip();
-            if (!writeCurrentBuffer()) {
-                stateUpdater.set(this, newState & ~FLAG_WRITE_ENTERED); //clear the write entered flag
-                return false;
-            }
-        }
-        if (newState != writeEnteredState) {
-            stateUpdater.set(this, newState);
+        if (generateHeaders && anyAreSet(state, FLAG_START)) {
+            putHeaders(buffer);
+            int oldState;
+            do {
+                oldState = this.state;
+            } while (!stateUpdater.compareAndSet(this, oldState, oldState & ~FLAG_START));
         }
-        return true;
+        return buffer;
     }
 
-    private boolean writeCurrentBuffer() throws IOException {
-        long toWrite = 0;
-        for (ByteBuffer b : this.packetHeaderAndDataBuffer) {
-            toWrite += b.remaining();
+    private void putHeaders(final ByteBuffer buffer) {
+        final int start = buffer.position();
+        buffer.put((byte) 'A');
+        buffer.put((byte) 'B');
+        buffer.put((byte) 0); //we fill the size in later
+        buffer.put((byte) 0);
+        buffer.put((byte) 4);
+        putInt(buffer, exchange.getResponseCode());
+        putString(buffer, StatusCodes.getReason(exchange.getResponseCode()));
+
+        int headers = 0;
+        //we need to count the headers
+        final HeaderMap responseHeaders = exchange.getResponseHeaders();
+        for (HttpString name : responseHeaders.getHeaderNames()) {
+            headers += responseHeaders.get(name).size();
         }
-        long r = 0;
-        do {
-            r = next.write(this.packetHeaderAndDataBuffer, 0, this.packetHeaderAndDataBuffer.length);
-            if (r == -1) {
-                throw new ClosedChannelException();
-            } else if (r == 0) {
-                return false;
+
+        putInt(buffer, headers);
+
+
+        for (final HttpString header : responseHeaders.getHeaderNames()) {
+            for (String headerValue : responseHeaders.get(header)) {
+                Integer headerCode = HEADER_MAP.get(header);
+                if (headerCode != null) {
+                    putInt(buffer, headerCode);
+                } else {
+                    putString(buffer, header.toString());
+                }
+                putString(buffer, headerValue);
             }
-            toWrite -= r;
-        } while (toWrite > 0);
-        currentDataBuffer.free();
-        this.currentDataBuffer = null;
-        return true;
+        }
+
+        int dataLength = buffer.position() - start - 4;
+        buffer.put(start + 2, (byte) ((dataLength >> 8) & 0xFF));
+        buffer.put(start + 3, (byte) (dataLength & 0xFF));
     }
 
+    private static void putChunkHeader(final ByteBuffer buffer, final int dataSize) {
+        int chunkSize = dataSize + 4;
+        buffer.put((byte) 'A');
+        buffer.put((byte) 'B');
+        buffer.put((byte) ((chunkSize >> 8) & 0xFF));
+        buffer.put((byte) (chunkSize & 0xFF));
+        buffer.put((byte) 3);
+        buffer.put((byte) ((dataSize >> 8) & 0xFF));
+        buffer.put((byte) (dataSize & 0xFF));
+    }
+
+    private void putEndResponse(final ByteBuffer buffer) {
+        buffer.put((byte) 'A');
+        buffer.put((byte) 'B');
+        buffer.put((byte) 0);
+        buffer.put((byte) 2);
+        buffer.put((byte) 5);
+        buffer.put((byte) (exchange.isPersistent() ? 1 : 0)); //reuse
+    }
+
+    /**
+     * Writes out the queued packets. Must be called with the write flag set.
+     *
+     * @return <code>true</code> if all the queued packets have been written
+     */
+    private boolean writeQueued() throws IOException {
+        final ByteBuffer buffer = currentDataBuffer.getResource();
+        if (buffer.position() == 0) {
+            return true;
+        }
+        buffer.flip();
+        try {
+            do {
+                int r = next.write(buffer);
+                if (r == -1) {
+                    throw new ClosedChannelException();
+                } else if (r == 0) {
+                    return false;
+                }
+            } while (buffer.hasRemaining());
+            return true;
+        } finally {
+            buffer.compact();
+        }
+    }
 
     public int write(final ByteBuffer src) throws IOException {
-        if (!processWrite()) {
+        if (anyAreSet(state, FLAG_SHUTDOWN)) {
+            throw new ClosedChannelException();
+        }
+        if (!enterWrite()) {
             return 0;
         }
         try {
-            int limit = src.limit();
+            final ByteBuffer buffer = queuePackets(true);
+            final int dataSize = Math.min(src.remaining(), Math.min(MAX_DATA_SIZE, buffer.capacity() - CHUNK_HEADER_SIZE - CHUNK_FOOTER_SIZE));
+            if (dataSize == 0) {
+                return 0;
+            }
+            if (buffer.remaining() >= dataSize + CHUNK_HEADER_SIZE + CHUNK_FOOTER_SIZE) {
+                //the chunk is coalesced with the queued packets, and will be written out by a later write or flush
+                putChunkHeader(buffer, dataSize);
+                final int limit = src.limit();
+                src.limit(src.position() + dataSize);
+                buffer.put(src);
+                src.limit(limit);
+                buffer.put((byte) 0);
+                return dataSize;
+            }
+            //the chunk does not fit, so it is written straight from the user's buffer along with the queued packets
+            final ByteBuffer chunkHeader = this.chunkHeader;
+            final ByteBuffer chunkFooter = this.chunkFooter;
+            chunkHeader.clear();
+            putChunkHeader(chunkHeader, dataSize);
+            chunkHeader.flip();
+            chunkFooter.clear();
+            chunkFooter.put((byte) 0);
+            chunkFooter.flip();
+            final ByteBuffer[] gatherArray = this.gatherArray;
+            gatherArray[0] = buffer;
+            gatherArray[1] = chunkHeader;
+            gatherArray[2] = src;
+            gatherArray[3] = chunkFooter;
+            final int limit = src.limit();
+            src.limit(src.position() + dataSize);
+            buffer.flip();
             try {
-                if (src.remaining() > MAX_DATA_SIZE) {
-                    src.limit(src.position() + MAX_DATA_SIZE);
-                }
-                final int writeSize = src.remaining();
-                final ByteBuffer[] buffers = createHeader(src);
-                int toWrite = 0;
-                for (ByteBuffer buffer : buffers) {
-                    toWrite += buffer.remaining();
-                }
-                int total = 0;
-                long r = 0;
+                long toWrite = Buffers.remaining(gatherArray, 0, 4);
+                long r;
                 do {
-                    r = next.write(buffers, 0, buffers.length);
-                    total += r;
-                    toWrite -= r;
+                    r = next.write(gatherArray, 0, 4);
                     if (r == -1) {
                         throw new ClosedChannelException();
-                    } else if (r == 0) {
-                        //we need to copy all the remaining bytes
-                        Pooled<ByteBuffer> newPooledBuffer = pool.allocate();
-                        while (src.hasRemaining()) {
-                            newPooledBuffer.getResource().put(src);
-                        }
-                        newPooledBuffer.getResource().flip();
-                        ByteBuffer[] savedBuffers = new ByteBuffer[3];
-                        savedBuffers[0] = buffers[0];
-                        savedBuffers[1] = newPooledBuffer.getResource();
-                        savedBuffers[2] = buffers[2];
-                        this.packetHeaderAndDataBuffer = savedBuffers;
-                        this.currentDataBuffer = newPooledBuffer;
-
-                        return writeSize;
                     }
-                } while (toWrite > 0);
-                return total;
+                    toWrite -= r;
+                } while (r > 0 && toWrite > 0);
+                if (buffer.hasRemaining()) {
+                    //none of the chunk has been written, so it is left in the user's buffer
+                    return 0;
+                }
+                if (toWrite > 0) {
+                    //the queued packets have been written, so there is room to queue the rest of the chunk
+                    buffer.clear();
+                    buffer.put(chunkHeader);
+                    buffer.put(src);
+                    buffer.put(chunkFooter);
+                    buffer.flip();
+                }
+                return dataSize;
             } finally {
                 src.limit(limit);
+                buffer.compact();
+                gatherArray[0] = gatherArray[2] = null;
             }
         } finally {
             exitWrite();
         }
-
-    }
-
-    private ByteBuffer[] createHeader(final ByteBuffer src) {
-        int remaining = src.remaining();
-        int chunkSize = remaining + 4;
-        byte[] header = new byte[7];
-        header[0] = (byte) 'A';
-        header[1] = (byte) 'B';
-        header[2] = (byte) ((chunkSize >> 8) & 0xFF);
-        header[3] = (byte) (chunkSize & 0xFF);
-        header[4] = (byte) (3 & 0xFF);
-        header[5] = (byte) ((remaining >> 8) & 0xFF);
-        header[6] = (byte) (remaining & 0xFF);
-
-        byte[] footer = new byte[1];
-        footer[0] = 0;
-
-        final ByteBuffer[] buffers = new ByteBuffer[3];
-        buffers[0] = ByteBuffer.wrap(header);
-        buffers[1] = src;
-        buffers[2] = ByteBuffer.wrap(footer);
-        return buffers;
-    }
-
-    private void exitWrite() {
-        stateUpdater.set(this, state & ~FLAG_WRITE_ENTERED);
     }
 
     public long write(final ByteBuffer[] srcs) throws IOException {
@@ -395,19 +415,36 @@ final class AjpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCondu
     }
 
     public boolean flush() throws IOException {
-        if (!processWrite()) {
+        if (anyAreSet(state, FLAG_DELEGATE_SHUTDOWN)) {
+            return next.flush();
+        }
+        if (!enterWrite()) {
             return false;
         }
         try {
+            final ByteBuffer buffer = queuePackets(true);
             int state = this.state;
-            if (allAreSet(state, FLAG_SHUTDOWN) && allAreClear(state, FLAG_DELEGATE_SHUTDOWN)) {
+            if (allAreSet(state, FLAG_SHUTDOWN) && allAreClear(state, FLAG_CLOSE_QUEUED)) {
+                if (buffer.remaining() < END_RESPONSE_SIZE && !writeQueued()) {
+                    return false;
+                }
+                putEndResponse(buffer);
+                setFlags(FLAG_CLOSE_QUEUED);
+            }
+            if (!writeQueued()) {
+                return false;
+            }
+            state = this.state;
+            if (allAreSet(state, FLAG_CLOSE_QUEUED)) {
+                currentDataBuffer.free();
+                currentDataBuffer = null;
                 if(!exchange.isPersistent()) {
                     next.terminateWrites();
                 }
                 if(finishListener != null) {
                     finishListener.handleEvent(this);
                 }
-                stateUpdater.set(this, state | FLAG_DELEGATE_SHUTDOWN);
+                setFlags(FLAG_DELEGATE_SHUTDOWN);
             }
             return next.flush();
         } finally {
@@ -435,29 +472,8 @@ final class AjpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCondu
     }
 
     public void terminateWrites() throws IOException {
-        int oldState = 0, newState = 0;
-        do {
-            oldState = this.state;
-            if (anyAreSet(oldState, FLAG_SHUTDOWN)) {
-                return;
-            }
-            newState = oldState | FLAG_SHUTDOWN;
-        } while (!stateUpdater.compareAndSet(this, oldState, newState));
-        if (allAreClear(oldState, FLAG_START) &&
-                readBodyChunkBuffer == null &&
-                packetHeaderAndDataBuffer == null) {
-            if(!exchange.isPersistent()) {
-                next.terminateWrites();
-            }
-            if(finishListener != null) {
-                finishListener.handleEvent(this);
-            }
-            newState |= FLAG_DELEGATE_SHUTDOWN;
-            while (stateUpdater.compareAndSet(this, oldState, newState)) {
-                oldState = state;
-                newState = oldState | FLAG_DELEGATE_SHUTDOWN;
-            }
-        }
+        //the end response packet is queued by the next flush
+        setFlags(FLAG_SHUTDOWN);
     }
 
     public void awaitWritable() throws IOException {
@@ -468,12 +484,32 @@ final class AjpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCondu
         next.awaitWritable(time, timeUnit);
     }
 
+    /**
+     * Writes out a pending <code>GET_BODY_CHUNK</code> request, along with any packets that have been queued before it.
+     * The response headers are not generated, as the response may not be ready yet.
+     *
+     * @return <code>true</code> if the request has been written
+     */
+    private boolean writeBodyChunkRequest() throws IOException {
+        if (anyAreSet(state, FLAG_DELEGATE_SHUTDOWN)) {
+            readBodyChunkBuffer = null;
+            return true;
+        }
+        if (!enterWrite()) {
+            return false;
+        }
+        try {
+            queuePackets(false);
+            return writeQueued();
+        } finally {
+            exitWrite();
+        }
+    }
+
     public boolean doGetRequestBodyChunk(ByteBuffer buffer, final AjpRequestConduit requestChannel) throws IOException {
         this.readBodyChunkBuffer = buffer;
-        boolean result = processWrite();
-        if (result) {
-            exitWrite();
-        } else {
+        boolean result = writeBodyChunkRequest();
+        if (!result) {
             //if this write does not work we spawn a thread to force it out.
             //this is not great, but there is not really a great deal we can do here
             //there is probably a better way to deal with this, but I am not really sure what it is
@@ -481,12 +517,8 @@ final class AjpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCondu
                 @Override
                 public void run() {
                     try {
-                        while (AjpResponseConduit.this.readBodyChunkBuffer != null) {
+                        while (!writeBodyChunkRequest()) {
                             next.awaitWritable();
-                            boolean result = processWrite();
-                            if (result) {
-                                exitWrite();
-                            }
                         }
                     } catch (IOException e) {
                         if (requestChannel.isReadResumed()) {
@@ -0,0 +1,186 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.xnio.ChannelListener;
+import org.xnio.Pool;
+import org.xnio.Pooled;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+
+/**
+ * Splices the data from a source channel into a sink channel, such as a backend response body into the response
+ * channel of an exchange, or the request channel of an exchange into a backend request body.
+ * <p/>
+ * The data is moved using {@link StreamSinkChannel#transferFrom(StreamSourceChannel, long, ByteBuffer)}, so the
+ * sink can avoid copying if its conduits support it. At most one pooled buffer is used, which holds the data that
+ * has been read but could not be written yet. Reads from the source are suspended whenever the sink is not writable,
+ * and only resumed once this data has been written and flushed. A slow sink therefore slows down the source, instead
+ * of causing the data to be buffered.
+ * <p/>
+ * Once the source is exhausted the sink is shut down and flushed, and the callback is notified with the number
+ * of bytes that were transferred. If the transfer fails the callback is responsible for closing the channels.
+ */
+public final class ChannelSplice {
+
+    private ChannelSplice() {
+    }
+
+    /**
+     * Starts splicing the source into the sink. The source and sink may belong to different IO threads.
+     *
+     * @param source   The source channel
+     * @param sink     The sink channel
+     * @param pool     The pool to allocate the transfer buffer from
+     * @param callback The callback that is notified once the transfer is complete
+     */
+    public static void splice(final StreamSourceChannel source, final StreamSinkChannel sink, final Pool<ByteBuffer> pool, final HttpClientCallback<Long> callback) {
+        new Splice(source, sink, pool, callback).transfer();
+    }
+
+    private static final class Splice {
+
+        private final StreamSourceChannel source;
+        private final StreamSinkChannel sink;
+        private final Pooled<ByteBuffer> pooled;
+        private final HttpClientCallback<Long> callback;
+        private volatile long transferred;
+
+        private final ChannelListener<StreamSourceChannel> readListener = new ChannelListener<StreamSourceChannel>() {
+            @Override
+            public void handleEvent(final StreamSourceChannel channel) {
+                transfer();
+            }
+        };
+
+        private final ChannelListener<StreamSinkChannel> writeListener = new ChannelListener<StreamSinkChannel>() {
+            @Override
+            public void handleEvent(final StreamSinkChannel channel) {
+                final ByteBuffer buffer = pooled.getResource();
+                try {
+                    while (buffer.hasRemaining()) {
+                        final int res = channel.write(buffer);
+                        if (res == 0) {
+                            return;
+                        }
+                        transferred += res;
+                    }
+                    if (!channel.flush()) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    failed(e);
+                    return;
+                }
+                //hand control back to the source, the source may belong to a different thread
+                channel.suspendWrites();
+                source.getReadSetter().set(readListener);
+                source.resumeReads();
+            }
+        };
+
+        private final ChannelListener<StreamSinkChannel> shutdownListener = new ChannelListener<StreamSinkChannel>() {
+            @Override
+            public void handleEvent(final StreamSinkChannel channel) {
+                try {
+                    if (!channel.flush()) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    failed(e);
+                    return;
+                }
+                channel.suspendWrites();
+                channel.getWriteSetter().set(null);
+                completed();
+            }
+        };
+
+        private Splice(final StreamSourceChannel source, final StreamSinkChannel sink, final Pool<ByteBuffer> pool, final HttpClientCallback<Long> callback) {
+            this.source = source;
+            this.sink = sink;
+            this.callback = callback;
+            this.pooled = pool.allocate();
+            this.pooled.getResource().limit(0);
+        }
+
+        void transfer() {
+            final ByteBuffer buffer = pooled.getResource();
+            try {
+                for (; ; ) {
+                    while (buffer.hasRemaining()) {
+                        final int res = sink.write(buffer);
+                        if (res == 0) {
+                            waitForSink();
+                            return;
+                        }
+                        transferred += res;
+                    }
+                    final long res = sink.transferFrom(source, Long.MAX_VALUE, buffer);
+                    if (res == -1) {
+                        source.suspendReads();
+                        source.getReadSetter().set(null);
+                        sink.shutdownWrites();
+                        if (sink.flush()) {
+                            completed();
+                        } else {
+                            sink.getWriteSetter().set(shutdownListener);
+                            sink.resumeWrites();
+                        }
+                        return;
+                    } else if (res == 0 && !buffer.hasRemaining()) {
+                        //nothing to read, make sure the data that has been written so far is not held by the sink
+                        if (sink.flush()) {
+                            source.getReadSetter().set(readListener);
+                            source.resumeReads();
+                        } else {
+                            waitForSink();
+                        }
+                        return;
+                    }
+                    transferred += res;
+                }
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        private void waitForSink() {
+            //reads must be suspended before the sink can resume them
+            source.suspendReads();
+            sink.getWriteSetter().set(writeListener);
+            sink.resumeWrites();
+        }
+
+        private void completed() {
+            pooled.free();
+            callback.completed(transferred);
+        }
+
+        private void failed(final IOException e) {
+            source.suspendReads();
+            sink.suspendWrites();
+            pooled.free();
+            callback.failed(e);
+        }
+    }
+}
@@ -70,6 +70,7 @@ class HttpClientConnectionImpl extends HttpClientConnection implements Connected
     private volatile int state;
     private static final AtomicIntegerFieldUpdater<HttpClientConnectionImpl> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(HttpClientConnectionImpl.class, "state");
     private volatile boolean pipelining;
+    private volatile ConnectionListener connectionListener;
 
     HttpClientConnectionImpl(final ConnectedStreamChannel underlyingChannel, final PushBackStreamChannel readChannel, final OptionMap options, final HttpClientImpl client) {
         super(client);
@@ -87,10 +88,25 @@ class HttpClientConnectionImpl extends HttpClientConnection implements Connected
             public void handleEvent(ConnectedChannel channel) {
                 IoUtils.safeClose(HttpClientConnectionImpl.this);
                 client.connectionClosed(HttpClientConnectionImpl.this);
+                final ConnectionListener listener = connectionListener;
+                if (listener != null) {
+                    listener.connectionClosed(HttpClientConnectionImpl.this);
+                }
             }
         });
     }
 
+    void setConnectionListener(final ConnectionListener connectionListener) {
+        this.connectionListener = connectionListener;
+    }
+
+    /**
+     * @return <code>true</code> if new requests can be sent on this connection
+     */
+    boolean isReusable() {
+        return allAreClear(state, UPGRADED | CLOSE_REQ | CLOSED) && underlyingChannel.isOpen();
+    }
+
     ConnectedStreamChannel getChannel() {
         return underlyingChannel;
     }
@@ -244,7 +260,7 @@ class HttpClientConnectionImpl extends HttpClientConnection implements Connected
      * @return a new request instance
      */
     protected HttpClientRequest internalCreateRequest(final HttpString method, final URI target, final boolean pipelining) {
-        if (allAreSet(state, UPGRADED | CLOSE_REQ | CLOSE_REQ)) {
+        if (anyAreSet(state, UPGRADED | CLOSE_REQ | CLOSED)) {
             return null;
         }
         return new HttpClientRequestImpl(this, underlyingChannel, method, target, pipelining);
@@ -316,6 +332,11 @@ class HttpClientConnectionImpl extends HttpClientConnection implements Connected
             } catch (IOException e) {
                 UndertowLogger.CLIENT_LOGGER.debugf(e, "failed to close channel");
             }
+        } else {
+            final ConnectionListener listener = connectionListener;
+            if (listener != null) {
+                listener.requestCompleted(this);
+            }
         }
     }
 
@@ -370,6 +391,18 @@ class HttpClientConnectionImpl extends HttpClientConnection implements Connected
         readChannel.resumeReads();
     }
 
+    /**
+     * Notified when the connection can accept more requests, or when it has been closed. This is used by
+     * {@link HttpClientPool} to return connections to the pool.
+     */
+    interface ConnectionListener {
+
+        void requestCompleted(HttpClientConnectionImpl connection);
+
+        void connectionClosed(HttpClientConnectionImpl connection);
+
+    }
+
     class ClientReadListener implements ChannelListener<PushBackStreamChannel> {
 
         volatile PendingHttpRequest activeRequest;
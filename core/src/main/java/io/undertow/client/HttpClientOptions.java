@@ -37,4 +37,31 @@ public final class HttpClientOptions {
     public static final Option<Boolean> HTTP_PIPELINING = Option.simple(HttpClientOptions.class, "HTTP_PIPELINING", Boolean.class);
     public static final Option<HttpString> PROTOCOL = Option.simple(HttpClientOptions.class, "PROTOCOL", HttpString.class);
 
+    /**
+     * The maximum number of connections that a {@link HttpClientPool} will open to a single destination.
+     */
+    public static final Option<Integer> MAX_CONNECTIONS_PER_DESTINATION = Option.simple(HttpClientOptions.class, "MAX_CONNECTIONS_PER_DESTINATION", Integer.class);
+
+    /**
+     * The maximum number of requests that will be sent on a pooled connection before the previous responses have been
+     * read. This only has an effect if {@link #HTTP_PIPELINING} is enabled.
+     */
+    public static final Option<Integer> PIPELINE_DEPTH = Option.simple(HttpClientOptions.class, "PIPELINE_DEPTH", Integer.class);
+
+    /**
+     * The maximum number of requests that a {@link HttpClientPool} will queue for a destination once all its
+     * connections are busy.
+     */
+    public static final Option<Integer> MAX_QUEUED_REQUESTS = Option.simple(HttpClientOptions.class, "MAX_QUEUED_REQUESTS", Integer.class);
+
+    /**
+     * The time in milliseconds that a request may wait for a pooled connection before it fails, or -1 to wait indefinitely.
+     */
+    public static final Option<Integer> QUEUE_TIMEOUT = Option.simple(HttpClientOptions.class, "QUEUE_TIMEOUT", Integer.class);
+
+    /**
+     * The time in milliseconds that a pooled connection is kept open while it is not in use.
+     */
+    public static final Option<Integer> IDLE_TIMEOUT = Option.simple(HttpClientOptions.class, "IDLE_TIMEOUT", Integer.class);
+
 }
@@ -0,0 +1,461 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.UndertowLogger;
+import io.undertow.util.ConcreteIoFuture;
+import io.undertow.util.HttpString;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.XnioExecutor;
+
+import static io.undertow.client.UndertowClientMessages.MESSAGES;
+
+/**
+ * A pool of HTTP client connections, that keeps connections to each destination open so they can be reused
+ * by later requests.
+ * <p/>
+ * Requests are sent on the least loaded connection to their destination. A new connection is only opened if
+ * there is no idle connection, and at most {@link HttpClientOptions#MAX_CONNECTIONS_PER_DESTINATION} connections
+ * are opened to each destination. Once this limit has been reached requests are pipelined on the existing
+ * connections, up to {@link HttpClientOptions#PIPELINE_DEPTH} requests per connection if
+ * {@link HttpClientOptions#HTTP_PIPELINING} is enabled. Otherwise requests are queued until a connection
+ * becomes available.
+ * <p/>
+ * Connections are opened using the worker of the underlying {@link HttpClient}. If the client is created with the
+ * worker of the server then all pooled connections are serviced by the same IO threads as the server, and handlers
+ * can use the pool without any additional threads.
+ * <p/>
+ * Requests that are returned by this pool must be written, otherwise the connection they were created on will
+ * never become available again.
+ */
+public class HttpClientPool implements Closeable {
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 10;
+    private static final int DEFAULT_PIPELINE_DEPTH = 8;
+    private static final int DEFAULT_MAX_QUEUED_REQUESTS = 1000;
+    private static final int DEFAULT_IDLE_TIMEOUT = 60000;
+
+    private final HttpClient client;
+    private final OptionMap options;
+    private final int maxConnections;
+    private final int pipelineDepth;
+    private final int maxQueuedRequests;
+    private final int queueTimeout;
+    private final int idleTimeout;
+    private final ConcurrentMap<SocketAddress, Destination> destinations = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * @param client  The client that is used to open connections
+     * @param options The options for the pool, which are also used to open connections
+     */
+    public HttpClientPool(final HttpClient client, final OptionMap options) {
+        this.client = client;
+        this.options = options;
+        this.maxConnections = Math.max(1, options.get(HttpClientOptions.MAX_CONNECTIONS_PER_DESTINATION, DEFAULT_MAX_CONNECTIONS));
+        if (options.get(HttpClientOptions.HTTP_PIPELINING, false)) {
+            this.pipelineDepth = Math.max(1, options.get(HttpClientOptions.PIPELINE_DEPTH, DEFAULT_PIPELINE_DEPTH));
+        } else {
+            this.pipelineDepth = 1;
+        }
+        this.maxQueuedRequests = options.get(HttpClientOptions.MAX_QUEUED_REQUESTS, DEFAULT_MAX_QUEUED_REQUESTS);
+        this.queueTimeout = options.get(HttpClientOptions.QUEUE_TIMEOUT, -1);
+        this.idleTimeout = options.get(HttpClientOptions.IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Creates a request on a pooled connection to the destination.
+     *
+     * @param destination The destination
+     * @param method      The HTTP method
+     * @param target      The target URI
+     * @param callback    The callback that is notified once a connection is available
+     */
+    public void createRequest(final SocketAddress destination, final HttpString method, final URI target, final HttpClientCallback<HttpClientRequest> callback) {
+        if (closed) {
+            callback.failed(new IOException(MESSAGES.connectionPoolClosed()));
+            return;
+        }
+        Destination dest = destinations.get(destination);
+        if (dest == null) {
+            final Destination existing = destinations.putIfAbsent(destination, dest = new Destination(destination));
+            if (existing != null) {
+                dest = existing;
+            }
+        }
+        dest.submit(new Waiter(method, target, callback));
+    }
+
+    /**
+     * Creates a request on a pooled connection to the destination.
+     *
+     * @param destination The destination
+     * @param method      The HTTP method
+     * @param target      The target URI
+     * @return A future that is completed once a connection is available
+     */
+    public IoFuture<HttpClientRequest> createRequest(final SocketAddress destination, final HttpString method, final URI target) {
+        final ConcreteIoFuture<HttpClientRequest> future = new ConcreteIoFuture<>();
+        createRequest(destination, method, target, new HttpClientCallback<HttpClientRequest>() {
+            @Override
+            public void completed(final HttpClientRequest result) {
+                future.setResult(result);
+            }
+
+            @Override
+            public void failed(final IOException e) {
+                future.setException(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return The number of open connections to the destination
+     */
+    public int getConnectionCount(final SocketAddress destination) {
+        final Destination dest = destinations.get(destination);
+        if (dest == null) {
+            return 0;
+        }
+        synchronized (dest) {
+            return dest.connections.size();
+        }
+    }
+
+    /**
+     * Closes all pooled connections, and fails all requests that are waiting for a connection.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        final IOException failure = new IOException(MESSAGES.connectionPoolClosed());
+        for (final Destination dest : destinations.values()) {
+            final List<PooledConnection> connections;
+            final List<Waiter> waiters;
+            synchronized (dest) {
+                connections = new ArrayList<>(dest.connections);
+                dest.connections.clear();
+                waiters = dest.drainWaiters();
+            }
+            for (final PooledConnection connection : connections) {
+                IoUtils.safeClose(connection.connection);
+            }
+            for (final Waiter waiter : waiters) {
+                waiter.callback.failed(failure);
+            }
+        }
+        destinations.clear();
+    }
+
+    private final class Destination {
+
+        private final SocketAddress address;
+        private final List<PooledConnection> connections = new ArrayList<>();
+        private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+        private int connecting;
+
+        private Destination(final SocketAddress address) {
+            this.address = address;
+        }
+
+        void submit(final Waiter waiter) {
+            PooledConnection selected = null;
+            boolean connect = false;
+            boolean rejected = false;
+            synchronized (this) {
+                //requests that are already queued go first
+                if (waiters.isEmpty()) {
+                    selected = select();
+                }
+                if (selected != null) {
+                    selected.acquire();
+                } else if (connections.size() + connecting < maxConnections) {
+                    ++connecting;
+                    connect = true;
+                    enqueue(waiter);
+                } else if (waiters.size() >= maxQueuedRequests) {
+                    rejected = true;
+                } else {
+                    enqueue(waiter);
+                }
+            }
+            if (selected != null) {
+                send(selected, waiter);
+            } else if (connect) {
+                connect();
+            } else if (rejected) {
+                waiter.callback.failed(new IOException(MESSAGES.tooManyQueuedRequests(address)));
+            }
+        }
+
+        /**
+         * Selects the least loaded connection. Idle connections are always used, busy connections are only used
+         * once no more connections may be opened.
+         */
+        private PooledConnection select() {
+            PooledConnection selected = null;
+            for (final PooledConnection connection : connections) {
+                if (connection.connection.isReusable() && (selected == null || connection.inFlight < selected.inFlight)) {
+                    selected = connection;
+                    if (selected.inFlight == 0) {
+                        return selected;
+                    }
+                }
+            }
+            if (selected == null || selected.inFlight >= pipelineDepth || connections.size() + connecting < maxConnections) {
+                return null;
+            }
+            return selected;
+        }
+
+        private void enqueue(final Waiter waiter) {
+            waiters.add(waiter);
+            if (queueTimeout > 0) {
+                waiter.timeoutKey = client.getWorker().getIoThread().executeAfter(new Runnable() {
+                    @Override
+                    public void run() {
+                        final boolean removed;
+                        synchronized (Destination.this) {
+                            removed = waiters.remove(waiter);
+                        }
+                        if (removed) {
+                            waiter.callback.failed(new IOException(MESSAGES.timedOutWaitingForConnection(address)));
+                        }
+                    }
+                }, queueTimeout, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private Waiter dequeue() {
+            final Waiter waiter = waiters.poll();
+            if (waiter != null && waiter.timeoutKey != null) {
+                waiter.timeoutKey.remove();
+            }
+            return waiter;
+        }
+
+        private List<Waiter> drainWaiters() {
+            final List<Waiter> result = new ArrayList<>(waiters.size());
+            Waiter waiter;
+            while ((waiter = dequeue()) != null) {
+                result.add(waiter);
+            }
+            return result;
+        }
+
+        /**
+         * Assigns queued requests to the connection, up to the pipeline depth. If there are no queued requests the
+         * connection becomes idle.
+         */
+        private List<Waiter> assign(final PooledConnection connection) {
+            List<Waiter> assigned = null;
+            while (connection.inFlight < pipelineDepth && !waiters.isEmpty() && connection.connection.isReusable()) {
+                if (assigned == null) {
+                    assigned = new ArrayList<>(1);
+                }
+                assigned.add(dequeue());
+                connection.acquire();
+            }
+            if (connection.inFlight == 0) {
+                connection.scheduleIdleTimeout();
+            }
+            return assigned;
+        }
+
+        private void send(final PooledConnection connection, final Waiter waiter) {
+            final HttpClientRequest request = connection.connection.createRequest(waiter.method, waiter.target);
+            if (request == null) {
+                //the connection is closing, drop it and try again
+                synchronized (this) {
+                    connections.remove(connection);
+                }
+                IoUtils.safeClose(connection.connection);
+                submit(waiter);
+            } else {
+                waiter.callback.completed(request);
+            }
+        }
+
+        private void send(final PooledConnection connection, final List<Waiter> assigned) {
+            if (assigned != null) {
+                for (final Waiter waiter : assigned) {
+                    send(connection, waiter);
+                }
+            }
+        }
+
+        private void connect() {
+            client.connect(address, options, new HttpClientCallback<HttpClientConnection>() {
+                @Override
+                public void completed(final HttpClientConnection result) {
+                    final PooledConnection connection = new PooledConnection(Destination.this, (HttpClientConnectionImpl) result);
+                    connection.connection.setConnectionListener(connection);
+                    final List<Waiter> assigned;
+                    synchronized (Destination.this) {
+                        --connecting;
+                        if (closed) {
+                            assigned = null;
+                        } else {
+                            connections.add(connection);
+                            assigned = assign(connection);
+                        }
+                    }
+                    if (closed || !connection.connection.isOpen()) {
+                        connection.connectionClosed(connection.connection);
+                        IoUtils.safeClose(connection.connection);
+                    }
+                    send(connection, assigned);
+                }
+
+                @Override
+                public void failed(final IOException e) {
+                    UndertowLogger.CLIENT_LOGGER.debugf(e, "Failed to connect to %s", address);
+                    final List<Waiter> failed;
+                    synchronized (Destination.this) {
+                        --connecting;
+                        //if there are other connections the queued requests can still be sent on those
+                        if (connections.isEmpty() && connecting == 0) {
+                            failed = drainWaiters();
+                        } else {
+                            failed = null;
+                        }
+                    }
+                    if (failed != null) {
+                        for (final Waiter waiter : failed) {
+                            waiter.callback.failed(e);
+                        }
+                    }
+                }
+            });
+        }
+
+        void released(final PooledConnection connection) {
+            final List<Waiter> assigned;
+            synchronized (this) {
+                connection.inFlight--;
+                if (!connections.contains(connection)) {
+                    return;
+                }
+                assigned = assign(connection);
+            }
+            send(connection, assigned);
+        }
+
+        void closed(final PooledConnection connection) {
+            boolean connect = false;
+            synchronized (this) {
+                connection.cancelIdleTimeout();
+                if (!connections.remove(connection)) {
+                    return;
+                }
+                if (!closed && !waiters.isEmpty() && connections.size() + connecting < maxConnections) {
+                    ++connecting;
+                    connect = true;
+                }
+            }
+            if (connect) {
+                connect();
+            }
+        }
+    }
+
+    /**
+     * A connection in the pool. All fields are guarded by the lock of the destination.
+     */
+    private final class PooledConnection implements HttpClientConnectionImpl.ConnectionListener {
+
+        private final Destination destination;
+        private final HttpClientConnectionImpl connection;
+        private int inFlight;
+        private XnioExecutor.Key idleKey;
+
+        private PooledConnection(final Destination destination, final HttpClientConnectionImpl connection) {
+            this.destination = destination;
+            this.connection = connection;
+        }
+
+        void acquire() {
+            ++inFlight;
+            cancelIdleTimeout();
+        }
+
+        void cancelIdleTimeout() {
+            if (idleKey != null) {
+                idleKey.remove();
+                idleKey = null;
+            }
+        }
+
+        void scheduleIdleTimeout() {
+            if (idleTimeout <= 0 || idleKey != null) {
+                return;
+            }
+            idleKey = connection.getIoThread().executeAfter(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (destination) {
+                        if (inFlight != 0 || !destination.connections.remove(PooledConnection.this)) {
+                            return;
+                        }
+                        idleKey = null;
+                    }
+                    IoUtils.safeClose(connection);
+                }
+            }, idleTimeout, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void requestCompleted(final HttpClientConnectionImpl connection) {
+            destination.released(this);
+        }
+
+        @Override
+        public void connectionClosed(final HttpClientConnectionImpl connection) {
+            destination.closed(this);
+        }
+    }
+
+    private static final class Waiter {
+
+        private final HttpString method;
+        private final URI target;
+        private final HttpClientCallback<HttpClientRequest> callback;
+        private XnioExecutor.Key timeoutKey;
+
+        private Waiter(final HttpString method, final URI target, final HttpClientCallback<HttpClientRequest> callback) {
+            this.method = method;
+            this.target = target;
+            this.callback = callback;
+        }
+    }
+}
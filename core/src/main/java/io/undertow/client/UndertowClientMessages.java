@@ -1,5 +1,7 @@
 package io.undertow.client;
 
+import java.net.SocketAddress;
+
 import org.jboss.logging.Messages;
 import org.jboss.logging.annotations.Message;
 import org.jboss.logging.annotations.MessageBundle;
@@ -21,6 +23,15 @@ public interface UndertowClientMessages {
     @Message(id = 1001, value = "Request already written")
     IllegalStateException requestAlreadyWritten();
 
+    @Message(id = 1002, value = "Too many requests are queued for %s")
+    String tooManyQueuedRequests(SocketAddress destination);
+
+    @Message(id = 1003, value = "Timed out waiting for a connection to %s")
+    String timedOutWaitingForConnection(SocketAddress destination);
+
+    @Message(id = 1004, value = "Connection pool is closed")
+    String connectionPoolClosed();
+
     // 1020
     @Message(id = 1020, value = "Failed to upgrade channel due to response %s (%s)")
     String failedToUpgradeChannel(final int responseCode, String reason);
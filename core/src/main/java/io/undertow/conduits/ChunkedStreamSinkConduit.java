@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 import io.undertow.UndertowMessages;
@@ -29,6 +30,7 @@ import io.undertow.util.Attachable;
 import io.undertow.util.AttachmentKey;
 import io.undertow.util.HeaderMap;
 import io.undertow.util.HeaderValues;
+import org.xnio.Buffers;
 import org.xnio.IoUtils;
 import org.xnio.channels.StreamSourceChannel;
 import org.xnio.conduits.AbstractStreamSinkConduit;
@@ -59,6 +61,8 @@ public class ChunkedStreamSinkConduit extends AbstractStreamSinkConduit<StreamSi
     private static final byte[] LAST_CHUNK = "0\r\n".getBytes();
     public static final byte[] CRLF = "\r\n".getBytes();
 
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
     private final Attachable attachable;
     private int state;
     private int chunkleft = 0;
@@ -66,6 +70,11 @@ public class ChunkedStreamSinkConduit extends AbstractStreamSinkConduit<StreamSi
     private final ByteBuffer chunkingBuffer = ByteBuffer.allocate(14); //14 is the most
     private ByteBuffer trailerBuffer;
 
+    /**
+     * Array used to write the chunk header and the chunk data in a single gathering write
+     */
+    private ByteBuffer[] gatherArray = new ByteBuffer[2];
+
 
     private static final int CONF_FLAG_CONFIGURABLE = 1 << 0;
     private static final int CONF_FLAG_PASS_CLOSE = 1 << 1;
@@ -100,25 +109,7 @@ public class ChunkedStreamSinkConduit extends AbstractStreamSinkConduit<StreamSi
             throw new ClosedChannelException();
         }
         if (chunkleft == 0) {
-            chunkingBuffer.clear();
-            if(anyAreSet(state, FLAG_WRITTEN_FIRST_CHUNK)) {
-                chunkingBuffer.put(CRLF);
-            }
-            written += src.remaining();
-            chunkingBuffer.put(Integer.toHexString(src.remaining()).getBytes());
-            chunkingBuffer.put(CRLF);
-            chunkingBuffer.flip();
-            state |= FLAG_WRITTEN_FIRST_CHUNK;
-
-            int chunkingSize = chunkingBuffer.remaining();
-            final ByteBuffer[] buf = new ByteBuffer[]{chunkingBuffer, src};
-            long result = next.write(buf, 0, buf.length);
-            chunkleft = src.remaining();
-            if (result < chunkingSize) {
-                return 0;
-            } else {
-                return (int) (result - chunkingSize);
-            }
+            return (int) writeNewChunk(src, null, 0, 0, src.remaining());
         } else {
             int oldLimit = src.limit();
             if (src.remaining() > chunkleft) {
@@ -127,9 +118,17 @@ public class ChunkedStreamSinkConduit extends AbstractStreamSinkConduit<StreamSi
             try {
                 int chunkingSize = chunkingBuffer.remaining();
                 if (chunkingSize > 0) {
-                    final ByteBuffer[] buf = new ByteBuffer[]{chunkingBuffer, src};
+                    final ByteBuffer[] buf = gatherArray;
+                    buf[0] = chunkingBuffer;
+                    buf[1] = src;
                     int origialRemaining = src.remaining();
-                    long result = next.write(buf, 0, buf.length);
+                    long result;
+                    try {
+                        result = next.write(buf, 0, 2);
+                    } finally {
+                        buf[0] = null;
+                        buf[1] = null;
+                    }
                     int srcWritten = origialRemaining - src.remaining();
                     chunkleft -= srcWritten;
                     if (result < chunkingSize) {
@@ -150,7 +149,19 @@ public class ChunkedStreamSinkConduit extends AbstractStreamSinkConduit<StreamSi
 
     @Override
     public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
-        for (int i = offset; i < length; ++i) {
+        if (anyAreSet(state, FLAG_WRITES_SHUTDOWN)) {
+            throw new ClosedChannelException();
+        }
+        if (chunkleft == 0) {
+            //all the buffers are sent as a single chunk, in a single gathering write
+            final long remaining = Buffers.remaining(srcs, offset, length);
+            if (remaining == 0) {
+                return 0;
+            } else if (remaining <= Integer.MAX_VALUE) {
+                return writeNewChunk(null, srcs, offset, length, (int) remaining);
+            }
+        }
+        for (int i = offset; i < offset + length; ++i) {
             if (srcs[i].hasRemaining()) {
                 return write(srcs[i]);
             }
@@ -158,6 +169,67 @@ public class ChunkedStreamSinkConduit extends AbstractStreamSinkConduit<StreamSi
         return 0;
     }
 
+    /**
+     * Starts a new chunk, and writes the chunk header together with as much of the chunk data as possible.
+     *
+     * @param src       The chunk data if it is a single buffer, otherwise <code>null</code>
+     * @param srcs      The chunk data if it is made up of several buffers
+     * @param offset    The offset into the buffer array
+     * @param length    The number of buffers
+     * @param chunkSize The size of the chunk
+     * @return The number of bytes of chunk data that were written
+     */
+    private long writeNewChunk(final ByteBuffer src, final ByteBuffer[] srcs, final int offset, final int length, final int chunkSize) throws IOException {
+        chunkingBuffer.clear();
+        if (anyAreSet(state, FLAG_WRITTEN_FIRST_CHUNK)) {
+            chunkingBuffer.put(CRLF);
+        }
+        written += chunkSize;
+        putHex(chunkingBuffer, chunkSize);
+        chunkingBuffer.put(CRLF);
+        chunkingBuffer.flip();
+        state |= FLAG_WRITTEN_FIRST_CHUNK;
+
+        int chunkingSize = chunkingBuffer.remaining();
+        final int count = src == null ? length + 1 : 2;
+        ByteBuffer[] buf = gatherArray;
+        if (buf.length < count) {
+            gatherArray = buf = new ByteBuffer[count];
+        }
+        buf[0] = chunkingBuffer;
+        if (src == null) {
+            System.arraycopy(srcs, offset, buf, 1, length);
+        } else {
+            buf[1] = src;
+        }
+        long result;
+        try {
+            result = next.write(buf, 0, count);
+        } finally {
+            Arrays.fill(buf, 0, count, null);
+        }
+        if (result < chunkingSize) {
+            chunkleft = chunkSize;
+            return 0;
+        } else {
+            chunkleft = chunkSize - (int) (result - chunkingSize);
+            return result - chunkingSize;
+        }
+    }
+
+    /**
+     * Writes the chunk size as lower case hex, without creating any intermediate strings
+     */
+    private static void putHex(final ByteBuffer buffer, final int value) {
+        int shift = 28;
+        while (shift > 0 && (value >>> shift) == 0) {
+            shift -= 4;
+        }
+        for (; shift >= 0; shift -= 4) {
+            buffer.put(HEX[(value >>> shift) & 0xF]);
+        }
+    }
+
     @Override
     public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
         if (anyAreSet(state, FLAG_WRITES_SHUTDOWN)) {
@@ -1,16 +1,25 @@
 package io.undertow.io;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
 import io.undertow.UndertowMessages;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
 import org.xnio.Buffers;
 import org.xnio.ChannelExceptionHandler;
 import org.xnio.ChannelListener;
 import org.xnio.ChannelListeners;
+import org.xnio.Pooled;
 import org.xnio.channels.StreamSinkChannel;
 
 /**
@@ -46,9 +55,49 @@ public class AsyncSenderImpl implements Sender {
     };
 
 
+    private final ChannelListener<Channel> transferListener = new ChannelListener<Channel>() {
+        @Override
+        public void handleEvent(final Channel channel) {
+            try {
+                if (transfer()) {
+                    streamSinkChannel.suspendWrites();
+                    transferComplete();
+                }
+            } catch (IOException e) {
+                streamSinkChannel.suspendWrites();
+                transferFailed(e);
+            }
+        }
+    };
+
+    /**
+     * Callback that frees the pooled buffer that was used to send data, before invoking the user's callback
+     */
+    private final IoCallback pooledCallback = new IoCallback() {
+        @Override
+        public void onComplete(final HttpServerExchange exchange, final Sender sender) {
+            final IoCallback callback = freePooled();
+            callback.onComplete(exchange, sender);
+        }
+
+        @Override
+        public void onException(final HttpServerExchange exchange, final Sender sender, final IOException exception) {
+            final IoCallback callback = freePooled();
+            callback.onException(exchange, sender, exception);
+        }
+    };
+
     private ByteBuffer[] buffer;
     private IoCallback callback;
 
+    private Pooled<ByteBuffer> pooledBuffer;
+    private IoCallback pooledUserCallback;
+    private CharsetEncoder encoder;
+
+    private FileChannel transferSource;
+    private long transferPosition;
+    private long transferEnd;
+
 
     public AsyncSenderImpl(final StreamSinkChannel streamSinkChannel, final HttpServerExchange exchange) {
         this.streamSinkChannel = streamSinkChannel;
@@ -117,12 +166,143 @@ public class AsyncSenderImpl implements Sender {
 
     @Override
     public void send(final String data, final IoCallback callback) {
-        send(ByteBuffer.wrap(data.getBytes(utf8)), callback);
+        send(data, utf8, callback);
     }
 
     @Override
     public void send(final String data, final Charset charset, final IoCallback callback) {
-        send(ByteBuffer.wrap(data.getBytes(charset)), callback);
+        if (callback == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("callback");
+        }
+        //encode straight into a pooled buffer, only strings that do not fit are copied into a new array
+        final Pooled<ByteBuffer> pooled = exchange.getConnection().getBufferPool().allocate();
+        final ByteBuffer buffer = pooled.getResource();
+        buffer.clear();
+        CharsetEncoder encoder = this.encoder;
+        if (encoder == null || !encoder.charset().equals(charset)) {
+            this.encoder = encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        } else {
+            encoder.reset();
+        }
+        CoderResult result = encoder.encode(CharBuffer.wrap(data), buffer, true);
+        if (!result.isOverflow()) {
+            result = encoder.flush(buffer);
+        }
+        if (result.isOverflow()) {
+            pooled.free();
+            send(ByteBuffer.wrap(data.getBytes(charset)), callback);
+            return;
+        }
+        buffer.flip();
+        this.pooledBuffer = pooled;
+        this.pooledUserCallback = callback;
+        send(buffer, pooledCallback);
+    }
+
+    @Override
+    public void transferFrom(final FileChannel source, final long position, final long count, final IoCallback callback) {
+        if (callback == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("callback");
+        }
+        try {
+            transferSource = source;
+            transferPosition = position;
+            transferEnd = position + Math.max(0, Math.min(count, source.size() - position));
+            if (!isDirectTransfer()) {
+                //the data is going to be modified anyway, so there is no point trying to avoid the copy
+                pooledBuffer = exchange.getConnection().getBufferPool().allocate();
+                pooledBuffer.getResource().clear().limit(0);
+            }
+            this.callback = callback;
+            if (transfer()) {
+                transferComplete();
+            } else {
+                streamSinkChannel.getWriteSetter().set(transferListener);
+                streamSinkChannel.resumeWrites();
+            }
+        } catch (IOException e) {
+            this.callback = callback;
+            transferFailed(e);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the response is written to the connection unmodified, so file data can
+     *         be transferred directly
+     */
+    private boolean isDirectTransfer() {
+        final HeaderMap responseHeaders = exchange.getResponseHeaders();
+        return !responseHeaders.contains(Headers.CONTENT_ENCODING) && !responseHeaders.contains(Headers.TRANSFER_ENCODING);
+    }
+
+    /**
+     * Continues a file transfer.
+     *
+     * @return <code>true</code> if the transfer is complete, <code>false</code> if the channel is not writable
+     */
+    private boolean transfer() throws IOException {
+        if (pooledBuffer == null) {
+            while (transferPosition < transferEnd) {
+                long res = streamSinkChannel.transferFrom(transferSource, transferPosition, transferEnd - transferPosition);
+                if (res == 0) {
+                    return false;
+                }
+                transferPosition += res;
+            }
+            return true;
+        }
+        final ByteBuffer buffer = pooledBuffer.getResource();
+        for (;;) {
+            while (buffer.hasRemaining()) {
+                if (streamSinkChannel.write(buffer) == 0) {
+                    return false;
+                }
+            }
+            if (transferPosition == transferEnd) {
+                return true;
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), transferEnd - transferPosition));
+            int res = transferSource.read(buffer, transferPosition);
+            if (res == -1) {
+                throw new EOFException();
+            }
+            transferPosition += res;
+            buffer.flip();
+        }
+    }
+
+    private void transferComplete() {
+        final IoCallback callback = clearTransfer();
+        callback.onComplete(exchange, this);
+    }
+
+    private void transferFailed(final IOException e) {
+        final IoCallback callback = clearTransfer();
+        callback.onException(exchange, this, e);
+    }
+
+    private IoCallback clearTransfer() {
+        final IoCallback callback = this.callback;
+        this.callback = null;
+        transferSource = null;
+        if (pooledBuffer != null) {
+            pooledBuffer.free();
+            pooledBuffer = null;
+        }
+        return callback;
+    }
+
+    private IoCallback freePooled() {
+        final IoCallback callback = pooledUserCallback;
+        pooledUserCallback = null;
+        if (pooledBuffer != null) {
+            pooledBuffer.free();
+            pooledBuffer = null;
+        }
+        return callback;
     }
 
     @Override
@@ -21,11 +21,13 @@ package io.undertow.io;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 
 import io.undertow.UndertowMessages;
 import io.undertow.server.HttpServerExchange;
 import org.xnio.IoUtils;
+import org.xnio.Pooled;
 
 /**
  * A sender that uses an output stream.
@@ -41,6 +43,9 @@ public class BlockingSenderImpl implements Sender {
     private final OutputStream outputStream;
     private boolean inCall;
     private ByteBuffer[] next;
+    private FileChannel nextFile;
+    private long nextPosition;
+    private long nextCount;
     private IoCallback queuedCallback;
 
     public BlockingSenderImpl(final HttpServerExchange exchange, final OutputStream outputStream) {
@@ -100,6 +105,17 @@ public class BlockingSenderImpl implements Sender {
         }
     }
 
+    @Override
+    public void transferFrom(final FileChannel source, final long position, final long count, final IoCallback callback) {
+        if (inCall) {
+            queue(source, position, count, callback);
+            return;
+        }
+        if (writeFile(source, position, count, callback)) {
+            invokeOnComplete(callback);
+        }
+    }
+
     @Override
     public void close(final IoCallback callback) {
         try {
@@ -156,6 +172,34 @@ public class BlockingSenderImpl implements Sender {
     }
 
 
+    private boolean writeFile(final FileChannel source, final long position, final long count, final IoCallback callback) {
+        final Pooled<ByteBuffer> pooled = exchange.getConnection().getBufferPool().allocate();
+        try {
+            final ByteBuffer buffer = pooled.getResource();
+            final long end = position + count;
+            long pos = position;
+            while (pos < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - pos));
+                int res = source.read(buffer, pos);
+                if (res == -1) {
+                    break;
+                }
+                pos += res;
+                buffer.flip();
+                if (!writeBuffer(buffer, callback)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            callback.onException(exchange, this, e);
+            return false;
+        } finally {
+            pooled.free();
+        }
+    }
+
     private void invokeOnComplete(final IoCallback callback) {
         inCall = true;
         try {
@@ -163,13 +207,21 @@ public class BlockingSenderImpl implements Sender {
         } finally {
             inCall = false;
         }
-        while (next != null) {
+        while (next != null || nextFile != null) {
             ByteBuffer[] next = this.next;
+            FileChannel nextFile = this.nextFile;
             IoCallback queuedCallback = this.queuedCallback;
             this.next = null;
+            this.nextFile = null;
             this.queuedCallback = null;
-            for (ByteBuffer buffer : next) {
-                writeBuffer(buffer, queuedCallback);
+            if (nextFile != null) {
+                if (!writeFile(nextFile, nextPosition, nextCount, queuedCallback)) {
+                    return;
+                }
+            } else {
+                for (ByteBuffer buffer : next) {
+                    writeBuffer(buffer, queuedCallback);
+                }
             }
             inCall = true;
             try {
@@ -182,11 +234,21 @@ public class BlockingSenderImpl implements Sender {
 
     private void queue(final ByteBuffer[] byteBuffers, final IoCallback ioCallback) {
         //if data is sent from withing the callback we queue it, to prevent the stack growing indefinitly
-        if (next != null) {
+        if (next != null || nextFile != null) {
             throw UndertowMessages.MESSAGES.dataAlreadyQueued();
         }
         next = byteBuffers;
         queuedCallback = ioCallback;
     }
 
+    private void queue(final FileChannel source, final long position, final long count, final IoCallback ioCallback) {
+        if (next != null || nextFile != null) {
+            throw UndertowMessages.MESSAGES.dataAlreadyQueued();
+        }
+        nextFile = source;
+        nextPosition = position;
+        nextCount = count;
+        queuedCallback = ioCallback;
+    }
+
 }
@@ -1,6 +1,7 @@
 package io.undertow.io;
 
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 
 /**
@@ -52,6 +53,19 @@ public interface Sender {
      */
     void send(final String data, final Charset charset, final IoCallback callback);
 
+    /**
+     * Transfers the given region of a file using async IO, and calls the given callback on completion or error.
+     * <p/>
+     * If the response is written to the connection unmodified the file is sent without being copied into
+     * user space, otherwise it is copied through a pooled buffer. The file channel is not closed.
+     *
+     * @param source   The file to send
+     * @param position The position in the file to start sending from
+     * @param count    The number of bytes to send
+     * @param callback The callback
+     */
+    void transferFrom(final FileChannel source, final long position, final long count, final IoCallback callback);
+
     /**
      * Closes this sender asynchronously. The given callback is notified on completion
      *
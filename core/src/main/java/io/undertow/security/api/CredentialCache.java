@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.security.api;
+
+import io.undertow.security.idm.Account;
+import io.undertow.security.idm.IdentityManager;
+
+/**
+ * A cache of credentials that have already been verified by the identity manager, so that mechanisms that receive the
+ * same credential on every request do not need to verify it every time.
+ * <p/>
+ * Implementations should not hold on to the raw credential, as the cache is long lived. Entries are scoped to the
+ * identity manager that verified them, so a cache that is shared between realms cannot authenticate a credential in a
+ * realm that did not verify it.
+ */
+public interface CredentialCache {
+
+    /**
+     * Looks up a previously verified credential.
+     * <p/>
+     * The cache only holds on to the result of a verification, so the returned account should still be passed to
+     * {@link IdentityManager#verify(Account)} before it is used.
+     *
+     * @param identityManager - The identity manager the credential has to have been verified by.
+     * @param credential - The raw credential, as it was received from the client.
+     * @return The account the credential was verified for, or null if it is not in the cache.
+     */
+    Account get(final IdentityManager identityManager, final String credential);
+
+    /**
+     * Adds a credential that has been successfully verified.
+     *
+     * @param identityManager - The identity manager that verified the credential.
+     * @param credential - The raw credential, as it was received from the client.
+     * @param id - The ID the credential was verified against.
+     * @param account - The verified account.
+     */
+    void put(final IdentityManager identityManager, final String credential, final String id, final Account account);
+
+    /**
+     * Removes a single cached verification, for example because the identity manager no longer accepts the account.
+     *
+     * @param identityManager - The identity manager that verified the credential.
+     * @param credential - The raw credential, as it was received from the client.
+     */
+    void remove(final IdentityManager identityManager, final String credential);
+
+    /**
+     * Removes all the cached verifications for an account, for example because its password has been changed or it has
+     * been locked.
+     *
+     * @param id - The ID of the account.
+     */
+    void invalidate(final String id);
+
+}
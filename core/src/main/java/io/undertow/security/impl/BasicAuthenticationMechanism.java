@@ -24,6 +24,7 @@ import java.nio.charset.Charset;
 import java.util.List;
 
 import io.undertow.security.api.AuthenticationMechanism;
+import io.undertow.security.api.CredentialCache;
 import io.undertow.security.api.SecurityContext;
 import io.undertow.security.idm.Account;
 import io.undertow.security.idm.IdentityManager;
@@ -47,6 +48,7 @@ public class BasicAuthenticationMechanism implements AuthenticationMechanism {
 
     private final String name;
     private final String challenge;
+    private final CredentialCache credentialCache;
 
     private static final String BASIC_PREFIX = BASIC + " ";
     private static final int PREFIX_LENGTH = BASIC_PREFIX.length();
@@ -58,8 +60,19 @@ public class BasicAuthenticationMechanism implements AuthenticationMechanism {
     }
 
     public BasicAuthenticationMechanism(final String realmName, final String mechanismName) {
+        this(realmName, mechanismName, null);
+    }
+
+    /**
+     * @param realmName       The realm name
+     * @param mechanismName   The mechanism name
+     * @param credentialCache A cache of the credentials that have already been verified by the identity manager, or
+     *                        <code>null</code> if every request should be verified
+     */
+    public BasicAuthenticationMechanism(final String realmName, final String mechanismName, final CredentialCache credentialCache) {
         this.challenge = BASIC_PREFIX + "realm=\"" + realmName + "\"";
         this.name = mechanismName;
+        this.credentialCache = credentialCache;
     }
 
     /**
@@ -72,6 +85,19 @@ public class BasicAuthenticationMechanism implements AuthenticationMechanism {
         if (authHeaders != null) {
             for (String current : authHeaders) {
                 if (current.startsWith(BASIC_PREFIX)) {
+                    if (credentialCache != null) {
+                        final IdentityManager idm = securityContext.getIdentityManager();
+                        final Account cached = credentialCache.get(idm, current);
+                        if (cached != null) {
+                            //the account may have been disabled or changed since the credential was verified
+                            final Account account = idm.verify(cached);
+                            if (account != null) {
+                                securityContext.authenticationComplete(account, name);
+                                return AuthenticationMechanismOutcome.AUTHENTICATED;
+                            }
+                            credentialCache.remove(idm, current);
+                        }
+                    }
                     String base64Challenge = current.substring(PREFIX_LENGTH);
                     String plainChallenge = null;
                     try {
@@ -90,6 +116,9 @@ public class BasicAuthenticationMechanism implements AuthenticationMechanism {
                             final AuthenticationMechanismOutcome result;
                             Account account = idm.verify(userName, credential);
                             if (account != null) {
+                                if (credentialCache != null) {
+                                    credentialCache.put(idm, current, userName, account);
+                                }
                                 securityContext.authenticationComplete(account, name);
                                 result = AuthenticationMechanismOutcome.AUTHENTICATED;
                             } else {
@@ -0,0 +1,194 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.security.impl;
+
+import static io.undertow.UndertowMessages.MESSAGES;
+
+import java.nio.charset.Charset;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.undertow.security.api.CredentialCache;
+import io.undertow.security.idm.Account;
+import io.undertow.security.idm.IdentityManager;
+import io.undertow.server.handlers.cache.LRUCache;
+
+/**
+ * A {@link CredentialCache} that holds a bounded number of verified credentials for a limited time.
+ * <p/>
+ * Credentials are not stored, instead entries are keyed by a HMAC of the credential with a random key that is
+ * generated when the cache is created. Entries are also keyed by the identity manager that verified the credential.
+ * <p/>
+ * Invalidating an account does not need to find its entries, instead the time of the invalidation is recorded and
+ * entries for that account that were added before it are ignored.
+ */
+public class SimpleCredentialCache implements CredentialCache {
+
+    private static final String DEFAULT_HMAC_ALGORITHM = "HmacSHA256";
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+    private static final long DEFAULT_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    private final LRUCache<CredentialKey, CachedAccount> cache;
+    private final ConcurrentMap<String, Long> invalidations = new ConcurrentHashMap<>();
+    private final long timeout;
+    private final String hmacAlgorithm;
+    private final SecretKeySpec secret;
+
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                final Mac mac = Mac.getInstance(hmacAlgorithm);
+                mac.init(secret);
+                return mac;
+            } catch (NoSuchAlgorithmException e) {
+                throw MESSAGES.hashAlgorithmNotFound(hmacAlgorithm);
+            } catch (InvalidKeyException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    public SimpleCredentialCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param maxEntries The maximum number of verified credentials that are cached
+     * @param timeout    The time in milliseconds that a verified credential is cached for
+     */
+    public SimpleCredentialCache(final int maxEntries, final long timeout) {
+        this(maxEntries, timeout, DEFAULT_HMAC_ALGORITHM);
+    }
+
+    /**
+     * @param maxEntries    The maximum number of verified credentials that are cached
+     * @param timeout       The time in milliseconds that a verified credential is cached for
+     * @param hmacAlgorithm The algorithm used to derive the keys of the cache
+     */
+    public SimpleCredentialCache(final int maxEntries, final long timeout, final String hmacAlgorithm) {
+        this.cache = new LRUCache<>(maxEntries);
+        this.timeout = timeout;
+        this.hmacAlgorithm = hmacAlgorithm;
+        final byte[] secretBytes = new byte[32];
+        new SecureRandom().nextBytes(secretBytes);
+        this.secret = new SecretKeySpec(secretBytes, hmacAlgorithm);
+        //fail early if the algorithm is not supported
+        macs.get();
+    }
+
+    @Override
+    public Account get(final IdentityManager identityManager, final String credential) {
+        final CredentialKey key = key(identityManager, credential);
+        final CachedAccount cached = cache.get(key);
+        if (cached == null) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        final Long invalidated = invalidations.get(cached.id);
+        if (now >= cached.expires || (invalidated != null && cached.created <= invalidated)) {
+            cache.remove(key);
+            return null;
+        }
+        return cached.account;
+    }
+
+    @Override
+    public void put(final IdentityManager identityManager, final String credential, final String id, final Account account) {
+        final long now = System.currentTimeMillis();
+        final CredentialKey key = key(identityManager, credential);
+        //add does not replace an existing entry
+        cache.remove(key);
+        cache.add(key, new CachedAccount(id, account, now, now + timeout));
+    }
+
+    @Override
+    public void remove(final IdentityManager identityManager, final String credential) {
+        cache.remove(key(identityManager, credential));
+    }
+
+    @Override
+    public void invalidate(final String id) {
+        final long now = System.currentTimeMillis();
+        invalidations.put(id, now);
+        //invalidations older than the timeout cannot apply to any entry that has not expired
+        final Iterator<Map.Entry<String, Long>> it = invalidations.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue() < now - timeout) {
+                it.remove();
+            }
+        }
+    }
+
+    private CredentialKey key(final IdentityManager identityManager, final String credential) {
+        return new CredentialKey(identityManager, macs.get().doFinal(credential.getBytes(ISO_8859_1)));
+    }
+
+    private static final class CredentialKey {
+        private final IdentityManager identityManager;
+        private final byte[] hash;
+        private final int hashCode;
+
+        private CredentialKey(final IdentityManager identityManager, final byte[] hash) {
+            this.identityManager = identityManager;
+            this.hash = hash;
+            this.hashCode = 31 * System.identityHashCode(identityManager) + Arrays.hashCode(hash);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof CredentialKey)) {
+                return false;
+            }
+            final CredentialKey other = (CredentialKey) o;
+            return identityManager == other.identityManager && Arrays.equals(hash, other.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class CachedAccount {
+        private final String id;
+        private final Account account;
+        private final long created;
+        private final long expires;
+
+        private CachedAccount(final String id, final Account account, final long created, final long expires) {
+            this.id = id;
+            this.account = account;
+            this.created = created;
+            this.expires = expires;
+        }
+    }
+}
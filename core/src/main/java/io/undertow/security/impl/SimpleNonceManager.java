@@ -28,17 +28,15 @@ import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
-import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.concurrent.TimeUnit;
-
-import org.xnio.XnioExecutor;
-import org.xnio.XnioExecutor.Key;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.undertow.util.FlexBase64;
 
@@ -56,6 +54,10 @@ import io.undertow.util.FlexBase64;
  * ensure the same count is not used again - if successfully used without a nonce count add to a blacklist until expiration? A
  * nonce used without a nonce count will essentially be single use with each request getting a new nonce.
  *
+ * All state is held in concurrent maps and no global lock is taken while validating a nonce. Rather than scheduling a
+ * cleanup task for every nonce, entries are grouped into buckets by the time they expire, and whole buckets are dropped
+ * by whichever request first notices that they have expired.
+ *
  * @author <a href="mailto:darran.lofthouse@jboss.com">Darran Lofthouse</a>
  */
 public class SimpleNonceManager implements SessionNonceManager {
@@ -64,41 +66,46 @@ public class SimpleNonceManager implements SessionNonceManager {
     private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     /**
-     * List of invalid nonces, this list contains the nonces that have been used without a nonce count.
-     *
-     * In that situation they are considered single use and must not be used again.
+     * The granularity of the expiry of stored nonces, entries are removed up to this long after they expire.
      */
-    private final Set<String> invalidNonces = Collections.synchronizedSet(new HashSet<String>());
+    private static final long EXPIRY_BUCKET_SIZE = 10 * 1000;
 
     /**
-     * Map of known currently valid nonces, a SortedMap is used to order the nonces by their creation time stamp allowing a
-     * simple iteration over the keys to identify expired nonces.
+     * Map of invalid nonces, this map contains the nonces that have been used without a nonce count.
+     *
+     * In that situation they are considered single use and must not be used again.
      */
-    private final Map<String, Nonce> knownNonces = Collections.synchronizedMap(new HashMap<String, Nonce>());
+    private final ExpiringMap<Nonce> invalidNonces = new ExpiringMap<>();
 
     /**
-     * A WeakHashMap to map expired nonces to their replacement nonce. For an item to be added to this Collection the value will
-     * have been removed from the knownNonces map.
-     *
-     * A replacement nonce will have been added to knownNonces that references the key used here - once the replacement nonce is
-     * removed from knownNonces then the key will be eligible for garbage collection allowing it to be removed from this map as
-     * well.
-     *
-     * The value in this Map is a plain String, this is to avoid inadvertently creating a long term reference to the key we
-     * expect to be garbage collected at some point in the future.
+     * Map of known currently valid nonces.
      */
-    private final Map<NonceHolder, String> forwardMapping = Collections.synchronizedMap(new WeakHashMap<NonceHolder, String>());
+    private final ExpiringMap<Nonce> knownNonces = new ExpiringMap<>();
 
     /**
-     * A pseudo-random generator for creating the nonces, a secure random is not required here as this is used purely to
-     * minimise the chance of colisions should two nonces be generated at exactly the same time.
+     * A map from expired nonces to their replacement nonce. For an item to be added to this map the value will have been
+     * removed from the knownNonces map.
+     *
+     * A mapping expires at the same time as the replacement nonce, as once the replacement is no longer known there is no
+     * point in pointing clients to it.
      */
-    private final Random random = new Random();
+    private final ExpiringMap<String> forwardMapping = new ExpiringMap<>();
 
     private final String secret;
+    private final byte[] secretBytes;
     private final String hashAlg;
     private final int hashLength;
 
+    /**
+     * MessageDigest instances are not thread safe, so each thread gets its own.
+     */
+    private final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return getDigest(hashAlg);
+        }
+    };
+
     /**
      * After a nonce is issued the first authentication response MUST be received within 5 minutes.
      */
@@ -135,9 +142,17 @@ public class SimpleNonceManager implements SessionNonceManager {
         byte[] secretBytes = new byte[32];
         rand.nextBytes(secretBytes);
         secret = FlexBase64.encodeString(digest.digest(secretBytes), false);
+        this.secretBytes = secret.getBytes(UTF_8);
     }
 
-    private MessageDigest getDigest(final String hashAlg) {
+    /**
+     * @return the current time in milliseconds, used for all the time stamps and expiry checks of this manager
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private static MessageDigest getDigest(final String hashAlg) {
         try {
             return MessageDigest.getInstance(hashAlg);
         } catch (NoSuchAlgorithmException e) {
@@ -154,79 +169,68 @@ public class SimpleNonceManager implements SessionNonceManager {
             return createNewNonceString();
         }
 
-        if (invalidNonces.contains(lastNonce)) {
+        if (invalidNonces.containsKey(lastNonce)) {
             // The nonce supplied has already been used.
             return createNewNonceString();
         }
 
         String nonce = lastNonce;
-        // Loop the forward mappings.
-        synchronized (forwardMapping) {
-            NonceHolder holder = new NonceHolder(lastNonce);
-            while (forwardMapping.containsKey(holder)) {
-                nonce = forwardMapping.get(holder);
-                // The final NonceHolder will then be used if a forwardMapping needs to be set.
-                holder = new NonceHolder(nonce);
+        for (;;) {
+            // Loop the forward mappings.
+            String next;
+            while ((next = forwardMapping.get(nonce)) != null) {
+                nonce = next;
             }
 
-            synchronized (knownNonces) {
-                Nonce value = knownNonces.get(nonce);
-                if (value == null) {
-                    // Not a likely scenario but if this occurs then most likely the nonce mapped to has also expired so we will
-                    // just send a new nonce.
-                    nonce = createNewNonceString();
-                } else {
-                    long now = System.currentTimeMillis();
-                    // The cacheTimePostExpiry is not included here as this is our opportunity to inform the client to use a
-                    // replacement nonce without a stale round trip.
-                    long earliestAccepted = now - firstUseTimeOut;
-                    if (value.timeStamp < earliestAccepted || value.timeStamp > now) {
-                        XnioExecutor executor = exchange.getIoThread();
-                        Nonce replacement = createNewNonce(holder);
-                        if (value.executorKey != null) {
-                            // The outcome doesn't matter - if we have the value we have all we need.
-                            value.executorKey.remove();
-                        }
-
-                        nonce = replacement.nonce;
-                        // Create a record of the forward mapping so if any requests do need to be marked stale they can be
-                        // pointed towards the correct nonce to use.
-                        forwardMapping.put(holder, nonce);
-                        // Bring over any existing session key.
-                        replacement.setSessionKey(value.getSessionKey());
-                        // At this point we will not accept the nonce again so remove it from the list of known nonces but do
-                        // register the replacement.
-                        knownNonces.remove(holder.nonce);
-                        // There are two reasons for registering the replacement 1 - to preserve any session key, 2 - To keep a
-                        // reference to the now invalid key so it
-                        // can be used as a key in a weak hash map.
-                        knownNonces.put(nonce, replacement);
-                        earliestAccepted = now - (overallTimeOut + cacheTimePostExpiry);
-                        long timeTillExpiry = replacement.timeStamp - earliestAccepted;
-                        replacement.executorKey = executor.executeAfter(new KnownNonceCleaner(nonce), timeTillExpiry,
-                                TimeUnit.MILLISECONDS);
+            Nonce value = knownNonces.get(nonce);
+            if (value == null) {
+                // Not a likely scenario but if this occurs then most likely the nonce mapped to has also expired so we will
+                // just send a new nonce.
+                return createNewNonceString();
+            }
 
-                    }
-                }
+            long now = currentTimeMillis();
+            // The cacheTimePostExpiry is not included here as this is our opportunity to inform the client to use a
+            // replacement nonce without a stale round trip.
+            long earliestAccepted = now - firstUseTimeOut;
+            if (value.timeStamp >= earliestAccepted && value.timeStamp <= now) {
+                return nonce;
             }
-        }
 
-        return nonce;
+            Nonce replacement = createNewNonce();
+            // Bring over any existing session key.
+            replacement.setSessionKey(value.getSessionKey());
+            long expiry = replacement.timeStamp + overallTimeOut + cacheTimePostExpiry;
+            // The replacement is registered first so a forward mapping never points to an unknown nonce, the replacement
+            // also preserves any session key.
+            knownNonces.put(replacement.nonce, replacement, expiry);
+            // Create a record of the forward mapping so if any requests do need to be marked stale they can be pointed
+            // towards the correct nonce to use.
+            if (forwardMapping.putIfAbsent(nonce, replacement.nonce, expiry) == null) {
+                // At this point we will not accept the nonce again so remove it from the list of known nonces.
+                knownNonces.remove(nonce, value);
+                return replacement.nonce;
+            }
+            // Another request replaced the nonce at the same time, follow its mapping instead.
+            knownNonces.remove(replacement.nonce, replacement);
+        }
     }
 
     private String createNewNonceString() {
-        return createNewNonce(null).nonce;
+        return createNewNonce().nonce;
     }
 
-    private Nonce createNewNonce(NonceHolder previousNonce) {
+    private Nonce createNewNonce() {
         byte[] prefix = new byte[8];
-        random.nextBytes(prefix);
-        long timeStamp = System.currentTimeMillis();
+        // A secure random is not required here as this is used purely to minimise the chance of colisions should two
+        // nonces be generated at exactly the same time.
+        ThreadLocalRandom.current().nextBytes(prefix);
+        long timeStamp = currentTimeMillis();
         byte[] now = Long.toString(timeStamp).getBytes(UTF_8);
 
         String nonce = createNonce(prefix, now);
 
-        return new Nonce(nonce, timeStamp, previousNonce);
+        return new Nonce(nonce, timeStamp);
     }
 
     /**
@@ -235,9 +239,8 @@ public class SimpleNonceManager implements SessionNonceManager {
      */
     @Override
     public boolean validateNonce(String nonce, int nonceCount, HttpServerExchange exchange) {
-        XnioExecutor executor = exchange.getIoThread();
         if (nonceCount < 0) {
-            if (invalidNonces.contains(nonce)) {
+            if (invalidNonces.containsKey(nonce)) {
                 // Without a nonce count the nonce is only useable once.
                 return false;
             }
@@ -246,9 +249,9 @@ public class SimpleNonceManager implements SessionNonceManager {
             // At this point we need to validate that the nonce is still within it's time limits,
             // If a new nonce had been selected then a known nonce would not have been found.
             // The nonce will also have it's nonce count checked.
-            return validateNonceWithCount(new Nonce(nonce), nonceCount, executor);
+            return validateNonceWithCount(new Nonce(nonce), nonceCount);
 
-        } else if (forwardMapping.containsKey(new NonceHolder(nonce))) {
+        } else if (forwardMapping.containsKey(nonce)) {
             // We could have let this drop through as the next validation would fail anyway but
             // why waste the time if we already know a replacement nonce has been issued.
             return false;
@@ -260,7 +263,7 @@ public class SimpleNonceManager implements SessionNonceManager {
             return false;
         }
 
-        long now = System.currentTimeMillis();
+        long now = currentTimeMillis();
         // NOTE - This check is for the first use, overall validity is checked in validateNonceWithCount.
         long earliestAccepted = now - firstUseTimeOut;
         if (value.timeStamp < earliestAccepted || value.timeStamp > now) {
@@ -270,68 +273,53 @@ public class SimpleNonceManager implements SessionNonceManager {
 
         if (nonceCount < 0) {
             // Allow a single use but reject all further uses.
-            return addInvalidNonce(value, executor);
+            return addInvalidNonce(value);
         } else {
-            return validateNonceWithCount(value, nonceCount, executor);
+            return validateNonceWithCount(value, nonceCount);
         }
     }
 
-    private boolean validateNonceWithCount(Nonce nonce, int nonceCount, final XnioExecutor executor) {
+    private boolean validateNonceWithCount(Nonce nonce, int nonceCount) {
         // This point could have been reached either because the knownNonces map contained the key or because
-        // it didn't and a count was supplied - either way need to double check the contents of knownNonces once
-        // the lock is in place.
-        synchronized (knownNonces) {
-            Nonce value = knownNonces.get(nonce.nonce);
-            long now = System.currentTimeMillis();
-            // For the purpose of this validation we also add the cacheTimePostExpiry - when nextNonce is subsequently
-            // called it will decide if we are in the interval to replace the nonce.
-            long earliestAccepted = now - (overallTimeOut + cacheTimePostExpiry);
-            if (value == null) {
-                if (nonce.timeStamp < 0) {
-                    // Means it was in there, now it isn't - most likely a timestamp expiration mid check - abandon validation.
-                    return false;
-                }
-
-                if (nonce.timeStamp > earliestAccepted && nonce.timeStamp < now) {
-                    knownNonces.put(nonce.nonce, nonce);
-                    long timeTillExpiry = nonce.timeStamp - earliestAccepted;
-                    nonce.executorKey = executor.executeAfter(new KnownNonceCleaner(nonce.nonce), timeTillExpiry,
-                            TimeUnit.MILLISECONDS);
-                    return true;
-                }
-
+        // it didn't and a count was supplied - either way need to double check the contents of knownNonces.
+        Nonce value = knownNonces.get(nonce.nonce);
+        long now = currentTimeMillis();
+        // For the purpose of this validation we also add the cacheTimePostExpiry - when nextNonce is subsequently
+        // called it will decide if we are in the interval to replace the nonce.
+        long earliestAccepted = now - (overallTimeOut + cacheTimePostExpiry);
+        if (value == null) {
+            if (nonce.timeStamp < 0) {
+                // Means it was in there, now it isn't - most likely a timestamp expiration mid check - abandon validation.
                 return false;
-            } else {
-                // We have it, just need to verify that it has not expired and that the nonce key is valid.
-                if (value.timeStamp < earliestAccepted || value.timeStamp > now) {
-                    // The embedded timestamp is either expired or somehow is after now!!
-                    return false;
-                }
+            }
 
-                if (value.getMaxNonceCount() < nonceCount) {
-                    value.setMaxNonceCount(nonceCount);
+            if (nonce.timeStamp > earliestAccepted && nonce.timeStamp < now) {
+                value = knownNonces.putIfAbsent(nonce.nonce, nonce, nonce.timeStamp + overallTimeOut + cacheTimePostExpiry);
+                if (value == null) {
                     return true;
                 }
-
+                // Another request registered the nonce first, so the nonce count has to be checked against it.
+            } else {
                 return false;
             }
+        }
 
+        // We have it, just need to verify that it has not expired and that the nonce key is valid.
+        if (value.timeStamp < earliestAccepted || value.timeStamp > now) {
+            // The embedded timestamp is either expired or somehow is after now!!
+            return false;
         }
 
+        return value.updateMaxNonceCount(nonceCount);
     }
 
-    private boolean addInvalidNonce(final Nonce nonce, final XnioExecutor executor) {
-        long now = System.currentTimeMillis();
+    private boolean addInvalidNonce(final Nonce nonce) {
+        long now = currentTimeMillis();
         long invalidBefore = now - firstUseTimeOut;
 
         long timeTillInvalid = nonce.timeStamp - invalidBefore;
         if (timeTillInvalid > 0) {
-            if (invalidNonces.add(nonce.nonce)) {
-                executor.executeAfter(new InvalidNonceCleaner(nonce.nonce), timeTillInvalid, TimeUnit.MILLISECONDS);
-                return true;
-            } else {
-                return false;
-            }
+            return invalidNonces.putIfAbsent(nonce.nonce, nonce, nonce.timeStamp + firstUseTimeOut) == null;
         } else {
             // So close to expiring any record of this nonce being used could have been cleared so
             // don't take a chance and just say no.
@@ -408,12 +396,12 @@ public class SimpleNonceManager implements SessionNonceManager {
     }
 
     private byte[] generateHash(final byte[] prefix, final byte[] timeStamp) {
-        MessageDigest digest = getDigest(hashAlg);
+        MessageDigest digest = digests.get();
 
         digest.update(prefix);
         digest.update(timeStamp);
 
-        return digest.digest(secret.getBytes(UTF_8));
+        return digest.digest(secretBytes);
     }
 
     public void associateHash(String nonce, byte[] hash) {
@@ -426,48 +414,19 @@ public class SimpleNonceManager implements SessionNonceManager {
         return null;
     }
 
-    /**
-     * A simple wrapper around a nonce to allow it to be used as a key in a weak map.
-     */
-    private class NonceHolder {
-        private final String nonce;
-
-        private NonceHolder(final String nonce) {
-            if (nonce == null) {
-                throw new NullPointerException("nonce must not be null.");
-            }
-            this.nonce = nonce;
-        }
-
-        @Override
-        public int hashCode() {
-            return nonce.hashCode();
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            return (obj instanceof NonceHolder) ? nonce.equals(((NonceHolder) obj).nonce) : false;
-        }
-    }
-
     /**
      * The state associated with a nonce.
-     *
-     * A NonceKey for a preciously valid nonce is also referenced, this is so that a WeakHashMap can be used to maintain a
-     * mapping from the original NonceKey to the new nonce value.
      */
-    private class Nonce {
+    private static class Nonce {
+
+        private static final AtomicIntegerFieldUpdater<Nonce> maxNonceCountUpdater = AtomicIntegerFieldUpdater.newUpdater(Nonce.class, "maxNonceCount");
 
         private final String nonce;
 
         private final long timeStamp;
         // TODO we will also add a mechanism to track the gaps as the only restriction is that a NC can only be used one.
-        private int maxNonceCount;
-        // We keep this as it is used in the wek hash map as a forward mapping as long as the nonce to map to is still alive.
-        @SuppressWarnings("unused")
-        private final NonceHolder previousNonce;
-        private byte[] sessionKey;
-        private Key executorKey;
+        private volatile int maxNonceCount;
+        private volatile byte[] sessionKey;
 
         private Nonce(final String nonce) {
             this(nonce, -1, -1);
@@ -478,18 +437,9 @@ public class SimpleNonceManager implements SessionNonceManager {
         }
 
         private Nonce(final String nonce, final long timeStamp, final int initialNC) {
-            this(nonce, timeStamp, initialNC, null);
-        }
-
-        private Nonce(final String nonce, final long timeStamp, final NonceHolder previousNonce) {
-            this(nonce, timeStamp, -1, previousNonce);
-        }
-
-        private Nonce(final String nonce, final long timeStamp, final int initialNC, final NonceHolder previousNonce) {
             this.nonce = nonce;
             this.timeStamp = timeStamp;
             this.maxNonceCount = initialNC;
-            this.previousNonce = previousNonce;
         }
 
         byte[] getSessionKey() {
@@ -500,45 +450,125 @@ public class SimpleNonceManager implements SessionNonceManager {
             this.sessionKey = sessionKey;
         }
 
-        int getMaxNonceCount() {
-            return maxNonceCount;
-        }
-
-        void setMaxNonceCount(int maxNonceCount) {
-            this.maxNonceCount = maxNonceCount;
+        /**
+         * Records the use of a nonce count.
+         *
+         * @return <code>true</code> if the nonce count is greater than any previously used count
+         */
+        boolean updateMaxNonceCount(int nonceCount) {
+            for (;;) {
+                int current = maxNonceCount;
+                if (current >= nonceCount) {
+                    return false;
+                }
+                if (maxNonceCountUpdater.compareAndSet(this, current, nonceCount)) {
+                    return true;
+                }
+            }
         }
 
     }
 
-    private class InvalidNonceCleaner implements Runnable {
+    /**
+     * A concurrent map where each entry has an expiry time.
+     *
+     * Entries are also added to the bucket covering their expiry time, once a bucket has expired the first request to
+     * notice removes all the entries in it from the map. Entries may therefore remain in the map for up to
+     * {@link #EXPIRY_BUCKET_SIZE} after they expire, callers are expected to check the time stamps of the values they
+     * retrieve.
+     */
+    private final class ExpiringMap<V> {
 
-        private final String nonce;
+        private final ConcurrentHashMap<String, V> entries = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Long, Queue<ExpiringEntry<V>>> buckets = new ConcurrentHashMap<>();
+        private final AtomicLong nextExpiry = new AtomicLong(Long.MAX_VALUE);
 
-        private InvalidNonceCleaner(final String nonce) {
-            if (nonce == null) {
-                throw new NullPointerException("nonce must not be null.");
-            }
-            this.nonce = nonce;
+        V get(final String key) {
+            expire();
+            return entries.get(key);
         }
 
-        public void run() {
-            invalidNonces.remove(nonce);
+        boolean containsKey(final String key) {
+            expire();
+            return entries.containsKey(key);
         }
 
-    }
+        void put(final String key, final V value, final long expiry) {
+            expire();
+            entries.put(key, value);
+            schedule(key, value, expiry);
+        }
 
-    private class KnownNonceCleaner implements Runnable {
-        private final String nonce;
+        V putIfAbsent(final String key, final V value, final long expiry) {
+            expire();
+            V existing = entries.putIfAbsent(key, value);
+            if (existing == null) {
+                schedule(key, value, expiry);
+            }
+            return existing;
+        }
+
+        boolean remove(final String key, final V value) {
+            return entries.remove(key, value);
+        }
 
-        private KnownNonceCleaner(final String nonce) {
-            if (nonce == null) {
-                throw new NullPointerException("nonce must not be null.");
+        private void schedule(final String key, final V value, final long expiry) {
+            // The entry is placed in the bucket that ends after it expires, so it is never removed early.
+            Long bucket = expiry / EXPIRY_BUCKET_SIZE + 1;
+            Queue<ExpiringEntry<V>> queue = buckets.get(bucket);
+            if (queue == null) {
+                Queue<ExpiringEntry<V>> existing = buckets.putIfAbsent(bucket, queue = new ConcurrentLinkedQueue<>());
+                if (existing != null) {
+                    queue = existing;
+                }
+            }
+            queue.add(new ExpiringEntry<>(key, value));
+            long bucketEnd = bucket * EXPIRY_BUCKET_SIZE;
+            for (;;) {
+                long current = nextExpiry.get();
+                if (current <= bucketEnd || nextExpiry.compareAndSet(current, bucketEnd)) {
+                    break;
+                }
+            }
+        }
+
+        private void expire() {
+            long next = nextExpiry.get();
+            long now = currentTimeMillis();
+            if (now < next || !nextExpiry.compareAndSet(next, Long.MAX_VALUE)) {
+                return;
+            }
+            long earliestRemaining = Long.MAX_VALUE;
+            Iterator<Map.Entry<Long, Queue<ExpiringEntry<V>>>> it = buckets.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, Queue<ExpiringEntry<V>>> bucket = it.next();
+                long bucketEnd = bucket.getKey() * EXPIRY_BUCKET_SIZE;
+                if (bucketEnd <= now) {
+                    it.remove();
+                    for (ExpiringEntry<V> entry : bucket.getValue()) {
+                        entries.remove(entry.key, entry.value);
+                    }
+                } else if (bucketEnd < earliestRemaining) {
+                    earliestRemaining = bucketEnd;
+                }
+            }
+            // Entries may have been scheduled concurrently, so only ever bring the next expiry forward.
+            for (;;) {
+                long current = nextExpiry.get();
+                if (current <= earliestRemaining || nextExpiry.compareAndSet(current, earliestRemaining)) {
+                    break;
+                }
             }
-            this.nonce = nonce;
         }
+    }
+
+    private static final class ExpiringEntry<V> {
+        private final String key;
+        private final V value;
 
-        public void run() {
-            knownNonces.remove(nonce);
+        private ExpiringEntry(final String key, final V value) {
+            this.key = key;
+            this.value = value;
         }
     }
 
@@ -19,6 +19,7 @@
 package io.undertow.server;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import io.undertow.UndertowLogger;
 import io.undertow.UndertowMessages;
@@ -53,11 +54,24 @@ public final class HttpHandlers {
             exchange.setInCall(false);
             if (exchange.isDispatched()) {
                 final Runnable dispatchTask = exchange.getAttachment(HttpServerExchange.DISPATCH_TASK);
-                Executor executor = exchange.getAttachment(HttpServerExchange.DISPATCH_EXECUTOR);
+                Executor executor = exchange.getAttachment(HttpServerExchange.DISPATCH_TASK_EXECUTOR);
                 exchange.unDispatch();
                 if (dispatchTask != null) {
-                    executor = executor == null ? exchange.getConnection().getWorker() : executor;
-                    executor.execute(dispatchTask);
+                    if (executor == null) {
+                        executor = exchange.getDispatchExecutor();
+                    }
+                    if (executor == null) {
+                        executor = exchange.getConnection().getWorker();
+                    }
+                    try {
+                        executor.execute(dispatchTask);
+                    } catch (RejectedExecutionException e) {
+                        UndertowLogger.REQUEST_LOGGER.debugf(e, "Executor rejected dispatch of %s", exchange);
+                        if (!exchange.isResponseStarted()) {
+                            exchange.setResponseCode(503);
+                        }
+                        exchange.endExchange();
+                    }
                 }
             } else {
                 exchange.endExchange();
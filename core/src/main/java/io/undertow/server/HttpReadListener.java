@@ -50,6 +50,12 @@ final class HttpReadListener implements ChannelListener<StreamSourceChannel>, Ex
 
     private HttpServerExchange httpServerExchange;
 
+    /**
+     * If this is true then {@link #httpServerExchange} is a completed exchange, that must be recycled
+     * before the next request can be parsed into it.
+     */
+    private boolean recyclePending;
+
     private int read = 0;
     private final int maxRequestSize;
 
@@ -66,7 +72,25 @@ final class HttpReadListener implements ChannelListener<StreamSourceChannel>, Ex
         httpServerExchange.addExchangeCompleteListener(this);
     }
 
+    /**
+     * Re-uses a completed exchange for the next request. The exchange is not actually reset until this listener
+     * next runs, as the call stack that completed the exchange may still be referencing it.
+     *
+     * @param exchange The completed exchange
+     */
+    private void recycleRequest(final HttpServerExchange exchange) {
+        state.reset();
+        read = 0;
+        httpServerExchange = exchange;
+        recyclePending = true;
+    }
+
     public void handleEvent(final StreamSourceChannel channel) {
+        if (recyclePending) {
+            recyclePending = false;
+            httpServerExchange.recycle();
+            httpServerExchange.addExchangeCompleteListener(this);
+        }
 
         Pooled<ByteBuffer> existing = connection.getExtraBytes();
 
@@ -172,7 +196,13 @@ final class HttpReadListener implements ChannelListener<StreamSourceChannel>, Ex
     public void exchangeEvent(final HttpServerExchange exchange, final ExchangeCompletionListener.NextListener nextListener) {
         connection.resetChannel();
         if (exchange.isPersistent() && !exchange.isUpgrade()) {
-            newRequest();
+            if (connection.isRecycleExchanges() && exchange.isInIoThread()) {
+                //we only recycle exchanges that were completed in the IO thread, as this
+                //guarantees that the current call stack has returned before the next request is read
+                recycleRequest(exchange);
+            } else {
+                newRequest();
+            }
             StreamConnection channel = exchange.getConnection().getChannel();
             if (exchange.getConnection().getExtraBytes() == null) {
                 //if we are not pipelining we just register a listener
@@ -186,11 +216,9 @@ final class HttpReadListener implements ChannelListener<StreamSourceChannel>, Ex
                 if (exchange.isInIoThread()) {
                     channel.getIoThread().execute(this);
                 } else {
-                    Executor executor = exchange.getDispatchExecutor();
-                    if (executor == null) {
-                        executor = exchange.getConnection().getWorker();
-                    }
-                    executor.execute(this);
+                    //the next request may not belong to the same part of the handler chain, so it
+                    //is not run by the dispatch executor of this exchange
+                    exchange.getConnection().getWorker().execute(this);
                 }
             }
         }
@@ -21,6 +21,7 @@ package io.undertow.server;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -167,6 +168,44 @@ public abstract class HttpRequestParser {
 
     public static final int ASCII_MAX = 127;
 
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /**
+     * The numeric value of each hex digit, indexed by character.
+     */
+    private static final byte[] HEX_VALUES = new byte[ASCII_MAX + 1];
+
+    /**
+     * Marks the first digit of a percent encoded byte as having been read. This is needed as the first digit may be
+     * 0, and a current byte value of 0 means that no encoding sequence is in progress.
+     */
+    private static final int HEX_PENDING = 0x100;
+
+    /**
+     * Character flags, used to find the end of the plain part of a path or query string.
+     */
+    private static final byte[] PLAIN_CHARS = new byte[ASCII_MAX + 1];
+    private static final byte PLAIN_PATH = 1;
+    private static final byte PLAIN_QUERY = 2;
+
+    static {
+        for (int i = 0; i < 10; ++i) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; ++i) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+        for (int i = ' ' + 1; i < ASCII_MAX; ++i) {
+            PLAIN_CHARS[i] = PLAIN_PATH | PLAIN_QUERY;
+        }
+        //characters that need decoding, or change the parse state
+        PLAIN_CHARS['%'] = 0;
+        PLAIN_CHARS['+'] = 0;
+        PLAIN_CHARS['?'] = PLAIN_QUERY;
+        PLAIN_CHARS[':'] = PLAIN_QUERY;
+    }
+
     private final int maxParameters;
     private final int maxHeaders;
     private final boolean allowEncodedSlash;
@@ -280,6 +319,10 @@ public abstract class HttpRequestParser {
         urlDecodeState &= 0xFF;
         int urlDecodeCodePoint = state.urlDecodeCodePoint;
 
+        if (stringBuilder.length() == 0 && parseState == START && urlDecodeCurrentByte == 0 && handlePlainPath(buffer, state, exchange)) {
+            return;
+        }
+
         while (buffer.hasRemaining()) {
             char next = (char) buffer.get();
             if (next == ' ' || next == '\t') {
@@ -315,11 +358,10 @@ public abstract class HttpRequestParser {
                     //we are in the middle of an encoding sequence
                     if ((next >= '0' && next <= '9') || (next >= 'a' && next <= 'f') || (next >= 'A' && next <= 'F')) {
                         if (urlDecodeCurrentByte == 0xFFFF) {
-                            urlDecodeCurrentByte = Integer.parseInt("" + next, 16);
+                            urlDecodeCurrentByte = HEX_PENDING | HEX_VALUES[next];
                             continue;
                         } else {
-                            urlDecodeCurrentByte <<= 4;
-                            urlDecodeCurrentByte += Integer.parseInt("" + next, 16);
+                            urlDecodeCurrentByte = (urlDecodeCurrentByte & 0xF) << 4 | HEX_VALUES[next];
                             byte type = TYPES[urlDecodeCurrentByte & 0xFF];
 
                             urlDecodeCodePoint = urlDecodeState != UTF8_ACCEPT ? urlDecodeCurrentByte & 0x3f | urlDecodeCodePoint << 6 : 0xff >> type & urlDecodeCurrentByte;
@@ -404,40 +446,34 @@ public abstract class HttpRequestParser {
 
 
     /**
-     * Parses a path value
+     * Parses the query string. The query parameters are not split out here, they are decoded from the query string
+     * by the exchange when they are first accessed. The number of parameters is still checked, so requests with too
+     * many parameters are rejected at parse time.
      *
      * @param buffer   The buffer
      * @param state    The current state
      * @param exchange The exchange builder
-     * @return The number of bytes remaining
      */
     @SuppressWarnings("unused")
     final void handleQueryParameters(ByteBuffer buffer, ParseState state, HttpServerExchange exchange) {
         StringBuilder stringBuilder = state.stringBuilder;
-        int queryParamPos = state.pos;
         int mapCount = state.mapCount;
         int urlDecodeState = state.urlDecodeState;
         int urlDecodeCurrentByte = (urlDecodeState & 0xFFFF00) >> 8;
         urlDecodeState &= 0xFF;
         int urlDecodeCodePoint = state.urlDecodeCodePoint;
-        String nextQueryParam = state.nextQueryParam;
+
+        if (stringBuilder.length() == 0 && urlDecodeCurrentByte == 0 && handlePlainQueryParameters(buffer, state, exchange)) {
+            return;
+        }
 
         while (buffer.hasRemaining()) {
             char next = (char) buffer.get();
             if (next == ' ' || next == '\t') {
-                final String queryString = stringBuilder.toString();
-                exchange.setQueryString(queryString);
-                if (nextQueryParam == null) {
-                    if (queryParamPos != stringBuilder.length()) {
-                        exchange.addQueryParam(stringBuilder.substring(queryParamPos), "");
-                    }
-                } else {
-                    exchange.addQueryParam(nextQueryParam, stringBuilder.substring(queryParamPos));
-                }
+                exchange.setParsedQueryString(stringBuilder.toString());
                 state.state = ParseState.VERSION;
                 state.stringBuilder.setLength(0);
                 state.pos = 0;
-                state.nextQueryParam = null;
                 state.urlDecodeCodePoint = 0;
                 state.urlDecodeState = 0;
                 state.mapCount = 0;
@@ -445,22 +481,20 @@ public abstract class HttpRequestParser {
             } else if (next == '\r' || next == '\n') {
                 throw UndertowMessages.MESSAGES.failedToParsePath();
             } else {
-                //this code deals with decoding the query parameters
+                //this code deals with decoding the query string
                 //if is unfortunatly a bit complex, as it needs to deal with
                 //multi byte unicode characters in the URL
                 //it also needs to deal with resuming in the middle of a multi byte character
-                //and encoded special characters (e.g. an encoded = or &)
 
                 //first we deal with encoding
                 if (urlDecodeCurrentByte != 0) {
                     //we are in the middle of an encoding sequence
                     if ((next >= '0' && next <= '9') || (next >= 'a' && next <= 'f') || (next >= 'A' && next <= 'F')) {
                         if (urlDecodeCurrentByte == 0xFFFF) {
-                            urlDecodeCurrentByte = Integer.parseInt("" + next, 16);
+                            urlDecodeCurrentByte = HEX_PENDING | HEX_VALUES[next];
                             continue;
                         } else {
-                            urlDecodeCurrentByte <<= 4;
-                            urlDecodeCurrentByte += Integer.parseInt("" + next, 16);
+                            urlDecodeCurrentByte = (urlDecodeCurrentByte & 0xF) << 4 | HEX_VALUES[next];
                             byte type = TYPES[urlDecodeCurrentByte & 0xFF];
 
                             urlDecodeCodePoint = urlDecodeState != UTF8_ACCEPT ? urlDecodeCurrentByte & 0x3f | urlDecodeCodePoint << 6 : 0xff >> type & urlDecodeCurrentByte;
@@ -501,36 +535,123 @@ public abstract class HttpRequestParser {
                     next = ' ';
                 }
                 //at this point next may have been modified, if it was encoded
-                if (next == '=' && nextQueryParam == null) {
-                    nextQueryParam = stringBuilder.substring(queryParamPos);
-                    queryParamPos = stringBuilder.length() + 1;
-                } else if (next == '&' && nextQueryParam == null) {
-                    if (mapCount++ > maxParameters) {
-                        throw UndertowMessages.MESSAGES.tooManyQueryParameters(maxParameters);
-                    }
-                    exchange.addQueryParam(stringBuilder.substring(queryParamPos), "");
-                    queryParamPos = stringBuilder.length() + 1;
-                } else if (next == '&') {
-                    if (mapCount++ > maxParameters) {
-                        throw UndertowMessages.MESSAGES.tooManyQueryParameters(maxParameters);
-                    }
-
-                    exchange.addQueryParam(nextQueryParam, stringBuilder.substring(queryParamPos));
-                    queryParamPos = stringBuilder.length() + 1;
-                    nextQueryParam = null;
+                if (next == '&' && mapCount++ > maxParameters) {
+                    throw UndertowMessages.MESSAGES.tooManyQueryParameters(maxParameters);
                 }
                 stringBuilder.append(next);
             }
 
         }
-        state.pos = queryParamPos;
-        state.nextQueryParam = nextQueryParam;
         state.urlDecodeState = urlDecodeState | (urlDecodeCurrentByte << 8);
         state.urlDecodeCodePoint = urlDecodeCodePoint;
-        state.mapCount = 0;
+        state.mapCount = mapCount;
     }
 
 
+    /**
+     * Parses the path directly from the buffer, if it is fully contained in the buffer and does not
+     * need any decoding. Otherwise the buffer is left untouched, and the path is parsed character by character.
+     *
+     * @return <code>true</code> if the path was parsed
+     */
+    private boolean handlePlainPath(ByteBuffer buffer, ParseState state, HttpServerExchange exchange) {
+        final int limit = buffer.limit();
+        int start = buffer.position();
+        while (start < limit && isWhitespace(buffer.get(start))) {
+            ++start;
+        }
+        final int end = scanPlain(buffer, start, limit, PLAIN_PATH);
+        if (end == limit) {
+            return false;
+        }
+        final byte next = buffer.get(end);
+        if (isWhitespace(next)) {
+            final String path = asciiString(buffer, start, end);
+            exchange.setRequestURI(path);
+            exchange.setParsedRequestPath(path);
+            exchange.setQueryString("");
+            buffer.position(end + 1);
+            state.state = ParseState.VERSION;
+            return true;
+        } else if (next == '?') {
+            final String path = asciiString(buffer, start, end);
+            exchange.setRequestURI(path);
+            exchange.setParsedRequestPath(path);
+            buffer.position(end + 1);
+            state.state = ParseState.QUERY_PARAMETERS;
+            handleQueryParameters(buffer, state, exchange);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parses the query string directly from the buffer, if it is fully contained in the buffer and does not
+     * need any decoding. Otherwise the buffer is left untouched, and the query string is parsed character by character.
+     *
+     * @return <code>true</code> if the query string was parsed
+     */
+    private boolean handlePlainQueryParameters(ByteBuffer buffer, ParseState state, HttpServerExchange exchange) {
+        final int start = buffer.position();
+        final int limit = buffer.limit();
+        final int end = scanPlain(buffer, start, limit, PLAIN_QUERY);
+        if (end == limit || !isWhitespace(buffer.get(end))) {
+            return false;
+        }
+        final String queryString = asciiString(buffer, start, end);
+        int mapCount = 0;
+        for (int i = queryString.indexOf('&'); i != -1; i = queryString.indexOf('&', i + 1)) {
+            if (mapCount++ > maxParameters) {
+                throw UndertowMessages.MESSAGES.tooManyQueryParameters(maxParameters);
+            }
+        }
+        exchange.setParsedQueryString(queryString);
+        buffer.position(end + 1);
+        state.state = ParseState.VERSION;
+        return true;
+    }
+
+    private static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Returns the index of the first character in the given range that does not have the given flag, or the end
+     * of the range if there is no such character.
+     */
+    private static int scanPlain(final ByteBuffer buffer, final int start, final int end, final byte flag) {
+        final byte[] plain = PLAIN_CHARS;
+        if (buffer.hasArray()) {
+            final byte[] array = buffer.array();
+            final int offset = buffer.arrayOffset();
+            for (int i = start + offset; i < end + offset; ++i) {
+                final byte b = array[i];
+                if (b < 0 || (plain[b] & flag) == 0) {
+                    return i - offset;
+                }
+            }
+        } else {
+            for (int i = start; i < end; ++i) {
+                final byte b = buffer.get(i);
+                if (b < 0 || (plain[b] & flag) == 0) {
+                    return i;
+                }
+            }
+        }
+        return end;
+    }
+
+    private static String asciiString(final ByteBuffer buffer, final int start, final int end) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, ISO_8859_1);
+        }
+        final byte[] data = new byte[end - start];
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(start);
+        duplicate.get(data);
+        return new String(data, ISO_8859_1);
+    }
+
     /**
      * The parse states for parsing heading values
      */
@@ -22,11 +22,13 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 import io.undertow.util.HeaderMap;
 import io.undertow.util.HeaderValues;
 import io.undertow.util.HttpString;
 import io.undertow.util.StatusCodes;
+import org.xnio.Buffers;
 import org.xnio.Pool;
 import org.xnio.Pooled;
 import org.xnio.XnioWorker;
@@ -54,6 +56,13 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
     private Pooled<ByteBuffer> pooledBuffer;
     private final HttpServerExchange exchange;
 
+    /**
+     * Array used to gather the header buffer and the user data into a single write, it is re-used
+     * for the life of the connection.
+     */
+    private ByteBuffer[] gatherArray;
+    private final ByteBuffer[] singleBuffer = new ByteBuffer[1];
+
     private static final int STATE_BODY = 0; // Message body, normal pass-through operation
     private static final int STATE_START = 1; // No headers written yet
     private static final int STATE_HDR_NAME = 2; // Header name indexed by charIndex
@@ -75,41 +84,57 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
         this.exchange = exchange;
     }
 
+    /**
+     * Attempts to reset this conduit so it can write the response for the next request on the connection.
+     *
+     * @param next     The conduit the response will be written to
+     * @param exchange The exchange that will be using this conduit
+     * @return <code>true</code> if this conduit has been reset, <code>false</code> if it cannot be re-used
+     */
+    boolean reset(final StreamSinkConduit next, final HttpServerExchange exchange) {
+        if (this.next != next || this.exchange != exchange || pooledBuffer != null) {
+            return false;
+        }
+        state = STATE_START;
+        fiCookie = -1L;
+        string = null;
+        headerValues = null;
+        valueIdx = 0;
+        charIndex = 0;
+        return true;
+    }
+
 
     /**
-     * Handles writing out the header data. It can also take a byte buffer of user
+     * Handles writing out the header data. It can also take byte buffers of user
      * data, to enable both user data and headers to be written out in a single operation,
      * which has a noticeable performance impact.
      * <p/>
-     * It is up to the caller to note the current position of this buffer before and after they
+     * It is up to the caller to note the current position of these buffers before and after they
      * call this method, and use this to figure out how many bytes (if any) have been written.
      *
      * @param state
-     * @param userData
+     * @param userData The user data, or <code>null</code> if there is none
+     * @param offset   The offset of the user data in the array
+     * @param length   The number of user data buffers
      * @return
      * @throws IOException
      */
-    private int processWrite(int state, final ByteBuffer userData) throws IOException {
+    private int processWrite(int state, final ByteBuffer[] userData, final int offset, final int length) throws IOException {
         assert state != STATE_BODY;
         if (state == STATE_BUF_FLUSH) {
             final ByteBuffer byteBuffer = pooledBuffer.getResource();
             do {
-                long res = 0;
-                ByteBuffer[] data;
-                if (userData == null) {
-                    data = new ByteBuffer[]{byteBuffer};
-                } else {
-                    data = new ByteBuffer[]{byteBuffer, userData};
-                }
-                res = next.write(data, 0, data.length);
+                long res = gatheringWrite(byteBuffer, userData, offset, length);
                 if (res == 0) {
                     return STATE_BUF_FLUSH;
                 }
             } while (byteBuffer.hasRemaining());
             pooledBuffer.free();
+            pooledBuffer = null;
             return STATE_BODY;
         } else if (state != STATE_START) {
-            return processStatefulWrite(state, userData);
+            return processStatefulWrite(state, userData, offset, length);
         }
         pooledBuffer = pool.allocate();
         ByteBuffer buffer = pooledBuffer.getResource();
@@ -150,7 +175,7 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
                     this.charIndex = 0;
                     this.state = STATE_HDR_NAME;
                     buffer.flip();
-                    return processStatefulWrite(STATE_HDR_NAME, buffer);
+                    return processStatefulWrite(STATE_HDR_NAME, userData, offset, length);
                 }
                 header.appendTo(buffer);
                 buffer.put((byte) ':').put((byte) ' ');
@@ -165,7 +190,7 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
                     this.charIndex = 0;
                     this.state = STATE_HDR_VAL;
                     buffer.flip();
-                    return processStatefulWrite(STATE_HDR_VAL, buffer);
+                    return processStatefulWrite(STATE_HDR_VAL, userData, offset, length);
                 }
                 writeString(buffer, string);
                 buffer.put((byte) '\r').put((byte) '\n');
@@ -175,22 +200,36 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
         buffer.put((byte) '\r').put((byte) '\n');
         buffer.flip();
         do {
-            long res = 0;
-            ByteBuffer[] data;
-            if (userData == null) {
-                data = new ByteBuffer[]{buffer};
-            } else {
-                data = new ByteBuffer[]{buffer, userData};
-            }
-            res = next.write(data, 0, data.length);
+            long res = gatheringWrite(buffer, userData, offset, length);
             if (res == 0) {
                 return STATE_BUF_FLUSH;
             }
         } while (buffer.hasRemaining());
         pooledBuffer.free();
+        pooledBuffer = null;
         return STATE_BODY;
     }
 
+    /**
+     * Writes the header buffer, followed by as much of the user data as possible in the same operation.
+     */
+    private long gatheringWrite(final ByteBuffer buffer, final ByteBuffer[] userData, final int offset, final int length) throws IOException {
+        if (userData == null) {
+            return next.write(buffer);
+        }
+        ByteBuffer[] data = gatherArray;
+        if (data == null || data.length < length + 1) {
+            data = gatherArray = new ByteBuffer[length + 1];
+        }
+        data[0] = buffer;
+        System.arraycopy(userData, offset, data, 1, length);
+        try {
+            return next.write(data, 0, length + 1);
+        } finally {
+            Arrays.fill(data, 0, length + 1, null);
+        }
+    }
+
     private static void writeString(ByteBuffer buffer, String string) {
         int length = string.length();
         for (int charIndex = 0; charIndex < length; charIndex++) {
@@ -202,12 +241,12 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
     /**
      * Handles writing out the header data in the case where is is too big to fit into a buffer. This is a much slower code path.
      */
-    private int processStatefulWrite(int state, final ByteBuffer userData) throws IOException {
+    private int processStatefulWrite(int state, final ByteBuffer[] userData, final int offset, final int length) throws IOException {
         ByteBuffer buffer = pooledBuffer.getResource();
         long fiCookie = this.fiCookie;
         int valueIdx = this.valueIdx;
         int charIndex = this.charIndex;
-        int length;
+        int len;
         String string = this.string;
         HeaderValues headerValues = this.headerValues;
         int res;
@@ -227,8 +266,8 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
             switch (state) {
                 case STATE_HDR_NAME: {
                     final HttpString headerName = headerValues.getHeaderName();
-                    length = headerName.length();
-                    while (charIndex < length) {
+                    len = headerName.length();
+                    while (charIndex < len) {
                         if (buffer.hasRemaining()) {
                             buffer.put(headerName.byteAt(charIndex++));
                         } else {
@@ -293,8 +332,8 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
                     // fall thru
                 }
                 case STATE_HDR_VAL: {
-                    length = string.length();
-                    while (charIndex < length) {
+                    len = string.length();
+                    while (charIndex < len) {
                         if (buffer.hasRemaining()) {
                             buffer.put((byte) string.charAt(charIndex++));
                         } else {
@@ -342,22 +381,12 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
                             this.string = null;
                             buffer.flip();
                             //for performance reasons we use a gather write if there is user data
-                            if (userData == null) {
-                                do {
-                                    res = next.write(buffer);
-                                    if (res == 0) {
-                                        return STATE_BUF_FLUSH;
-                                    }
-                                } while (buffer.hasRemaining());
-                            } else {
-                                ByteBuffer[] b = {buffer, userData};
-                                do {
-                                    long r = next.write(b, 0, b.length);
-                                    if (r == 0 && buffer.hasRemaining()) {
-                                        return STATE_BUF_FLUSH;
-                                    }
-                                } while (buffer.hasRemaining());
-                            }
+                            do {
+                                long r = gatheringWrite(buffer, userData, offset, length);
+                                if (r == 0 && buffer.hasRemaining()) {
+                                    return STATE_BUF_FLUSH;
+                                }
+                            } while (buffer.hasRemaining());
                             pooledBuffer.free();
                             pooledBuffer = null;
                             return STATE_BODY;
@@ -406,22 +435,12 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
                     this.string = null;
                     buffer.flip();
                     //for performance reasons we use a gather write if there is user data
-                    if (userData == null) {
-                        do {
-                            res = next.write(buffer);
-                            if (res == 0) {
-                                return STATE_BUF_FLUSH;
-                            }
-                        } while (buffer.hasRemaining());
-                    } else {
-                        ByteBuffer[] b = {buffer, userData};
-                        do {
-                            long r = next.write(b, 0, b.length);
-                            if (r == 0) {
-                                return STATE_BUF_FLUSH;
-                            }
-                        } while (buffer.hasRemaining());
-                    }
+                    do {
+                        long r = gatheringWrite(buffer, userData, offset, length);
+                        if (r == 0 && buffer.hasRemaining()) {
+                            return STATE_BUF_FLUSH;
+                        }
+                    } while (buffer.hasRemaining());
                     // fall thru
                 }
                 case STATE_BUF_FLUSH: {
@@ -458,7 +477,13 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
         try {
             if (state != 0) {
                 originalRemaining = src.remaining();
-                state = processWrite(state, src);
+                final ByteBuffer[] singleBuffer = this.singleBuffer;
+                singleBuffer[0] = src;
+                try {
+                    state = processWrite(state, singleBuffer, 0, 1);
+                } finally {
+                    singleBuffer[0] = null;
+                }
                 if (state != 0) {
                     return 0;
                 }
@@ -487,19 +512,24 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
         }
         int oldVal = state;
         int state = oldVal & MASK_STATE;
+        long alreadyWritten = 0;
         try {
             if (state != 0) {
-                //todo: use gathering write here
-                state = processWrite(state, null);
+                long originalRemaining = Buffers.remaining(srcs, offset, length);
+                state = processWrite(state, srcs, offset, length);
                 if (state != 0) {
                     return 0;
                 }
+                alreadyWritten = originalRemaining - Buffers.remaining(srcs, offset, length);
                 if (allAreSet(oldVal, FLAG_SHUTDOWN)) {
                     next.terminateWrites();
                     throw new ClosedChannelException();
                 }
+                if (alreadyWritten == originalRemaining) {
+                    return alreadyWritten;
+                }
             }
-            return length == 1 ? next.write(srcs[offset]) : next.write(srcs, offset, length);
+            return (length == 1 ? next.write(srcs[offset]) : next.write(srcs, offset, length)) + alreadyWritten;
         } finally {
             this.state = oldVal & ~MASK_STATE | state;
         }
@@ -513,7 +543,7 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
         int state = oldVal & MASK_STATE;
         try {
             if (state != 0) {
-                state = processWrite(state, null);
+                state = processWrite(state, null, 0, 0);
                 if (state != 0) {
                     return 0;
                 }
@@ -537,7 +567,7 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
         int state = oldVal & MASK_STATE;
         try {
             if (state != 0) {
-                state = processWrite(state, null);
+                state = processWrite(state, null, 0, 0);
                 if (state != 0) {
                     return 0;
                 }
@@ -557,7 +587,7 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
         int state = oldVal & MASK_STATE;
         try {
             if (state != 0) {
-                state = processWrite(state, null);
+                state = processWrite(state, null, 0, 0);
                 if (state != 0) {
                     return false;
                 }
@@ -24,6 +24,8 @@ import java.nio.ByteBuffer;
 
 import javax.net.ssl.SSLSession;
 
+import io.undertow.UndertowOptions;
+import io.undertow.conduits.ReadDataStreamSourceConduit;
 import io.undertow.util.AbstractAttachable;
 import org.xnio.ChannelListener;
 import org.xnio.ChannelListeners;
@@ -54,17 +56,25 @@ public final class HttpServerConnection extends AbstractAttachable implements Co
     private final StreamSinkConduit originalSinkConduit;
 
     private final int bufferSize;
+    private final boolean recycleExchanges;
     /**
      * Any extra bytes that were read from the channel. This could be data for this requests, or the next response.
      */
     private Pooled<ByteBuffer> extraBytes;
 
+    /**
+     * Conduits that are re-used between requests if exchange recycling is enabled
+     */
+    HttpResponseConduit responseConduit;
+    ReadDataStreamSourceConduit readDataConduit;
+
     public HttpServerConnection(StreamConnection channel, final Pool<ByteBuffer> bufferPool, final HttpHandler rootHandler, final OptionMap undertowOptions, final int bufferSize) {
         this.channel = channel;
         this.bufferPool = bufferPool;
         this.rootHandler = rootHandler;
         this.undertowOptions = undertowOptions;
         this.bufferSize = bufferSize;
+        this.recycleExchanges = undertowOptions.get(UndertowOptions.RECYCLE_EXCHANGES, false);
         closeSetter = ChannelListeners.getDelegatingSetter(channel.getCloseSetter(), this);
         this.originalSinkConduit = channel.getSinkChannel().getConduit();
         this.originalSourceConduit = channel.getSourceChannel().getConduit();
@@ -157,6 +167,14 @@ public final class HttpServerConnection extends AbstractAttachable implements Co
         return bufferSize;
     }
 
+    /**
+     * @return <code>true</code> if exchanges and their conduits are re-used between requests on this connection
+     * @see UndertowOptions#RECYCLE_EXCHANGES
+     */
+    public boolean isRecycleExchanges() {
+        return recycleExchanges;
+    }
+
     public SSLSession getSslSession() {
         if (channel instanceof SslChannel) {
             return ((SslChannel) channel).getSslSession();
@@ -26,6 +26,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
 import java.nio.channels.FileChannel;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.Map;
 import java.util.TreeMap;
@@ -34,6 +35,7 @@ import java.util.concurrent.TimeUnit;
 
 import io.undertow.UndertowLogger;
 import io.undertow.UndertowMessages;
+import io.undertow.conduits.FixedLengthStreamSourceConduit;
 import io.undertow.io.AsyncSenderImpl;
 import io.undertow.io.BlockingSenderImpl;
 import io.undertow.io.Sender;
@@ -81,18 +83,25 @@ public final class HttpServerExchange extends AbstractAttachable {
     // immutable state
 
     /**
-     * The executor that is to be used to dispatch the {@link #DISPATCH_TASK}. Note that this is not cleared
-     * between dispatches, so once a request has been dispatched once then all subsequent dispatches will use
+     * The executor that is used to dispatch the {@link #DISPATCH_TASK} if no executor was passed to the dispatch call.
+     * Note that this is not cleared between dispatches, so once it has been set all subsequent dispatches will use
      * the same executor.
      */
     public static final AttachmentKey<Executor> DISPATCH_EXECUTOR = AttachmentKey.create(Executor.class);
 
     /**
-     * When the call stack return this task will be executed by the executor specified in {@link #DISPATCH_EXECUTOR}.
-     * If the executor is null then it will be executed by the XNIO worker.
+     * When the call stack return this task will be executed by the executor that was passed to the dispatch call,
+     * or if none was passed by the executor specified in {@link #DISPATCH_EXECUTOR}. If neither is set then it will be
+     * executed by the XNIO worker.
      */
     public static final AttachmentKey<Runnable> DISPATCH_TASK = AttachmentKey.create(Runnable.class);
 
+    /**
+     * The executor that was passed to the dispatch call that set the {@link #DISPATCH_TASK}. Unlike the
+     * {@link #DISPATCH_EXECUTOR} this only applies to a single dispatch, and is cleared by {@link #unDispatch()}.
+     */
+    static final AttachmentKey<Executor> DISPATCH_TASK_EXECUTOR = AttachmentKey.create(Executor.class);
+
     private static final Logger log = Logger.getLogger(HttpServerExchange.class);
 
     private final HttpServerConnection connection;
@@ -150,11 +159,28 @@ public final class HttpServerExchange extends AbstractAttachable {
      */
     private String queryString = "";
 
+    /**
+     * The query string that the query parameters have not been decoded from yet, or null if there is nothing to decode.
+     */
+    private String pendingQueryString;
+
+    /**
+     * The source and destination addresses, if they have been overridden by a proxy protocol.
+     */
+    private InetSocketAddress sourceAddress;
+    private InetSocketAddress destinationAddress;
+
     private int requestWrapperCount = 0;
     private ConduitWrapper<StreamSourceConduit>[] requestWrappers; //we don't allocate these by default, as for get requests they are not used
 
     private int responseWrapperCount = 0;
     private ConduitWrapper<StreamSinkConduit>[] responseWrappers = new ConduitWrapper[4]; //these are allocated by default, as they are always used
+    private ConduitWrapper<StreamSinkConduit>[] usedResponseWrappers; //kept so they can be re-used if the exchange is recycled
+
+    /**
+     * The request body, if it was consumed directly from the connection buffer
+     */
+    private ByteBuffer bufferedRequestBody;
 
     private static final int MASK_RESPONSE_CODE = intBitMask(0, 9);
     private static final int FLAG_RESPONSE_SENT = 1 << 10;
@@ -372,6 +398,46 @@ public final class HttpServerExchange extends AbstractAttachable {
         this.queryString = queryString;
     }
 
+    /**
+     * internal method used by the protocol parsers to set the query string. The query parameters
+     * are not decoded from the query string until they are first accessed.
+     */
+    public void setParsedQueryString(final String queryString) {
+        this.queryString = queryString;
+        this.queryParameters = null;
+        this.pendingQueryString = queryString.isEmpty() ? null : queryString;
+    }
+
+    private void decodeQueryParameters() {
+        final String queryString = pendingQueryString;
+        pendingQueryString = null;
+        final int length = queryString.length();
+        int pos = 0;
+        String name = null;
+        for (int i = 0; i < length; ++i) {
+            final char c = queryString.charAt(i);
+            if (c == '=' && name == null) {
+                name = queryString.substring(pos, i);
+                pos = i + 1;
+            } else if (c == '&') {
+                if (name == null) {
+                    addQueryParam(queryString.substring(pos, i), "");
+                } else {
+                    addQueryParam(name, queryString.substring(pos, i));
+                    name = null;
+                }
+                pos = i + 1;
+            }
+        }
+        if (name == null) {
+            if (pos != length) {
+                addQueryParam(queryString.substring(pos), "");
+            }
+        } else {
+            addQueryParam(name, queryString.substring(pos));
+        }
+    }
+
     /**
      * Reconstructs the complete URL as seen by the user. This includes scheme, host name etc,
      * but does not include query string.
@@ -419,8 +485,8 @@ public final class HttpServerExchange extends AbstractAttachable {
 
     public void unDispatch() {
         state &= ~FLAG_DISPATCHED;
-        removeAttachment(DISPATCH_EXECUTOR);
         removeAttachment(DISPATCH_TASK);
+        removeAttachment(DISPATCH_TASK_EXECUTOR);
     }
 
     /**
@@ -440,6 +506,7 @@ public final class HttpServerExchange extends AbstractAttachable {
      *
      * @param runnable The task to run
      * @throws IllegalStateException If this exchange has already been dispatched
+     * @see #setDispatchExecutor(java.util.concurrent.Executor)
      */
     public void dispatch(final Runnable runnable) {
         dispatch(null, runnable);
@@ -453,22 +520,27 @@ public final class HttpServerExchange extends AbstractAttachable {
      * calling this method, and only dispatch if the request is actually running in the IO
      * thread.
      *
+     * @param executor The executor to use, or <code>null</code> to use the dispatch executor of the exchange
      * @param runnable The task to run
      * @throws IllegalStateException If this exchange has already been dispatched
+     * @throws java.util.concurrent.RejectedExecutionException
+     *                               If the executor rejects the task when called outside of the call stack
      */
     public void dispatch(final Executor executor, final Runnable runnable) {
         if (isInCall()) {
             state |= FLAG_DISPATCHED;
-            if (executor != null) {
-                putAttachment(DISPATCH_EXECUTOR, executor);
+            if (executor == null) {
+                removeAttachment(DISPATCH_TASK_EXECUTOR);
+            } else {
+                putAttachment(DISPATCH_TASK_EXECUTOR, executor);
             }
             putAttachment(DISPATCH_TASK, runnable);
         } else {
-            if (executor == null) {
-                getConnection().getWorker().execute(runnable);
-            } else {
-                executor.execute(runnable);
+            Executor dispatchExecutor = executor == null ? getDispatchExecutor() : executor;
+            if (dispatchExecutor == null) {
+                dispatchExecutor = getConnection().getWorker();
             }
+            dispatchExecutor.execute(runnable);
         }
     }
 
@@ -487,9 +559,13 @@ public final class HttpServerExchange extends AbstractAttachable {
     }
 
     /**
-     * Sets the executor that is used for dispatch operations where no executor is specified.
+     * Sets the executor that is used for dispatch operations where no executor is specified. If this is not
+     * set the XNIO worker is used.
+     * <p/>
+     * If the executor rejects a task that is dispatched when the call stack returns the request is ended
+     * with a <code>503</code> response.
      *
-     * @param executor The executor to use
+     * @param executor The executor to use, or <code>null</code> to use the XNIO worker
      */
     public void setDispatchExecutor(final Executor executor) {
         if (executor == null) {
@@ -596,18 +672,44 @@ public final class HttpServerExchange extends AbstractAttachable {
      * @return the source address of the HTTP request
      */
     public InetSocketAddress getSourceAddress() {
+        if (sourceAddress != null) {
+            return sourceAddress;
+        }
         return connection.getPeerAddress(InetSocketAddress.class);
     }
 
+    /**
+     * Sets the source address of the HTTP request. This is used when the request has been forwarded by
+     * a proxy, and the real client address is not the address of the connection.
+     *
+     * @param sourceAddress The source address
+     */
+    public void setSourceAddress(final InetSocketAddress sourceAddress) {
+        this.sourceAddress = sourceAddress;
+    }
+
     /**
      * Get the destination address of the HTTP request.
      *
      * @return the destination address of the HTTP request
      */
     public InetSocketAddress getDestinationAddress() {
+        if (destinationAddress != null) {
+            return destinationAddress;
+        }
         return connection.getLocalAddress(InetSocketAddress.class);
     }
 
+    /**
+     * Sets the destination address of the HTTP request. This is used when the request has been forwarded by
+     * a proxy, and the address the client connected to is not the address of the connection.
+     *
+     * @param destinationAddress The destination address
+     */
+    public void setDestinationAddress(final InetSocketAddress destinationAddress) {
+        this.destinationAddress = destinationAddress;
+    }
+
     /**
      * Get the request headers.
      *
@@ -667,13 +769,16 @@ public final class HttpServerExchange extends AbstractAttachable {
     public Map<String, Deque<String>> getQueryParameters() {
         if (queryParameters == null) {
             queryParameters = new TreeMap<>();
+            if (pendingQueryString != null) {
+                decodeQueryParameters();
+            }
         }
         return queryParameters;
     }
 
     public void addQueryParam(final String name, final String param) {
         if (queryParameters == null) {
-            queryParameters = new TreeMap<>();
+            getQueryParameters();
         }
         Deque<String> list = queryParameters.get(name);
         if (list == null) {
@@ -718,6 +823,58 @@ public final class HttpServerExchange extends AbstractAttachable {
         return requestChannel == null;
     }
 
+    /**
+     * Returns a read-only view of the request body, if the complete body has already been read from the connection
+     * along with the request headers. This allows small request bodies to be processed in place, without copying
+     * them out of the connection's buffer or dispatching to a worker thread.
+     * <p/>
+     * This is only possible for fixed length requests where the request channel has not been obtained and no request
+     * wrappers have been added. If a view is returned then the request is considered to have been fully read, and the
+     * request channel will be empty.
+     * <p/>
+     * The returned buffer is only valid until the exchange has completed, and must not be retained after that point.
+     *
+     * @return a read-only view of the request body, or {@code null} if the body has not been fully buffered
+     */
+    public ByteBuffer getBufferedRequestBody() {
+        if (bufferedRequestBody != null) {
+            return bufferedRequestBody.duplicate();
+        }
+        if (requestChannel != null || requestWrappers != null || anyAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            return null;
+        }
+        final Pooled<ByteBuffer> extraBytes = connection.getExtraBytes();
+        if (extraBytes == null) {
+            return null;
+        }
+        final StreamSourceConduit conduit = connection.getChannel().getSourceChannel().getConduit();
+        if (!(conduit instanceof FixedLengthStreamSourceConduit)) {
+            return null;
+        }
+        final long length = ((FixedLengthStreamSourceConduit) conduit).getRemaining();
+        final ByteBuffer buffer = extraBytes.getResource();
+        if (length > buffer.remaining()) {
+            return null;
+        }
+        final ByteBuffer body = buffer.duplicate();
+        body.limit(body.position() + (int) length);
+        buffer.position(buffer.position() + (int) length);
+        if (!buffer.hasRemaining()) {
+            //the buffer backs the view, so it cannot be freed until the exchange is done
+            connection.setExtraBytes(null);
+            addExchangeCompleteListener(new ExchangeCompletionListener() {
+                @Override
+                public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+                    extraBytes.free();
+                    nextListener.proceed();
+                }
+            });
+        }
+        bufferedRequestBody = body.slice().asReadOnlyBuffer();
+        terminateRequest();
+        return bufferedRequestBody.duplicate();
+    }
+
     /**
      * Returns true if the completion handler for this exchange has been invoked, and the request is considered
      * finished.
@@ -745,6 +902,57 @@ public final class HttpServerExchange extends AbstractAttachable {
         }
     }
 
+    /**
+     * Resets this exchange so it can be used for the next request on the same connection. This is invoked by the
+     * read listener when {@link io.undertow.UndertowOptions#RECYCLE_EXCHANGES} is enabled, once the exchange has
+     * completed and the call stack that completed it has returned.
+     * <p/>
+     * Any request or response channels that were handed out for the previous request are detached, and will act
+     * as if they were closed.
+     *
+     * @throws IllegalStateException if the exchange has not completed
+     */
+    void recycle() {
+        if (!isComplete()) {
+            throw UndertowMessages.MESSAGES.cannotRecycleIncompleteExchange();
+        }
+        clearAttachments();
+        requestHeaders.clear();
+        responseHeaders.clear();
+        Arrays.fill(exchangeCompleteListeners, 0, exchangeCompletionListenersCount, null);
+        exchangeCompletionListenersCount = 0;
+        defaultResponseListeners.clear();
+        queryParameters = null;
+        pendingQueryString = null;
+        sourceAddress = null;
+        destinationAddress = null;
+        responseChannel = null;
+        requestChannel = null;
+        blockingHttpExchange = null;
+        protocol = null;
+        state = 200;
+        requestMethod = null;
+        requestScheme = null;
+        requestURI = null;
+        requestPath = null;
+        canonicalPath = null;
+        relativePath = null;
+        resolvedPath = "";
+        queryString = "";
+        requestWrapperCount = 0;
+        requestWrappers = null;
+        bufferedRequestBody = null;
+        ConduitWrapper<StreamSinkConduit>[] wrappers = usedResponseWrappers;
+        if (wrappers == null) {
+            wrappers = responseWrappers;
+        } else {
+            usedResponseWrappers = null;
+        }
+        Arrays.fill(wrappers, 0, responseWrapperCount, null);
+        responseWrappers = wrappers;
+        responseWrapperCount = 0;
+    }
+
     private void invokeExchangeCompleteListeners() {
         if (exchangeCompletionListenersCount > 0) {
             int i = exchangeCompletionListenersCount- 1;
@@ -830,6 +1038,7 @@ public final class HttpServerExchange extends AbstractAttachable {
         if (wrappers == null) {
             return null;
         }
+        this.usedResponseWrappers = wrappers;
         final ConduitStreamSinkChannel sinkChannel = connection.getChannel().getSinkChannel();
         final WrapperConduitFactory<StreamSinkConduit> factory = new WrapperConduitFactory<>(wrappers, responseWrapperCount, sinkChannel.getConduit(), this);
         sinkChannel.setConduit(factory.create());
@@ -1245,7 +1454,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public void suspendWrites() {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if (isTerminated()) {
                 return;
             }
             delegate.suspendWrites();
@@ -1254,7 +1463,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public boolean isWriteResumed() {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if (isTerminated()) {
                 return false;
             }
             return delegate.isWriteResumed();
@@ -1262,7 +1471,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public void shutdownWrites() throws IOException {
-            if(allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if(isTerminated()) {
                 return;
             }
             delegate.shutdownWrites();
@@ -1270,7 +1479,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public void awaitWritable() throws IOException {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if (isTerminated()) {
                 throw UndertowMessages.MESSAGES.channelIsClosed();
             }
             delegate.awaitWritable();
@@ -1278,7 +1487,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if (isTerminated()) {
                 throw UndertowMessages.MESSAGES.channelIsClosed();
             }
             delegate.awaitWritable(time, timeUnit);
@@ -1291,18 +1500,18 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public boolean isOpen() {
-            return !allAreSet(state, FLAG_RESPONSE_TERMINATED) && delegate.isOpen();
+            return !isTerminated() && delegate.isOpen();
         }
 
         @Override
         public void close() throws IOException {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) return;
+            if (isTerminated()) return;
             delegate.close();
         }
 
         @Override
         public boolean flush() throws IOException {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if (isTerminated()) {
                 return true;
             }
             return delegate.flush();
@@ -1310,7 +1519,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if (isTerminated()) {
                 throw UndertowMessages.MESSAGES.channelIsClosed();
             }
             return delegate.transferFrom(src, position, count);
@@ -1318,7 +1527,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if (isTerminated()) {
                 throw UndertowMessages.MESSAGES.channelIsClosed();
             }
             return delegate.transferFrom(source, count, throughBuffer);
@@ -1346,7 +1555,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if (isTerminated()) {
                 throw UndertowMessages.MESSAGES.channelIsClosed();
             }
             return delegate.write(srcs, offset, length);
@@ -1354,7 +1563,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public long write(final ByteBuffer[] srcs) throws IOException {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if (isTerminated()) {
                 throw UndertowMessages.MESSAGES.channelIsClosed();
             }
             return delegate.write(srcs);
@@ -1367,7 +1576,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public <T> T getOption(final Option<T> option) throws IOException {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if (isTerminated()) {
                 throw UndertowMessages.MESSAGES.channelIsClosed();
             }
             return delegate.getOption(option);
@@ -1375,7 +1584,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public <T> T setOption(final Option<T> option, final T value) throws IllegalArgumentException, IOException {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if (isTerminated()) {
                 throw UndertowMessages.MESSAGES.channelIsClosed();
             }
             return delegate.setOption(option, value);
@@ -1383,7 +1592,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public int write(final ByteBuffer src) throws IOException {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if (isTerminated()) {
                 throw UndertowMessages.MESSAGES.channelIsClosed();
             }
             return delegate.write(src);
@@ -1391,7 +1600,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public void resumeWrites() {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if (isTerminated()) {
                 return;
             }
             if (isInCall()) {
@@ -1404,7 +1613,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public void wakeupWrites() {
-            if (allAreSet(state, FLAG_RESPONSE_TERMINATED)) {
+            if (isTerminated()) {
                 return;
             }
             if (isInCall()) {
@@ -1424,6 +1633,14 @@ public final class HttpServerExchange extends AbstractAttachable {
             }
         }
 
+        /**
+         * @return <code>true</code> if the response is done, or if the exchange has been recycled and this channel
+         *         no longer belongs to it
+         */
+        private boolean isTerminated() {
+            return responseChannel != this || allAreSet(state, FLAG_RESPONSE_TERMINATED);
+        }
+
         public void responseDone() {
             delegate.getCloseSetter().set(null);
             delegate.getWriteSetter().set(null);
@@ -1457,7 +1674,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public void resumeReads() {
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 return;
             }
             if (isInCall()) {
@@ -1470,28 +1687,28 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         @Override
         public void run() {
-            if (!allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (!isTerminated()) {
                 delegate.resumeReads();
             }
         }
 
 
         public long transferTo(final long position, final long count, final FileChannel target) throws IOException {
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 return -1;
             }
             return delegate.transferTo(position, count, target);
         }
 
         public void awaitReadable() throws IOException {
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 throw UndertowMessages.MESSAGES.channelIsClosed();
             }
             delegate.awaitReadable();
         }
 
         public void suspendReads() {
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 return;
             }
             delegate.suspendReads();
@@ -1499,7 +1716,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         public long transferTo(final long count, final ByteBuffer throughBuffer, final StreamSinkChannel target) throws IOException {
 
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 throw UndertowMessages.MESSAGES.channelIsClosed();
             }
             return delegate.transferTo(count, throughBuffer, target);
@@ -1510,7 +1727,7 @@ public final class HttpServerExchange extends AbstractAttachable {
         }
 
         public boolean isReadResumed() {
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 return false;
             }
             return delegate.isReadResumed();
@@ -1518,7 +1735,7 @@ public final class HttpServerExchange extends AbstractAttachable {
 
         public <T> T setOption(final Option<T> option, final T value) throws IllegalArgumentException, IOException {
 
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 throw UndertowMessages.MESSAGES.channelIsClosed();
             }
             return delegate.setOption(option, value);
@@ -1529,7 +1746,7 @@ public final class HttpServerExchange extends AbstractAttachable {
         }
 
         public void shutdownReads() throws IOException {
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 return;
             }
             delegate.shutdownReads();
@@ -1540,28 +1757,28 @@ public final class HttpServerExchange extends AbstractAttachable {
         }
 
         public boolean isOpen() {
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 return false;
             }
             return delegate.isOpen();
         }
 
         public long read(final ByteBuffer[] dsts) throws IOException {
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 return -1;
             }
             return delegate.read(dsts);
         }
 
         public long read(final ByteBuffer[] dsts, final int offset, final int length) throws IOException {
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 return -1;
             }
             return delegate.read(dsts, offset, length);
         }
 
         public void wakeupReads() {
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 return;
             }
             delegate.wakeupReads();
@@ -1572,7 +1789,7 @@ public final class HttpServerExchange extends AbstractAttachable {
         }
 
         public void awaitReadable(final long time, final TimeUnit timeUnit) throws IOException {
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 throw UndertowMessages.MESSAGES.channelIsClosed();
             }
             delegate.awaitReadable(time, timeUnit);
@@ -1583,21 +1800,21 @@ public final class HttpServerExchange extends AbstractAttachable {
         }
 
         public void close() throws IOException {
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 return;
             }
             delegate.close();
         }
 
         public <T> T getOption(final Option<T> option) throws IOException {
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 throw UndertowMessages.MESSAGES.streamIsClosed();
             }
             return delegate.getOption(option);
         }
 
         public int read(final ByteBuffer dst) throws IOException {
-            if (allAreSet(state, FLAG_REQUEST_TERMINATED)) {
+            if (isTerminated()) {
                 return -1;
             }
             return delegate.read(dst);
@@ -1608,6 +1825,14 @@ public final class HttpServerExchange extends AbstractAttachable {
             return delegate.getIoThread();
         }
 
+        /**
+         * @return <code>true</code> if the request is done, or if the exchange has been recycled and this channel
+         *         no longer belongs to it
+         */
+        private boolean isTerminated() {
+            return requestChannel != this || allAreSet(state, FLAG_REQUEST_TERMINATED);
+        }
+
         public void requestDone() {
             delegate.getReadSetter().set(null);
             delegate.getCloseSetter().set(null);
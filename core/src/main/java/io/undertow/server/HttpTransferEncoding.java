@@ -54,6 +54,9 @@ public class HttpTransferEncoding {
 
     private static final Logger log = Logger.getLogger("io.undertow.server.handler.transfer-encoding");
 
+    private static final ConduitWrapper<StreamSinkConduit> PERSISTENT_RESPONSE_WRAPPER = responseWrapper(true);
+    private static final ConduitWrapper<StreamSinkConduit> NON_PERSISTENT_RESPONSE_WRAPPER = responseWrapper(false);
+
     /**
      * Construct a new instance.
      */
@@ -74,7 +77,7 @@ public class HttpTransferEncoding {
             pipeliningBuffer.setupPipelineBuffer(exchange);
         }
         ConduitStreamSourceChannel sourceChannel = connection.getChannel().getSourceChannel();
-        sourceChannel.setConduit(new ReadDataStreamSourceConduit(sourceChannel.getConduit(), connection));
+        sourceChannel.setConduit(readDataConduit(connection, sourceChannel.getConduit()));
 
         boolean persistentConnection = persistentConnection(exchange, connectionHeader);
 
@@ -94,14 +97,37 @@ public class HttpTransferEncoding {
         }
 
         exchange.setPersistent(persistentConnection);
-        sinkChannel.setConduit(new HttpResponseConduit(sinkChannel.getConduit(), connection.getBufferPool(), exchange));
+        sinkChannel.setConduit(responseConduit(connection, sinkChannel.getConduit(), exchange));
 
         //now the response wrapper, to add in the appropriate connection control headers
-        exchange.addResponseWrapper(responseWrapper(persistentConnection));
+        exchange.addResponseWrapper(persistentConnection ? PERSISTENT_RESPONSE_WRAPPER : NON_PERSISTENT_RESPONSE_WRAPPER);
 
         HttpHandlers.executeRootHandler(next, exchange, Thread.currentThread() instanceof XnioExecutor);
     }
 
+    private static StreamSourceConduit readDataConduit(final HttpServerConnection connection, final StreamSourceConduit next) {
+        if (connection.isRecycleExchanges() && next == connection.getOriginalSourceConduit()) {
+            //this conduit holds no per request state, so one instance can be shared by every request on the connection
+            ReadDataStreamSourceConduit conduit = connection.readDataConduit;
+            if (conduit == null) {
+                connection.readDataConduit = conduit = new ReadDataStreamSourceConduit(next, connection);
+            }
+            return conduit;
+        }
+        return new ReadDataStreamSourceConduit(next, connection);
+    }
+
+    private static StreamSinkConduit responseConduit(final HttpServerConnection connection, final StreamSinkConduit next, final HttpServerExchange exchange) {
+        if (connection.isRecycleExchanges()) {
+            HttpResponseConduit conduit = connection.responseConduit;
+            if (conduit == null || !conduit.reset(next, exchange)) {
+                connection.responseConduit = conduit = new HttpResponseConduit(next, connection.getBufferPool(), exchange);
+            }
+            return conduit;
+        }
+        return new HttpResponseConduit(next, connection.getBufferPool(), exchange);
+    }
+
     private static boolean handleRequestEncoding(HttpServerExchange exchange, String transferEncodingHeader, String contentLengthHeader, HttpServerConnection connection, PipelingBufferingStreamSinkConduit pipeliningBuffer, boolean persistentConnection) {
         HttpString transferEncoding = Headers.IDENTITY;
         if (transferEncodingHeader != null) {
@@ -99,8 +99,6 @@ class ParseState {
      */
     HttpString nextHeader;
 
-    String nextQueryParam;
-
     int mapCount;
 
     public ParseState() {
@@ -0,0 +1,260 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.UndertowLogger;
+import io.undertow.predicate.Predicate;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpHandlers;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.StatusCodes;
+
+/**
+ * A {@link RequestLimitingHandler} that adjusts the maximum number of concurrent requests based on the observed
+ * latency, in a similar way to TCP congestion control.
+ * <p/>
+ * The latency of each request is measured from the time it is allowed to run until it completes, so time spent in the
+ * queue is not included. The latency is averaged over sample windows, and compared to a baseline that represents the
+ * latency of the server when it is not overloaded. The baseline follows the lowest window latency immediately, and
+ * only drifts up slowly, so that it can adapt to a backend that has become slower without simply following the latency
+ * of an overloaded server. While the latency of recent requests stays within a tolerance of the baseline the limit
+ * grows by about a fifth of its square root each window. Once requests start to take longer the limit is reduced in
+ * proportion.
+ * If the window contains <code>503</code> or <code>504</code> responses the limit is reduced multiplicatively, as the
+ * server is already overloaded.
+ * <p/>
+ * The limit is only increased if the requests in the window actually used at least half of it, so an idle server
+ * does not accumulate a limit that it has never been tested at. The limit always stays between the minimum and
+ * maximum limit.
+ */
+public class AdaptiveRequestLimitingHandler implements HttpHandler {
+
+    private static final long DEFAULT_WINDOW = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int MIN_WINDOW_SAMPLES = 10;
+
+    /**
+     * The number of windows it takes the baseline to move most of the way towards a higher latency
+     */
+    private static final int BASELINE_WINDOWS = 500;
+
+    /**
+     * How much longer than the baseline latency recent requests may take before the limit is reduced
+     */
+    private static final double TOLERANCE = 1.5;
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double SMOOTHING = 0.2;
+
+    private final RequestLimitingHandler limiter;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long window;
+    private volatile HttpHandler next;
+
+    //guarded by this
+    private long windowStart;
+    private int windowSamples;
+    private long windowLatency;
+    private int windowMaxRequests;
+    private boolean windowOverloaded;
+    private double baselineLatency;
+    private double limit;
+
+    private volatile long lastLatency;
+
+    private final HttpHandler measuringHandler = new HttpHandler() {
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) throws Exception {
+            final long start = nanoTime();
+            exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+                @Override
+                public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+                    try {
+                        final int code = exchange.getResponseCode();
+                        sample(nanoTime() - start, code == StatusCodes.SERVICE_UNAVAILABLE || code == StatusCodes.GATEWAY_TIME_OUT, limiter.getCurrentRequests());
+                    } finally {
+                        nextListener.proceed();
+                    }
+                }
+            });
+            HttpHandlers.executeHandler(next, exchange);
+        }
+    };
+
+    /**
+     * Construct a new instance. Requests beyond the limit will be queued without limit.
+     *
+     * @param initialLimit the initial maximum concurrent requests
+     * @param minLimit     the lowest that the limit will be reduced to
+     * @param maxLimit     the highest that the limit will be increased to
+     * @param next         the next handler
+     */
+    public AdaptiveRequestLimitingHandler(final int initialLimit, final int minLimit, final int maxLimit, final HttpHandler next) {
+        this(initialLimit, minLimit, maxLimit, Integer.MAX_VALUE, -1, new Predicate[0], next);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param initialLimit     the initial maximum concurrent requests
+     * @param minLimit         the lowest that the limit will be reduced to
+     * @param maxLimit         the highest that the limit will be increased to
+     * @param maximumQueueSize the maximum number of requests that wait for a previous request to complete
+     * @param queueTimeout     the maximum time in milliseconds that a request waits, or -1 to wait indefinitely
+     * @param priorities       predicates that select the priority class of a queued request, in descending priority
+     * @param next             the next handler
+     * @see RequestLimitingHandler#RequestLimitingHandler(int, int, long, Predicate[], HttpHandler)
+     */
+    public AdaptiveRequestLimitingHandler(final int initialLimit, final int minLimit, final int maxLimit, final int maximumQueueSize, final long queueTimeout, final Predicate[] priorities, final HttpHandler next) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("The limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit");
+        }
+        HttpHandlers.handlerNotNull(next);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.window = DEFAULT_WINDOW;
+        this.limit = initialLimit;
+        this.windowStart = nanoTime();
+        this.next = next;
+        this.limiter = new RequestLimitingHandler(initialLimit, maximumQueueSize, queueTimeout, priorities, measuringHandler);
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        limiter.handleRequest(exchange);
+    }
+
+    /**
+     * Records the latency of a completed request, and adjusts the limit if the sample window is complete.
+     *
+     * @param latency         the latency of the request in nanoseconds
+     * @param overloaded      if the request was rejected with a <code>503</code> or <code>504</code> response
+     * @param currentRequests the number of requests that are running, including the one that is completing
+     */
+    void sample(final long latency, final boolean overloaded, final int currentRequests) {
+        lastLatency = latency;
+        synchronized (this) {
+            ++windowSamples;
+            windowLatency += latency;
+            windowOverloaded |= overloaded;
+            //the request that is completing is still counted
+            windowMaxRequests = Math.max(windowMaxRequests, currentRequests);
+            final long now = nanoTime();
+            if (windowSamples < MIN_WINDOW_SAMPLES || now - windowStart < window) {
+                return;
+            }
+            final double shortLatency = (double) windowLatency / windowSamples;
+            if (baselineLatency == 0 || shortLatency < baselineLatency) {
+                baselineLatency = shortLatency;
+            } else {
+                baselineLatency += (shortLatency - baselineLatency) / BASELINE_WINDOWS;
+            }
+            final int oldLimit = (int) limit;
+            double target;
+            if (windowOverloaded) {
+                target = limit * BACKOFF_RATIO;
+            } else if (windowMaxRequests < limit / 2) {
+                //the limit was not tested in this window
+                target = limit;
+            } else {
+                final double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * baselineLatency / shortLatency));
+                target = limit * gradient + Math.sqrt(limit);
+            }
+            limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + target * SMOOTHING));
+            final int newLimit = (int) limit;
+
+            windowStart = now;
+            windowSamples = 0;
+            windowLatency = 0;
+            windowMaxRequests = 0;
+            windowOverloaded = false;
+
+            //applied while the lock is held, so that the limits of two windows cannot be applied out of order
+            if (newLimit != oldLimit) {
+                if (UndertowLogger.REQUEST_LOGGER.isDebugEnabled()) {
+                    UndertowLogger.REQUEST_LOGGER.debugf("Changing the concurrent request limit from %s to %s", oldLimit, newLimit);
+                }
+                limiter.setMaximumConcurrentRequests(newLimit);
+            }
+        }
+    }
+
+    /**
+     * @return the current time in nanoseconds, used to measure latencies and sample windows
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @return the current maximum number of concurrent requests
+     */
+    public int getLimit() {
+        return limiter.getMaximumConcurrentRequests();
+    }
+
+    /**
+     * @return the number of requests that are currently running
+     */
+    public int getCurrentRequests() {
+        return limiter.getCurrentRequests();
+    }
+
+    /**
+     * @return the number of requests that are waiting for a previous request to complete
+     */
+    public int getQueuedRequests() {
+        return limiter.getQueuedRequests();
+    }
+
+    /**
+     * @return the baseline latency in nanoseconds, that recent requests are compared to
+     */
+    public synchronized long getBaselineLatency() {
+        return (long) baselineLatency;
+    }
+
+    /**
+     * @return the latency of the last completed request in nanoseconds
+     */
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public HttpHandler getNext() {
+        return next;
+    }
+
+    public AdaptiveRequestLimitingHandler setNext(final HttpHandler next) {
+        HttpHandlers.handlerNotNull(next);
+        this.next = next;
+        return this;
+    }
+}
@@ -20,12 +20,10 @@ package io.undertow.server.handlers;
 
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 
-import io.undertow.UndertowMessages;
 import io.undertow.UndertowOptions;
 import io.undertow.server.ConduitWrapper;
 import io.undertow.server.HttpHandler;
@@ -68,113 +66,10 @@ public class CookieHandler implements HttpHandler {
         if (cookies == null) {
             return Collections.emptyMap();
         }
-        final Map<String, Cookie> parsedCookies = new HashMap<String, Cookie>();
-
         final int maxCookies = exchange.getConnection().getUndertowOptions().get(UndertowOptions.MAX_COOKIES, 200);
-
-        for (String cookie : cookies) {
-            parseCookie(cookie, parsedCookies, maxCookies);
-        }
-        return parsedCookies;
-    }
-
-    /**
-     *
-     * @param cookie        The cookie
-     * @param parsedCookies The map of cookies
-     */
-    private static void parseCookie(final String cookie, final Map<String, Cookie> parsedCookies, int maxCookies) {
-        int state = 0;
-        String name = null;
-        int start = 0;
-        int cookieCount = parsedCookies.size();
-        final Map<String, String> cookies = new HashMap<String, String>();
-        final Map<String, String> additional = new HashMap<String, String>();
-        for (int i = 0; i < cookie.length(); ++i) {
-            char c = cookie.charAt(i);
-            switch (state) {
-                case 0: {
-                    //eat leading whitespace
-                    if (c == ' ' || c == '\t' || c == ';') {
-                        start = i + 1;
-                        break;
-                    }
-                    state = 1;
-                    //fall through
-                }
-                case 1: {
-                    if (c == '=') {
-                        name = cookie.substring(start, i);
-                        start = i + 1;
-                        state = 2;
-                    }
-                    break;
-                }
-                case 2: {
-                    if (c == ';') {
-                        final String value = cookie.substring(start, i);
-                        if(++cookieCount == maxCookies) {
-                            throw UndertowMessages.MESSAGES.tooManyCookies(maxCookies);
-                        }
-                        if (name.startsWith("$")) {
-                            additional.put(name, value);
-                        } else {
-                            cookies.put(name, value);
-                        }
-                        state = 0;
-                        start = i + 1;
-                    } else if (c == '"') {
-                        state = 3;
-                        start = i + 1;
-                    }
-                    break;
-                }
-                case 3: {
-                    if (c == '"') {
-                        final String value = cookie.substring(start, i);
-                        if(++cookieCount == maxCookies) {
-                            throw UndertowMessages.MESSAGES.tooManyCookies(maxCookies);
-                        }
-                        if (name.startsWith("$")) {
-                            additional.put(name, value);
-                        } else {
-                            cookies.put(name, value);
-                        }
-                        state = 0;
-                        start = i + 1;
-                    }
-                    break;
-                }
-            }
-        }
-        if (state == 2) {
-            final String value = cookie.substring(start);
-            if(++cookieCount == maxCookies) {
-                throw UndertowMessages.MESSAGES.tooManyCookies(maxCookies);
-            }
-            if (name.startsWith("$")) {
-                additional.put(name, value);
-            } else {
-                cookies.put(name, value);
-            }
-        }
-
-        for (final Map.Entry<String, String> entry : cookies.entrySet()) {
-            Cookie c = new CookieImpl(entry.getKey(), entry.getValue());
-            if (additional.containsKey(DOMAIN)) {
-                c.setDomain(additional.get(DOMAIN));
-            }
-            if (additional.containsKey(VERSION)) {
-                c.setVersion(Integer.parseInt(additional.get(VERSION)));
-            }
-            if (additional.containsKey(PATH)) {
-                c.setPath(additional.get(PATH));
-            }
-            parsedCookies.put(c.getName(), c);
-        }
+        return new RequestCookieMap(cookies, maxCookies);
     }
 
-
     private static String getCookieString(final Cookie cookie) {
         switch (cookie.getVersion()) {
             case 0:
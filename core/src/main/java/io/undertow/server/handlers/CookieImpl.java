@@ -56,6 +56,25 @@ public class CookieImpl implements Cookie {
         return  exchange.getAttachment(REQUEST_COOKIES);
     }
 
+    /**
+     * Gets the value of a request cookie. This avoids creating the request {@link Cookie} objects if they
+     * have not already been created.
+     *
+     * @param exchange The exchange
+     * @param name     The cookie name
+     * @return The cookie value, or <code>null</code> if the cookie is not present
+     */
+    public static String getRequestCookieValue(final HttpServerExchange exchange, final String name) {
+        final Map<String, Cookie> cookies = exchange.getAttachment(REQUEST_COOKIES);
+        if (cookies == null) {
+            return null;
+        } else if (cookies instanceof RequestCookieMap) {
+            return ((RequestCookieMap) cookies).getValue(name);
+        }
+        final Cookie cookie = cookies.get(name);
+        return cookie == null ? null : cookie.getValue();
+    }
+
     public static List<Cookie> getResponseCookies(final HttpServerExchange exchange) {
         return exchange.getAttachment(RESPONSE_COOKIES);
     }
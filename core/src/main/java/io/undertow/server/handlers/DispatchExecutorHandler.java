@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.concurrent.Executor;
+
+import io.undertow.UndertowMessages;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpHandlers;
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * A handler that sets the executor that requests are dispatched to by the handlers after it, for example by a
+ * {@link BlockingHandler}.
+ * <p/>
+ * Together with an {@link ExecutorRegistry} this allows parts of the handler chain to be given their own bounded
+ * thread pools, so that a part of the application that is saturated cannot starve the others of worker threads.
+ */
+public class DispatchExecutorHandler implements HttpHandler {
+
+    private volatile Executor executor;
+    private volatile HttpHandler next;
+
+    public DispatchExecutorHandler(final Executor executor, final HttpHandler next) {
+        if (executor == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("executor");
+        }
+        HttpHandlers.handlerNotNull(next);
+        this.executor = executor;
+        this.next = next;
+    }
+
+    /**
+     * @param registry The registry
+     * @param name     The name of a registered executor
+     * @param next     The next handler
+     * @throws IllegalArgumentException If no executor with this name has been registered
+     */
+    public DispatchExecutorHandler(final ExecutorRegistry registry, final String name, final HttpHandler next) {
+        this(lookup(registry, name), next);
+    }
+
+    private static Executor lookup(final ExecutorRegistry registry, final String name) {
+        final Executor executor = registry.getExecutor(name);
+        if (executor == null) {
+            throw UndertowMessages.MESSAGES.executorNotRegistered(name);
+        }
+        return executor;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        exchange.setDispatchExecutor(executor);
+        HttpHandlers.executeHandler(next, exchange);
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public DispatchExecutorHandler setExecutor(final Executor executor) {
+        if (executor == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("executor");
+        }
+        this.executor = executor;
+        return this;
+    }
+
+    public HttpHandler getNext() {
+        return next;
+    }
+
+    public DispatchExecutorHandler setNext(final HttpHandler next) {
+        HttpHandlers.handlerNotNull(next);
+        this.next = next;
+        return this;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.UndertowMessages;
+
+/**
+ * A registry of named, bounded executors that can be assigned to parts of the handler chain using a
+ * {@link DispatchExecutorHandler}.
+ * <p/>
+ * Each executor has its own threads and its own queue, so requests that block in one part of the handler
+ * chain cannot use up the threads that are used by other parts of it. Once all the threads of an executor are
+ * busy and its queue is full further tasks are passed to its rejection handler. With the default rejection
+ * handler the task is rejected, and a request that is dispatched to the executor is ended with a <code>503</code>
+ * response.
+ * <p/>
+ * Note that a rejection handler that runs the task in the calling thread will usually run it in an IO thread.
+ */
+public class ExecutorRegistry {
+
+    private static final long KEEP_ALIVE = 60;
+
+    private final ConcurrentMap<String, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+
+    /**
+     * Registers an executor that rejects tasks once it is saturated.
+     *
+     * @param name         The name of the executor, which is also used to name its threads
+     * @param maxThreads   The maximum number of threads
+     * @param maxQueueSize The maximum number of tasks that wait for a thread, which may be 0
+     * @return The new executor
+     * @throws IllegalStateException If an executor with this name has already been registered
+     */
+    public ThreadPoolExecutor addExecutor(final String name, final int maxThreads, final int maxQueueSize) {
+        return addExecutor(name, maxThreads, maxQueueSize, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Registers an executor.
+     *
+     * @param name             The name of the executor, which is also used to name its threads
+     * @param maxThreads       The maximum number of threads
+     * @param maxQueueSize     The maximum number of tasks that wait for a thread, which may be 0
+     * @param rejectionHandler The handler for tasks that are submitted once the executor is saturated
+     * @return The new executor
+     * @throws IllegalStateException If an executor with this name has already been registered
+     */
+    public ThreadPoolExecutor addExecutor(final String name, final int maxThreads, final int maxQueueSize, final RejectedExecutionHandler rejectionHandler) {
+        if (name == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("name");
+        }
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("maxThreads must be at least 1");
+        }
+        if (maxQueueSize < 0) {
+            throw new IllegalArgumentException("maxQueueSize must not be negative");
+        }
+        if (executors.containsKey(name)) {
+            throw UndertowMessages.MESSAGES.executorAlreadyRegistered(name);
+        }
+        final BlockingQueue<Runnable> queue;
+        if (maxQueueSize == 0) {
+            queue = new SynchronousQueue<>();
+        } else {
+            queue = new ArrayBlockingQueue<>(maxQueueSize);
+        }
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE, TimeUnit.SECONDS, queue, new NamedThreadFactory(name), rejectionHandler);
+        executor.allowCoreThreadTimeOut(true);
+        if (executors.putIfAbsent(name, executor) != null) {
+            executor.shutdown();
+            throw UndertowMessages.MESSAGES.executorAlreadyRegistered(name);
+        }
+        return executor;
+    }
+
+    /**
+     * @param name The name of the executor
+     * @return The executor, or <code>null</code> if no executor with this name has been registered
+     */
+    public ThreadPoolExecutor getExecutor(final String name) {
+        return executors.get(name);
+    }
+
+    /**
+     * Removes an executor and shuts it down. Tasks that have already been submitted are still run.
+     *
+     * @param name The name of the executor
+     * @return The executor, or <code>null</code> if no executor with this name has been registered
+     */
+    public ThreadPoolExecutor removeExecutor(final String name) {
+        final ThreadPoolExecutor executor = executors.remove(name);
+        if (executor != null) {
+            executor.shutdown();
+        }
+        return executor;
+    }
+
+    public Set<String> getExecutorNames() {
+        return Collections.unmodifiableSet(executors.keySet());
+    }
+
+    /**
+     * Removes and shuts down all the executors.
+     */
+    public void shutdown() {
+        for (String name : executors.keySet()) {
+            removeExecutor(name);
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private NamedThreadFactory(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(r, name + " task-" + count.incrementAndGet());
+        }
+    }
+}
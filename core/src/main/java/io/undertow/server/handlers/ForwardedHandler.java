@@ -0,0 +1,439 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.undertow.UndertowMessages;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpHandlers;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.NetworkUtils;
+
+/**
+ * A handler that restores the client address, scheme and host of requests that have been forwarded by a trusted
+ * proxy, such as a load balancer.
+ * <p/>
+ * The RFC 7239 <code>Forwarded</code> header is used if it is present, otherwise the <code>X-Forwarded-For</code>,
+ * <code>X-Forwarded-Proto</code> and <code>X-Forwarded-Host</code> headers are used. The headers are only trusted
+ * if the request was received from a trusted proxy. The list of forwarding addresses is walked backwards from the
+ * nearest proxy, and the first address that does not belong to a trusted proxy is taken to be the client.
+ * <p/>
+ * The source address, scheme and <code>Host</code> header of the exchange are replaced, so all following handlers
+ * see the client as if it had connected directly.
+ */
+public class ForwardedHandler implements HttpHandler {
+
+    private volatile HttpHandler next = ResponseCodeHandler.HANDLE_404;
+    private volatile SubnetTree trustedProxies = new SubnetTree();
+    private final List<String> trustedProxyList = new ArrayList<String>();
+
+    public ForwardedHandler() {
+    }
+
+    public ForwardedHandler(final HttpHandler next) {
+        HttpHandlers.handlerNotNull(next);
+        this.next = next;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        final InetSocketAddress peer = exchange.getSourceAddress();
+        final SubnetTree trustedProxies = this.trustedProxies;
+        if (peer != null && peer.getAddress() != null && trustedProxies.matches(peer.getAddress())) {
+            final HeaderMap headers = exchange.getRequestHeaders();
+            final HeaderValues forwarded = headers.get(Headers.FORWARDED);
+            final List<Hop> hops;
+            if (forwarded != null && !forwarded.isEmpty()) {
+                hops = parseForwarded(forwarded);
+            } else {
+                hops = parseXForwarded(headers);
+            }
+            if (hops != null) {
+                apply(exchange, hops, trustedProxies);
+            }
+        }
+        HttpHandlers.executeHandler(next, exchange);
+    }
+
+    private static void apply(final HttpServerExchange exchange, final List<Hop> hops, final SubnetTree trustedProxies) {
+        Hop client = null;
+        InetAddress clientAddress = null;
+        for (int i = hops.size() - 1; i >= 0; --i) {
+            final Hop hop = hops.get(i);
+            if (hop.address == null) {
+                break;
+            }
+            final InetAddress address = NetworkUtils.parseIpAddress(hop.address);
+            if (address == null) {
+                //unknown or obfuscated, the addresses before it cannot be trusted
+                break;
+            }
+            client = hop;
+            clientAddress = address;
+            if (!trustedProxies.matches(address)) {
+                break;
+            }
+        }
+        if (client == null) {
+            //there may only be a scheme or host, which was set by the nearest proxy
+            client = hops.get(hops.size() - 1);
+        } else {
+            exchange.setSourceAddress(new InetSocketAddress(clientAddress, client.port));
+        }
+        if (client.proto != null) {
+            if (client.proto.equalsIgnoreCase("https")) {
+                exchange.setRequestScheme("https");
+            } else if (client.proto.equalsIgnoreCase("http")) {
+                exchange.setRequestScheme("http");
+            }
+        }
+        if (client.host != null && isValidHost(client.host)) {
+            exchange.getRequestHeaders().put(Headers.HOST, client.host);
+        }
+    }
+
+    private static boolean isValidHost(final String host) {
+        if (host.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < host.length(); ++i) {
+            final char c = host.charAt(i);
+            if (c <= ' ' || c >= 127 || c == '/' || c == '?' || c == '#' || c == '@' || c == ',') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the elements of the <code>Forwarded</code> header, such as
+     * <code>for=192.0.2.60;proto=http, for="[2001:db8:cafe::17]:4711"</code>
+     */
+    static List<Hop> parseForwarded(final HeaderValues values) {
+        final List<Hop> hops = new ArrayList<Hop>(2);
+        for (final String value : values) {
+            Hop hop = new Hop();
+            int pos = 0;
+            final int length = value.length();
+            while (pos < length) {
+                final char c = value.charAt(pos);
+                if (c == ',') {
+                    hops.add(hop);
+                    hop = new Hop();
+                    ++pos;
+                } else if (c == ';' || c == ' ' || c == '\t') {
+                    ++pos;
+                } else {
+                    int end = pos;
+                    while (end < length && value.charAt(end) != '=' && value.charAt(end) != ';' && value.charAt(end) != ',') {
+                        ++end;
+                    }
+                    final String name = value.substring(pos, end).trim();
+                    if (end == length || value.charAt(end) != '=') {
+                        pos = end;
+                        continue;
+                    }
+                    pos = end + 1;
+                    final String parameter;
+                    if (pos < length && value.charAt(pos) == '"') {
+                        end = value.indexOf('"', pos + 1);
+                        if (end == -1) {
+                            return null;
+                        }
+                        parameter = value.substring(pos + 1, end);
+                        pos = end + 1;
+                    } else {
+                        end = pos;
+                        while (end < length && value.charAt(end) != ';' && value.charAt(end) != ',') {
+                            ++end;
+                        }
+                        parameter = value.substring(pos, end).trim();
+                        pos = end;
+                    }
+                    if (name.equalsIgnoreCase("for")) {
+                        hop.setNode(parameter);
+                    } else if (name.equalsIgnoreCase("proto")) {
+                        hop.proto = parameter;
+                    } else if (name.equalsIgnoreCase("host")) {
+                        hop.host = parameter;
+                    }
+                }
+            }
+            hops.add(hop);
+        }
+        return hops;
+    }
+
+    /**
+     * Combines the <code>X-Forwarded-*</code> headers into a list of hops. If the number of protocols or hosts does
+     * not match the number of addresses the first value is used for every hop, as it was added by the proxy that
+     * received the request from the client.
+     */
+    static List<Hop> parseXForwarded(final HeaderMap headers) {
+        final List<String> addresses = split(headers.get(Headers.X_FORWARDED_FOR));
+        final List<String> protos = split(headers.get(Headers.X_FORWARDED_PROTO));
+        final List<String> hosts = split(headers.get(Headers.X_FORWARDED_HOST));
+        final int count = Math.max(addresses.size(), 1);
+        if (addresses.isEmpty() && protos.isEmpty() && hosts.isEmpty()) {
+            return null;
+        }
+        final List<Hop> hops = new ArrayList<Hop>(count);
+        for (int i = 0; i < count; ++i) {
+            final Hop hop = new Hop();
+            if (i < addresses.size()) {
+                hop.setNode(addresses.get(i));
+            }
+            if (!protos.isEmpty()) {
+                hop.proto = protos.size() == count ? protos.get(i) : protos.get(0);
+            }
+            if (!hosts.isEmpty()) {
+                hop.host = hosts.size() == count ? hosts.get(i) : hosts.get(0);
+            }
+            hops.add(hop);
+        }
+        return hops;
+    }
+
+    private static List<String> split(final HeaderValues values) {
+        if (values == null || values.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<String> result = new ArrayList<String>(2);
+        for (final String value : values) {
+            int pos = 0;
+            while (pos <= value.length()) {
+                int end = value.indexOf(',', pos);
+                if (end == -1) {
+                    end = value.length();
+                }
+                final String part = value.substring(pos, end).trim();
+                if (!part.isEmpty()) {
+                    result.add(part);
+                }
+                pos = end + 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds a trusted proxy.
+     *
+     * @param subnet An IP address, or a subnet in CIDR notation such as <code>10.0.0.0/8</code>
+     */
+    public synchronized ForwardedHandler addTrustedProxy(final String subnet) {
+        final SubnetTree tree = new SubnetTree();
+        for (final String existing : trustedProxyList) {
+            tree.add(existing);
+        }
+        tree.add(subnet);
+        trustedProxyList.add(subnet);
+        this.trustedProxies = tree;
+        return this;
+    }
+
+    public synchronized ForwardedHandler addTrustedProxies(final String... subnets) {
+        for (final String subnet : subnets) {
+            addTrustedProxy(subnet);
+        }
+        return this;
+    }
+
+    public synchronized List<String> getTrustedProxies() {
+        return new ArrayList<String>(trustedProxyList);
+    }
+
+    public synchronized ForwardedHandler clearTrustedProxies() {
+        trustedProxyList.clear();
+        this.trustedProxies = new SubnetTree();
+        return this;
+    }
+
+    public HttpHandler getNext() {
+        return next;
+    }
+
+    public ForwardedHandler setNext(final HttpHandler next) {
+        HttpHandlers.handlerNotNull(next);
+        this.next = next;
+        return this;
+    }
+
+    /**
+     * A single entry of the forwarding headers
+     */
+    static final class Hop {
+        String address;
+        int port;
+        String proto;
+        String host;
+
+        /**
+         * Sets the address from a node identifier, such as <code>192.0.2.43:47011</code> or
+         * <code>[2001:db8:cafe::17]:4711</code>.
+         */
+        void setNode(final String node) {
+            String address = node;
+            if (node.startsWith("[")) {
+                final int end = node.indexOf(']');
+                if (end != -1) {
+                    address = node.substring(0, end + 1);
+                    port = parsePort(node, end + 1);
+                }
+            } else {
+                final int index = node.indexOf(':');
+                if (index != -1 && node.indexOf(':', index + 1) == -1) {
+                    address = node.substring(0, index);
+                    port = parsePort(node, index);
+                }
+            }
+            this.address = address;
+        }
+
+        private static int parsePort(final String node, final int colon) {
+            if (colon >= node.length() - 1 || node.charAt(colon) != ':') {
+                return 0;
+            }
+            int port = 0;
+            for (int i = colon + 1; i < node.length(); ++i) {
+                final char c = node.charAt(i);
+                if (c < '0' || c > '9') {
+                    return 0;
+                }
+                port = port * 10 + (c - '0');
+                if (port > 65535) {
+                    return 0;
+                }
+            }
+            return port;
+        }
+    }
+
+    /**
+     * A binary prefix tree of subnets, compiled into an array. Each node occupies two slots that hold the index of
+     * the child for a 0 or 1 bit, with 0 meaning there is no child and -1 meaning that a subnet ends at this bit.
+     * Looking up an address takes at most one step per bit, until a subnet ends or there is no child.
+     */
+    static final class SubnetTree {
+
+        private static final int MATCH = -1;
+
+        private int[] ipv4 = new int[64];
+        private int ipv4Size = 1;
+        private boolean allIpv4;
+        private int[] ipv6 = new int[64];
+        private int ipv6Size = 1;
+        private boolean allIpv6;
+
+        void add(final String subnet) {
+            final int slash = subnet.indexOf('/');
+            final InetAddress address = NetworkUtils.parseIpAddress(slash == -1 ? subnet.trim() : subnet.substring(0, slash).trim());
+            if (address == null) {
+                throw UndertowMessages.MESSAGES.invalidSubnet(subnet);
+            }
+            final byte[] bytes = address.getAddress();
+            int prefix = bytes.length * 8;
+            if (slash != -1) {
+                try {
+                    prefix = Integer.parseInt(subnet.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw UndertowMessages.MESSAGES.invalidSubnet(subnet);
+                }
+                if (prefix < 0 || prefix > bytes.length * 8) {
+                    throw UndertowMessages.MESSAGES.invalidSubnet(subnet);
+                }
+            }
+            if (bytes.length == 4) {
+                if (prefix == 0) {
+                    allIpv4 = true;
+                } else {
+                    ipv4 = insert(ipv4, bytes, prefix, true);
+                }
+            } else {
+                if (prefix == 0) {
+                    allIpv6 = true;
+                } else {
+                    ipv6 = insert(ipv6, bytes, prefix, false);
+                }
+            }
+        }
+
+        private int[] insert(int[] tree, final byte[] address, final int prefix, final boolean v4) {
+            int node = 0;
+            for (int i = 0; i < prefix; ++i) {
+                final int slot = node * 2 + ((address[i >> 3] >> (7 - (i & 7))) & 1);
+                final int child = tree[slot];
+                if (child == MATCH) {
+                    //already covered by a wider subnet
+                    return tree;
+                }
+                if (i == prefix - 1) {
+                    tree[slot] = MATCH;
+                    return tree;
+                }
+                if (child == 0) {
+                    final int created = v4 ? ipv4Size++ : ipv6Size++;
+                    if (created * 2 + 2 > tree.length) {
+                        tree = Arrays.copyOf(tree, tree.length * 2);
+                    }
+                    tree[slot] = created;
+                    node = created;
+                } else {
+                    node = child;
+                }
+            }
+            return tree;
+        }
+
+        boolean matches(final InetAddress address) {
+            final byte[] bytes = address.getAddress();
+            final int[] tree;
+            if (bytes.length == 4) {
+                if (allIpv4) {
+                    return true;
+                }
+                tree = ipv4;
+            } else {
+                if (allIpv6) {
+                    return true;
+                }
+                tree = ipv6;
+            }
+            int node = 0;
+            for (int i = 0; i < bytes.length * 8; ++i) {
+                node = tree[node * 2 + ((bytes[i >> 3] >> (7 - (i & 7))) & 1)];
+                if (node == MATCH) {
+                    return true;
+                } else if (node == 0) {
+                    return false;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -18,7 +18,10 @@
 
 package io.undertow.server.handlers;
 
+import io.undertow.UndertowLogger;
+import io.undertow.client.ChannelSplice;
 import io.undertow.client.HttpClient;
+import io.undertow.client.HttpClientCallback;
 import io.undertow.client.HttpClientConnection;
 import io.undertow.client.HttpClientRequest;
 import io.undertow.client.HttpClientResponse;
@@ -33,9 +36,9 @@ import java.net.SocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import org.xnio.ChannelListener;
-import org.xnio.ChannelListeners;
 import org.xnio.IoFuture;
 import org.xnio.OptionMap;
+import org.xnio.channels.StreamSourceChannel;
 
 import static org.xnio.IoUtils.safeClose;
 
@@ -67,12 +70,29 @@ public final class ProxyHandler implements HttpHandler {
             final HeaderMap outboundResponseHeaders = exchange.getResponseHeaders();
             exchange.setResponseCode(response.getResponseCode());
             copyHeaders(outboundResponseHeaders, inboundResponseHeaders);
+            final StreamSourceChannel replyBody;
             try {
-                ChannelListeners.initiateTransfer(response.readReplyBody(), exchange.getResponseChannel(), exchange.getConnection().getBufferPool());
+                replyBody = response.readReplyBody();
             } catch (IOException e) {
                 exchange.setResponseCode(500);
                 exchange.endExchange();
+                return;
             }
+            ChannelSplice.splice(replyBody, exchange.getResponseChannel(), exchange.getConnection().getBufferPool(), new HttpClientCallback<Long>() {
+                @Override
+                public void completed(final Long result) {
+                    safeClose(replyBody);
+                    exchange.endExchange();
+                }
+
+                @Override
+                public void failed(final IOException e) {
+                    UndertowLogger.REQUEST_LOGGER.debug("Failed to proxy response body", e);
+                    //the response has already been started, so the connection has to be closed
+                    safeClose(replyBody);
+                    safeClose(exchange.getConnection());
+                }
+            });
         }
     };
 
@@ -109,6 +129,8 @@ public final class ProxyHandler implements HttpHandler {
     }
 
     public void handleRequest(final HttpServerExchange exchange) {
+        //the exchange is ended once the response body has been transferred
+        exchange.dispatch();
         final HttpServerConnection serverConnection = exchange.getConnection();
         HttpClientConnection clientConnection = serverConnection.getAttachment(proxyConnection);
         if (clientConnection == null) {
@@ -130,7 +152,20 @@ public final class ProxyHandler implements HttpHandler {
         if (requestContentLength == 0L) {
             request.writeRequestBody(0L);
         } else {
-            ChannelListeners.initiateTransfer(exchange.getRequestChannel(), request.writeRequestBody(requestContentLength), serverConnection.getBufferPool());
+            final HttpClientConnection connection = clientConnection;
+            ChannelSplice.splice(exchange.getRequestChannel(), request.writeRequestBody(requestContentLength), serverConnection.getBufferPool(), new HttpClientCallback<Long>() {
+                @Override
+                public void completed(final Long result) {
+                }
+
+                @Override
+                public void failed(final IOException e) {
+                    UndertowLogger.REQUEST_LOGGER.debug("Failed to proxy request body", e);
+                    //the backend connection cannot be reused, closing it fails the pending response
+                    serverConnection.removeAttachment(proxyConnection);
+                    safeClose(connection);
+                }
+            });
         }
         final IoFuture<HttpClientResponse> futureResponse = request.getResponse();
         futureResponse.addNotifier(RESPONSE_NOTIFIER, exchange);
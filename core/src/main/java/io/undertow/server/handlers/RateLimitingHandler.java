@@ -0,0 +1,246 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.net.InetSocketAddress;
+
+import io.undertow.UndertowLogger;
+import io.undertow.predicate.Predicate;
+import io.undertow.predicate.Predicates;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpHandlers;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+
+/**
+ * A handler that limits the rate of requests from each client. Requests beyond the limit are rejected with a
+ * <code>429 Too Many Requests</code> response and a <code>Retry-After</code> header, so a single client cannot
+ * use up the capacity of the server.
+ * <p/>
+ * Clients are identified by a {@link KeyResolver}, by default the source address of the request. Each client has a
+ * token bucket that holds up to <code>burst</code> tokens and is refilled at <code>requestsPerSecond</code>. The
+ * bucket is refilled lazily when a request arrives, so it is stored as a single timestamp: the time at which the
+ * bucket will be full again.
+ * <p/>
+ * The buckets are kept in a table of fixed size, split into segments with their own lock. Each key maps to one
+ * segment of eight entries, and when a segment is full the entry whose bucket is fullest is replaced, but only if
+ * its bucket has refilled. Entries with a full bucket hold no state, so replacing them loses nothing. If every entry
+ * of the segment is still refilling the request is counted against a bucket that is shared by all the keys of the
+ * segment that are not tracked, so new keys can never reset the limit of another key. The locks are only held while
+ * a timestamp is updated, so requests never wait for each other for long and IO threads are never blocked.
+ */
+public class RateLimitingHandler implements HttpHandler {
+
+    /**
+     * Resolves the key that a request is rate limited by.
+     */
+    public interface KeyResolver {
+
+        /**
+         * @return The key, or <code>null</code> if the request should not be limited
+         */
+        Object getKey(final HttpServerExchange exchange);
+
+    }
+
+    /**
+     * Limits requests by the IP address of the client
+     */
+    public static final KeyResolver SOURCE_ADDRESS = new KeyResolver() {
+        @Override
+        public Object getKey(final HttpServerExchange exchange) {
+            final InetSocketAddress address = exchange.getSourceAddress();
+            return address == null ? null : address.getAddress();
+        }
+    };
+
+    /**
+     * Limits requests by the value of a request header, such as an API key
+     *
+     * @param header The header
+     * @return The key resolver
+     */
+    public static KeyResolver header(final HttpString header) {
+        return new KeyResolver() {
+            @Override
+            public Object getKey(final HttpServerExchange exchange) {
+                return exchange.getRequestHeaders().getFirst(header);
+            }
+        };
+    }
+
+    private static final int WAYS = 8;
+    /**
+     * The key of the shared bucket that is used for keys that do not fit in their segment
+     */
+    private static final Object OVERFLOW = new Object();
+    private static final int DEFAULT_MAX_ENTRIES = 8192;
+
+    private final KeyResolver keyResolver;
+    private final long interval;
+    private final long tolerance;
+    private final Segment[] segments;
+    private final int segmentMask;
+    private volatile Predicate predicate = Predicates.truePredicate();
+    private volatile HttpHandler next = ResponseCodeHandler.HANDLE_404;
+
+    /**
+     * @param requestsPerSecond The rate at which each client may send requests
+     * @param burst             The number of requests that a client may send at once
+     * @param next              The next handler
+     */
+    public RateLimitingHandler(final double requestsPerSecond, final int burst, final HttpHandler next) {
+        this(requestsPerSecond, burst, SOURCE_ADDRESS, DEFAULT_MAX_ENTRIES, next);
+    }
+
+    /**
+     * @param requestsPerSecond The rate at which each client may send requests
+     * @param burst             The number of requests that a client may send at once
+     * @param keyResolver       Identifies the client that sent a request
+     * @param maxEntries        The maximum number of clients that are tracked at once
+     * @param next              The next handler
+     */
+    public RateLimitingHandler(final double requestsPerSecond, final int burst, final KeyResolver keyResolver, final int maxEntries, final HttpHandler next) {
+        if (requestsPerSecond <= 0) {
+            throw new IllegalArgumentException("Requests per second must be greater than 0");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1");
+        }
+        HttpHandlers.handlerNotNull(next);
+        this.keyResolver = keyResolver;
+        this.interval = Math.max(1, (long) (1000000000L / requestsPerSecond));
+        this.tolerance = interval * burst;
+        int count = 1;
+        while (count * WAYS < maxEntries && count < (1 << 20)) {
+            count <<= 1;
+        }
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; ++i) {
+            segments[i] = new Segment();
+        }
+        this.segmentMask = count - 1;
+        this.next = next;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        if (predicate.resolve(exchange)) {
+            final Object key = keyResolver.getKey(exchange);
+            if (key != null) {
+                final long wait = acquire(key, System.nanoTime());
+                if (wait > 0) {
+                    if (UndertowLogger.REQUEST_LOGGER.isDebugEnabled()) {
+                        UndertowLogger.REQUEST_LOGGER.debugf("Rejecting request %s from %s as it exceeded the rate limit", exchange.getRequestURI(), key);
+                    }
+                    exchange.setResponseCode(StatusCodes.TOO_MANY_REQUESTS);
+                    //round up, so the client does not retry too early
+                    exchange.getResponseHeaders().put(Headers.RETRY_AFTER, Long.toString((wait + 999999999L) / 1000000000L));
+                    return;
+                }
+            }
+        }
+        HttpHandlers.executeHandler(next, exchange);
+    }
+
+    /**
+     * Takes a token from the bucket of the key.
+     *
+     * @return 0 if a token was taken, otherwise the time in nanoseconds until a token will be available
+     */
+    long acquire(final Object key, final long now) {
+        int h = key.hashCode() * 0x9E3779B9;
+        h ^= h >>> 16;
+        final Segment segment = segments[h & segmentMask];
+        synchronized (segment) {
+            final Object[] keys = segment.keys;
+            final long[] full = segment.full;
+            int index = -1;
+            int replace = -1;
+            for (int i = 0; i < WAYS; ++i) {
+                if (keys[i] == null) {
+                    replace = i;
+                    break;
+                } else if (key.equals(keys[i])) {
+                    index = i;
+                    break;
+                } else if (replace == -1 || full[i] - full[replace] < 0) {
+                    replace = i;
+                }
+            }
+            if (index == -1) {
+                if (keys[replace] == null || full[replace] - now <= 0) {
+                    keys[replace] = key;
+                    full[replace] = now;
+                    index = replace;
+                } else {
+                    //every bucket is still refilling, replacing one would reset its limit
+                    index = WAYS;
+                    if (keys[WAYS] == null) {
+                        keys[WAYS] = OVERFLOW;
+                        full[WAYS] = now;
+                    }
+                }
+            }
+            long base = now;
+            if (full[index] - now > 0) {
+                base = full[index];
+            }
+            //the bucket is full once all tokens that have been taken are refilled
+            final long newFull = base + interval;
+            if (newFull - now > tolerance) {
+                return newFull - now - tolerance;
+            }
+            full[index] = newFull;
+            return 0;
+        }
+    }
+
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * Sets the predicate that decides which requests are limited. By default all requests are limited.
+     */
+    public RateLimitingHandler setPredicate(final Predicate predicate) {
+        this.predicate = predicate;
+        return this;
+    }
+
+    public HttpHandler getNext() {
+        return next;
+    }
+
+    public RateLimitingHandler setNext(final HttpHandler next) {
+        HttpHandlers.handlerNotNull(next);
+        this.next = next;
+        return this;
+    }
+
+    /**
+     * The last entry is the shared overflow bucket.
+     */
+    private static final class Segment {
+        final Object[] keys = new Object[WAYS + 1];
+        final long[] full = new long[WAYS + 1];
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.undertow.UndertowMessages;
+
+/**
+ * A map of the request cookies, that is backed by the raw <code>Cookie</code> headers.
+ * <p/>
+ * When it is created the headers are scanned, and the position of each cookie name and value is recorded. The value
+ * of a cookie can then be looked up by name with {@link #getValue(String)} without creating any {@link Cookie} objects.
+ * The cookie objects are only created once the map is used as a normal map.
+ */
+final class RequestCookieMap extends AbstractMap<String, Cookie> {
+
+    /**
+     * The number of entries in the spans array per cookie: header index, name start, name end, value start, value end
+     */
+    private static final int SPAN_SIZE = 5;
+
+    private final String[] headers;
+    private int[] spans = new int[8 * SPAN_SIZE];
+    private int count;
+    private Map<String, Cookie> cookies;
+
+    RequestCookieMap(final List<String> headers, final int maxCookies) {
+        this.headers = headers.toArray(new String[headers.size()]);
+        for (int i = 0; i < this.headers.length; ++i) {
+            index(i, maxCookies);
+        }
+    }
+
+    /**
+     * Scans a cookie header, recording the position of each name and value.
+     */
+    private void index(final int header, final int maxCookies) {
+        final String cookie = headers[header];
+        int state = 0;
+        int nameStart = 0;
+        int nameEnd = 0;
+        int start = 0;
+        for (int i = 0; i < cookie.length(); ++i) {
+            char c = cookie.charAt(i);
+            switch (state) {
+                case 0: {
+                    //eat leading whitespace
+                    if (c == ' ' || c == '\t' || c == ';') {
+                        start = i + 1;
+                        break;
+                    }
+                    state = 1;
+                    //fall through
+                }
+                case 1: {
+                    if (c == '=') {
+                        nameStart = start;
+                        nameEnd = i;
+                        start = i + 1;
+                        state = 2;
+                    }
+                    break;
+                }
+                case 2: {
+                    if (c == ';') {
+                        add(header, nameStart, nameEnd, start, i, maxCookies);
+                        state = 0;
+                        start = i + 1;
+                    } else if (c == '"') {
+                        state = 3;
+                        start = i + 1;
+                    }
+                    break;
+                }
+                case 3: {
+                    if (c == '"') {
+                        add(header, nameStart, nameEnd, start, i, maxCookies);
+                        state = 0;
+                        start = i + 1;
+                    }
+                    break;
+                }
+            }
+        }
+        if (state == 2) {
+            add(header, nameStart, nameEnd, start, cookie.length(), maxCookies);
+        }
+    }
+
+    private void add(final int header, final int nameStart, final int nameEnd, final int valueStart, final int valueEnd, final int maxCookies) {
+        if (count + 1 == maxCookies) {
+            throw UndertowMessages.MESSAGES.tooManyCookies(maxCookies);
+        }
+        int pos = count * SPAN_SIZE;
+        if (pos == spans.length) {
+            spans = Arrays.copyOf(spans, spans.length << 1);
+        }
+        final int[] spans = this.spans;
+        spans[pos++] = header;
+        spans[pos++] = nameStart;
+        spans[pos++] = nameEnd;
+        spans[pos++] = valueStart;
+        spans[pos] = valueEnd;
+        count++;
+    }
+
+    /**
+     * Returns the position in the spans array of the last cookie with the given name, or -1 if there is no such cookie
+     */
+    private int find(final String name) {
+        final int length = name.length();
+        if (length > 0 && name.charAt(0) == '$') {
+            //these are attributes of the other cookies
+            return -1;
+        }
+        final int[] spans = this.spans;
+        for (int pos = (count - 1) * SPAN_SIZE; pos >= 0; pos -= SPAN_SIZE) {
+            final int nameStart = spans[pos + 1];
+            if (spans[pos + 2] - nameStart == length && headers[spans[pos]].regionMatches(nameStart, name, 0, length)) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the value of a request cookie. If the cookie objects have not been created then this is done without creating
+     * them.
+     *
+     * @param name The cookie name
+     * @return The value of the cookie, or <code>null</code> if there is no cookie with the given name
+     */
+    String getValue(final String name) {
+        if (cookies != null) {
+            final Cookie cookie = cookies.get(name);
+            return cookie == null ? null : cookie.getValue();
+        }
+        final int pos = find(name);
+        if (pos == -1) {
+            return null;
+        }
+        return headers[spans[pos]].substring(spans[pos + 3], spans[pos + 4]);
+    }
+
+    private Map<String, Cookie> cookies() {
+        if (cookies != null) {
+            return cookies;
+        }
+        final Map<String, Cookie> cookies = new HashMap<String, Cookie>();
+        final int[] spans = this.spans;
+        final int end = count * SPAN_SIZE;
+        int pos = 0;
+        for (int header = 0; header < headers.length; ++header) {
+            final String cookie = headers[header];
+            final int headerStart = pos;
+            String domain = null;
+            String version = null;
+            String path = null;
+            for (; pos < end && spans[pos] == header; pos += SPAN_SIZE) {
+                if (cookie.charAt(spans[pos + 1]) == '$') {
+                    final String name = cookie.substring(spans[pos + 1], spans[pos + 2]);
+                    final String value = cookie.substring(spans[pos + 3], spans[pos + 4]);
+                    if (name.equals(CookieHandler.DOMAIN)) {
+                        domain = value;
+                    } else if (name.equals(CookieHandler.VERSION)) {
+                        version = value;
+                    } else if (name.equals(CookieHandler.PATH)) {
+                        path = value;
+                    }
+                }
+            }
+            for (int i = headerStart; i < pos; i += SPAN_SIZE) {
+                if (cookie.charAt(spans[i + 1]) != '$') {
+                    final Cookie c = new CookieImpl(cookie.substring(spans[i + 1], spans[i + 2]), cookie.substring(spans[i + 3], spans[i + 4]));
+                    if (domain != null) {
+                        c.setDomain(domain);
+                    }
+                    if (version != null) {
+                        c.setVersion(Integer.parseInt(version));
+                    }
+                    if (path != null) {
+                        c.setPath(path);
+                    }
+                    cookies.put(c.getName(), c);
+                }
+            }
+        }
+        return this.cookies = cookies;
+    }
+
+    @Override
+    public Cookie get(final Object key) {
+        return cookies().get(key);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        if (cookies != null) {
+            return cookies.containsKey(key);
+        }
+        return key instanceof String && find((String) key) != -1;
+    }
+
+    @Override
+    public Cookie put(final String key, final Cookie value) {
+        return cookies().put(key, value);
+    }
+
+    @Override
+    public Cookie remove(final Object key) {
+        return cookies().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        cookies().clear();
+    }
+
+    @Override
+    public int size() {
+        return cookies().size();
+    }
+
+    @Override
+    public Set<Entry<String, Cookie>> entrySet() {
+        return cookies().entrySet();
+    }
+}
@@ -20,34 +20,54 @@ package io.undertow.server.handlers;
 
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
-import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+import io.undertow.UndertowLogger;
+import io.undertow.predicate.Predicate;
 import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpHandlers;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+import org.xnio.XnioExecutor;
 
 import static org.xnio.Bits.longBitMask;
 
 /**
  * A handler which limits the maximum number of concurrent requests.  Requests beyond the limit will
- * block until the previous request is complete.
+ * wait in a queue until a previous request is complete.
+ * <p/>
+ * Queued requests can be split into priority classes, selected by predicates. When a request completes the
+ * oldest request of the highest priority class is run next, so cheap requests such as health checks do not have
+ * to wait behind expensive ones. Requests that do not match any predicate have the lowest priority.
+ * <p/>
+ * The queue can be bounded, and requests can be given a maximum time to wait in the queue. Requests that do not
+ * fit in the queue or that time out are rejected with a <code>503 Service Unavailable</code> response. Queued
+ * requests do not hold any threads, they are resumed on their own IO thread once they can run.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class RequestLimitingHandler implements HttpHandler {
     @SuppressWarnings("unused")
     private volatile long state;
+    @SuppressWarnings("unused")
+    private volatile int queued;
     private volatile HttpHandler nextHandler = ResponseCodeHandler.HANDLE_404;
 
     private static final AtomicLongFieldUpdater<RequestLimitingHandler> stateUpdater = AtomicLongFieldUpdater.newUpdater(RequestLimitingHandler.class, "state");
-    private static final AtomicReferenceFieldUpdater<RequestLimitingHandler, HttpHandler> nextHandlerUpdater = AtomicReferenceFieldUpdater.newUpdater(RequestLimitingHandler.class, HttpHandler.class, "nextHandler");
+    private static final AtomicIntegerFieldUpdater<RequestLimitingHandler> queuedUpdater = AtomicIntegerFieldUpdater.newUpdater(RequestLimitingHandler.class, "queued");
+    private static final AtomicIntegerFieldUpdater<QueuedRequest> claimedUpdater = AtomicIntegerFieldUpdater.newUpdater(QueuedRequest.class, "claimed");
 
     private static final long MASK_MAX = longBitMask(32, 63);
     private static final long MASK_CURRENT = longBitMask(0, 30);
 
-    private final Queue<HttpServerExchange> queue;
+    private final Predicate[] priorities;
+    private final Queue<QueuedRequest>[] queues;
+    private final int maximumQueueSize;
+    private final long queueTimeout;
 
     private static final Class<Queue> linkedTransferQueue;
 
@@ -56,9 +76,10 @@ public final class RequestLimitingHandler implements HttpHandler {
         @Override
         public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
             try {
-                final HttpServerExchange task = queue.poll();
+                final QueuedRequest task = pollQueue();
                 if (task != null) {
-                    task.dispatch(nextHandler);
+                    //the slot is handed over to the queued request
+                    task.resume();
                 } else {
                     decrementRequests();
                 }
@@ -80,47 +101,131 @@ public final class RequestLimitingHandler implements HttpHandler {
 
     /**
      * Construct a new instance. The maximum number of concurrent requests must be at least one.  The next handler
-     * must not be {@code null}.
+     * must not be {@code null}. Requests beyond the limit will be queued without limit.
      *
      * @param maximumConcurrentRequests the maximum concurrent requests
      * @param nextHandler               the next handler
      */
     public RequestLimitingHandler(int maximumConcurrentRequests, HttpHandler nextHandler) {
+        this(maximumConcurrentRequests, Integer.MAX_VALUE, -1, new Predicate[0], nextHandler);
+    }
+
+    /**
+     * Construct a new instance. The maximum number of concurrent requests must be at least one.  The next handler
+     * must not be {@code null}.
+     *
+     * @param maximumConcurrentRequests the maximum concurrent requests
+     * @param maximumQueueSize          the maximum number of requests that wait for a previous request to complete
+     * @param queueTimeout              the maximum time in milliseconds that a request waits, or -1 to wait indefinitely
+     * @param priorities                predicates that select the priority class of a queued request, in descending priority
+     * @param nextHandler               the next handler
+     */
+    @SuppressWarnings("unchecked")
+    public RequestLimitingHandler(int maximumConcurrentRequests, int maximumQueueSize, long queueTimeout, Predicate[] priorities, HttpHandler nextHandler) {
         if (nextHandler == null) {
             throw new IllegalArgumentException("nextHandler is null");
         }
         if (maximumConcurrentRequests < 1) {
             throw new IllegalArgumentException("Maximum concurrent requests must be at least 1");
         }
+        if (maximumQueueSize < 0) {
+            throw new IllegalArgumentException("Maximum queue size must not be negative");
+        }
         state = (maximumConcurrentRequests & 0xFFFFFFFFL) << 32;
         this.nextHandler = nextHandler;
-        Queue<HttpServerExchange> queue;
-        if (linkedTransferQueue == null) {
-            queue = new ConcurrentLinkedQueue<HttpServerExchange>();
-        } else {
+        this.maximumQueueSize = maximumQueueSize;
+        this.queueTimeout = queueTimeout;
+        this.priorities = priorities.clone();
+        this.queues = new Queue[priorities.length + 1];
+        for (int i = 0; i < queues.length; ++i) {
+            queues[i] = createQueue();
+        }
+    }
+
+    private static Queue<QueuedRequest> createQueue() {
+        if (linkedTransferQueue != null) {
             try {
-                queue = linkedTransferQueue.newInstance();
+                return linkedTransferQueue.newInstance();
             } catch (Throwable t) {
-                queue = new ConcurrentLinkedQueue<HttpServerExchange>();
+                //fall through
             }
         }
-        this.queue = queue;
+        return new ConcurrentLinkedQueue<QueuedRequest>();
     }
 
     public void handleRequest(final HttpServerExchange exchange) throws Exception {
-        exchange.addExchangeCompleteListener(COMPLETION_LISTENER);
-        long oldVal, newVal;
+        if (tryAcquire()) {
+            exchange.addExchangeCompleteListener(COMPLETION_LISTENER);
+            HttpHandlers.executeHandler(nextHandler, exchange);
+            return;
+        }
+        int oldQueued;
+        do {
+            oldQueued = queued;
+            if (oldQueued >= maximumQueueSize) {
+                if (UndertowLogger.REQUEST_LOGGER.isDebugEnabled()) {
+                    UndertowLogger.REQUEST_LOGGER.debugf("Rejecting request %s as the request queue is full", exchange.getRequestURI());
+                }
+                exchange.setResponseCode(StatusCodes.SERVICE_UNAVAILABLE);
+                return;
+            }
+        } while (!queuedUpdater.compareAndSet(this, oldQueued, oldQueued + 1));
+
+        int priority = 0;
+        while (priority < priorities.length && !priorities[priority].resolve(exchange)) {
+            ++priority;
+        }
+        final QueuedRequest request = new QueuedRequest(exchange, priority);
+        //the request is only queued once the call stack has returned, otherwise it could be resumed or
+        //timed out before the exchange has been undispatched
+        exchange.dispatch(SameThreadExecutor.INSTANCE, new Runnable() {
+            @Override
+            public void run() {
+                request.enqueue();
+            }
+        });
+    }
+
+    private boolean tryAcquire() {
+        long oldVal;
         do {
             oldVal = state;
             final long current = oldVal & MASK_CURRENT;
             final long max = (oldVal & MASK_MAX) >> 32L;
             if (current >= max) {
-                queue.add(exchange);
+                return false;
+            }
+        } while (!stateUpdater.compareAndSet(this, oldVal, oldVal + 1));
+        return true;
+    }
+
+    /**
+     * Runs queued requests while there are free slots
+     */
+    private void drainQueue() {
+        while (tryAcquire()) {
+            final QueuedRequest task = pollQueue();
+            if (task == null) {
+                decrementRequests();
                 return;
             }
-            newVal = oldVal + 1;
-        } while (!stateUpdater.compareAndSet(this, oldVal, newVal));
-        HttpHandlers.executeHandler(nextHandler, exchange);
+            task.resume();
+        }
+    }
+
+    private QueuedRequest pollQueue() {
+        if (queued == 0) {
+            return null;
+        }
+        for (final Queue<QueuedRequest> queue : queues) {
+            QueuedRequest task;
+            while ((task = queue.poll()) != null) {
+                if (task.claim()) {
+                    return task;
+                }
+            }
+        }
+        return null;
     }
 
     /**
@@ -142,26 +247,39 @@ public final class RequestLimitingHandler implements HttpHandler {
             throw new IllegalArgumentException("Maximum concurrent requests must be at least 1");
         }
         long oldVal, newVal;
-        int current, oldMax;
+        int oldMax;
         do {
             oldVal = state;
-            current = (int) (oldVal & MASK_CURRENT);
             oldMax = (int) ((oldVal & MASK_MAX) >> 32L);
-            newVal = current | newMax & 0xFFFFFFFFL << 32L;
+            newVal = (oldVal & MASK_CURRENT) | (newMax & 0xFFFFFFFFL) << 32L;
         } while (!stateUpdater.compareAndSet(this, oldVal, newVal));
-        while (current < newMax) {
-            // more space opened up!  Process queue entries for a while
-            final HttpServerExchange request = queue.poll();
-            if (request != null) {
-                // now bump up the counter by one; this *could* put us over the max if it changed in the meantime but that's OK
-                newVal = stateUpdater.getAndIncrement(this);
-                current = (int) (newVal & MASK_CURRENT);
-                request.dispatch(nextHandler);
-            }
-        }
+        // more space may have opened up, process queue entries
+        drainQueue();
         return oldMax;
     }
 
+    /**
+     * @return the number of requests that are currently running
+     */
+    public int getCurrentRequests() {
+        return (int) (state & MASK_CURRENT);
+    }
+
+    /**
+     * @return the number of requests that are waiting for a previous request to complete
+     */
+    public int getQueuedRequests() {
+        return queued;
+    }
+
+    public int getMaximumQueueSize() {
+        return maximumQueueSize;
+    }
+
+    public long getQueueTimeout() {
+        return queueTimeout;
+    }
+
     private void decrementRequests() {
         stateUpdater.decrementAndGet(this);
     }
@@ -183,8 +301,78 @@ public final class RequestLimitingHandler implements HttpHandler {
      */
     public RequestLimitingHandler setNextHandler(final HttpHandler nextHandler) {
         HttpHandlers.handlerNotNull(nextHandler);
+        this.nextHandler = nextHandler;
         return this;
     }
 
+    /**
+     * A queued request. It is claimed exactly once, either when it is resumed or when it times out.
+     */
+    private final class QueuedRequest implements Runnable {
 
+        private final HttpServerExchange exchange;
+        private final int priority;
+        @SuppressWarnings("unused")
+        volatile int claimed;
+        private volatile XnioExecutor.Key timeoutKey;
+
+        private QueuedRequest(final HttpServerExchange exchange, final int priority) {
+            this.exchange = exchange;
+            this.priority = priority;
+        }
+
+        /**
+         * Adds the request to the queue of its priority class. This is run once the call stack that handled the
+         * request has returned.
+         */
+        void enqueue() {
+            if (queueTimeout > 0) {
+                timeoutKey = exchange.getIoThread().executeAfter(this, queueTimeout, TimeUnit.MILLISECONDS);
+            }
+            queues[priority].add(this);
+            //a request may have completed while this one was being queued
+            drainQueue();
+        }
+
+        boolean claim() {
+            if (claimedUpdater.compareAndSet(this, 0, 1)) {
+                queuedUpdater.decrementAndGet(RequestLimitingHandler.this);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Runs the request once it has been given a slot. This always happens in the IO thread of the exchange,
+         * after the call stack that queued the request has returned.
+         */
+        void resume() {
+            final XnioExecutor.Key key = timeoutKey;
+            if (key != null) {
+                key.remove();
+            }
+            exchange.addExchangeCompleteListener(COMPLETION_LISTENER);
+            exchange.getIoThread().execute(new Runnable() {
+                @Override
+                public void run() {
+                    HttpHandlers.executeRootHandler(nextHandler, exchange, true);
+                }
+            });
+        }
+
+        /**
+         * Invoked by the IO thread timer if the request waited too long
+         */
+        @Override
+        public void run() {
+            if (claim()) {
+                queues[priority].remove(this);
+                if (UndertowLogger.REQUEST_LOGGER.isDebugEnabled()) {
+                    UndertowLogger.REQUEST_LOGGER.debugf("Rejecting request %s as it timed out waiting in the request queue", exchange.getRequestURI());
+                }
+                exchange.setResponseCode(StatusCodes.SERVICE_UNAVAILABLE);
+                exchange.endExchange();
+            }
+        }
+    }
 }
@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * The reference counting and access queue bookkeeping shared by the entries of {@link DirectBufferCache}
+ * and {@link MappedFileCache}.
+ * <p/>
+ * An entry starts with the single reference that is held by the cache, and is destroyed once the cache and all
+ * the requests that are using it have dereferenced it. The access token is the position of the entry in an access
+ * queue. It is claimed while the entry is being moved, so only one thread moves an entry at a time, and once the
+ * entry has been removed it can no longer be claimed.
+ */
+abstract class AbstractCacheEntry {
+
+    private static final Object CLAIM_TOKEN = new Object();
+    private static final Object REMOVED_TOKEN = new Object();
+
+    private static final AtomicIntegerFieldUpdater<AbstractCacheEntry> refsUpdater = AtomicIntegerFieldUpdater.newUpdater(AbstractCacheEntry.class, "refs");
+    private static final AtomicReferenceFieldUpdater<AbstractCacheEntry, Object> tokenUpdater = AtomicReferenceFieldUpdater.newUpdater(AbstractCacheEntry.class, Object.class, "accessToken");
+
+    private final Object key;
+    private volatile int refs = 1;
+    private volatile Object accessToken;
+
+    AbstractCacheEntry(final Object key) {
+        this.key = key;
+    }
+
+    public Object key() {
+        return key;
+    }
+
+    public boolean reference() {
+        for (;;) {
+            int refs = this.refs;
+            if (refs < 1) {
+                return false; // destroying
+            }
+
+            if (refsUpdater.compareAndSet(this, refs++, refs)) {
+                return true;
+            }
+        }
+    }
+
+    public boolean dereference() {
+        for (;;) {
+            int refs = this.refs;
+            if (refs < 1) {
+                return false;  // destroying
+            }
+
+            if (refsUpdater.compareAndSet(this, refs--, refs)) {
+                if (refs == 0) {
+                    destroy();
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the only reference to the entry is the one held by the cache
+     */
+    boolean isUnused() {
+        return refs == 1;
+    }
+
+    /**
+     * Releases the resources of the entry, once the last reference to it has been dropped
+     */
+    abstract void destroy();
+
+    Object claimToken() {
+        for (;;) {
+            Object current = this.accessToken;
+            if (current == CLAIM_TOKEN || current == REMOVED_TOKEN) {
+                return Boolean.FALSE;
+            }
+
+            if (tokenUpdater.compareAndSet(this, current, CLAIM_TOKEN)) {
+                return current;
+            }
+        }
+    }
+
+    boolean setToken(Object token) {
+        return tokenUpdater.compareAndSet(this, CLAIM_TOKEN, token);
+    }
+
+    Object clearToken() {
+        Object old = tokenUpdater.getAndSet(this, REMOVED_TOKEN);
+        return old == CLAIM_TOKEN || old == REMOVED_TOKEN ? null : old;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.HttpServerExchange;
+import org.xnio.XnioExecutor;
+
+/**
+ * A cache fill that is in progress for a cache key.
+ * <p/>
+ * While a response is being generated to fill the cache, other requests for the same key are parked on the
+ * fill rather than all being passed through to the backend. Once the response is complete, or the fill has taken
+ * too long, the parked requests are resumed in their own IO threads, and will generally be served from the freshly
+ * filled cache entry.
+ * <p/>
+ * Fills that revalidate a stale entry do not park requests, as these requests can be served the stale entry
+ * in the meantime.
+ */
+final class CacheFill {
+
+    private final ConcurrentMap<CachedHttpRequest, CacheFill> fills;
+    private final CachedHttpRequest key;
+    private final boolean revalidating;
+
+    private List<HttpServerExchange> exchanges = new ArrayList<>();
+    private List<Runnable> tasks = new ArrayList<>();
+    private volatile XnioExecutor.Key timeoutKey;
+
+    CacheFill(final ConcurrentMap<CachedHttpRequest, CacheFill> fills, final CachedHttpRequest key, final boolean revalidating) {
+        this.fills = fills;
+        this.key = key;
+        this.revalidating = revalidating;
+    }
+
+    boolean isRevalidating() {
+        return revalidating;
+    }
+
+    /**
+     * Parks an exchange on this fill. The task is run in the IO thread of the exchange once the fill is complete.
+     *
+     * @return <code>false</code> if the fill has already completed, in which case the task will not be run
+     */
+    synchronized boolean addWaiter(final HttpServerExchange exchange, final Runnable task) {
+        if (exchanges == null) {
+            return false;
+        }
+        exchanges.add(exchange);
+        tasks.add(task);
+        return true;
+    }
+
+    synchronized boolean hasWaiters() {
+        return exchanges != null && !exchanges.isEmpty();
+    }
+
+    /**
+     * Schedules the fill to be completed after the given time, even if the response has not been completed
+     */
+    void scheduleTimeout(final XnioExecutor executor, final long timeout) {
+        timeoutKey = executor.executeAfter(new Runnable() {
+            @Override
+            public void run() {
+                complete();
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Removes the fill, so later requests are no longer parked, and resumes all the parked exchanges
+     */
+    void complete() {
+        fills.remove(key, this);
+        final List<HttpServerExchange> exchanges;
+        final List<Runnable> tasks;
+        synchronized (this) {
+            exchanges = this.exchanges;
+            tasks = this.tasks;
+            if (exchanges == null) {
+                return;
+            }
+            this.exchanges = null;
+            this.tasks = null;
+        }
+        final XnioExecutor.Key timeoutKey = this.timeoutKey;
+        if (timeoutKey != null) {
+            timeoutKey.remove();
+        }
+        for (int i = 0; i < exchanges.size(); ++i) {
+            exchanges.get(i).getIoThread().execute(tasks.get(i));
+        }
+    }
+}
@@ -1,11 +1,23 @@
 package io.undertow.server.handlers.cache;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import io.undertow.server.ConduitWrapper;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.HttpHandlers;
 import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.util.AttachmentKey;
 import io.undertow.util.ConduitFactory;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.SameThreadExecutor;
 import org.xnio.conduits.StreamSinkConduit;
 
 import static io.undertow.util.Headers.CONTENT_LENGTH;
@@ -14,14 +26,37 @@ import static io.undertow.util.Headers.CONTENT_LENGTH;
  *
  * Handler that attaches a cache to the exchange, a handler can query this cache to see if the
  * cache has a cached copy of the content, and if so have the cache serve this content automatically.
+ * <p/>
+ * While one request is filling the cache for a path, other requests for that path are parked without blocking
+ * the IO thread, and are resumed once the response has been cached. If the response has a
+ * <code>stale-while-revalidate</code> cache control directive then the stale response is served while
+ * a single request revalidates it.
  *
  *
  * @author Stuart Douglas
  */
 public class CacheHandler implements HttpHandler {
 
+    /**
+     * The maximum number of paths that the declared vary headers are remembered for
+     */
+    private static final int MAX_VARY_ENTRIES = 1024;
+
+    /**
+     * The default maximum time in milliseconds that requests wait for another request to fill the cache
+     */
+    private static final long DEFAULT_MAX_FILL_TIME = 10000;
+
+    /**
+     * Marks exchanges that have already been parked on a cache fill, so they are not parked again
+     */
+    private static final AttachmentKey<Boolean> PARKED = AttachmentKey.create(Boolean.class);
+
     private final DirectBufferCache cache;
+    private final LRUCache<String, HttpString[]> varyHeaders = new LRUCache<>(MAX_VARY_ENTRIES);
+    private final ConcurrentMap<CachedHttpRequest, CacheFill> fills = new ConcurrentHashMap<>();
     private volatile HttpHandler next = ResponseCodeHandler.HANDLE_404;
+    private volatile long maxFillTime = DEFAULT_MAX_FILL_TIME;
 
     public CacheHandler(final DirectBufferCache cache, final HttpHandler next) {
         this.cache = cache;
@@ -34,12 +69,15 @@ public class CacheHandler implements HttpHandler {
 
     @Override
     public void handleRequest(final HttpServerExchange exchange) throws Exception {
-        final ResponseCache responseCache = new ResponseCache(cache, exchange);
+        if (!fills.isEmpty() && park(exchange)) {
+            return;
+        }
+        final ResponseCache responseCache = new ResponseCache(cache, exchange, varyHeaders, fills, maxFillTime);
         exchange.putAttachment(ResponseCache.ATTACHMENT_KEY, responseCache);
         exchange.addResponseWrapper(new ConduitWrapper<StreamSinkConduit>() {
             @Override
             public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
-                if(!responseCache.isResponseCachable()) {
+                if(!responseCache.isResponseCachable() || exchange.getResponseCode() != 200) {
                     return factory.create();
                 }
                 String lengthString = exchange.getResponseHeaders().getFirst(CONTENT_LENGTH);
@@ -47,9 +85,23 @@ public class CacheHandler implements HttpHandler {
                     //we don't cache chunked requests
                     return factory.create();
                 }
+                final HttpString[] vary = parseVary(exchange);
+                if (vary == VARY_ANY) {
+                    return factory.create();
+                }
                 int length = Integer.parseInt(lengthString);
-                final CachedHttpRequest key = new CachedHttpRequest(exchange);
+                final CachedHttpRequest key = new CachedHttpRequest(exchange, vary, responseCache.getRequestKey());
+                if (!key.isCachable()) {
+                    return factory.create();
+                }
+                if (responseCache.isRefill()) {
+                    cache.remove(key);
+                }
                 final DirectBufferCache.CacheEntry entry = cache.add(key, length);
+                updateVaryHeaders(exchange.getRequestPath(), vary);
+                if (entry != null && responseCache.isAllocationRequired()) {
+                    entry.allocate();
+                }
 
                 if (entry == null || entry.buffers().length == 0 || !entry.claimEnable()) {
                     return factory.create();
@@ -66,6 +118,106 @@ public class CacheHandler implements HttpHandler {
         HttpHandlers.executeHandler(next, exchange);
     }
 
+    /**
+     * Parks the exchange if another request is currently filling the cache for the same key. The key is built
+     * the same way as the key that {@link ResponseCache} looks up and fills, so requests for different variants
+     * of a path are not parked on each other. Once that fill is complete this handler is run again, so the
+     * exchange can be served from the cache.
+     *
+     * @return <code>true</code> if the exchange has been parked
+     */
+    private boolean park(final HttpServerExchange exchange) {
+        if (!exchange.getRequestMethod().equals(Methods.GET) && !exchange.getRequestMethod().equals(Methods.HEAD)) {
+            return false;
+        }
+        final CacheFill fill = fills.get(new CachedHttpRequest(exchange, varyHeaders.get(exchange.getRequestPath())));
+        if (fill == null || fill.isRevalidating() || exchange.getAttachment(PARKED) != null) {
+            return false;
+        }
+        exchange.putAttachment(PARKED, Boolean.TRUE);
+        final Runnable resume = new Runnable() {
+            @Override
+            public void run() {
+                HttpHandlers.executeRootHandler(CacheHandler.this, exchange, exchange.isInIoThread());
+            }
+        };
+        //the exchange is only added to the fill once the call stack has returned, so it cannot be resumed
+        //while it is still running
+        exchange.dispatch(SameThreadExecutor.INSTANCE, new Runnable() {
+            @Override
+            public void run() {
+                if (!fill.addWaiter(exchange, resume)) {
+                    resume.run();
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Returned by {@link #parseVary(HttpServerExchange)} if the response varies on something other than request headers
+     */
+    private static final HttpString[] VARY_ANY = new HttpString[0];
+
+    /**
+     * Parses the <code>Vary</code> header of the response into a sorted array of header names
+     *
+     * @return the header names, <code>null</code> if the response does not vary, or {@link #VARY_ANY}
+     */
+    private static HttpString[] parseVary(final HttpServerExchange exchange) {
+        final HeaderValues values = exchange.getResponseHeaders().get(Headers.VARY);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        final List<HttpString> names = new ArrayList<>();
+        for (final String value : values) {
+            for (final String name : value.split(",")) {
+                final String trimmed = name.trim();
+                if (trimmed.equals("*")) {
+                    return VARY_ANY;
+                } else if (!trimmed.isEmpty()) {
+                    final HttpString header = new HttpString(trimmed);
+                    if (!names.contains(header)) {
+                        names.add(header);
+                    }
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            return null;
+        }
+        final HttpString[] result = names.toArray(new HttpString[names.size()]);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private void updateVaryHeaders(final String path, final HttpString[] vary) {
+        final HttpString[] existing = varyHeaders.get(path);
+        if (!Arrays.equals(existing, vary)) {
+            if (existing != null) {
+                varyHeaders.remove(path);
+            }
+            if (vary != null) {
+                varyHeaders.add(path, vary);
+            }
+        }
+    }
+
+    public long getMaxFillTime() {
+        return maxFillTime;
+    }
+
+    /**
+     * Sets the maximum time that requests are parked while another request for the same key fills the cache.
+     * Once this time has passed the parked requests are passed to the next handler.
+     *
+     * @param maxFillTime The time in milliseconds
+     */
+    public CacheHandler setMaxFillTime(final long maxFillTime) {
+        this.maxFillTime = maxFillTime;
+        return this;
+    }
+
     public HttpHandler getNext() {
         return next;
     }
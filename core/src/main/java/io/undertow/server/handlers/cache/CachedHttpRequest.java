@@ -1,49 +1,238 @@
 package io.undertow.server.handlers.cache;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.encoding.ContentEncoding;
 import io.undertow.util.DateUtils;
 import io.undertow.util.ETag;
 import io.undertow.util.ETagUtils;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
 
 /**
+ * The key of a cached response.
+ * <p/>
+ * Keys are made up of the request path, the content encoding and the values of the request headers that
+ * the response declared in its <code>Vary</code> header. The hash code is computed once when the key
+ * is created.
+ * <p/>
+ * Keys that are used to store a response also hold the response metadata, that is used to answer
+ * conditional requests and to restore the response headers when the response is served from the cache.
+ * This metadata is not part of the key identity. The freshness of the response is taken from the
+ * <code>max-age</code>, <code>s-maxage</code> and <code>stale-while-revalidate</code> directives of the
+ * <code>Cache-Control</code> response header. Responses that do not specify a max age never expire.
+ *
  * @author Stuart Douglas
  */
 public class CachedHttpRequest {
+
+    private static final HttpString[] NO_HEADERS = new HttpString[0];
+    private static final String[] NO_VALUES = new String[0];
+
     private final String path;
-    private final ETag etag;
     private final String contentEncoding;
-    private final String contentLocation;
-    private final String language;
-    private final String contentType;
+    private final HttpString[] varyHeaders;
+    private final String[] varyValues;
+    private final int hashCode;
+
+    private final ETag etag;
     private final Date lastModified;
     private final int responseCode;
-
+    private final HttpString[] responseHeaderNames;
+    private final String[] responseHeaderValues;
+    private final long expires;
+    private final long staleUntil;
+    private final boolean cachable;
 
     public CachedHttpRequest(final HttpServerExchange exchange) {
+        this(exchange, null);
+    }
+
+    /**
+     * Creates a key that can be used to look up a response.
+     *
+     * @param exchange    The exchange
+     * @param varyHeaders The request headers that the cached response varies on, or <code>null</code> if it does not vary
+     */
+    CachedHttpRequest(final HttpServerExchange exchange, final HttpString[] varyHeaders) {
         this.path = exchange.getRequestPath();
-        this.etag = ETagUtils.getETag(exchange);
-        this.contentLocation = exchange.getResponseHeaders().getFirst(Headers.CONTENT_LOCATION);
-        this.language = exchange.getResponseHeaders().getFirst(Headers.CONTENT_LANGUAGE);
-        this.contentType = exchange.getResponseHeaders().getFirst(Headers.CONTENT_TYPE);
-        String lmString = exchange.getResponseHeaders().getFirst(Headers.LAST_MODIFIED);
-        if (lmString == null) {
-            this.lastModified = null;
-        } else {
-            this.lastModified = DateUtils.parseDate(lmString);
-        }
         //the content encoding can be decided dynamically, based on the current state of the request
         //as the decision to compress generally dependends on size and mime type
         final ContentEncoding encoding = exchange.getAttachment(ContentEncoding.CONENT_ENCODING);
-        if(encoding != null) {
+        if (encoding != null) {
             this.contentEncoding = encoding.getCurrentContentEncoding();
         } else {
             this.contentEncoding = exchange.getResponseHeaders().getFirst(Headers.CONTENT_ENCODING);
         }
+        if (varyHeaders == null || varyHeaders.length == 0) {
+            this.varyHeaders = NO_HEADERS;
+            this.varyValues = NO_VALUES;
+        } else {
+            this.varyHeaders = varyHeaders;
+            this.varyValues = new String[varyHeaders.length];
+            final HeaderMap requestHeaders = exchange.getRequestHeaders();
+            for (int i = 0; i < varyHeaders.length; ++i) {
+                final HeaderValues values = requestHeaders.get(varyHeaders[i]);
+                if (values != null && !values.isEmpty()) {
+                    varyValues[i] = values.size() == 1 ? values.getFirst() : joinValues(values);
+                }
+            }
+        }
+        this.hashCode = computeHash();
+        this.etag = null;
+        this.lastModified = null;
+        this.responseCode = 0;
+        this.responseHeaderNames = NO_HEADERS;
+        this.responseHeaderValues = NO_VALUES;
+        this.expires = Long.MAX_VALUE;
+        this.staleUntil = Long.MAX_VALUE;
+        this.cachable = true;
+    }
+
+    /**
+     * Creates a key that holds the metadata of the current response, so it can be stored in the cache.
+     *
+     * @param exchange    The exchange
+     * @param varyHeaders The request headers that the response varies on, or <code>null</code> if it does not vary
+     * @param requestKey  The key that was used to look up the response, which must have the same vary headers
+     */
+    CachedHttpRequest(final HttpServerExchange exchange, final HttpString[] varyHeaders, final CachedHttpRequest requestKey) {
+        final CachedHttpRequest key = requestKey != null && Arrays.equals(requestKey.varyHeaders, varyHeaders == null ? NO_HEADERS : varyHeaders) ? requestKey : new CachedHttpRequest(exchange, varyHeaders);
+        this.path = key.path;
+        this.contentEncoding = key.contentEncoding;
+        this.varyHeaders = key.varyHeaders;
+        this.varyValues = key.varyValues;
+        this.hashCode = key.hashCode;
+        this.etag = ETagUtils.getETag(exchange);
+        final HeaderMap responseHeaders = exchange.getResponseHeaders();
+        final String lmString = responseHeaders.getFirst(Headers.LAST_MODIFIED);
+        this.lastModified = lmString == null ? null : DateUtils.parseDate(lmString);
         this.responseCode = exchange.getResponseCode();
+
+        final List<HttpString> names = new ArrayList<HttpString>();
+        final List<String> values = new ArrayList<String>();
+        for (final HeaderValues header : responseHeaders) {
+            final HttpString name = header.getHeaderName();
+            if (!isCachableHeader(name)) {
+                continue;
+            }
+            for (final String value : header) {
+                names.add(name);
+                values.add(value);
+            }
+        }
+        this.responseHeaderNames = names.toArray(new HttpString[names.size()]);
+        this.responseHeaderValues = values.toArray(new String[values.size()]);
+
+        long maxAge = -1;
+        long sharedMaxAge = -1;
+        long staleWhileRevalidate = 0;
+        boolean cachable = true;
+        final HeaderValues cacheControl = responseHeaders.get(Headers.CACHE_CONTROL);
+        if (cacheControl != null) {
+            for (final String value : cacheControl) {
+                for (final String directive : value.split(",")) {
+                    final int index = directive.indexOf('=');
+                    final String name = (index == -1 ? directive : directive.substring(0, index)).trim().toLowerCase(Locale.ENGLISH);
+                    if (name.equals("no-store") || name.equals("no-cache") || name.equals("private")) {
+                        cachable = false;
+                    } else if (index != -1) {
+                        final long seconds = parseSeconds(directive.substring(index + 1));
+                        if (name.equals("max-age")) {
+                            maxAge = seconds;
+                        } else if (name.equals("s-maxage")) {
+                            sharedMaxAge = seconds;
+                        } else if (name.equals("stale-while-revalidate") && seconds > 0) {
+                            staleWhileRevalidate = seconds;
+                        }
+                    }
+                }
+            }
+        }
+        final long age = sharedMaxAge >= 0 ? sharedMaxAge : maxAge;
+        if (age < 0) {
+            this.expires = Long.MAX_VALUE;
+            this.staleUntil = Long.MAX_VALUE;
+        } else {
+            this.expires = System.currentTimeMillis() + age * 1000;
+            this.staleUntil = expires + staleWhileRevalidate * 1000;
+        }
+        this.cachable = cachable;
+    }
+
+    /**
+     * @return the number of seconds in a <code>Cache-Control</code> directive value, or -1 if it is not valid
+     */
+    private static long parseSeconds(final String value) {
+        String trimmed = value.trim();
+        if (trimmed.length() > 1 && trimmed.charAt(0) == '"' && trimmed.charAt(trimmed.length() - 1) == '"') {
+            trimmed = trimmed.substring(1, trimmed.length() - 1);
+        }
+        try {
+            return Math.min(Long.parseLong(trimmed), Integer.MAX_VALUE);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isCachableHeader(final HttpString name) {
+        return !name.equals(Headers.CONTENT_LENGTH)
+                && !name.equals(Headers.CONNECTION)
+                && !name.equals(Headers.TRANSFER_ENCODING)
+                && !name.equals(Headers.KEEP_ALIVE)
+                && !name.equals(Headers.SET_COOKIE)
+                && !name.equals(Headers.SET_COOKIE2)
+                && !name.equals(Headers.DATE);
+    }
+
+    private static String joinValues(final HeaderValues values) {
+        final StringBuilder builder = new StringBuilder();
+        for (final String value : values) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    private int computeHash() {
+        int result = path != null ? path.hashCode() : 0;
+        result = 31 * result + (contentEncoding != null ? contentEncoding.hashCode() : 0);
+        result = 31 * result + Arrays.hashCode(varyHeaders);
+        result = 31 * result + Arrays.hashCode(varyValues);
+        return result;
+    }
+
+    /**
+     * Copies the cached response headers to the exchange. Headers that have already been set on the
+     * exchange are not replaced.
+     *
+     * @param exchange The exchange
+     */
+    void restoreResponseHeaders(final HttpServerExchange exchange) {
+        final HeaderMap responseHeaders = exchange.getResponseHeaders();
+        final HttpString[] names = responseHeaderNames;
+        final String[] values = responseHeaderValues;
+        HttpString current = null;
+        boolean skip = false;
+        for (int i = 0; i < names.length; ++i) {
+            final HttpString name = names[i];
+            if (name != current) {
+                current = name;
+                skip = responseHeaders.contains(name);
+            }
+            if (!skip) {
+                responseHeaders.add(name, values[i]);
+            }
+        }
     }
 
     public String getPath() {
@@ -58,24 +247,33 @@ public class CachedHttpRequest {
         return contentEncoding;
     }
 
-    public String getLanguage() {
-        return language;
+    public Date getLastModified() {
+        return lastModified;
     }
 
-    public String getContentType() {
-        return contentType;
+    public int getResponseCode() {
+        return responseCode;
     }
 
-    public Date getLastModified() {
-        return lastModified;
+    /**
+     * @return The time after which the cached response is stale, or {@link Long#MAX_VALUE} if it does not expire
+     */
+    long getExpires() {
+        return expires;
     }
 
-    public String getContentLocation() {
-        return contentLocation;
+    /**
+     * @return The time until which the stale response may still be served while it is being revalidated
+     */
+    long getStaleUntil() {
+        return staleUntil;
     }
 
-    public int getResponseCode() {
-        return responseCode;
+    /**
+     * @return <code>false</code> if the <code>Cache-Control</code> header of the response forbids caching it
+     */
+    boolean isCachable() {
+        return cachable;
     }
 
     @Override
@@ -85,30 +283,18 @@ public class CachedHttpRequest {
 
         final CachedHttpRequest that = (CachedHttpRequest) o;
 
-        if (responseCode != that.responseCode) return false;
+        if (hashCode != that.hashCode) return false;
+        if (path != null ? !path.equals(that.path) : that.path != null) return false;
         if (contentEncoding != null ? !contentEncoding.equals(that.contentEncoding) : that.contentEncoding != null)
             return false;
-        if (contentLocation != null ? !contentLocation.equals(that.contentLocation) : that.contentLocation != null)
-            return false;
-        if (contentType != null ? !contentType.equals(that.contentType) : that.contentType != null) return false;
-        if (etag != null ? !etag.equals(that.etag) : that.etag != null) return false;
-        if (language != null ? !language.equals(that.language) : that.language != null) return false;
-        if (lastModified != null ? !lastModified.equals(that.lastModified) : that.lastModified != null) return false;
-        if (path != null ? !path.equals(that.path) : that.path != null) return false;
+        if (!Arrays.equals(varyHeaders, that.varyHeaders)) return false;
+        if (!Arrays.equals(varyValues, that.varyValues)) return false;
 
         return true;
     }
 
     @Override
     public int hashCode() {
-        int result = path != null ? path.hashCode() : 0;
-        result = 31 * result + (etag != null ? etag.hashCode() : 0);
-        result = 31 * result + (contentEncoding != null ? contentEncoding.hashCode() : 0);
-        result = 31 * result + (contentLocation != null ? contentLocation.hashCode() : 0);
-        result = 31 * result + (language != null ? language.hashCode() : 0);
-        result = 31 * result + (contentType != null ? contentType.hashCode() : 0);
-        result = 31 * result + (lastModified != null ? lastModified.hashCode() : 0);
-        result = 31 * result + responseCode;
-        return result;
+        return hashCode;
     }
 }
@@ -24,6 +24,7 @@ import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xnio.BufferAllocator;
 
@@ -32,9 +33,18 @@ import org.xnio.BufferAllocator;
  * subsequence of blocks in a fixed large direct buffer. An ideal application is
  * a file system cache, where the path corresponds to a file location.
  *
- * <p>To reduce contention, entry allocation and eviction execute in a sampling
- * fashion (entry hits modulo N). Eviction follows an LRU approach (oldest sampled
- * entries are removed first) when the cache is out of capacity</p>
+ * <p>To reduce contention, entry allocation and reordering execute in a sampling
+ * fashion (entry hits modulo N), however every access is recorded in a frequency sketch.</p>
+ *
+ * <p>Entries are kept in a segmented LRU. New entries start in the probation segment, and
+ * are promoted to the protected segment when they are hit again. Once the protected segment
+ * holds more than its share of the memory its oldest entries are moved back to probation.</p>
+ *
+ * <p>When the cache is out of capacity the oldest entries are candidates for eviction, starting
+ * with the probation segment. A new entry is only admitted if it has been accessed more often than
+ * each of the entries that would be evicted to make room for it, so a single large entry cannot
+ * push out many smaller entries that are in more demand. The number of entries that are examined
+ * for each allocation is bounded.</p>
  *
  * <p>In order to expedite reclamation, cache entries are reference counted as
  * opposed to garbage collected.</p>
@@ -42,11 +52,37 @@ import org.xnio.BufferAllocator;
  * @author Jason T. Greene
  */
 public class DirectBufferCache {
-    private static final int SAMPLE_INTERVAL = 5;
+    /**
+     * An entry is allocated once it has been hit this many times. This is also the number of times a file must be
+     * requested before it is mapped by a {@link MappedFileCache}.
+     */
+    static final int SAMPLE_INTERVAL = 5;
+
+    /**
+     * The maximum number of entries that are examined when looking for room for a new entry
+     */
+    static final int MAX_EVICTION_SCAN = 16;
+
+    /**
+     * The maximum number of entries that are moved back to probation when an entry is promoted
+     */
+    private static final int MAX_DEMOTIONS = 2;
+
+    /**
+     * The percentage of the memory that may be used by protected entries
+     */
+    private static final int PROTECTED_PERCENTAGE = 80;
+
+    static final int PROBATION = 0;
+    static final int PROTECTED = 1;
 
     private final LimitedBufferSlicePool pool;
     private final ConcurrentHashMap<Object, CacheEntry> cache;
-    private final ConcurrentDirectDeque<CacheEntry> accessQueue;
+    private final ConcurrentDirectDeque<CacheEntry> probationQueue;
+    private final ConcurrentDirectDeque<CacheEntry> protectedQueue;
+    private final AtomicLong protectedSize = new AtomicLong();
+    private final long maxProtectedSize;
+    private final FrequencySketch sketch;
     private final int sliceSize;
 
     public DirectBufferCache(int sliceSize, int slicesPerPage, int max) {
@@ -56,7 +92,10 @@ public class DirectBufferCache {
         this.sliceSize = sliceSize;
         this.pool = new LimitedBufferSlicePool(bufferAllocator, sliceSize, sliceSize * slicesPerPage, maxMemory / (sliceSize * slicesPerPage));
         this.cache = new ConcurrentHashMap<>(16);
-        this.accessQueue = ConcurrentDirectDeque.newInstance();
+        this.probationQueue = ConcurrentDirectDeque.newInstance();
+        this.protectedQueue = ConcurrentDirectDeque.newInstance();
+        this.maxProtectedSize = (long) maxMemory * PROTECTED_PERCENTAGE / 100;
+        this.sketch = new FrequencySketch(maxMemory / sliceSize);
     }
 
     public CacheEntry add(Object key, int size) {
@@ -75,57 +114,149 @@ public class DirectBufferCache {
     }
 
     public CacheEntry get(Object key) {
+        sketch.increment(key);
         CacheEntry cacheEntry = cache.get(key);
         if (cacheEntry == null) {
             return null;
         }
 
         if (cacheEntry.hit() % SAMPLE_INTERVAL == 0) {
-            bumpAccess(cacheEntry);
-
-            if (! cacheEntry.allocate()) {
-                // Try and make room
-                int reclaimSize = cacheEntry.size();
-                for (CacheEntry oldest : accessQueue) {
-                    if (oldest == cacheEntry) {
-                        continue;
-                    }
+            if (! cacheEntry.allocate() && makeRoom(cacheEntry)) {
+                // Maybe lucky? the evicted entries may still be in use
+                cacheEntry.allocate();
+            }
 
-                    if (oldest.buffers().length > 0) {
-                        reclaimSize -= oldest.size();
-                    }
+            bumpAccess(cacheEntry);
+        }
 
-                    this.remove(oldest.key());
+        return cacheEntry;
+    }
 
-                    if (reclaimSize <= 0) {
-                        break;
-                    }
+    /**
+     * Evicts entries to make room for the given entry, if the entry is accessed more frequently than
+     * all of the entries that need to be evicted.
+     *
+     * @return <code>true</code> if entries were evicted
+     */
+    private boolean makeRoom(CacheEntry candidate) {
+        final int needed = slices(candidate.size()) * sliceSize;
+        final int frequency = sketch.frequency(candidate.key());
+        final CacheEntry[] victims = new CacheEntry[MAX_EVICTION_SCAN];
+        int count = 0;
+        int scanned = 0;
+        int reclaimed = 0;
+        scan:
+        for (int segment = PROBATION; segment <= PROTECTED; ++segment) {
+            for (CacheEntry oldest : queue(segment)) {
+                if (oldest == candidate) {
+                    continue;
+                }
+                if (scanned++ == MAX_EVICTION_SCAN) {
+                    break scan;
+                }
+                final int size = oldest.buffers().length * sliceSize;
+                if (size == 0) {
+                    // Entries that hold no buffers are removed, their access history is kept in the sketch
+                    remove(oldest);
+                    continue;
+                }
+                if (sketch.frequency(oldest.key()) >= frequency) {
+                    return false;
+                }
+                victims[count++] = oldest;
+                reclaimed += size;
+                if (reclaimed >= needed) {
+                    break scan;
                 }
-
-                // Maybe lucky?
-                cacheEntry.allocate();
             }
         }
+        if (reclaimed < needed) {
+            return false;
+        }
+        for (int i = 0; i < count; ++i) {
+            remove(victims[i]);
+        }
+        return true;
+    }
 
-        return cacheEntry;
+    private int slices(int size) {
+        return Math.max(1, (size + sliceSize - 1) / sliceSize);
     }
 
+    private ConcurrentDirectDeque<CacheEntry> queue(int segment) {
+        return segment == PROTECTED ? protectedQueue : probationQueue;
+    }
+
+    /**
+     * Moves the entry to the back of its segment. New entries are added to probation, and
+     * entries that hold buffers are promoted when they are hit while in probation.
+     */
     private void bumpAccess(CacheEntry cacheEntry) {
         Object prevToken = cacheEntry.claimToken();
         if (prevToken != Boolean.FALSE) {
+            int segment = PROBATION;
             if (prevToken != null) {
-                accessQueue.removeToken(prevToken);
+                queue(cacheEntry.segment).removeToken(prevToken);
+                if (cacheEntry.segment == PROTECTED || cacheEntry.buffers().length > 0) {
+                    segment = PROTECTED;
+                }
             }
 
+            final boolean promoted = segment == PROTECTED && cacheEntry.segment == PROBATION;
+            cacheEntry.segment = segment;
             Object token = null;
             try {
-                token = accessQueue.offerLastAndReturnToken(cacheEntry);
+                token = queue(segment).offerLastAndReturnToken(cacheEntry);
             } catch (Throwable t) {
                 // In case of disaster (OOME), we need to release the claim, so leave it aas null
             }
 
-            if (! cacheEntry.setToken(token) && token != null) { // Always set if null
-                accessQueue.removeToken(token);
+            if (token == null || ! cacheEntry.setToken(token)) {
+                // Either it is out of the queues, or it was removed while we held the claim
+                if (token != null) {
+                    queue(segment).removeToken(token);
+                } else {
+                    cacheEntry.setToken(null);
+                }
+                if (segment == PROTECTED && !promoted) {
+                    protectedSize.addAndGet(-cacheEntry.size());
+                }
+            } else if (promoted) {
+                if (protectedSize.addAndGet(cacheEntry.size()) > maxProtectedSize) {
+                    demote();
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the oldest protected entries back to probation, until the protected segment is within its limit
+     */
+    private void demote() {
+        int demoted = 0;
+        for (CacheEntry oldest : protectedQueue) {
+            if (demoted++ == MAX_DEMOTIONS || protectedSize.get() <= maxProtectedSize) {
+                return;
+            }
+            Object prevToken = oldest.claimToken();
+            if (prevToken == Boolean.FALSE || prevToken == null) {
+                // Someone else is moving it, or it is being removed
+                if (prevToken == null) {
+                    oldest.setToken(null);
+                }
+                continue;
+            }
+            protectedQueue.removeToken(prevToken);
+            protectedSize.addAndGet(-oldest.size());
+            oldest.segment = PROBATION;
+            Object token = null;
+            try {
+                token = probationQueue.offerLastAndReturnToken(oldest);
+            } catch (Throwable t) {
+                // leave it out of the queues
+            }
+            if (! oldest.setToken(token) && token != null) {
+                probationQueue.removeToken(token);
             }
         }
     }
@@ -134,37 +265,49 @@ public class DirectBufferCache {
     public void remove(Object key) {
         CacheEntry remove = cache.remove(key);
         if (remove != null) {
-            Object old = remove.clearToken();
-            if (old != null) {
-                accessQueue.removeToken(old);
+            removed(remove);
+        }
+    }
+
+    /**
+     * Removes the entry, unless it has already been replaced by a new entry with the same key
+     */
+    private void remove(CacheEntry entry) {
+        if (cache.remove(entry.key(), entry)) {
+            removed(entry);
+        }
+    }
+
+    private void removed(CacheEntry remove) {
+        final int segment = remove.segment;
+        Object old = remove.clearToken();
+        if (old != null) {
+            queue(segment).removeToken(old);
+            if (segment == PROTECTED) {
+                protectedSize.addAndGet(-remove.size());
             }
-            remove.dereference();
         }
+        remove.dereference();
     }
 
-    public static final class CacheEntry {
+    public static final class CacheEntry extends AbstractCacheEntry {
         private static final PooledByteBuffer[] EMPTY_BUFFERS = new PooledByteBuffer[0];
         private static final PooledByteBuffer[] INIT_BUFFERS = new PooledByteBuffer[0];
-        private static final Object CLAIM_TOKEN = new Object();
 
         private static final AtomicIntegerFieldUpdater<CacheEntry> hitsUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "hits");
-        private static final AtomicIntegerFieldUpdater<CacheEntry> refsUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "refs");
         private static final AtomicIntegerFieldUpdater<CacheEntry> enabledUpdator = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "enabled");
 
         private static final AtomicReferenceFieldUpdater<CacheEntry, PooledByteBuffer[]> bufsUpdater = AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, PooledByteBuffer[].class, "buffers");
-        private static final AtomicReferenceFieldUpdater<CacheEntry, Object> tokenUpdator = AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, Object.class, "accessToken");
 
-        private final Object key;
         private final int size;
         private final DirectBufferCache cache;
         private volatile PooledByteBuffer[] buffers = INIT_BUFFERS;
-        private volatile int refs = 1;
         private volatile int hits = 1;
-        private volatile Object accessToken;
         private volatile int enabled;
+        private volatile int segment;
 
         private CacheEntry(Object key, int size, DirectBufferCache cache) {
-            this.key = key;
+            super(key);
             this.size = size;
             this.cache = cache;
         }
@@ -188,10 +331,6 @@ public class DirectBufferCache {
             }
         }
 
-        public Object key() {
-            return key;
-        }
-
         public boolean enabled() {
             return enabled == 2;
         }
@@ -208,35 +347,6 @@ public class DirectBufferCache {
             return enabledUpdator.compareAndSet(this, 0, 1);
         }
 
-        public boolean reference() {
-            for(;;) {
-                int refs = this.refs;
-                if (refs < 1) {
-                    return false; // destroying
-                }
-
-                if (refsUpdater.compareAndSet(this, refs++, refs)) {
-                    return true;
-                }
-            }
-        }
-
-        public boolean dereference() {
-            for(;;) {
-                int refs = this.refs;
-                if (refs < 1) {
-                    return false;  // destroying
-                }
-
-                if (refsUpdater.compareAndSet(this, refs--, refs)) {
-                    if (refs == 0) {
-                        destroy();
-                    }
-                    return true;
-                }
-            }
-        }
-
         public boolean allocate() {
             if (buffers.length > 0)
                 return true;
@@ -277,34 +387,12 @@ public class DirectBufferCache {
             return true;
         }
 
-        private void destroy() {
-            this.buffers = EMPTY_BUFFERS;
+        @Override
+        void destroy() {
+            final PooledByteBuffer[] buffers = bufsUpdater.getAndSet(this, EMPTY_BUFFERS);
             for (PooledByteBuffer buffer : buffers) {
                 buffer.free();
             }
         }
-
-        Object claimToken() {
-            for (;;) {
-                Object current = this.accessToken;
-                if (current == CLAIM_TOKEN) {
-                    return Boolean.FALSE;
-                }
-
-                if (tokenUpdator.compareAndSet(this, current, CLAIM_TOKEN)) {
-                    return current;
-                }
-            }
-        }
-
-        boolean setToken(Object token) {
-            return tokenUpdator.compareAndSet(this, CLAIM_TOKEN, token);
-        }
-
-        Object clearToken() {
-            Object old = tokenUpdator.getAndSet(this, null);
-            return old == CLAIM_TOKEN ? null : old;
-        }
-
     }
 }
@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+/**
+ * A count-min sketch that estimates how often keys have been accessed, used to decide whether a new entry is
+ * worth more than the entries it would evict.
+ * <p/>
+ * Each key maps to four 4 bit counters, and its frequency is the smallest of them. Once the number of increments
+ * reaches ten times the size of the sketch all counters are halved, so that the estimates favour recent accesses.
+ * <p/>
+ * This class is not synchronized. Concurrent updates may occasionally be lost, which only makes the estimates
+ * slightly less accurate. Each long of the table is read once and the value that is written back is derived from
+ * that read, so a counter is never incremented past its maximum and cannot carry into its neighbour.
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * @param maximumEntries The maximum number of entries that are expected to be in the cache
+     */
+    FrequencySketch(final int maximumEntries) {
+        int capacity = 16;
+        while (capacity < maximumEntries && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        this.table = new long[capacity];
+        this.tableMask = capacity - 1;
+        this.sampleSize = 10 * capacity;
+    }
+
+    /**
+     * @return The estimated number of times the key has been accessed recently, at most 15
+     */
+    int frequency(final Object key) {
+        final int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; ++i) {
+            final long index = indexOf(hash, i);
+            final int count = (int) ((table[(int) (index >>> 6)] >>> (index & 63)) & 0xF);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an access of the key
+     */
+    void increment(final Object key) {
+        final int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; ++i) {
+            final long index = indexOf(hash, i);
+            final int slot = (int) (index >>> 6);
+            final int offset = (int) (index & 63);
+            final long value = table[slot];
+            if (((value >>> offset) & 0xF) != MAX_COUNT) {
+                table[slot] = value + (1L << offset);
+                added = true;
+            }
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        final long[] table = this.table;
+        for (int i = 0; i < table.length; ++i) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size >>>= 1;
+    }
+
+    /**
+     * Returns the position of the counter for the given hash function, as the index of the long in the table
+     * shifted left by six, plus the bit offset of the counter within that long.
+     */
+    private long indexOf(final int hash, final int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        final int slot = (int) h & tableMask;
+        final int offset = (int) ((h >>> 40) & 15) << 2;
+        return ((long) slot << 6) | offset;
+    }
+
+    private static int spread(final int hashCode) {
+        int h = hashCode * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of memory mapped files, intended for files that are too large to be copied into
+ * a {@link DirectBufferCache}.
+ * <p/>
+ * Once a file has been mapped it can be written to the network straight from the page cache, without
+ * opening the file or copying it into a buffer.
+ * <p/>
+ * Files are admitted the same way as entries of a {@link DirectBufferCache}. Every lookup is recorded in a
+ * frequency sketch, and a file is only mapped once it has been requested as often as a buffer cache entry must be
+ * hit before it is allocated, so files that are only requested once or twice do not displace the mappings of files
+ * that are in demand.
+ * <p/>
+ * Entries are reference counted. A removed entry is only released once all the requests that are
+ * using it have dereferenced it. The total size of the entries that have not been released is bounded. To map
+ * a new file the least recently used entries that are not in use are removed, as long as they have been
+ * requested less often than the new file, and if that does not free enough space the file is not mapped.
+ * Note that a released mapping is only unmapped once it has been garbage collected, so the address space
+ * that is actually mapped can briefly exceed the bound.
+ * <p/>
+ * The file is checked for modifications at most once per check interval. {@link #get(Object)} never
+ * touches the file system, if the entry is due to be checked it returns <code>null</code> and the caller
+ * should call {@link #add(Object, Path)} from a thread that may block.
+ */
+public class MappedFileCache {
+
+    private static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+    /**
+     * The maximum size of a single mapping
+     */
+    private static final int MAX_MAPPING_SIZE = 1 << 30;
+
+    /**
+     * The number of files whose access frequency is tracked
+     */
+    private static final int SKETCH_SIZE = 1024;
+
+    private final ConcurrentHashMap<Object, MappedFile> cache = new ConcurrentHashMap<>();
+    private final ConcurrentDirectDeque<MappedFile> accessQueue = ConcurrentDirectDeque.newInstance();
+    private final AtomicLong mappedSize = new AtomicLong();
+    private final FrequencySketch sketch = new FrequencySketch(SKETCH_SIZE);
+    private final long maxMappedSize;
+    private final long checkInterval;
+
+    /**
+     * @param maxMappedSize The maximum total size of the mapped files
+     */
+    public MappedFileCache(final long maxMappedSize) {
+        this(maxMappedSize, DEFAULT_CHECK_INTERVAL);
+    }
+
+    /**
+     * @param maxMappedSize The maximum total size of the mapped files
+     * @param checkInterval The time in milliseconds between checks that a mapped file has not been modified
+     */
+    public MappedFileCache(final long maxMappedSize, final long checkInterval) {
+        this.maxMappedSize = maxMappedSize;
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * Gets a mapped file, and records the request for the file. This does not access the file system.
+     *
+     * @param key The cache key
+     * @return The referenced entry, which must be dereferenced once it is no longer in use, or <code>null</code> if the
+     *         file is not mapped or needs to be checked for modifications
+     */
+    public MappedFile get(final Object key) {
+        sketch.increment(key);
+        final MappedFile entry = cache.get(key);
+        if (entry == null || System.currentTimeMillis() >= entry.nextCheck || !entry.reference()) {
+            return null;
+        }
+        bumpAccess(entry);
+        return entry;
+    }
+
+    /**
+     * Gets a mapped file, mapping it if it is not already mapped and it has been requested often enough.
+     * If the existing mapping is out of date it is replaced. This method may block.
+     *
+     * @param key  The cache key
+     * @param file The file
+     * @return The referenced entry, which must be dereferenced once it is no longer in use, or <code>null</code> if the
+     *         file has not been requested often enough, or cannot be mapped within the size limit
+     * @throws IOException If the file cannot be mapped
+     */
+    public MappedFile add(final Object key, final Path file) throws IOException {
+        final long size = Files.size(file);
+        final long lastModified = Files.getLastModifiedTime(file).toMillis();
+        final MappedFile existing = cache.get(key);
+        if (existing != null) {
+            if (existing.size == size && existing.lastModified == lastModified && existing.reference()) {
+                existing.nextCheck = System.currentTimeMillis() + checkInterval;
+                bumpAccess(existing);
+                return existing;
+            }
+            remove(existing);
+        }
+        final int frequency = sketch.frequency(key);
+        if (frequency < DirectBufferCache.SAMPLE_INTERVAL || size > maxMappedSize || !reserve(size, frequency)) {
+            return null;
+        }
+
+        final ByteBuffer[] buffers;
+        try {
+            buffers = map(file, size);
+        } catch (IOException | RuntimeException e) {
+            mappedSize.addAndGet(-size);
+            throw e;
+        }
+        final MappedFile entry = new MappedFile(key, buffers, size, lastModified, System.currentTimeMillis() + checkInterval, mappedSize);
+        entry.reference();
+        final MappedFile result = cache.putIfAbsent(key, entry);
+        if (result != null) {
+            //someone else mapped it at the same time
+            entry.dereference();
+            entry.dereference();
+            if (result.reference()) {
+                bumpAccess(result);
+                return result;
+            }
+            return null;
+        }
+        bumpAccess(entry);
+        return entry;
+    }
+
+    private static ByteBuffer[] map(final Path file, final long size) throws IOException {
+        final ByteBuffer[] buffers = new ByteBuffer[(int) ((size + MAX_MAPPING_SIZE - 1) / MAX_MAPPING_SIZE)];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            for (int i = 0; i < buffers.length; ++i) {
+                final long length = Math.min(MAX_MAPPING_SIZE, size - position);
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                position += length;
+            }
+        }
+        return buffers;
+    }
+
+    /**
+     * Reserves space for a new mapping, removing entries that are not in use until there is enough space.
+     *
+     * @param frequency The access frequency of the new mapping
+     * @return <code>false</code> if there is not enough space, even once the unused entries that may be evicted have been removed
+     */
+    private boolean reserve(final long size, final int frequency) {
+        for (;;) {
+            final long current = mappedSize.get();
+            if (current + size <= maxMappedSize) {
+                if (mappedSize.compareAndSet(current, current + size)) {
+                    return true;
+                }
+            } else if (!removeUnused(frequency)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used entry that is only referenced by the cache, so it is released straight away.
+     * As in {@link DirectBufferCache} the entry is only evicted if it has been accessed less often than the new
+     * mapping, and the number of entries that are examined is bounded.
+     *
+     * @return <code>false</code> if no entry could be removed
+     */
+    private boolean removeUnused(final int frequency) {
+        int scanned = 0;
+        for (MappedFile entry : accessQueue) {
+            if (scanned++ == DirectBufferCache.MAX_EVICTION_SCAN) {
+                return false;
+            }
+            if (entry.isUnused()) {
+                if (sketch.frequency(entry.key()) >= frequency) {
+                    return false;
+                }
+                remove(entry);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void remove(final Object key) {
+        final MappedFile entry = cache.get(key);
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    private void remove(final MappedFile entry) {
+        if (cache.remove(entry.key(), entry)) {
+            Object old = entry.clearToken();
+            if (old != null) {
+                accessQueue.removeToken(old);
+            }
+            entry.dereference();
+        }
+    }
+
+    /**
+     * @return The total size of the mapped files that have not been released
+     */
+    public long getMappedSize() {
+        return mappedSize.get();
+    }
+
+    private void bumpAccess(final MappedFile entry) {
+        Object prevToken = entry.claimToken();
+        if (prevToken != Boolean.FALSE) {
+            if (prevToken != null) {
+                accessQueue.removeToken(prevToken);
+            }
+
+            Object token = null;
+            try {
+                token = accessQueue.offerLastAndReturnToken(entry);
+            } catch (Throwable t) {
+                // In case of disaster (OOME), we need to release the claim, so leave it as null
+            }
+
+            if (!entry.setToken(token) && token != null) {
+                accessQueue.removeToken(token);
+            }
+        }
+    }
+
+    public static final class MappedFile extends AbstractCacheEntry {
+
+        private final long size;
+        private final long lastModified;
+        private final AtomicLong mappedSize;
+        private volatile ByteBuffer[] buffers;
+        private volatile long nextCheck;
+
+        private MappedFile(final Object key, final ByteBuffer[] buffers, final long size, final long lastModified, final long nextCheck, final AtomicLong mappedSize) {
+            super(key);
+            this.mappedSize = mappedSize;
+            this.buffers = buffers;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.nextCheck = nextCheck;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        /**
+         * @return Read only views of the mapped file, that can be consumed independently of other requests
+         */
+        public ByteBuffer[] buffers() {
+            final ByteBuffer[] buffers = this.buffers;
+            final ByteBuffer[] result = new ByteBuffer[buffers.length];
+            for (int i = 0; i < buffers.length; ++i) {
+                result[i] = buffers[i].asReadOnlyBuffer();
+            }
+            return result;
+        }
+
+        @Override
+        void destroy() {
+            // the mapping is released once the buffers have been garbage collected
+            buffers = null;
+            mappedSize.addAndGet(-size);
+        }
+    }
+}
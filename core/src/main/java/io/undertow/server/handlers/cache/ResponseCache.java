@@ -2,9 +2,11 @@ package io.undertow.server.handlers.cache;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentMap;
 
 import io.undertow.io.IoCallback;
 import io.undertow.io.Sender;
+import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.AttachmentKey;
 import io.undertow.util.DateUtils;
@@ -29,6 +31,10 @@ import static io.undertow.util.Methods.HEAD;
  * If-Modified-Since or If-None-Match headers indicate that the client has a cached copy
  * of the response)
  * <p/>
+ * If the cached response has expired, or is not present, the current exchange becomes responsible for
+ * filling the cache, and other requests for the same path wait for it to complete. If the response
+ * is stale but may still be served while it is revalidated then only a single exchange revalidates it.
+ * <p/>
  * This should be installed early in the handler chain, before any content encoding handlers.
  * This allows it to cache compressed copies of the response, which can significantly reduce
  * CPU load.
@@ -45,11 +51,34 @@ public class ResponseCache {
 
     private final DirectBufferCache cache;
     private final HttpServerExchange exchange;
+    private final LRUCache<String, HttpString[]> varyHeaders;
+    private final ConcurrentMap<CachedHttpRequest, CacheFill> fills;
+    private final long maxFillTime;
     private boolean responseCachable;
+    private boolean refill;
+    private CachedHttpRequest requestKey;
+    private CacheFill fill;
 
     public ResponseCache(final DirectBufferCache cache, final HttpServerExchange exchange) {
+        this(cache, exchange, null, null, 0);
+    }
+
+    /**
+     *
+     * @param cache       The underlying buffer cache
+     * @param exchange    The current exchange
+     * @param varyHeaders The request headers that the cached responses for each path vary on, or <code>null</code>
+     *                    if responses that vary should not be cached
+     * @param fills       The cache fills that are in progress, or <code>null</code> if requests should not be collapsed
+     * @param maxFillTime The maximum time in milliseconds that requests are parked on a fill
+     */
+    ResponseCache(final DirectBufferCache cache, final HttpServerExchange exchange, final LRUCache<String, HttpString[]> varyHeaders,
+                  final ConcurrentMap<CachedHttpRequest, CacheFill> fills, final long maxFillTime) {
         this.cache = cache;
         this.exchange = exchange;
+        this.varyHeaders = varyHeaders;
+        this.fills = fills;
+        this.maxFillTime = maxFillTime;
     }
 
     /**
@@ -80,73 +109,80 @@ public class ResponseCache {
      * @return <code>true</code> if serving suceeded,
      */
     public boolean tryServeResponse(boolean markCacheable) {
-        final CachedHttpRequest key = new CachedHttpRequest(exchange);
-        DirectBufferCache.CacheEntry entry = cache.get(key);
-
         //we only cache get and head requests
         if (!exchange.getRequestMethod().equals(GET) &&
                 !exchange.getRequestMethod().equals(HEAD)) {
             return false;
         }
 
-        if (entry == null) {
-            this.responseCachable = markCacheable;
-            return false;
-        }
+        final CachedHttpRequest key = requestKey = new CachedHttpRequest(exchange, varyHeaders == null ? null : varyHeaders.get(exchange.getRequestPath()));
+        DirectBufferCache.CacheEntry entry = cache.get(key);
 
-        // It's loading retry later
-        if (!entry.enabled() || !entry.reference()) {
+        // It's missing, or loading, so this request may fill it
+        if (entry == null || !entry.enabled() || !entry.reference()) {
             this.responseCachable = markCacheable;
+            if (markCacheable) {
+                startFill(false);
+            }
             return false;
         }
 
         CachedHttpRequest existingKey = (CachedHttpRequest) entry.key();
+        final long now = System.currentTimeMillis();
+        if (now >= existingKey.getExpires()) {
+            if (now >= existingKey.getStaleUntil()) {
+                //it is too stale to be served, so remove it and fill it again
+                entry.dereference();
+                cache.remove(existingKey);
+                this.responseCachable = markCacheable;
+                if (markCacheable) {
+                    refill = true;
+                    startFill(false);
+                }
+                return false;
+            } else if (markCacheable && startFill(true)) {
+                //we revalidate the entry, other requests are served the stale entry in the meantime
+                entry.dereference();
+                this.responseCachable = true;
+                refill = true;
+                return false;
+            }
+        }
+
         //if any of the header matches fail we just return
         //we don't can the request, as it is possible the underlying handler
         //may have additional etags
         final ETag etag = existingKey.getEtag();
         if (!ETagUtils.handleIfMatch(exchange, etag, false)) {
+            entry.dereference();
             return false;
         }
         //we do send a 304 if the if-none-match header matches
         if (!ETagUtils.handleIfNoneMatch(exchange, etag, true)) {
+            entry.dereference();
             exchange.setResponseCode(304);
             exchange.endExchange();
             return true;
         }
         //the server may have a more up to date representation
         if (!DateUtils.handleIfUnmodifiedSince(exchange, existingKey.getLastModified())) {
+            entry.dereference();
             return false;
         }
         if (!DateUtils.handleIfModifiedSince(exchange, existingKey.getLastModified())) {
+            entry.dereference();
             exchange.setResponseCode(304);
             exchange.endExchange();
             return true;
         }
 
         //we are going to proceed. Set the appropriate headers
-        if(existingKey.getContentType() != null) {
-            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, existingKey.getContentType());
-        }
-        if(existingKey.getContentEncoding() != null && !Headers.IDENTITY.equals(HttpString.tryFromString(existingKey.getContentEncoding()))) {
-            exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, existingKey.getContentEncoding());
-        }
-        if(existingKey.getLastModified() != null) {
-            exchange.getResponseHeaders().put(Headers.LAST_MODIFIED, DateUtils.toDateString(existingKey.getLastModified()));
-        }
-        if(existingKey.getContentLocation() != null) {
-            exchange.getResponseHeaders().put(Headers.CONTENT_LOCATION, existingKey.getContentLocation());
-        }
-        if(existingKey.getLanguage() != null) {
-            exchange.getResponseHeaders().put(Headers.CONTENT_LANGUAGE, existingKey.getLanguage());
-        }
-        if(etag != null) {
-            exchange.getResponseHeaders().put(Headers.CONTENT_LANGUAGE, etag.toString());
-        }
+        existingKey.restoreResponseHeaders(exchange);
 
         //TODO: support if-range
         exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Long.toString(entry.size()));
         if (exchange.getRequestMethod().equals(HEAD)) {
+            entry.dereference();
             exchange.endExchange();
             return true;
         }
@@ -175,6 +211,62 @@ public class ResponseCache {
         return true;
     }
 
+    /**
+     * Registers this exchange as the one that fills the cache for the current request key. Once the exchange is complete
+     * any requests that were parked on the fill are resumed.
+     *
+     * @param revalidating <code>true</code> if a stale entry is being revalidated
+     * @return <code>true</code> if this exchange fills the cache, <code>false</code> if a fill is already in progress
+     */
+    private boolean startFill(final boolean revalidating) {
+        if (fills == null) {
+            return true;
+        }
+        final CacheFill fill = new CacheFill(fills, requestKey, revalidating);
+        if (fills.putIfAbsent(requestKey, fill) != null) {
+            return false;
+        }
+        this.fill = fill;
+        exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+            @Override
+            public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+                try {
+                    fill.complete();
+                } finally {
+                    nextListener.proceed();
+                }
+            }
+        });
+        fill.scheduleTimeout(exchange.getIoThread(), maxFillTime);
+        return true;
+    }
+
+    /**
+     * If this is true the cache entry for this response should be allocated straight away, rather than waiting
+     * for it to be requested a few more times, as it is known to be in demand.
+     *
+     * @return <code>true</code> if the response is refilling an expired entry, or other requests are waiting for it
+     */
+    boolean isAllocationRequired() {
+        return refill || (fill != null && fill.hasWaiters());
+    }
+
+    /**
+     *
+     * @return <code>true</code> if the response replaces an expired entry, which must be removed before it is stored
+     */
+    boolean isRefill() {
+        return refill;
+    }
+
+    /**
+     *
+     * @return The key that was used to look up the response, or <code>null</code> if no lookup was attempted
+     */
+    CachedHttpRequest getRequestKey() {
+        return requestKey;
+    }
+
     boolean isResponseCachable() {
         return responseCachable;
     }
@@ -64,6 +64,8 @@ public class ResponseCachingStreamSinkConduit extends AbstractStreamSinkConduit<
                     buffer.flip();
                 }
                 cacheEntry.enable();
+                //the buffers are now only kept by the cache, and by the requests that are served from it
+                cacheEntry.dereference();
             }
         }
         return totalWritten;
@@ -102,6 +104,8 @@ public class ResponseCachingStreamSinkConduit extends AbstractStreamSinkConduit<
                     buffer.flip();
                 }
                 cacheEntry.enable();
+                //the buffers are now only kept by the cache, and by the requests that are served from it
+                cacheEntry.dereference();
             }
         }
         return totalWritten;
@@ -32,6 +32,7 @@ import io.undertow.server.ConduitWrapper;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.cache.DirectBufferCache;
 import io.undertow.server.handlers.cache.LimitedBufferSlicePool;
+import io.undertow.server.handlers.cache.MappedFileCache;
 import io.undertow.server.handlers.cache.ResponseCachingStreamSinkConduit;
 import io.undertow.util.ConduitFactory;
 import io.undertow.util.DateUtils;
@@ -115,9 +116,17 @@ public class CachedResource implements Resource {
     public void serve(final HttpServerExchange exchange) {
         final Long length = getContentLength();
         //if it is not eligable to be served from the cache
-        if (length == null || length > cachingResourceManager.getMaxFileSize()) {
+        if (length == null) {
             underlyingResource.serve(exchange);
             return;
+        } else if (length > cachingResourceManager.getMaxFileSize()) {
+            final MappedFileCache mappedFileCache = cachingResourceManager.getMappedFileCache();
+            if (mappedFileCache == null || underlyingResource.getFile() == null) {
+                underlyingResource.serve(exchange);
+            } else {
+                serveMapped(exchange, mappedFileCache, length);
+            }
+            return;
         }
 
 
@@ -176,6 +185,49 @@ public class CachedResource implements Resource {
         }
     }
 
+    private void serveMapped(final HttpServerExchange exchange, final MappedFileCache mappedFileCache, final long length) {
+        final MappedFileCache.MappedFile existing = mappedFileCache.get(cacheKey);
+        if (existing != null) {
+            sendMapped(exchange, existing, length);
+            return;
+        }
+        //mapping the file, or checking if it has changed, may block
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                final MappedFileCache.MappedFile mapped;
+                try {
+                    mapped = mappedFileCache.add(cacheKey, underlyingResource.getFile());
+                } catch (IOException e) {
+                    UndertowLogger.REQUEST_LOGGER.debugf(e, "Could not map file %s", underlyingResource.getFile());
+                    underlyingResource.serve(exchange);
+                    return;
+                }
+                if (mapped == null) {
+                    underlyingResource.serve(exchange);
+                } else {
+                    sendMapped(exchange, mapped, length);
+                }
+            }
+        };
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(task);
+        } else {
+            task.run();
+        }
+    }
+
+    private void sendMapped(final HttpServerExchange exchange, final MappedFileCache.MappedFile mapped, final long length) {
+        if (mapped.size() != length) {
+            //the file has changed since its metadata was cached, so the response headers are out of date
+            mapped.dereference();
+            cachingResourceManager.invalidate(path);
+            underlyingResource.serve(exchange);
+            return;
+        }
+        exchange.getResponseSender().send(mapped.buffers(), new MappedFileCallback(mapped));
+    }
+
     @Override
     public Long getContentLength() {
         return contentLength;
@@ -240,4 +292,33 @@ public class CachedResource implements Resource {
             }
         }
     }
+
+    private static class MappedFileCallback implements IoCallback {
+        private final MappedFileCache.MappedFile mapped;
+
+        public MappedFileCallback(MappedFileCache.MappedFile mapped) {
+            this.mapped = mapped;
+        }
+
+        @Override
+        public void onComplete(final HttpServerExchange exchange, final Sender sender) {
+            try {
+                mapped.dereference();
+            } finally {
+                exchange.endExchange();
+            }
+        }
+
+        @Override
+        public void onException(final HttpServerExchange exchange, final Sender sender, final IOException exception) {
+            try {
+                mapped.dereference();
+                if (! exchange.isResponseStarted()) {
+                    exchange.setResponseCode(500);
+                }
+            } finally {
+                exchange.endExchange();
+            }
+        }
+    }
 }
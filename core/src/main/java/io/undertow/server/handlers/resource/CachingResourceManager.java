@@ -22,6 +22,7 @@ import java.io.IOException;
 
 import io.undertow.server.handlers.cache.DirectBufferCache;
 import io.undertow.server.handlers.cache.LRUCache;
+import io.undertow.server.handlers.cache.MappedFileCache;
 
 /**
  * @author Stuart Douglas
@@ -45,15 +46,25 @@ public class CachingResourceManager implements ResourceManager {
      */
     private final DirectBufferCache dataCache;
 
+    /**
+     * A cache of memory mapped files, for files that are too big to be copied into the buffer cache
+     */
+    private final MappedFileCache mappedFileCache;
+
     /**
      * A cache of file metadata, such as if a file exists or not
      */
     private final LRUCache<String, Object> cache;
 
     public CachingResourceManager(final int metadataCacheSize, final long maxFileSize, final DirectBufferCache dataCache, final ResourceManager underlyingResourceManager) {
+        this(metadataCacheSize, maxFileSize, dataCache, null, underlyingResourceManager);
+    }
+
+    public CachingResourceManager(final int metadataCacheSize, final long maxFileSize, final DirectBufferCache dataCache, final MappedFileCache mappedFileCache, final ResourceManager underlyingResourceManager) {
         this.maxFileSize = maxFileSize;
         this.underlyingResourceManager = underlyingResourceManager;
         this.dataCache = dataCache;
+        this.mappedFileCache = mappedFileCache;
         this.cache = new LRUCache<>(metadataCacheSize);
     }
 
@@ -79,6 +90,17 @@ public class CachingResourceManager implements ResourceManager {
         return dataCache;
     }
 
+    MappedFileCache getMappedFileCache() {
+        return mappedFileCache;
+    }
+
+    /**
+     * Removes the cached metadata for a path, so it is read again from the underlying resource manager
+     */
+    void invalidate(final String path) {
+        cache.remove(path);
+    }
+
     public long getMaxFileSize() {
         return maxFileSize;
     }
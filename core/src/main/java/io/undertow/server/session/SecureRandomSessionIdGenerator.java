@@ -18,21 +18,32 @@
 
 package io.undertow.server.session;
 
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
 /**
  * A {@link SessionIdGenerator} that uses a secure random to generate a
  * session ID.
  *
- * On some systems this may perform poorly if not enough entropy is available,
- * depending on the algorithm in use.
- *
+ * Each thread uses its own secure random, so that session creation does not contend on a
+ * single generator. These generators are seeded once from a shared secure random, so that
+ * only the seeding of a new thread touches the system entropy source.
  *
  * @author Stuart Douglas
  */
 public class SecureRandomSessionIdGenerator implements SessionIdGenerator {
 
-    private final SecureRandom random = new SecureRandom();
+    private static final String PRNG_ALGORITHM = "SHA1PRNG";
+    private static final int SEED_LENGTH = 32;
+
+    private final SecureRandom seeder = new SecureRandom();
+
+    private final ThreadLocal<GeneratorState> state = new ThreadLocal<GeneratorState>() {
+        @Override
+        protected GeneratorState initialValue() {
+            return new GeneratorState(createRandom());
+        }
+    };
 
     private volatile int length = 18;
 
@@ -40,11 +51,33 @@ public class SecureRandomSessionIdGenerator implements SessionIdGenerator {
 
     @Override
     public String createSessionId() {
-        final byte[] bytes = new byte[18];
-        random.nextBytes(bytes);
-        return new String(encode(bytes));
+        final GeneratorState state = this.state.get();
+        final int length = this.length;
+        byte[] bytes = state.bytes;
+        if (bytes.length != length) {
+            state.bytes = bytes = new byte[length];
+            state.chars = new char[((length + 2) / 3) * 4];
+        }
+        state.random.nextBytes(bytes);
+        final char[] chars = state.chars;
+        encode(bytes, chars);
+        return new String(chars);
     }
 
+    private SecureRandom createRandom() {
+        final byte[] seed = new byte[SEED_LENGTH];
+        seeder.nextBytes(seed);
+        try {
+            final SecureRandom random = SecureRandom.getInstance(PRNG_ALGORITHM);
+            //seeding before first use means the generator does not seed itself from the system entropy source
+            random.setSeed(seed);
+            return random;
+        } catch (NoSuchAlgorithmException e) {
+            final SecureRandom random = new SecureRandom();
+            random.setSeed(seed);
+            return random;
+        }
+    }
 
     public int getLength() {
         return length;
@@ -60,10 +93,9 @@ public class SecureRandomSessionIdGenerator implements SessionIdGenerator {
      * and adapted by Thomas Peuss <jboss@peuss.de>
      *
      * @param data The bytes you want to encode
-     * @return the encoded String
+     * @param out  The array to encode into, which must hold at least four characters for every three bytes
      */
-    private char[] encode(byte[] data) {
-        char[] out = new char[((data.length + 2) / 3) * 4];
+    private static void encode(byte[] data, char[] out) {
         char[] alphabet = SESSION_ID_ALPHABET;
         //
         // 3 bytes encode to 4 chars.  Output is always an even
@@ -92,6 +124,15 @@ public class SecureRandomSessionIdGenerator implements SessionIdGenerator {
             val >>= 6;
             out[index + 0] = alphabet[val & 0x3F];
         }
-        return out;
+    }
+
+    private static final class GeneratorState {
+        private final SecureRandom random;
+        private byte[] bytes = new byte[0];
+        private char[] chars = new char[0];
+
+        private GeneratorState(final SecureRandom random) {
+            this.random = random;
+        }
     }
 }
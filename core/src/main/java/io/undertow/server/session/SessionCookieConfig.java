@@ -18,8 +18,6 @@
 
 package io.undertow.server.session;
 
-import java.util.Map;
-
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.Cookie;
 import io.undertow.server.handlers.CookieImpl;
@@ -78,14 +76,7 @@ public class SessionCookieConfig implements SessionConfig {
 
     @Override
     public String findSessionId(final HttpServerExchange exchange) {
-        Map<String, Cookie> cookies = CookieImpl.getRequestCookies(exchange);
-        if (cookies != null) {
-            Cookie sessionId = cookies.get(cookieName);
-            if (sessionId != null) {
-                return sessionId.getValue();
-            }
-        }
-        return null;
+        return CookieImpl.getRequestCookieValue(exchange, cookieName);
     }
 
     public String getCookieName() {
@@ -100,4 +100,10 @@ public abstract class AbstractAttachable implements Attachable {
         }
     }
 
+    /**
+     * Removes all attachments.
+     */
+    protected void clearAttachments() {
+        attachments.clear();
+    }
 }
@@ -18,189 +18,274 @@
 
 package io.undertow.util;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
  * An optimized array-backed header map.
+ * <p/>
+ * The well known headers defined in {@link Headers} are stored in fixed slots that are indexed directly, all other
+ * headers are stored in a flat open addressed table that uses linear probing. No header is stored more than
+ * 16 slots away from its hash slot, so lookups are bounded even if the header names have been
+ * chosen to collide.
+ * <p/>
+ * Fast iteration cookies below {@link #WELL_KNOWN_SLOTS} refer to a well known header slot, higher values refer to
+ * an index in the open addressed table.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class HeaderMap implements Iterable<HeaderValues> {
 
-    private Object[] table;
+    /**
+     * The number of fixed slots, slot 0 is never used as it is the order int of headers that are not well known.
+     */
+    private static final int WELL_KNOWN_SLOTS;
+
+    /**
+     * The well known headers, hashed into an open addressed table. This is used to find the slot of
+     * header names that are equal to a well known header but are not the interned constant.
+     */
+    private static final HttpString[] WELL_KNOWN_TABLE;
+
+    /**
+     * The maximum number of slots that are probed for a header in the open addressed table.
+     */
+    private static final int MAX_PROBES = 16;
+
+    static {
+        final List<HttpString> headers = new ArrayList<HttpString>();
+        int max = 0;
+        for (Field field : Headers.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == HttpString.class) {
+                final HttpString header;
+                try {
+                    header = (HttpString) field.get(null);
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+                if (header.getOrderInt() != 0) {
+                    headers.add(header);
+                    max = Math.max(max, header.getOrderInt());
+                }
+            }
+        }
+        WELL_KNOWN_SLOTS = max + 1;
+        final HttpString[] table = new HttpString[Integer.highestOneBit(headers.size() * 4)];
+        final int mask = table.length - 1;
+        for (HttpString header : headers) {
+            int idx = hash(header.hashCode()) & mask;
+            while (table[idx] != null) {
+                idx = idx + 1 & mask;
+            }
+            table[idx] = header;
+        }
+        WELL_KNOWN_TABLE = table;
+    }
+
+    private final HeaderValues[] wellKnown = new HeaderValues[WELL_KNOWN_SLOTS];
+    /**
+     * Bit set of the well known slots that are in use
+     */
+    private final long[] wellKnownBits = new long[(WELL_KNOWN_SLOTS + 63) >> 6];
+    /**
+     * The open addressed table for other headers, this is not allocated until it is needed
+     */
+    private HeaderValues[] table;
+    private int tableSize;
     private int size;
     private Collection<HttpString> headerNames;
 
     public HeaderMap() {
-        table = new Object[16];
+    }
+
+    private static int hash(int hc) {
+        hc *= 0x9E3779B9;
+        return hc ^ hc >>> 16;
+    }
+
+    /**
+     * Returns the fixed slot for the given header name.
+     *
+     * @return the slot, or 0 if this is not a well known header
+     */
+    private static int wellKnownSlot(final HttpString headerName) {
+        final int orderInt = headerName.getOrderInt();
+        if (orderInt != 0) {
+            return orderInt;
+        }
+        final HttpString[] table = WELL_KNOWN_TABLE;
+        final int mask = table.length - 1;
+        final int hc = headerName.hashCode();
+        int idx = hash(hc) & mask;
+        HttpString candidate;
+        while ((candidate = table[idx]) != null) {
+            if (candidate.hashCode() == hc && candidate.equals(headerName)) {
+                return candidate.getOrderInt();
+            }
+            idx = idx + 1 & mask;
+        }
+        return 0;
     }
 
     private HeaderValues getEntry(final HttpString headerName) {
         if (headerName == null) {
             return null;
         }
-        final int hc = headerName.hashCode();
-        final int idx = hc & (table.length - 1);
-        final Object o = table[idx];
-        if (o == null) {
+        final int slot = wellKnownSlot(headerName);
+        if (slot != 0) {
+            return wellKnown[slot];
+        }
+        final HeaderValues[] table = this.table;
+        if (table == null) {
             return null;
         }
+        final int hc = headerName.hashCode();
+        final int mask = table.length - 1;
+        int idx = hash(hc) & mask;
         HeaderValues headerValues;
-        if (o instanceof HeaderValues) {
-            headerValues = (HeaderValues) o;
-            if (! headerName.equals(headerValues.key)) {
-                return null;
+        for (int i = 0; i < MAX_PROBES && (headerValues = table[idx]) != null; i++) {
+            if (headerValues.key.hashCode() == hc && headerName.equals(headerValues.key)) {
+                return headerValues;
             }
-            return headerValues;
-        } else {
-            final HeaderValues[] row = (HeaderValues[]) o;
-            for (int i = 0; i < row.length; i++) {
-                headerValues = row[i];
-                if (headerValues != null && headerName.equals(headerValues.key)) { return headerValues; }
-            }
-            return null;
+            idx = idx + 1 & mask;
         }
+        return null;
     }
 
     private HeaderValues removeEntry(final HttpString headerName) {
         if (headerName == null) {
             return null;
         }
-        final int hc = headerName.hashCode();
-        final Object[] table = this.table;
-        final int idx = hc & (table.length - 1);
-        final Object o = table[idx];
-        if (o == null) {
+        final int slot = wellKnownSlot(headerName);
+        if (slot != 0) {
+            final HeaderValues headerValues = wellKnown[slot];
+            if (headerValues != null) {
+                wellKnown[slot] = null;
+                wellKnownBits[slot >> 6] &= ~(1L << slot);
+                size--;
+            }
+            return headerValues;
+        }
+        final HeaderValues[] table = this.table;
+        if (table == null) {
             return null;
         }
-        HeaderValues headerValues;
-        if (o instanceof HeaderValues) {
-            headerValues = (HeaderValues) o;
-            if (! headerName.equals(headerValues.key)) {
-                return null;
+        final int hc = headerName.hashCode();
+        final int mask = table.length - 1;
+        int idx = hash(hc) & mask;
+        HeaderValues headerValues = null;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            final HeaderValues item = table[idx];
+            if (item == null) {
+                break;
             }
-            table[idx] = null;
-            size --;
-            return headerValues;
-        } else {
-            final HeaderValues[] row = (HeaderValues[]) o;
-            for (int i = 0; i < row.length; i++) {
-                headerValues = row[i];
-                if (headerValues != null && headerName.equals(headerValues.key)) {
-                    row[i] = null;
-                    size --;
-                    return headerValues;
-                }
+            if (item.key.hashCode() == hc && headerName.equals(item.key)) {
+                headerValues = item;
+                break;
             }
+            idx = idx + 1 & mask;
+        }
+        if (headerValues == null) {
             return null;
         }
+        table[idx] = null;
+        tableSize--;
+        size--;
+        // shift back any following entries in the probe sequence, so lookups do not stop at the hole
+        int next = idx + 1 & mask;
+        HeaderValues item;
+        while ((item = table[next]) != null) {
+            final int ideal = hash(item.key.hashCode()) & mask;
+            if ((next - ideal & mask) >= (next - idx & mask)) {
+                table[idx] = item;
+                table[next] = null;
+                idx = next;
+            }
+            next = next + 1 & mask;
+        }
+        return headerValues;
     }
 
     private void resize() {
-        final int oldLen = table.length;
+        final HeaderValues[] oldTable = table;
+        final int oldLen = oldTable.length;
         if (oldLen == 0x40000000) {
             return;
         }
         assert Integer.bitCount(oldLen) == 1;
-        Object[] newTable = Arrays.copyOf(table, oldLen << 1);
-        table = newTable;
-        for (int i = 0; i < oldLen; i ++) {
-            if (newTable[i] == null) {
-                continue;
-            }
-            if (newTable[i] instanceof HeaderValues) {
-                HeaderValues e = (HeaderValues) newTable[i];
-                if ((e.key.hashCode() & oldLen) != 0) {
-                    newTable[i] = null;
-                    newTable[i + oldLen] = e;
-                }
-                continue;
-            }
-            HeaderValues[] oldRow = (HeaderValues[]) newTable[i];
-            HeaderValues[] newRow = oldRow.clone();
-            int rowLen = oldRow.length;
-            newTable[i + oldLen] = newRow;
-            HeaderValues item;
-            for (int j = 0; j < rowLen; j ++) {
-                item = oldRow[j];
-                if (item != null) {
-                    if ((item.key.hashCode() & oldLen) != 0) {
-                        oldRow[j] = null;
-                    } else {
-                        newRow[j] = null;
+        final HeaderValues[] newTable = new HeaderValues[oldLen << 1];
+        final int mask = newTable.length - 1;
+        for (int i = 0; i < oldLen; i++) {
+            final HeaderValues item = oldTable[i];
+            if (item != null) {
+                int idx = hash(item.key.hashCode()) & mask;
+                int probes = 0;
+                while (newTable[idx] != null) {
+                    if (++probes == MAX_PROBES) {
+                        throw new SecurityException("Excessive collisions");
                     }
+                    idx = idx + 1 & mask;
                 }
+                newTable[idx] = item;
             }
         }
+        table = newTable;
     }
 
     private HeaderValues getOrCreateEntry(final HttpString headerName) {
         if (headerName == null) {
             return null;
         }
-        final int hc = headerName.hashCode();
-        final Object[] table = this.table;
-        final int length = table.length;
-        final int idx = hc & (length - 1);
-        final Object o = table[idx];
-        HeaderValues headerValues;
-        if (o == null) {
-            if (size >= length >> 1) {
-                resize();
-                return getOrCreateEntry(headerName);
-            }
-            headerValues = new HeaderValues(headerName);
-            table[idx] = headerValues;
-            size++;
-            return headerValues;
-        }
-        if (o instanceof HeaderValues) {
-            headerValues = (HeaderValues) o;
-            if (! headerName.equals(headerValues.key)) {
-                if (size >= length >> 1) {
-                    resize();
-                    return getOrCreateEntry(headerName);
-                }
+        final int slot = wellKnownSlot(headerName);
+        if (slot != 0) {
+            HeaderValues headerValues = wellKnown[slot];
+            if (headerValues == null) {
+                wellKnown[slot] = headerValues = new HeaderValues(headerName);
+                wellKnownBits[slot >> 6] |= 1L << slot;
                 size++;
-                final HeaderValues[] row = { headerValues, new HeaderValues(headerName), null, null };
-                table[idx] = row;
-                return row[1];
             }
             return headerValues;
-        } else {
-            final HeaderValues[] row = (HeaderValues[]) o;
-            int empty = -1;
-            for (int i = 0; i < row.length; i++) {
-                headerValues = row[i];
-                if (headerValues != null) {
-                    if (headerName.equals(headerValues.key)) { return headerValues; }
-                } else if (empty == -1) {
-                    empty = i;
-                }
+        }
+        HeaderValues[] table = this.table;
+        if (table == null) {
+            this.table = table = new HeaderValues[16];
+        }
+        final int hc = headerName.hashCode();
+        final int mask = table.length - 1;
+        int idx = hash(hc) & mask;
+        HeaderValues headerValues;
+        int probes = 0;
+        while ((headerValues = table[idx]) != null) {
+            if (headerValues.key.hashCode() == hc && headerName.equals(headerValues.key)) {
+                return headerValues;
             }
-            if (size >= length >> 1) {
-                resize();
-                return getOrCreateEntry(headerName);
+            if (++probes == MAX_PROBES) {
+                break;
             }
-            size++;
-            headerValues = new HeaderValues(headerName);
-            if (empty != -1) {
-                row[empty] = headerValues;
-            } else {
-                if (row.length >= 16) {
-                    throw new SecurityException("Excessive collisions");
-                }
-                final HeaderValues[] newRow = Arrays.copyOf(row, row.length + 3);
-                newRow[row.length] = headerValues;
-                table[idx] = newRow;
+            idx = idx + 1 & mask;
+        }
+        final boolean probesExhausted = headerValues != null;
+        if (probesExhausted || tableSize >= table.length >> 1) {
+            if (probesExhausted && tableSize << 3 < table.length) {
+                // growing a sparse table will not help, the names have been chosen to collide
+                throw new SecurityException("Excessive collisions");
             }
-            return headerValues;
+            resize();
+            return getOrCreateEntry(headerName);
         }
+        headerValues = new HeaderValues(headerName);
+        table[idx] = headerValues;
+        tableSize++;
+        size++;
+        return headerValues;
     }
 
     // get
@@ -263,30 +348,7 @@ public final class HeaderMap implements Iterable<HeaderValues> {
      * @see #fiCurrent(long)
      */
     public long fastIterate() {
-        final Object[] table = this.table;
-        final int len = table.length;
-        int ri = 0;
-        int ci;
-        while (ri < len) {
-            final Object item = table[ri];
-            if (item != null) {
-                if (item instanceof HeaderValues) {
-                    return (long)ri << 32L;
-                } else {
-                    final HeaderValues[] row = (HeaderValues[]) item;
-                    ci = 0;
-                    final int rowLen = row.length;
-                    while (ci < rowLen) {
-                        if (row[ci] != null) {
-                            return (long)ri << 32L | (ci & 0xffffffffL);
-                        }
-                        ci ++;
-                    }
-                }
-            }
-            ri++;
-        }
-        return -1L;
+        return find(0, false);
     }
 
     /**
@@ -295,30 +357,7 @@ public final class HeaderMap implements Iterable<HeaderValues> {
      * @return an opaque iterating cookie, or -1 if no iteration is possible
      */
     public long fastIterateNonEmpty() {
-        final Object[] table = this.table;
-        final int len = table.length;
-        int ri = 0;
-        int ci;
-        while (ri < len) {
-            final Object item = table[ri];
-            if (item != null) {
-                if (item instanceof HeaderValues && !((HeaderValues) item).isEmpty()) {
-                    return (long)ri << 32L;
-                } else {
-                    final HeaderValues[] row = (HeaderValues[]) item;
-                    ci = 0;
-                    final int rowLen = row.length;
-                    while (ci < rowLen) {
-                        if (row[ci] != null && !row[ci].isEmpty()) {
-                            return (long)ri << 32L | (ci & 0xffffffffL);
-                        }
-                        ci ++;
-                    }
-                }
-            }
-            ri++;
-        }
-        return -1L;
+        return find(0, true);
     }
 
     /**
@@ -329,40 +368,7 @@ public final class HeaderMap implements Iterable<HeaderValues> {
      */
     public long fiNext(long cookie) {
         if (cookie == -1L) return -1L;
-        final Object[] table = this.table;
-        final int len = table.length;
-        int ri = (int) (cookie >> 32);
-        int ci = (int) cookie;
-        Object item = table[ri];
-        if (item instanceof HeaderValues[]) {
-            final HeaderValues[] row = (HeaderValues[]) item;
-            final int rowLen = row.length;
-            if (++ci >= rowLen) {
-                ri ++; ci = 0;
-            } else if (row[ci] != null) {
-                return (long)ri << 32L | (ci & 0xffffffffL);
-            }
-        } else {
-            ri ++; ci = 0;
-        }
-        while (ri < len) {
-            item = table[ri];
-            if (item instanceof HeaderValues) {
-                return (long)ri << 32L;
-            } else if (item instanceof HeaderValues[]) {
-                final HeaderValues[] row = (HeaderValues[]) item;
-                final int rowLen = row.length;
-                while (ci < rowLen) {
-                    if (row[ci] != null) {
-                        return (long)ri << 32L | (ci & 0xffffffffL);
-                    }
-                    ci ++;
-                }
-            }
-            ci = 0;
-            ri ++;
-        }
-        return -1L;
+        return find(cookie + 1, false);
     }
 
     /**
@@ -373,38 +379,38 @@ public final class HeaderMap implements Iterable<HeaderValues> {
      */
     public long fiNextNonEmpty(long cookie) {
         if (cookie == -1L) return -1L;
-        final Object[] table = this.table;
-        final int len = table.length;
-        int ri = (int) (cookie >> 32);
-        int ci = (int) cookie;
-        Object item = table[ri];
-        if (item instanceof HeaderValues[]) {
-            final HeaderValues[] row = (HeaderValues[]) item;
-            final int rowLen = row.length;
-            if (++ci >= rowLen) {
-                ri ++; ci = 0;
-            } else if (row[ci] != null && !row[ci].isEmpty()) {
-                return (long)ri << 32L | (ci & 0xffffffffL);
+        return find(cookie + 1, true);
+    }
+
+    /**
+     * Finds the first position at or after the given cookie that holds an entry.
+     */
+    private long find(final long start, final boolean nonEmpty) {
+        int pos = (int) start;
+        final HeaderValues[] wellKnown = this.wellKnown;
+        final long[] wellKnownBits = this.wellKnownBits;
+        while (pos < WELL_KNOWN_SLOTS) {
+            final int word = pos >> 6;
+            final long bits = wellKnownBits[word] & -1L << pos;
+            if (bits == 0) {
+                pos = Math.min((word + 1) << 6, WELL_KNOWN_SLOTS);
+            } else {
+                pos = word << 6 | Long.numberOfTrailingZeros(bits);
+                if (!nonEmpty || !wellKnown[pos].isEmpty()) {
+                    return pos;
+                }
+                pos++;
             }
-        } else {
-            ri ++; ci = 0;
-        }
-        while (ri < len) {
-            item = table[ri];
-            if (item instanceof HeaderValues && !((HeaderValues) item).isEmpty()) {
-                return (long)ri << 32L;
-            } else if (item instanceof HeaderValues[]) {
-                final HeaderValues[] row = (HeaderValues[]) item;
-                final int rowLen = row.length;
-                while (ci < rowLen) {
-                    if (row[ci] != null && !row[ci].isEmpty()) {
-                        return (long)ri << 32L | (ci & 0xffffffffL);
-                    }
-                    ci ++;
+        }
+        final HeaderValues[] table = this.table;
+        if (table != null) {
+            final int len = table.length;
+            for (int idx = pos - WELL_KNOWN_SLOTS; idx < len; idx++) {
+                final HeaderValues item = table[idx];
+                if (item != null && (!nonEmpty || !item.isEmpty())) {
+                    return WELL_KNOWN_SLOTS + idx;
                 }
             }
-            ci = 0;
-            ri ++;
         }
         return -1L;
     }
@@ -417,21 +423,20 @@ public final class HeaderMap implements Iterable<HeaderValues> {
      * @throws NoSuchElementException if the cookie value is invalid
      */
     public HeaderValues fiCurrent(long cookie) {
-        try {
-            final Object[] table = this.table;
-            int ri = (int) (cookie >> 32);
-            int ci = (int) cookie;
-            final Object item = table[ri];
-            if (item instanceof HeaderValues[]) {
-                return ((HeaderValues[])item)[ci];
-            } else if (ci == 0) {
-                return (HeaderValues) item;
-            } else {
-                throw new NoSuchElementException();
+        HeaderValues headerValues = null;
+        if (cookie >= 0 && cookie < WELL_KNOWN_SLOTS) {
+            headerValues = wellKnown[(int) cookie];
+        } else if (cookie >= WELL_KNOWN_SLOTS) {
+            final HeaderValues[] table = this.table;
+            final long idx = cookie - WELL_KNOWN_SLOTS;
+            if (table != null && idx < table.length) {
+                headerValues = table[(int) idx];
             }
-        } catch (RuntimeException e) {
+        }
+        if (headerValues == null) {
             throw new NoSuchElementException();
         }
+        return headerValues;
     }
 
     public Iterable<String> eachValue(final HttpString headerName) {
@@ -447,65 +452,19 @@ public final class HeaderMap implements Iterable<HeaderValues> {
 
     public Iterator<HeaderValues> iterator() {
         return new Iterator<HeaderValues>() {
-            final Object[] table = HeaderMap.this.table;
-            boolean consumed;
-            int ri, ci;
-
-            private HeaderValues _next() {
-                for (;;) {
-                    if (ri >= table.length) {
-                        return null;
-                    }
-                    final Object o = table[ri];
-                    if (o == null) {
-                        // zero-entry row
-                        ri++;
-                        ci = 0;
-                        consumed = false;
-                        continue;
-                    }
-                    if (o instanceof HeaderValues) {
-                        // one-entry row
-                        if (ci > 0 || consumed) {
-                            ri++;
-                            ci = 0;
-                            consumed = false;
-                            continue;
-                        }
-                        return (HeaderValues) o;
-                    }
-                    final HeaderValues[] row = (HeaderValues[]) o;
-                    final int len = row.length;
-                    if (ci >= len) {
-                        ri ++;
-                        ci = 0;
-                        consumed = false;
-                        continue;
-                    }
-                    if (consumed) {
-                        ci++;
-                        consumed = false;
-                        continue;
-                    }
-                    final HeaderValues headerValues = row[ci];
-                    if (headerValues == null) {
-                        ci ++;
-                        continue;
-                    }
-                    return headerValues;
-                }
-            }
+            long cookie = fastIterate();
 
             public boolean hasNext() {
-                return _next() != null;
+                return cookie != -1L;
             }
 
             public HeaderValues next() {
-                final HeaderValues next = _next();
-                if (next == null) {
+                final long cookie = this.cookie;
+                if (cookie == -1L) {
                     throw new NoSuchElementException();
                 }
-                consumed = true;
+                final HeaderValues next = fiCurrent(cookie);
+                this.cookie = fiNext(cookie);
                 return next;
             }
 
@@ -646,7 +605,12 @@ public final class HeaderMap implements Iterable<HeaderValues> {
     // clear
 
     public void clear() {
-        Arrays.fill(table, null);
+        Arrays.fill(wellKnown, null);
+        Arrays.fill(wellKnownBits, 0L);
+        if (table != null) {
+            Arrays.fill(table, null);
+        }
+        tableSize = 0;
         size = 0;
     }
 
@@ -191,6 +191,16 @@ public final class Headers {
     public static final String CONTENT_TRANSFER_ENCODING_STRING = "Content-Transfer-Encoding";
     public static final HttpString CONTENT_TRANSFER_ENCODING = new HttpString(CONTENT_TRANSFER_ENCODING_STRING);
 
+    //headers added by proxies
+    public static final String FORWARDED_STRING = "Forwarded";
+    public static final String X_FORWARDED_FOR_STRING = "X-Forwarded-For";
+    public static final String X_FORWARDED_HOST_STRING = "X-Forwarded-Host";
+    public static final String X_FORWARDED_PROTO_STRING = "X-Forwarded-Proto";
+    public static final HttpString FORWARDED = new HttpString(FORWARDED_STRING);
+    public static final HttpString X_FORWARDED_FOR = new HttpString(X_FORWARDED_FOR_STRING);
+    public static final HttpString X_FORWARDED_HOST = new HttpString(X_FORWARDED_HOST_STRING);
+    public static final HttpString X_FORWARDED_PROTO = new HttpString(X_FORWARDED_PROTO_STRING);
+
     // Authentication Schemes
     public static final HttpString BASIC = new HttpString("Basic");
     public static final HttpString DIGEST = new HttpString("Digest");
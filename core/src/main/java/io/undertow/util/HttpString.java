@@ -154,6 +154,15 @@ public final class HttpString implements Comparable<HttpString>, Serializable {
         return bytes.length;
     }
 
+    /**
+     * Get the order of this string amongst the well known headers in {@link Headers}.
+     *
+     * @return the order, or 0 if this is not a well known header constant
+     */
+    int getOrderInt() {
+        return orderInt;
+    }
+
     /**
      * Get the byte at an index.
      *
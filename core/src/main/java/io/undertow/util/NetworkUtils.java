@@ -0,0 +1,171 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * Utility methods for parsing network addresses.
+ */
+public class NetworkUtils {
+
+    private NetworkUtils() {
+    }
+
+    /**
+     * Parses a textual IPv4 or IPv6 address. Unlike {@link InetAddress#getByName(String)} this never performs a DNS
+     * lookup, so it is safe to use on addresses that have been supplied by the client. IPv6 zone ids are not supported.
+     *
+     * @param address The address, IPv6 addresses may be enclosed in square brackets
+     * @return The address, or <code>null</code> if it is not a valid IP address
+     */
+    public static InetAddress parseIpAddress(final String address) {
+        final int length = address.length();
+        if (length == 0) {
+            return null;
+        }
+        if (address.charAt(0) == '[') {
+            if (length < 3 || address.charAt(length - 1) != ']') {
+                return null;
+            }
+            return parseIpv6Address(address.substring(1, length - 1));
+        }
+        if (address.indexOf(':') != -1) {
+            return parseIpv6Address(address);
+        }
+        final byte[] bytes = parseIpv4Address(address);
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private static byte[] parseIpv4Address(final String address) {
+        final byte[] result = new byte[4];
+        int part = 0;
+        int value = -1;
+        for (int i = 0; i < address.length(); ++i) {
+            final char c = address.charAt(i);
+            if (c == '.') {
+                if (value == -1 || part == 3) {
+                    return null;
+                }
+                result[part++] = (byte) value;
+                value = -1;
+            } else if (c >= '0' && c <= '9') {
+                value = value == -1 ? c - '0' : value * 10 + (c - '0');
+                if (value > 255) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        if (value == -1 || part != 3) {
+            return null;
+        }
+        result[3] = (byte) value;
+        return result;
+    }
+
+    private static InetAddress parseIpv6Address(final String address) {
+        final int length = address.length();
+        final byte[] result = new byte[16];
+        //the number of bytes that have been parsed, and the position of the :: if there is one
+        int pos = 0;
+        int compress = -1;
+        int i = 0;
+        if (address.startsWith("::")) {
+            compress = 0;
+            i = 2;
+        }
+        while (i < length) {
+            final int start = i;
+            int value = 0;
+            int digit;
+            while (i < length && (digit = hexDigit(address.charAt(i))) != -1) {
+                value = value << 4 | digit;
+                ++i;
+            }
+            if (i < length && address.charAt(i) == '.') {
+                //an IPv4 address in the last 32 bits
+                final byte[] ipv4 = pos > 12 ? null : parseIpv4Address(address.substring(start));
+                if (ipv4 == null) {
+                    return null;
+                }
+                System.arraycopy(ipv4, 0, result, pos, 4);
+                pos += 4;
+                break;
+            }
+            final int digits = i - start;
+            if (digits == 0 || digits > 4 || pos > 14) {
+                return null;
+            }
+            result[pos++] = (byte) (value >> 8);
+            result[pos++] = (byte) value;
+            if (i == length) {
+                break;
+            }
+            if (address.charAt(i++) != ':' || i == length) {
+                return null;
+            }
+            if (address.charAt(i) == ':') {
+                if (compress != -1) {
+                    return null;
+                }
+                compress = pos;
+                ++i;
+            }
+        }
+        if (compress == -1) {
+            if (pos != 16) {
+                return null;
+            }
+        } else {
+            if (pos == 16) {
+                return null;
+            }
+            final int moved = pos - compress;
+            System.arraycopy(result, compress, result, 16 - moved, moved);
+            Arrays.fill(result, compress, 16 - moved, (byte) 0);
+        }
+        try {
+            return InetAddress.getByAddress(result);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private static int hexDigit(final char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
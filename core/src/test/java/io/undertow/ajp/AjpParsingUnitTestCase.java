@@ -75,5 +75,23 @@ public class AjpParsingUnitTestCase {
         Assert.assertEquals("localhost:7777", exchange.getRequestHeaders().getFirst(Headers.HOST));
         Assert.assertEquals("Apache-HttpClient/4.1.3 (java 1.5)", exchange.getRequestHeaders().getFirst(Headers.USER_AGENT));
         Assert.assertEquals("Keep-Alive", exchange.getRequestHeaders().getFirst(Headers.CONNECTION));
+        Assert.assertEquals("/notamatchingpath", exchange.getRequestURI());
+        Assert.assertEquals("http", exchange.getRequestScheme());
+        Assert.assertEquals("127.0.0.1", exchange.getSourceAddress().getAddress().getHostAddress());
+        Assert.assertEquals(53097, exchange.getSourceAddress().getPort());
+        Assert.assertEquals("53097", exchange.getAttachment(AjpParser.REQUEST_ATTRIBUTES).get(AjpParser.AJP_REMOTE_PORT));
+    }
+
+    @Test
+    public void testParseStateReuse() {
+        final AjpParseState state = new AjpParseState();
+        for (int i = 0; i < 2; ++i) {
+            final ByteBuffer buffer = AjpParsingUnitTestCase.buffer.duplicate();
+            HttpServerExchange result = new HttpServerExchange(null);
+            state.reset();
+            AjpParser.INSTANCE.parse(buffer, state, result);
+            Assert.assertTrue(state.isComplete());
+            testResult(result);
+        }
     }
 }
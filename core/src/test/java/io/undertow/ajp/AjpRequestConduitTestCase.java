@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.ajp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import io.undertow.test.utils.MockStreamSinkConduit;
+import io.undertow.test.utils.MockStreamSourceConduit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AjpRequestConduitTestCase {
+
+    private static final byte[] GET_BODY_CHUNK = {'A', 'B', 0, 3, 6, 0x1F, (byte) 0xFA};
+
+    @Test
+    public void testNoPrefetchForLastChunk() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final MockStreamSourceConduit source = new MockStreamSourceConduit();
+        final AjpRequestConduit conduit = new AjpRequestConduit(source, AjpResponseConduitTestCase.createConduit(sink, 8192), 10L, null);
+        source.addData(bodyChunk("0123456789"));
+
+        Assert.assertEquals("0123456789", read(conduit, 10));
+        Assert.assertEquals(-1, conduit.read(ByteBuffer.allocate(10)));
+        //the chunk contained the whole request, so no more data was requested
+        Assert.assertEquals(0, sink.getWritten().length);
+    }
+
+    @Test
+    public void testNextChunkIsPrefetched() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final MockStreamSourceConduit source = new MockStreamSourceConduit();
+        final AjpRequestConduit conduit = new AjpRequestConduit(source, AjpResponseConduitTestCase.createConduit(sink, 8192), 20L, null);
+        source.addData(bodyChunk("0123456789"));
+
+        //the next chunk is requested as soon as the chunk header has been read
+        Assert.assertEquals("01234", read(conduit, 5));
+        Assert.assertArrayEquals(GET_BODY_CHUNK, sink.getWritten());
+        Assert.assertEquals("56789", read(conduit, 5));
+        //it is not requested again once the current chunk has been read
+        Assert.assertEquals(0, conduit.read(ByteBuffer.allocate(10)));
+        Assert.assertArrayEquals(GET_BODY_CHUNK, sink.getWritten());
+
+        source.addData(bodyChunk("abcdefghij"));
+        Assert.assertEquals("abcdefghij", read(conduit, 10));
+        Assert.assertEquals(-1, conduit.read(ByteBuffer.allocate(10)));
+        Assert.assertArrayEquals(GET_BODY_CHUNK, sink.getWritten());
+    }
+
+    @Test
+    public void testChunkedRequest() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final MockStreamSourceConduit source = new MockStreamSourceConduit();
+        final AjpRequestConduit conduit = new AjpRequestConduit(source, AjpResponseConduitTestCase.createConduit(sink, 8192), null, null);
+
+        //the length is unknown, so the first chunk has to be requested
+        Assert.assertEquals(0, conduit.read(ByteBuffer.allocate(10)));
+        Assert.assertArrayEquals(GET_BODY_CHUNK, sink.getWritten());
+
+        //and the one after it is requested once the chunk header has been read
+        source.addData(bodyChunk("0123456789"));
+        Assert.assertEquals("0123456789", read(conduit, 10));
+        Assert.assertEquals(2 * GET_BODY_CHUNK.length, sink.getWritten().length);
+
+        source.addData(bodyChunk(""));
+        Assert.assertEquals(-1, conduit.read(ByteBuffer.allocate(10)));
+    }
+
+    @Test
+    public void testScatteringReadUsesOffset() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final MockStreamSourceConduit source = new MockStreamSourceConduit();
+        final AjpRequestConduit conduit = new AjpRequestConduit(source, AjpResponseConduitTestCase.createConduit(sink, 8192), 4L, null);
+        source.addData(bodyChunk("abcd"));
+
+        final ByteBuffer[] buffers = {ByteBuffer.allocate(10), ByteBuffer.allocate(10), ByteBuffer.allocate(10)};
+        Assert.assertEquals(4, conduit.read(buffers, 1, 1));
+        Assert.assertEquals(0, buffers[0].position());
+        Assert.assertEquals(4, buffers[1].position());
+        Assert.assertEquals(0, buffers[2].position());
+    }
+
+    /**
+     * Creates a request body chunk, as it is sent by the web server
+     */
+    private static byte[] bodyChunk(final String data) {
+        final int length = data.length();
+        final byte[] chunk = new byte[length + 6];
+        chunk[0] = 0x12;
+        chunk[1] = 0x34;
+        chunk[2] = (byte) (((length + 2) >> 8) & 0xFF);
+        chunk[3] = (byte) ((length + 2) & 0xFF);
+        chunk[4] = (byte) ((length >> 8) & 0xFF);
+        chunk[5] = (byte) (length & 0xFF);
+        for (int i = 0; i < length; ++i) {
+            chunk[i + 6] = (byte) data.charAt(i);
+        }
+        return chunk;
+    }
+
+    private static String read(final AjpRequestConduit conduit, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            Assert.assertTrue(conduit.read(buffer) > 0);
+        }
+        buffer.flip();
+        return new String(buffer.array(), 0, buffer.limit());
+    }
+}
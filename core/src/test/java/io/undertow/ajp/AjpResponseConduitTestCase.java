@@ -0,0 +1,183 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.ajp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.test.utils.MockStreamSinkConduit;
+import io.undertow.util.Headers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
+
+public class AjpResponseConduitTestCase {
+
+    private static final int SEND_BODY_CHUNK = 3;
+    private static final int SEND_HEADERS = 4;
+    private static final int END_RESPONSE = 5;
+
+    @Test
+    public void testSmallResponseIsSentInOneWrite() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final AjpResponseConduit conduit = createConduit(sink, 8192);
+        Assert.assertEquals(5, conduit.write(buffer(data(5))));
+        //the packets are queued until the conduit is flushed
+        Assert.assertEquals(0, sink.getWrites().size());
+        conduit.terminateWrites();
+        Assert.assertTrue(conduit.flush());
+        Assert.assertEquals(1, sink.getWrites().size());
+
+        final List<byte[]> packets = parsePackets(sink.getWritten());
+        Assert.assertEquals(3, packets.size());
+        Assert.assertEquals(SEND_HEADERS, packets.get(0)[0]);
+        assertChunk(packets.get(1), data(5));
+        Assert.assertEquals(END_RESPONSE, packets.get(2)[0]);
+        Assert.assertEquals(1, packets.get(2)[1]);
+        Assert.assertFalse(sink.isWriteShutdown());
+    }
+
+    @Test
+    public void testLargeChunkUsesGatheringWrite() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final AjpResponseConduit conduit = createConduit(sink, 1024);
+        final String data = data(2000);
+        final ByteBuffer buffer = buffer(data);
+        //the chunk size is limited by the size of the pooled buffer
+        Assert.assertEquals(1016, conduit.write(buffer));
+        Assert.assertEquals(2000 - 1016, buffer.remaining());
+        Assert.assertEquals(1, sink.getWrites().size());
+
+        final List<byte[]> packets = parsePackets(sink.getWritten());
+        Assert.assertEquals(2, packets.size());
+        Assert.assertEquals(SEND_HEADERS, packets.get(0)[0]);
+        assertChunk(packets.get(1), data.substring(0, 1016));
+    }
+
+    @Test
+    public void testPartialWriteOfQueuedPackets() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final AjpResponseConduit conduit = createConduit(sink, 1024);
+        final String data = data(1016);
+        final ByteBuffer buffer = buffer(data);
+
+        //not all the headers can be written, so none of the chunk is consumed
+        sink.setWritableBytes(10);
+        Assert.assertEquals(0, conduit.write(buffer));
+        Assert.assertEquals(1016, buffer.remaining());
+
+        //the rest of the headers are written before the chunk
+        sink.setWritableBytes(Integer.MAX_VALUE);
+        Assert.assertEquals(1016, conduit.write(buffer));
+        final List<byte[]> packets = parsePackets(sink.getWritten());
+        Assert.assertEquals(2, packets.size());
+        Assert.assertEquals(SEND_HEADERS, packets.get(0)[0]);
+        assertChunk(packets.get(1), data);
+    }
+
+    @Test
+    public void testPartialWriteOfChunk() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final AjpResponseConduit conduit = createConduit(sink, 1024);
+        final String data = data(1016);
+        final ByteBuffer buffer = buffer(data);
+
+        //the headers and part of the chunk are written, the rest of the chunk is queued
+        sink.setWritableBytes(headersPacketLength() + 10);
+        Assert.assertEquals(1016, conduit.write(buffer));
+        Assert.assertFalse(buffer.hasRemaining());
+        Assert.assertEquals(headersPacketLength() + 10, sink.getWritten().length);
+
+        sink.setWritableBytes(Integer.MAX_VALUE);
+        Assert.assertEquals(4, conduit.write(buffer("next")));
+        conduit.terminateWrites();
+        Assert.assertTrue(conduit.flush());
+        final List<byte[]> packets = parsePackets(sink.getWritten());
+        Assert.assertEquals(4, packets.size());
+        Assert.assertEquals(SEND_HEADERS, packets.get(0)[0]);
+        assertChunk(packets.get(1), data);
+        assertChunk(packets.get(2), "next");
+        Assert.assertEquals(END_RESPONSE, packets.get(3)[0]);
+    }
+
+    static AjpResponseConduit createConduit(final MockStreamSinkConduit sink, final int bufferSize) {
+        final HttpServerExchange exchange = new HttpServerExchange(null);
+        exchange.setResponseCode(200);
+        exchange.setPersistent(true);
+        exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, "5");
+        return new AjpResponseConduit(sink, new ByteBufferSlicePool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, bufferSize, bufferSize), exchange, null);
+    }
+
+    /**
+     * The length of the headers packet for a 200 response with a single coded header
+     */
+    private static int headersPacketLength() {
+        //prefix code, status, "OK", header count, coded header name and "5"
+        return 4 + 1 + 2 + 5 + 2 + 2 + 4;
+    }
+
+    /**
+     * Splits the data that was sent to the web server into packets, checking the packet headers.
+     *
+     * @return The payloads of the packets
+     */
+    static List<byte[]> parsePackets(final byte[] data) {
+        final List<byte[]> packets = new ArrayList<byte[]>();
+        int pos = 0;
+        while (pos < data.length) {
+            Assert.assertEquals('A', data[pos]);
+            Assert.assertEquals('B', data[pos + 1]);
+            final int length = ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+            final byte[] packet = new byte[length];
+            System.arraycopy(data, pos + 4, packet, 0, length);
+            packets.add(packet);
+            pos += 4 + length;
+        }
+        Assert.assertEquals(data.length, pos);
+        return packets;
+    }
+
+    private static void assertChunk(final byte[] packet, final String data) {
+        Assert.assertEquals(SEND_BODY_CHUNK, packet[0]);
+        final int length = ((packet[1] & 0xFF) << 8) | (packet[2] & 0xFF);
+        Assert.assertEquals(data.length(), length);
+        Assert.assertEquals(data.length() + 4, packet.length);
+        Assert.assertEquals(data, new String(packet, 3, length));
+        Assert.assertEquals(0, packet[packet.length - 1]);
+    }
+
+    static String data(final int size) {
+        final char[] data = new char[size];
+        for (int i = 0; i < size; ++i) {
+            data[i] = (char) ('a' + i % 26);
+        }
+        return new String(data);
+    }
+
+    static ByteBuffer buffer(final String data) {
+        final byte[] bytes = new byte[data.length()];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) data.charAt(i);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import io.undertow.test.utils.MockStreamSinkConduit;
+import io.undertow.test.utils.MockStreamSourceConduit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
+import org.xnio.conduits.ConduitStreamSinkChannel;
+import org.xnio.conduits.ConduitStreamSourceChannel;
+
+public class ChannelSpliceTestCase {
+
+    @Test
+    public void testSourceIsSuspendedWhileSinkIsNotWritable() throws IOException {
+        final MockStreamSourceConduit sourceConduit = new MockStreamSourceConduit();
+        final MockStreamSinkConduit sinkConduit = new MockStreamSinkConduit();
+        final ConduitStreamSourceChannel source = new ConduitStreamSourceChannel(null, sourceConduit);
+        final ConduitStreamSinkChannel sink = new ConduitStreamSinkChannel(null, sinkConduit);
+        final String data = data(100);
+        sourceConduit.addData(data.getBytes("US-ASCII"));
+        source.resumeReads();
+
+        //the sink only accepts part of the first buffer
+        sinkConduit.setWritableBytes(10);
+        final Callback callback = new Callback();
+        ChannelSplice.splice(source, sink, new ByteBufferSlicePool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 64, 64), callback);
+        Assert.assertEquals(data.substring(0, 10), sinkConduit.getWrittenString());
+        Assert.assertFalse(sourceConduit.isReadResumed());
+        Assert.assertTrue(sinkConduit.isWriteResumed());
+        //no more data is read while the sink is full
+        Assert.assertEquals(100 - 64, sourceConduit.getRemaining());
+
+        //the write listener writes out the rest of the buffer, and hands control back to the source
+        sinkConduit.setWritableBytes(Integer.MAX_VALUE);
+        sinkConduit.getWriteReadyHandler().writeReady();
+        Assert.assertEquals(data.substring(0, 64), sinkConduit.getWrittenString());
+        Assert.assertTrue(sourceConduit.isReadResumed());
+        Assert.assertFalse(sinkConduit.isWriteResumed());
+        Assert.assertEquals(100 - 64, sourceConduit.getRemaining());
+
+        sourceConduit.setEndOfStream();
+        sourceConduit.getReadReadyHandler().readReady();
+        Assert.assertEquals(data, sinkConduit.getWrittenString());
+        Assert.assertTrue(sinkConduit.isWriteShutdown());
+        Assert.assertFalse(sourceConduit.isReadResumed());
+        Assert.assertNull(callback.failed);
+        Assert.assertEquals(Long.valueOf(100), callback.result);
+    }
+
+    @Test
+    public void testSourceIsResumedWhenNoDataIsAvailable() throws IOException {
+        final MockStreamSourceConduit sourceConduit = new MockStreamSourceConduit();
+        final MockStreamSinkConduit sinkConduit = new MockStreamSinkConduit();
+        final ConduitStreamSourceChannel source = new ConduitStreamSourceChannel(null, sourceConduit);
+        final ConduitStreamSinkChannel sink = new ConduitStreamSinkChannel(null, sinkConduit);
+        sourceConduit.addData("hello".getBytes("US-ASCII"));
+
+        final Callback callback = new Callback();
+        ChannelSplice.splice(source, sink, new ByteBufferSlicePool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 64, 64), callback);
+        Assert.assertEquals("hello", sinkConduit.getWrittenString());
+        Assert.assertTrue(sourceConduit.isReadResumed());
+        Assert.assertNull(callback.result);
+
+        sourceConduit.addData(" world".getBytes("US-ASCII"));
+        sourceConduit.setEndOfStream();
+        sourceConduit.getReadReadyHandler().readReady();
+        Assert.assertEquals("hello world", sinkConduit.getWrittenString());
+        Assert.assertEquals(Long.valueOf(11), callback.result);
+    }
+
+    private static String data(final int size) {
+        final StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; i < size; ++i) {
+            builder.append((char) ('a' + i % 26));
+        }
+        return builder.toString();
+    }
+
+    private static final class Callback implements HttpClientCallback<Long> {
+
+        Long result;
+        IOException failed;
+
+        @Override
+        public void completed(final Long result) {
+            this.result = result;
+        }
+
+        @Override
+        public void failed(final IOException e) {
+            this.failed = e;
+        }
+    }
+}
@@ -266,4 +266,163 @@ public class HttpClientTestCase {
         }
     }
 
+    @Test
+    public void testConnectionPool() throws Exception {
+        final OptionMap options = OptionMap.create(HttpClientOptions.MAX_CONNECTIONS_PER_DESTINATION, 2);
+        //
+        DefaultServer.setRootHandler(SIMPLE_MESSAGE_HANDLER);
+        final HttpClient client = createClient();
+        final HttpClientPool pool = new HttpClientPool(client, options);
+        try {
+            for (int j = 0; j < 3; j++) {
+                //requests that do not fit on the two connections are queued until a response has been read
+                final List<IoFuture<HttpClientRequest>> requests = new ArrayList<IoFuture<HttpClientRequest>>();
+                for (int i = 0; i < 10; i++) {
+                    requests.add(pool.createRequest(ADDRESS, Methods.GET, new URI("/")));
+                }
+                for (final IoFuture<HttpClientRequest> future : requests) {
+                    final HttpClientResponse response = future.get().writeRequest().get();
+                    final StreamSourceChannel channel = response.readReplyBody();
+                    try {
+                        final InputStream is = new ChannelInputStream(channel);
+                        Assert.assertEquals(message, HttpClientUtils.readResponse(is));
+                    } finally {
+                        IoUtils.safeClose(channel);
+                    }
+                }
+                Assert.assertTrue(pool.getConnectionCount(ADDRESS) <= 2);
+            }
+        } finally {
+            IoUtils.safeClose(pool);
+            IoUtils.safeClose(client);
+        }
+    }
+
+    @Test
+    public void testQueuedRequestTimesOut() throws Exception {
+        final OptionMap options = OptionMap.builder()
+                .set(HttpClientOptions.MAX_CONNECTIONS_PER_DESTINATION, 1)
+                .set(HttpClientOptions.QUEUE_TIMEOUT, 100)
+                .getMap();
+        DefaultServer.setRootHandler(SIMPLE_MESSAGE_HANDLER);
+        final HttpClient client = createClient();
+        final HttpClientPool pool = new HttpClientPool(client, options);
+        try {
+            //the only connection is in use until this request has been written and its response read
+            final HttpClientRequest first = pool.createRequest(ADDRESS, Methods.GET, new URI("/")).get();
+            final IoFuture<HttpClientRequest> queued = pool.createRequest(ADDRESS, Methods.GET, new URI("/"));
+            try {
+                queued.get();
+                Assert.fail("queued request did not time out");
+            } catch (IOException e) {
+                Assert.assertEquals(UndertowClientMessages.MESSAGES.timedOutWaitingForConnection(ADDRESS), e.getMessage());
+            }
+            //the connection is still usable once the request that held it is done
+            readMessage(first);
+            readMessage(pool.createRequest(ADDRESS, Methods.GET, new URI("/")).get());
+            Assert.assertEquals(1, pool.getConnectionCount(ADDRESS));
+        } finally {
+            IoUtils.safeClose(pool);
+            IoUtils.safeClose(client);
+        }
+    }
+
+    @Test
+    public void testTooManyQueuedRequestsAreRejected() throws Exception {
+        final OptionMap options = OptionMap.builder()
+                .set(HttpClientOptions.MAX_CONNECTIONS_PER_DESTINATION, 1)
+                .set(HttpClientOptions.MAX_QUEUED_REQUESTS, 2)
+                .getMap();
+        DefaultServer.setRootHandler(SIMPLE_MESSAGE_HANDLER);
+        final HttpClient client = createClient();
+        final HttpClientPool pool = new HttpClientPool(client, options);
+        try {
+            final HttpClientRequest first = pool.createRequest(ADDRESS, Methods.GET, new URI("/")).get();
+            final List<IoFuture<HttpClientRequest>> queued = new ArrayList<IoFuture<HttpClientRequest>>();
+            for (int i = 0; i < 2; i++) {
+                queued.add(pool.createRequest(ADDRESS, Methods.GET, new URI("/")));
+            }
+            //the queue is full, so the request fails straight away
+            final IoFuture<HttpClientRequest> rejected = pool.createRequest(ADDRESS, Methods.GET, new URI("/"));
+            Assert.assertEquals(IoFuture.Status.FAILED, rejected.getStatus());
+            Assert.assertEquals(UndertowClientMessages.MESSAGES.tooManyQueuedRequests(ADDRESS), rejected.getException().getMessage());
+
+            //the queued requests are still sent once the connection becomes available
+            readMessage(first);
+            for (final IoFuture<HttpClientRequest> future : queued) {
+                readMessage(future.get());
+            }
+        } finally {
+            IoUtils.safeClose(pool);
+            IoUtils.safeClose(client);
+        }
+    }
+
+    @Test
+    public void testIdleConnectionIsClosed() throws Exception {
+        final OptionMap options = OptionMap.create(HttpClientOptions.IDLE_TIMEOUT, 100);
+        DefaultServer.setRootHandler(SIMPLE_MESSAGE_HANDLER);
+        final HttpClient client = createClient();
+        final HttpClientPool pool = new HttpClientPool(client, options);
+        try {
+            readMessage(pool.createRequest(ADDRESS, Methods.GET, new URI("/")).get());
+            Assert.assertEquals(1, pool.getConnectionCount(ADDRESS));
+            final long end = System.currentTimeMillis() + 5000;
+            while (pool.getConnectionCount(ADDRESS) != 0 && System.currentTimeMillis() < end) {
+                Thread.sleep(20);
+            }
+            Assert.assertEquals(0, pool.getConnectionCount(ADDRESS));
+
+            //a new connection is opened for the next request
+            readMessage(pool.createRequest(ADDRESS, Methods.GET, new URI("/")).get());
+        } finally {
+            IoUtils.safeClose(pool);
+            IoUtils.safeClose(client);
+        }
+    }
+
+    @Test
+    public void testRequestsArePipelinedUpToPipelineDepth() throws Exception {
+        final OptionMap options = OptionMap.builder()
+                .set(HttpClientOptions.MAX_CONNECTIONS_PER_DESTINATION, 1)
+                .set(HttpClientOptions.HTTP_PIPELINING, true)
+                .set(HttpClientOptions.PIPELINE_DEPTH, 2)
+                .getMap();
+        DefaultServer.setRootHandler(SIMPLE_MESSAGE_HANDLER);
+        final HttpClient client = createClient();
+        final HttpClientPool pool = new HttpClientPool(client, options);
+        try {
+            final HttpClientRequest first = pool.createRequest(ADDRESS, Methods.GET, new URI("/")).get();
+            //the second request is pipelined on the busy connection, the third has to wait for one of them
+            final IoFuture<HttpClientRequest> second = pool.createRequest(ADDRESS, Methods.GET, new URI("/"));
+            final IoFuture<HttpClientRequest> third = pool.createRequest(ADDRESS, Methods.GET, new URI("/"));
+            Assert.assertEquals(IoFuture.Status.DONE, second.getStatus());
+            Assert.assertEquals(IoFuture.Status.WAITING, third.getStatus());
+
+            final IoFuture<HttpClientResponse> firstResponse = first.writeRequest();
+            final IoFuture<HttpClientResponse> secondResponse = second.get().writeRequest();
+            readMessage(firstResponse.get());
+            readMessage(secondResponse.get());
+            readMessage(third.get());
+            Assert.assertEquals(1, pool.getConnectionCount(ADDRESS));
+        } finally {
+            IoUtils.safeClose(pool);
+            IoUtils.safeClose(client);
+        }
+    }
+
+    private static void readMessage(final HttpClientRequest request) throws IOException {
+        readMessage(request.writeRequest().get());
+    }
+
+    private static void readMessage(final HttpClientResponse response) throws IOException {
+        final StreamSourceChannel channel = response.readReplyBody();
+        try {
+            final InputStream is = new ChannelInputStream(channel);
+            Assert.assertEquals(message, HttpClientUtils.readResponse(is));
+        } finally {
+            IoUtils.safeClose(channel);
+        }
+    }
+
 }
@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.conduits;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import io.undertow.test.utils.MockStreamSinkConduit;
+import io.undertow.util.AbstractAttachable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChunkedStreamSinkConduitTestCase {
+
+    @Test
+    public void testChunkSizesAtHexBoundaries() throws IOException {
+        final int[] sizes = {1, 0xF, 0x10, 0xFF, 0x100, 0xFFF, 0x1000};
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final ChunkedStreamSinkConduit conduit = createConduit(sink);
+        boolean first = true;
+        for (int size : sizes) {
+            sink.clear();
+            final String data = data(size);
+            Assert.assertEquals(size, conduit.write(buffer(data)));
+            //the chunk header is written together with the data
+            Assert.assertEquals(1, sink.getWrites().size());
+            final String header = (first ? "" : "\r\n") + Integer.toHexString(size) + "\r\n";
+            Assert.assertEquals(header + data, sink.getWrittenString());
+            first = false;
+        }
+        sink.clear();
+        conduit.terminateWrites();
+        Assert.assertTrue(conduit.flush());
+        Assert.assertEquals("\r\n0\r\n\r\n", sink.getWrittenString());
+    }
+
+    @Test
+    public void testGatheringWriteIsSentAsOneChunk() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final ChunkedStreamSinkConduit conduit = createConduit(sink);
+        final ByteBuffer[] buffers = {buffer("Hello "), buffer(""), buffer(data(0x1A))};
+        Assert.assertEquals(0x20, conduit.write(buffers, 0, buffers.length));
+        Assert.assertEquals(1, sink.getWrites().size());
+        Assert.assertEquals("20\r\nHello " + data(0x1A), sink.getWrittenString());
+    }
+
+    @Test
+    public void testPartialWriteOfChunkHeader() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final ChunkedStreamSinkConduit conduit = createConduit(sink);
+        final String data = data(0x10);
+        final ByteBuffer buffer = buffer(data);
+
+        sink.setWritableBytes(2);
+        Assert.assertEquals(0, conduit.write(buffer));
+        Assert.assertEquals(0x10, buffer.remaining());
+        Assert.assertEquals("10", sink.getWrittenString());
+
+        //the rest of the header is gathered with the data, and no new header is generated
+        sink.setWritableBytes(Integer.MAX_VALUE);
+        Assert.assertEquals(0x10, conduit.write(buffer));
+        Assert.assertEquals(2, sink.getWrites().size());
+        Assert.assertEquals("10\r\n" + data, sink.getWrittenString());
+
+        conduit.terminateWrites();
+        Assert.assertTrue(conduit.flush());
+        Assert.assertEquals("10\r\n" + data + "\r\n0\r\n\r\n", sink.getWrittenString());
+    }
+
+    @Test
+    public void testPartialWriteOfChunkData() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final ChunkedStreamSinkConduit conduit = createConduit(sink);
+        final String data = data(0x100);
+        final ByteBuffer buffer = buffer(data);
+
+        sink.setWritableBytes(5 + 10);
+        Assert.assertEquals(10, conduit.write(buffer));
+        Assert.assertEquals("100\r\n" + data.substring(0, 10), sink.getWrittenString());
+
+        //the rest of the chunk is written without a header, and a new chunk is only started once it is done
+        sink.setWritableBytes(Integer.MAX_VALUE);
+        final ByteBuffer next = buffer("next");
+        Assert.assertEquals(0x100 - 10, conduit.write(new ByteBuffer[]{buffer, next}, 0, 2));
+        Assert.assertEquals(4, conduit.write(next));
+        Assert.assertEquals("100\r\n" + data + "\r\n4\r\nnext", sink.getWrittenString());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTerminateMidChunk() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final ChunkedStreamSinkConduit conduit = createConduit(sink);
+        sink.setWritableBytes(8);
+        conduit.write(buffer(data(0x10)));
+        conduit.terminateWrites();
+    }
+
+    private static ChunkedStreamSinkConduit createConduit(final MockStreamSinkConduit sink) {
+        return new ChunkedStreamSinkConduit(sink, false, true, null, new AbstractAttachable() {
+        });
+    }
+
+    private static String data(final int size) {
+        final char[] data = new char[size];
+        for (int i = 0; i < size; ++i) {
+            data[i] = (char) ('a' + i % 26);
+        }
+        return new String(data);
+    }
+
+    private static ByteBuffer buffer(final String data) {
+        final byte[] bytes = new byte[data.length()];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) data.charAt(i);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+}
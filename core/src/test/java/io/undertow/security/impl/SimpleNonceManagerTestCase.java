@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.security.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the validation rules of {@link SimpleNonceManager}, using a clock that is controlled by the test.
+ */
+public class SimpleNonceManagerTestCase {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    @Test
+    public void testNonceWithoutCountIsSingleUse() {
+        final TestNonceManager manager = new TestNonceManager();
+        final String nonce = manager.nextNonce(null, null);
+        manager.advance(1000);
+        Assert.assertTrue(manager.validateNonce(nonce, -1, null));
+        Assert.assertFalse(manager.validateNonce(nonce, -1, null));
+        //a used nonce is replaced with a new one
+        Assert.assertFalse(nonce.equals(manager.nextNonce(nonce, null)));
+    }
+
+    @Test
+    public void testNonceCountCannotBeReplayed() {
+        final TestNonceManager manager = new TestNonceManager();
+        final String nonce = manager.nextNonce(null, null);
+        manager.advance(1000);
+        Assert.assertTrue(manager.validateNonce(nonce, 1, null));
+        Assert.assertFalse(manager.validateNonce(nonce, 1, null));
+        Assert.assertTrue(manager.validateNonce(nonce, 2, null));
+        Assert.assertFalse(manager.validateNonce(nonce, 1, null));
+        Assert.assertTrue(manager.validateNonce(nonce, 5, null));
+        Assert.assertFalse(manager.validateNonce(nonce, 4, null));
+        //the nonce is still fresh, so the client keeps using it
+        Assert.assertEquals(nonce, manager.nextNonce(nonce, null));
+    }
+
+    @Test
+    public void testUnusedNonceExpires() {
+        final TestNonceManager manager = new TestNonceManager();
+        final String nonce = manager.nextNonce(null, null);
+        //the first use must be within five minutes of the nonce being issued
+        manager.advance(6 * MINUTE);
+        Assert.assertFalse(manager.validateNonce(nonce, -1, null));
+        Assert.assertFalse(manager.validateNonce(nonce, 1, null));
+    }
+
+    @Test
+    public void testUsedNonceIsReplacedAndExpires() {
+        final TestNonceManager manager = new TestNonceManager();
+        final String nonce = manager.nextNonce(null, null);
+        manager.advance(1000);
+        Assert.assertTrue(manager.validateNonce(nonce, 1, null));
+
+        //once the nonce is older than five minutes it is still accepted, but a replacement is issued
+        manager.advance(10 * MINUTE);
+        Assert.assertTrue(manager.validateNonce(nonce, 2, null));
+        final String replacement = manager.nextNonce(nonce, null);
+        Assert.assertFalse(nonce.equals(replacement));
+        Assert.assertEquals(replacement, manager.nextNonce(nonce, null));
+        //the old nonce is now stale
+        Assert.assertFalse(manager.validateNonce(nonce, 3, null));
+        manager.advance(1000);
+        Assert.assertTrue(manager.validateNonce(replacement, 1, null));
+
+        //a nonce is never accepted more than twenty minutes after it was issued
+        final TestNonceManager other = new TestNonceManager();
+        final String expiring = other.nextNonce(null, null);
+        other.advance(1000);
+        Assert.assertTrue(other.validateNonce(expiring, 1, null));
+        other.advance(21 * MINUTE);
+        Assert.assertFalse(other.validateNonce(expiring, 2, null));
+    }
+
+    @Test
+    public void testConcurrentValidationOnlySucceedsOnce() throws Exception {
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < 50; ++i) {
+                final TestNonceManager manager = new TestNonceManager();
+                final String nonce = manager.nextNonce(null, null);
+                manager.advance(1000);
+                Assert.assertEquals(1, countSuccesses(executor, threads, manager, nonce, -1));
+
+                final String counted = manager.nextNonce(null, null);
+                manager.advance(1000);
+                Assert.assertEquals(1, countSuccesses(executor, threads, manager, counted, 1));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static int countSuccesses(final ExecutorService executor, final int threads, final TestNonceManager manager, final String nonce, final int nonceCount) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < threads; ++i) {
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    start.await();
+                    return manager.validateNonce(nonce, nonceCount, null);
+                }
+            }));
+        }
+        start.countDown();
+        int successes = 0;
+        for (Future<Boolean> result : results) {
+            if (result.get()) {
+                ++successes;
+            }
+        }
+        return successes;
+    }
+
+    private static final class TestNonceManager extends SimpleNonceManager {
+
+        private volatile long time = System.currentTimeMillis();
+
+        @Override
+        long currentTimeMillis() {
+            return time;
+        }
+
+        void advance(final long millis) {
+            time += millis;
+        }
+    }
+}
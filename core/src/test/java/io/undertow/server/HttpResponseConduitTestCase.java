@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import io.undertow.test.utils.MockStreamSinkConduit;
+import io.undertow.util.Headers;
+import io.undertow.util.Protocols;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
+
+public class HttpResponseConduitTestCase {
+
+    private static final String HEADER = "HTTP/1.1 200 OK\r\nContent-Length: 11\r\n\r\n";
+    private static final String BODY = "hello world";
+
+    @Test
+    public void testHeadersAndBodyInOneWrite() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final HttpResponseConduit conduit = createConduit(sink);
+        Assert.assertEquals(BODY.length(), conduit.write(buffer(BODY)));
+        Assert.assertEquals(1, sink.getWrites().size());
+        Assert.assertEquals(HEADER + BODY, sink.getWrittenString());
+    }
+
+    @Test
+    public void testHeadersAndBodyBuffersInOneWrite() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final HttpResponseConduit conduit = createConduit(sink);
+        final ByteBuffer[] buffers = {buffer("hello"), buffer(" "), buffer("world")};
+        Assert.assertEquals(BODY.length(), conduit.write(buffers, 0, buffers.length));
+        Assert.assertEquals(1, sink.getWrites().size());
+        Assert.assertEquals(HEADER + BODY, sink.getWrittenString());
+    }
+
+    @Test
+    public void testPartialWriteOfHeaders() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final HttpResponseConduit conduit = createConduit(sink);
+        final ByteBuffer body = buffer(BODY);
+
+        sink.setWritableBytes(10);
+        Assert.assertEquals(0, conduit.write(body));
+        Assert.assertEquals(BODY.length(), body.remaining());
+        Assert.assertEquals(HEADER.substring(0, 10), sink.getWrittenString());
+
+        //the rest of the headers are coalesced with the body
+        sink.setWritableBytes(Integer.MAX_VALUE);
+        Assert.assertEquals(BODY.length(), conduit.write(body));
+        final List<byte[]> writes = sink.getWrites();
+        Assert.assertEquals(HEADER.substring(10) + BODY, new String(writes.get(writes.size() - 1), "ISO-8859-1"));
+        Assert.assertEquals(HEADER + BODY, sink.getWrittenString());
+    }
+
+    @Test
+    public void testPartialWriteOfBody() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final HttpResponseConduit conduit = createConduit(sink);
+        final ByteBuffer body = buffer(BODY);
+
+        sink.setWritableBytes(HEADER.length() + 5);
+        Assert.assertEquals(5, conduit.write(body));
+        Assert.assertEquals(HEADER + BODY.substring(0, 5), sink.getWrittenString());
+
+        //the headers are not written again
+        sink.setWritableBytes(Integer.MAX_VALUE);
+        Assert.assertEquals(BODY.length() - 5, conduit.write(body));
+        Assert.assertEquals(HEADER + BODY, sink.getWrittenString());
+    }
+
+    @Test
+    public void testHeadersFlushedWithoutBody() throws IOException {
+        final MockStreamSinkConduit sink = new MockStreamSinkConduit();
+        final HttpResponseConduit conduit = createConduit(sink);
+
+        sink.setWritableBytes(0);
+        Assert.assertFalse(conduit.flush());
+        sink.setWritableBytes(Integer.MAX_VALUE);
+        Assert.assertTrue(conduit.flush());
+        Assert.assertEquals(HEADER, sink.getWrittenString());
+        Assert.assertEquals(BODY.length(), conduit.write(buffer(BODY)));
+        Assert.assertEquals(HEADER + BODY, sink.getWrittenString());
+    }
+
+    private static HttpResponseConduit createConduit(final MockStreamSinkConduit sink) {
+        final HttpServerExchange exchange = new HttpServerExchange(null);
+        exchange.setProtocol(Protocols.HTTP_1_1);
+        exchange.setResponseCode(200);
+        exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Integer.toString(BODY.length()));
+        return new HttpResponseConduit(sink, new ByteBufferSlicePool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 1024, 1024), exchange);
+    }
+
+    private static ByteBuffer buffer(final String data) {
+        final byte[] bytes = new byte[data.length()];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) data.charAt(i);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+}
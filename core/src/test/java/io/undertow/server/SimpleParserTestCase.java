@@ -20,6 +20,7 @@ package io.undertow.server;
 
 import java.nio.ByteBuffer;
 
+import io.undertow.UndertowMessages;
 import io.undertow.UndertowOptions;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
@@ -130,6 +131,69 @@ public class SimpleParserTestCase {
 
     }
 
+    @Test
+    public void testQueryParamsDirectBuffer() {
+        byte[] in = "GET /somepath?a=b&b=c&d&e&f= HTTP/1.1\r\nHost: www.somehost.net\r\n\r\n".getBytes();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(in.length);
+        buffer.put(in);
+        buffer.flip();
+
+        final ParseState context = new ParseState();
+        HttpServerExchange result = new HttpServerExchange(null);
+        HttpRequestParser.instance(OptionMap.EMPTY).handle(buffer, context, result);
+        Assert.assertEquals("/somepath", result.getRequestURI());
+        Assert.assertEquals("/somepath", result.getRelativePath());
+        Assert.assertEquals("a=b&b=c&d&e&f=", result.getQueryString());
+        Assert.assertEquals("b", result.getQueryParameters().get("a").getFirst());
+        Assert.assertEquals("c", result.getQueryParameters().get("b").getFirst());
+        Assert.assertEquals("", result.getQueryParameters().get("d").getFirst());
+        Assert.assertEquals("", result.getQueryParameters().get("f").getFirst());
+        Assert.assertSame(Protocols.HTTP_1_1, result.getProtocol());
+        Assert.assertEquals(ParseState.PARSE_COMPLETE, context.state);
+    }
+
+    @Test
+    public void testEncodedPathAndQuery() {
+        byte[] in = "GET /some%20path?a=%09b&c=%41 HTTP/1.1\r\n\r\n".getBytes();
+
+        final ParseState context = new ParseState();
+        HttpServerExchange result = new HttpServerExchange(null);
+        HttpRequestParser.instance(OptionMap.EMPTY).handle(ByteBuffer.wrap(in), context, result);
+        Assert.assertEquals("/some path", result.getRequestURI());
+        Assert.assertEquals("\tb", result.getQueryParameters().get("a").getFirst());
+        Assert.assertEquals("A", result.getQueryParameters().get("c").getFirst());
+    }
+
+    @Test
+    public void testQueryParamsDecodedOnFirstAccess() {
+        byte[] in = "GET /somepath?a=b&c=%64 HTTP/1.1\r\n\r\n".getBytes();
+
+        final ParseState context = new ParseState();
+        HttpServerExchange result = new HttpServerExchange(null);
+        HttpRequestParser.instance(OptionMap.EMPTY).handle(ByteBuffer.wrap(in), context, result);
+        Assert.assertEquals("a=b&c=d", result.getQueryString());
+        result.addQueryParam("a", "e");
+        Assert.assertEquals(2, result.getQueryParameters().size());
+        Assert.assertEquals("b", result.getQueryParameters().get("a").getFirst());
+        Assert.assertEquals("e", result.getQueryParameters().get("a").getLast());
+        Assert.assertEquals("d", result.getQueryParameters().get("c").getFirst());
+    }
+
+    @Test
+    public void testTooManyQueryParams() {
+        byte[] in = "GET /somepath?a=b&c=d&e=f HTTP/1.1\r\n\r\n".getBytes();
+
+        final ParseState context = new ParseState();
+        HttpServerExchange result = new HttpServerExchange(null);
+        try {
+            HttpRequestParser.instance(OptionMap.create(UndertowOptions.MAX_PARAMETERS, 0)).handle(ByteBuffer.wrap(in), context, result);
+            Assert.fail("Expected too many query parameters to be rejected");
+        } catch (RuntimeException e) {
+            Assert.assertEquals(UndertowMessages.MESSAGES.tooManyQueryParameters(0).getMessage(), e.getMessage());
+        }
+        Assert.assertEquals("", result.getQueryString());
+    }
+
     @Test
     public void testSameHttpStringReturned() {
         byte[] in = "GET\thttp://www.somehost.net/somepath\tHTTP/1.1\nHost: \t www.somehost.net\nAccept-Charset:\tsome\n \t  value\n\r\n".getBytes();
@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveRequestLimitingHandlerTestCase {
+
+    private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long BASELINE = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final HttpHandler NEXT = new HttpHandler() {
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        }
+    };
+
+    @Test
+    public void testLimitGrowsAtBaselineLatency() {
+        final TestHandler handler = new TestHandler(100, 1, 1000);
+        handler.window(BASELINE, false, 100);
+        Assert.assertEquals(BASELINE, handler.getBaselineLatency());
+        //100 * 0.8 + (100 + 10) * 0.2
+        Assert.assertEquals(102, handler.getLimit());
+        handler.window(BASELINE, false, 102);
+        Assert.assertEquals(104, handler.getLimit());
+    }
+
+    @Test
+    public void testLimitGrowsWithinTolerance() {
+        final TestHandler handler = new TestHandler(100, 1, 1000);
+        handler.window(BASELINE, false, 100);
+        Assert.assertEquals(102, handler.getLimit());
+        handler.window(BASELINE * 14 / 10, false, 102);
+        Assert.assertEquals(104, handler.getLimit());
+    }
+
+    @Test
+    public void testLimitShrinksAboveTolerance() {
+        final TestHandler handler = new TestHandler(100, 1, 1000);
+        handler.window(BASELINE, false, 100);
+        Assert.assertEquals(102, handler.getLimit());
+        //the gradient is 1.5 * 10 / 30, so the target is 102 * 0.5 + sqrt(102)
+        handler.window(BASELINE * 3, false, 102);
+        Assert.assertEquals(93, handler.getLimit());
+        //the baseline only drifts up slowly
+        Assert.assertTrue(handler.getBaselineLatency() < BASELINE * 11 / 10);
+    }
+
+    @Test
+    public void testLimitBacksOffOnServiceUnavailable() {
+        final TestHandler handler = new TestHandler(100, 1, 1000);
+        //a single 503 or 504 in the window is enough
+        for (int i = 0; i < 9; ++i) {
+            handler.sample(BASELINE, false, 100);
+        }
+        handler.advance(WINDOW);
+        handler.sample(BASELINE, true, 100);
+        //100 * 0.8 + 100 * 0.9 * 0.2
+        Assert.assertEquals(98, handler.getLimit());
+        handler.window(BASELINE, true, 98);
+        Assert.assertEquals(96, handler.getLimit());
+    }
+
+    @Test
+    public void testLimitIsClamped() {
+        final TestHandler handler = new TestHandler(10, 5, 12);
+        for (int i = 0; i < 20; ++i) {
+            handler.window(BASELINE, false, handler.getLimit());
+        }
+        Assert.assertEquals(12, handler.getLimit());
+        for (int i = 0; i < 100; ++i) {
+            handler.window(BASELINE, true, handler.getLimit());
+        }
+        Assert.assertEquals(5, handler.getLimit());
+    }
+
+    @Test
+    public void testLimitDoesNotGrowWhenUnused() {
+        final TestHandler handler = new TestHandler(100, 1, 1000);
+        handler.window(BASELINE, false, 49);
+        Assert.assertEquals(100, handler.getLimit());
+        handler.window(BASELINE, false, 1);
+        Assert.assertEquals(100, handler.getLimit());
+        handler.window(BASELINE, false, 50);
+        Assert.assertEquals(102, handler.getLimit());
+    }
+
+    @Test
+    public void testWindowNeedsTimeAndSamples() {
+        final TestHandler handler = new TestHandler(100, 1, 1000);
+        handler.advance(WINDOW);
+        for (int i = 0; i < 9; ++i) {
+            handler.sample(BASELINE, true, 100);
+        }
+        Assert.assertEquals(100, handler.getLimit());
+        Assert.assertEquals(0, handler.getBaselineLatency());
+
+        final TestHandler other = new TestHandler(100, 1, 1000);
+        for (int i = 0; i < 100; ++i) {
+            other.sample(BASELINE, true, 100);
+        }
+        other.advance(WINDOW - 1);
+        other.sample(BASELINE, true, 100);
+        Assert.assertEquals(100, other.getLimit());
+        other.advance(1);
+        other.sample(BASELINE, true, 100);
+        Assert.assertEquals(98, other.getLimit());
+    }
+
+    private static final class TestHandler extends AdaptiveRequestLimitingHandler {
+
+        private long time;
+
+        TestHandler(final int initialLimit, final int minLimit, final int maxLimit) {
+            super(initialLimit, minLimit, maxLimit, NEXT);
+        }
+
+        @Override
+        long nanoTime() {
+            return time;
+        }
+
+        void advance(final long nanos) {
+            time += nanos;
+        }
+
+        /**
+         * Completes a full sample window with the given latency and concurrency.
+         */
+        void window(final long latency, final boolean overloaded, final int currentRequests) {
+            advance(WINDOW);
+            for (int i = 0; i < 10; ++i) {
+                sample(latency, overloaded, currentRequests);
+            }
+        }
+    }
+}
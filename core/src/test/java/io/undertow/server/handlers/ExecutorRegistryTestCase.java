@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExecutorRegistryTestCase {
+
+    @Test
+    public void testSaturatedExecutorDoesNotAffectOthers() throws InterruptedException {
+        final ExecutorRegistry registry = new ExecutorRegistry();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Runnable blocking = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        try {
+            final ThreadPoolExecutor slow = registry.addExecutor("slow", 1, 1);
+            final ThreadPoolExecutor fast = registry.addExecutor("fast", 1, 1);
+            slow.execute(blocking);
+            slow.execute(blocking);
+            try {
+                slow.execute(blocking);
+                Assert.fail("Expected the saturated executor to reject the task");
+            } catch (RejectedExecutionException expected) {
+            }
+
+            final CountDownLatch ran = new CountDownLatch(1);
+            fast.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ran.countDown();
+                }
+            });
+            Assert.assertTrue(ran.await(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            registry.shutdown();
+        }
+        Assert.assertTrue(registry.getExecutorNames().isEmpty());
+    }
+
+    @Test
+    public void testNames() {
+        final ExecutorRegistry registry = new ExecutorRegistry();
+        try {
+            registry.addExecutor("pool", 1, 0);
+            try {
+                registry.addExecutor("pool", 1, 0);
+                Assert.fail("Expected duplicate executor to be rejected");
+            } catch (IllegalStateException expected) {
+            }
+            Assert.assertSame(registry.getExecutor("pool"), new DispatchExecutorHandler(registry, "pool", ResponseCodeHandler.HANDLE_200).getExecutor());
+            try {
+                new DispatchExecutorHandler(registry, "missing", ResponseCodeHandler.HANDLE_200);
+                Assert.fail("Expected unknown executor to be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        } finally {
+            registry.shutdown();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.net.InetAddress;
+import java.util.List;
+
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.NetworkUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ForwardedHandlerTestCase {
+
+    @Test
+    public void testSubnetTree() {
+        final ForwardedHandler.SubnetTree tree = new ForwardedHandler.SubnetTree();
+        tree.add("10.0.0.0/8");
+        tree.add("192.168.1.7");
+        tree.add("2001:db8::/32");
+        Assert.assertTrue(tree.matches(address("10.1.2.3")));
+        Assert.assertTrue(tree.matches(address("192.168.1.7")));
+        Assert.assertFalse(tree.matches(address("192.168.1.8")));
+        Assert.assertFalse(tree.matches(address("11.0.0.1")));
+        Assert.assertTrue(tree.matches(address("2001:db8:cafe::17")));
+        Assert.assertFalse(tree.matches(address("2001:db9::1")));
+        tree.add("0.0.0.0/0");
+        Assert.assertTrue(tree.matches(address("11.0.0.1")));
+        Assert.assertFalse(tree.matches(address("::1")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSubnet() {
+        new ForwardedHandler().addTrustedProxy("10.0.0.0/33");
+    }
+
+    @Test
+    public void testParseForwarded() {
+        final HeaderMap headers = new HeaderMap();
+        headers.add(Headers.FORWARDED, "for=192.0.2.60;proto=https;host=example.com, for=\"[2001:db8:cafe::17]:4711\"");
+        headers.add(Headers.FORWARDED, "for=unknown");
+        final List<ForwardedHandler.Hop> hops = ForwardedHandler.parseForwarded(headers.get(Headers.FORWARDED));
+        Assert.assertEquals(3, hops.size());
+        Assert.assertEquals("192.0.2.60", hops.get(0).address);
+        Assert.assertEquals("https", hops.get(0).proto);
+        Assert.assertEquals("example.com", hops.get(0).host);
+        Assert.assertEquals("[2001:db8:cafe::17]", hops.get(1).address);
+        Assert.assertEquals(4711, hops.get(1).port);
+        Assert.assertEquals("unknown", hops.get(2).address);
+    }
+
+    @Test
+    public void testParseXForwarded() {
+        final HeaderMap headers = new HeaderMap();
+        headers.add(Headers.X_FORWARDED_FOR, "203.0.113.7, 10.0.0.1:8080");
+        headers.add(Headers.X_FORWARDED_PROTO, "https");
+        final List<ForwardedHandler.Hop> hops = ForwardedHandler.parseXForwarded(headers);
+        Assert.assertEquals(2, hops.size());
+        Assert.assertEquals("203.0.113.7", hops.get(0).address);
+        Assert.assertEquals("10.0.0.1", hops.get(1).address);
+        Assert.assertEquals(8080, hops.get(1).port);
+        Assert.assertEquals("https", hops.get(1).proto);
+    }
+
+    @Test
+    public void testAddressLiteralsOnly() {
+        Assert.assertNull(NetworkUtils.parseIpAddress("localhost"));
+        Assert.assertNull(NetworkUtils.parseIpAddress("256.0.0.1"));
+        Assert.assertNull(NetworkUtils.parseIpAddress("1.2.3"));
+        Assert.assertNotNull(NetworkUtils.parseIpAddress("[::1]"));
+    }
+
+    private static InetAddress address(final String address) {
+        return NetworkUtils.parseIpAddress(address);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RateLimitingHandlerTestCase {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstAndRefill() {
+        final RateLimitingHandler handler = new RateLimitingHandler(2, 3, ResponseCodeHandler.HANDLE_200);
+        final long start = 1000 * SECOND;
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertEquals(0, handler.acquire("client", start));
+        }
+        final long wait = handler.acquire("client", start);
+        Assert.assertEquals(SECOND / 2, wait);
+        //other clients are not affected
+        Assert.assertEquals(0, handler.acquire("other", start));
+        //one token is refilled every half second
+        Assert.assertEquals(0, handler.acquire("client", start + SECOND / 2));
+        Assert.assertTrue(handler.acquire("client", start + SECOND / 2) > 0);
+        //after an idle period the bucket is full again, but does not hold more than the burst
+        final long later = start + 10 * SECOND;
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertEquals(0, handler.acquire("client", later));
+        }
+        Assert.assertTrue(handler.acquire("client", later) > 0);
+    }
+
+    @Test
+    public void testTableIsBounded() {
+        final RateLimitingHandler handler = new RateLimitingHandler(1, 1, RateLimitingHandler.SOURCE_ADDRESS, 8, ResponseCodeHandler.HANDLE_200);
+        final long start = 1000 * SECOND;
+        Assert.assertEquals(0, handler.acquire("client", start));
+        Assert.assertTrue(handler.acquire("client", start) > 0);
+        //many other clients evict the entry once it has refilled, and it then starts with a full bucket
+        for (int i = 0; i < 100; ++i) {
+            handler.acquire("client" + i, start + 2 * SECOND);
+        }
+        //the other clients have refilled as well, so the entry gets a slot of its own again
+        Assert.assertEquals(0, handler.acquire("client", start + 4 * SECOND));
+        Assert.assertTrue(handler.acquire("client", start + 4 * SECOND) > 0);
+        Assert.assertEquals(0, handler.acquire("client", start + 5 * SECOND));
+    }
+
+    @Test
+    public void testNewKeysCannotResetThrottledKey() {
+        final RateLimitingHandler handler = new RateLimitingHandler(1, 1, RateLimitingHandler.SOURCE_ADDRESS, 8, ResponseCodeHandler.HANDLE_200);
+        final long start = 1000 * SECOND;
+        Assert.assertEquals(0, handler.acquire("client", start));
+        Assert.assertTrue(handler.acquire("client", start) > 0);
+        //an attacker rotates keys to fill the table, and keeps every bucket refilling
+        int rejected = 0;
+        for (int i = 0; i < 100; ++i) {
+            if (handler.acquire("attacker" + i, start + SECOND / 2) > 0) {
+                rejected++;
+            }
+        }
+        //the keys that did not fit share a single bucket
+        Assert.assertEquals(100 - 7 - 1, rejected);
+        Assert.assertTrue(handler.acquire("client", start + SECOND / 2) > 0);
+        Assert.assertEquals(0, handler.acquire("client", start + SECOND));
+        Assert.assertTrue(handler.acquire("client", start + SECOND) > 0);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RequestCookieMapTestCase {
+
+    @Test
+    public void testValueLookup() {
+        RequestCookieMap map = new RequestCookieMap(Arrays.asList("a=b; JSESSIONID=\"1234\"; $Path=/foo", "c=d;a=e"), 200);
+        Assert.assertEquals("1234", map.getValue("JSESSIONID"));
+        Assert.assertEquals("e", map.getValue("a"));
+        Assert.assertEquals("d", map.getValue("c"));
+        Assert.assertNull(map.getValue("$Path"));
+        Assert.assertNull(map.getValue("missing"));
+        Assert.assertTrue(map.containsKey("c"));
+        Assert.assertFalse(map.containsKey("$Path"));
+    }
+
+    @Test
+    public void testCookiesCreatedOnDemand() {
+        RequestCookieMap map = new RequestCookieMap(Arrays.asList("a=b; JSESSIONID=\"1234\"; $Path=/foo; $Version=1", "c=d;a=e"), 200);
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals("/foo", map.get("JSESSIONID").getPath());
+        Assert.assertEquals(1, map.get("JSESSIONID").getVersion());
+        Assert.assertNull(map.get("c").getPath());
+        Assert.assertEquals("e", map.get("a").getValue());
+
+        map.get("a").setValue("f");
+        Assert.assertEquals("f", map.getValue("a"));
+        map.remove("c");
+        Assert.assertNull(map.getValue("c"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTooManyCookies() {
+        new RequestCookieMap(Arrays.asList("a=b; c=d; e=f"), 3);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the eviction behaviour of the direct buffer cache
+ */
+public class DirectBufferCacheTestCase {
+
+    @Test
+    public void testInfrequentLargeEntryDoesNotEvictSmallEntries() {
+        //20 slices of 100 bytes
+        final DirectBufferCache cache = new DirectBufferCache(100, 10, 2000);
+        for (int i = 0; i < 5; ++i) {
+            for (int j = 0; j < 10; ++j) {
+                access(cache, "small" + j, 100);
+            }
+        }
+        for (int i = 0; i < 10; ++i) {
+            access(cache, "filler", 1000);
+        }
+        Assert.assertEquals(10, allocatedSmallEntries(cache));
+        Assert.assertEquals(10, cache.get("filler").buffers().length);
+
+        for (int i = 0; i < 6; ++i) {
+            access(cache, "large", 1500);
+        }
+        final DirectBufferCache.CacheEntry large = cache.get("large");
+        Assert.assertTrue(large == null || large.buffers().length == 0);
+        Assert.assertEquals(10, allocatedSmallEntries(cache));
+    }
+
+    @Test
+    public void testFrequentEntryIsAdmitted() {
+        final DirectBufferCache cache = new DirectBufferCache(100, 10, 2000);
+        for (int i = 0; i < 5; ++i) {
+            for (int j = 0; j < 10; ++j) {
+                access(cache, "small" + j, 100);
+            }
+        }
+        for (int i = 0; i < 10; ++i) {
+            access(cache, "filler", 1000);
+        }
+        for (int i = 0; i < 20; ++i) {
+            access(cache, "hot", 500);
+        }
+        Assert.assertEquals(5, cache.get("hot").buffers().length);
+        Assert.assertEquals(10, cache.get("filler").buffers().length);
+        //only the least recently used small entries were evicted
+        Assert.assertEquals(5, allocatedSmallEntries(cache));
+    }
+
+    private static void access(final DirectBufferCache cache, final String key, final int size) {
+        if (cache.get(key) == null) {
+            cache.add(key, size);
+        }
+    }
+
+    private static int allocatedSmallEntries(final DirectBufferCache cache) {
+        int count = 0;
+        for (int i = 0; i < 10; ++i) {
+            final DirectBufferCache.CacheEntry entry = cache.get("small" + i);
+            if (entry != null && entry.buffers().length > 0) {
+                ++count;
+            }
+        }
+        return count;
+    }
+}
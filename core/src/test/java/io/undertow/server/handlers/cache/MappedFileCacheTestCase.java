@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that the mapped file cache never holds more than its maximum size in mappings that have not been released,
+ * and that it only maps files that are requested often enough
+ */
+public class MappedFileCacheTestCase {
+
+    @Test
+    public void testMappingsInUseCountTowardsTheLimit() throws IOException {
+        final Path first = createFile(600);
+        final Path second = createFile(600);
+        try {
+            final MappedFileCache cache = new MappedFileCache(1000);
+            request(cache, "first", DirectBufferCache.SAMPLE_INTERVAL);
+            final MappedFileCache.MappedFile firstEntry = cache.add("first", first);
+            Assert.assertNotNull(firstEntry);
+            Assert.assertEquals(600, cache.getMappedSize());
+
+            //the first file is in use, so it cannot be released to make space, even for a file that is in more demand
+            request(cache, "second", DirectBufferCache.SAMPLE_INTERVAL + 1);
+            Assert.assertNull(cache.add("second", second));
+            Assert.assertEquals(600, cache.getMappedSize());
+
+            //once it is no longer in use it is removed to make space for the second file
+            firstEntry.dereference();
+            final MappedFileCache.MappedFile secondEntry = cache.add("second", second);
+            Assert.assertNotNull(secondEntry);
+            Assert.assertEquals(600, cache.getMappedSize());
+            Assert.assertNull(cache.get("first"));
+
+            //a removed entry is only released once the last request using it is done
+            cache.remove("second");
+            Assert.assertEquals(600, cache.getMappedSize());
+            secondEntry.dereference();
+            Assert.assertEquals(0, cache.getMappedSize());
+        } finally {
+            Files.delete(first);
+            Files.delete(second);
+        }
+    }
+
+    @Test
+    public void testFileIsOnlyMappedOnceItIsRequestedOften() throws IOException {
+        final Path file = createFile(600);
+        try {
+            final MappedFileCache cache = new MappedFileCache(1000);
+            for (int i = 1; i < DirectBufferCache.SAMPLE_INTERVAL; ++i) {
+                Assert.assertNull(cache.get("file"));
+                Assert.assertNull(cache.add("file", file));
+                Assert.assertEquals(0, cache.getMappedSize());
+            }
+            Assert.assertNull(cache.get("file"));
+            final MappedFileCache.MappedFile entry = cache.add("file", file);
+            Assert.assertNotNull(entry);
+            Assert.assertEquals(600, cache.getMappedSize());
+            entry.dereference();
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testFileInLessDemandDoesNotEvictMapping() throws IOException {
+        final Path hot = createFile(600);
+        final Path cold = createFile(600);
+        try {
+            final MappedFileCache cache = new MappedFileCache(1000);
+            request(cache, "hot", DirectBufferCache.SAMPLE_INTERVAL * 2);
+            final MappedFileCache.MappedFile hotEntry = cache.add("hot", hot);
+            Assert.assertNotNull(hotEntry);
+            hotEntry.dereference();
+
+            //the hot file is not in use, but it has been requested more often than the cold file
+            request(cache, "cold", DirectBufferCache.SAMPLE_INTERVAL);
+            Assert.assertNull(cache.add("cold", cold));
+            Assert.assertEquals(600, cache.getMappedSize());
+
+            final MappedFileCache.MappedFile existing = cache.get("hot");
+            Assert.assertNotNull(existing);
+            existing.dereference();
+        } finally {
+            Files.delete(hot);
+            Files.delete(cold);
+        }
+    }
+
+    /**
+     * Looks the file up the given number of times, as a request for a file that is not mapped does
+     */
+    private static void request(final MappedFileCache cache, final String key, final int times) {
+        for (int i = 0; i < times; ++i) {
+            Assert.assertNull(cache.get(key));
+        }
+    }
+
+    private static Path createFile(final int size) throws IOException {
+        final Path file = Files.createTempFile("mapped", ".txt");
+        Files.write(file, new byte[size]);
+        return file;
+    }
+}
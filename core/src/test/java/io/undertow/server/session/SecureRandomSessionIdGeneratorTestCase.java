@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SecureRandomSessionIdGeneratorTestCase {
+
+    private static final Pattern SESSION_ID = Pattern.compile("[A-Za-z0-9+\\-]*_*");
+
+    @Test
+    public void testLengthAndAlphabet() {
+        final SecureRandomSessionIdGenerator generator = new SecureRandomSessionIdGenerator();
+        for (int i = 0; i < 100; ++i) {
+            final String id = generator.createSessionId();
+            Assert.assertEquals(24, id.length());
+            Assert.assertTrue(id, SESSION_ID.matcher(id).matches());
+            Assert.assertEquals(id, -1, id.indexOf('_'));
+        }
+        //lengths that are not a multiple of three are padded
+        generator.setLength(17);
+        for (int i = 0; i < 100; ++i) {
+            final String id = generator.createSessionId();
+            Assert.assertEquals(24, id.length());
+            Assert.assertTrue(id, SESSION_ID.matcher(id).matches());
+            Assert.assertTrue(id, id.endsWith("_") && !id.endsWith("__"));
+        }
+    }
+
+    @Test
+    public void testIdsAreUniqueAcrossThreads() throws Exception {
+        final int threads = 8;
+        final int idsPerThread = 10000;
+        final SecureRandomSessionIdGenerator generator = new SecureRandomSessionIdGenerator();
+        final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < threads; ++i) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < idsPerThread; ++j) {
+                            Assert.assertTrue(ids.add(generator.createSessionId()));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(threads * idsPerThread, ids.size());
+    }
+}
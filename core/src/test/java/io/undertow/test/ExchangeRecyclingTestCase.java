@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import io.undertow.UndertowOptions;
+import io.undertow.io.IoCallback;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.test.utils.AjpIgnore;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.HttpString;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+
+/**
+ * Tests that exchanges are re-used for the requests on a connection, and that no state leaks between requests
+ * when they are recycled. Exchanges are only recycled by the HTTP read listener.
+ */
+@RunWith(DefaultServer.class)
+@AjpIgnore
+public class ExchangeRecyclingTestCase {
+
+    private static final HttpString FIRST = new HttpString("first");
+
+    private static final List<Object> exchanges = Collections.synchronizedList(new ArrayList<Object>());
+    private static final List<Object> requestHeaders = Collections.synchronizedList(new ArrayList<Object>());
+
+    private static OptionMap existing;
+
+    @BeforeClass
+    public static void setup() {
+        existing = DefaultServer.getUndertowOptions();
+        DefaultServer.setUndertowOptions(OptionMap.builder()
+                .addAll(existing)
+                .set(UndertowOptions.RECYCLE_EXCHANGES, true)
+                .getMap());
+        DefaultServer.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                if (exchange.getRelativePath().equals("/reuse")) {
+                    exchanges.add(exchange);
+                    requestHeaders.add(exchange.getRequestHeaders());
+                }
+                if (exchange.getQueryParameters().containsKey("first")) {
+                    exchange.getResponseHeaders().put(FIRST, "true");
+                }
+                exchange.getResponseSender().send(exchange.getRelativePath() + "?" + exchange.getQueryString()
+                        + " " + exchange.getQueryParameters().size(), IoCallback.END_EXCHANGE);
+            }
+        });
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        DefaultServer.setUndertowOptions(existing);
+    }
+
+    @Test
+    public void testExchangeIsReused() throws IOException {
+        exchanges.clear();
+        requestHeaders.clear();
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 5; ++i) {
+                HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/reuse");
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("/reuse? 0", HttpClientUtils.readResponse(result));
+            }
+            //all the requests were sent on the same connection, so they were all handled by the same exchange
+            Assert.assertEquals(5, exchanges.size());
+            Assert.assertEquals(1, distinct(exchanges));
+            Assert.assertEquals(1, distinct(requestHeaders));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static int distinct(final List<Object> objects) {
+        final Set<Object> result = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        synchronized (objects) {
+            result.addAll(objects);
+        }
+        return result.size();
+    }
+
+    @Test
+    public void testStateIsResetBetweenRequests() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path1?first=1");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("true", result.getFirstHeader("first").getValue());
+            Assert.assertEquals("/path1?first=1 1", HttpClientUtils.readResponse(result));
+
+            for (int i = 0; i < 10; ++i) {
+                get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path" + i);
+                result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertNull(result.getFirstHeader("first"));
+                Assert.assertEquals("/path" + i + "? 0", HttpClientUtils.readResponse(result));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
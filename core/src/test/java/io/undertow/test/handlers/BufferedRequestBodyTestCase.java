@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.test.utils.AjpIgnore;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that the request body is the same whether it is read from a buffered view or from the request channel.
+ */
+@RunWith(DefaultServer.class)
+public class BufferedRequestBodyTestCase {
+
+    private static volatile boolean readInPlace;
+
+    @BeforeClass
+    public static void setup() {
+        final BlockingHandler blockingHandler = new BlockingHandler();
+        DefaultServer.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                final ByteBuffer body = exchange.getBufferedRequestBody();
+                readInPlace = body != null;
+                if (body == null) {
+                    blockingHandler.handleRequest(exchange);
+                    return;
+                }
+                final byte[] data = new byte[body.remaining()];
+                body.get(data);
+                Assert.assertTrue(exchange.getBufferedRequestBody().isReadOnly());
+                Assert.assertEquals(data.length, exchange.getBufferedRequestBody().remaining());
+                exchange.getResponseSender().send(new String(data, "UTF-8"));
+            }
+        });
+        blockingHandler.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                exchange.getResponseSender().send(HttpClientUtils.readResponse(exchange.getInputStream()));
+            }
+        });
+    }
+
+    @Test
+    public void testRequestBodyEchoed() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 10; ++i) {
+                HttpPost post = new HttpPost(DefaultServer.getDefaultServerURL() + "/path");
+                final String message = "{\"request\":" + i + "}";
+                post.setEntity(new StringEntity(message));
+                HttpResponse result = client.execute(post);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals(message, HttpClientUtils.readResponse(result));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    /**
+     * The request is sent in a single write, so the body is read along with the headers and must be
+     * available in place.
+     */
+    @Test
+    @AjpIgnore
+    public void testSmallBodyIsReadInPlace() throws IOException {
+        final String message = "{\"request\":\"in place\"}";
+        final String request = "POST /path HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\nContent-Length: " + message.length() + "\r\n\r\n" + message;
+        readInPlace = false;
+        final Socket s = new Socket(DefaultServer.getDefaultServerAddress().getAddress(), DefaultServer.getDefaultServerAddress().getPort());
+        try {
+            s.getOutputStream().write(request.getBytes("US-ASCII"));
+            final StringBuilder sb = new StringBuilder();
+            final InputStream in = s.getInputStream();
+            final byte[] buf = new byte[100];
+            int r;
+            while ((r = in.read(buf)) > 0) {
+                sb.append(new String(buf, 0, r, "US-ASCII"));
+            }
+            final String response = sb.toString();
+            Assert.assertTrue(response, response.startsWith("HTTP/1.1 200"));
+            Assert.assertTrue(response, response.endsWith("\r\n\r\n" + message));
+            Assert.assertTrue(readInPlace);
+        } finally {
+            s.close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.io.IoCallback;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.DispatchExecutorHandler;
+import io.undertow.server.handlers.ExecutorRegistry;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.StringWriteChannelListener;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.ChannelListener;
+import org.xnio.channels.StreamSinkChannel;
+
+@RunWith(DefaultServer.class)
+public class DispatchExecutorHandlerTestCase {
+
+    private ExecutorRegistry registry;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        registry = new ExecutorRegistry();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        registry.shutdown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testSaturatedExecutorOnlyRejectsItsOwnRoute() throws Exception {
+        registry.addExecutor("slow", 1, 0);
+        registry.addExecutor("fast", 1, 0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final HttpHandler slow = new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                exchange.dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        exchange.getResponseSender().send("slow", IoCallback.END_EXCHANGE);
+                    }
+                });
+            }
+        };
+        final HttpHandler threadName = new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                exchange.dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        exchange.getResponseSender().send(Thread.currentThread().getName(), IoCallback.END_EXCHANGE);
+                    }
+                });
+            }
+        };
+        DefaultServer.setRootHandler(new PathHandler()
+                .addPath("/slow", new DispatchExecutorHandler(registry, "slow", slow))
+                .addPath("/fast", new DispatchExecutorHandler(registry, "fast", threadName)));
+        try {
+            final Future<String> first = get("/slow");
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            //the only thread of the slow executor is busy and it has no queue
+            Assert.assertEquals("503", get("/slow").get(10, TimeUnit.SECONDS));
+
+            //other routes still get threads
+            Assert.assertEquals("fast task-1", get("/fast").get(10, TimeUnit.SECONDS));
+
+            release.countDown();
+            Assert.assertEquals("slow", first.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testDispatchAfterResumeWritesUsesWorker() throws Exception {
+        DefaultServer.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                final StreamSinkChannel channel = exchange.getResponseChannel();
+                channel.getWriteSetter().set(new ChannelListener<StreamSinkChannel>() {
+                    @Override
+                    public void handleEvent(final StreamSinkChannel sink) {
+                        sink.suspendWrites();
+                        //the executor that ran the resume is not used for later dispatches
+                        exchange.dispatch(new HttpHandler() {
+                            @Override
+                            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                                new StringWriteChannelListener(exchange.isInIoThread() ? "io" : "worker").setup(channel);
+                            }
+                        });
+                    }
+                });
+                //called in the call stack, so this is dispatched to the IO thread once it returns
+                channel.resumeWrites();
+            }
+        });
+        Assert.assertEquals("worker", get("/path").get(10, TimeUnit.SECONDS));
+        Assert.assertEquals("worker", get("/path").get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDispatchExecutorIsKeptAfterResumeWrites() throws Exception {
+        registry.addExecutor("named", 1, 10);
+        DefaultServer.setRootHandler(new DispatchExecutorHandler(registry, "named", new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                final StreamSinkChannel channel = exchange.getResponseChannel();
+                channel.getWriteSetter().set(new ChannelListener<StreamSinkChannel>() {
+                    @Override
+                    public void handleEvent(final StreamSinkChannel sink) {
+                        sink.suspendWrites();
+                        exchange.dispatch(new HttpHandler() {
+                            @Override
+                            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                                new StringWriteChannelListener(Thread.currentThread().getName()).setup(channel);
+                            }
+                        });
+                    }
+                });
+                channel.resumeWrites();
+            }
+        }));
+        Assert.assertEquals("named task-1", get("/path").get(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Sends a request in the background.
+     *
+     * @return The response body, or the status code if the request failed
+     */
+    private Future<String> get(final String path) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                final TestHttpClient client = new TestHttpClient();
+                try {
+                    final HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + path);
+                    final HttpResponse result = client.execute(get);
+                    final String body = HttpClientUtils.readResponse(result);
+                    if (result.getStatusLine().getStatusCode() != 200) {
+                        return Integer.toString(result.getStatusLine().getStatusCode());
+                    }
+                    return body;
+                } finally {
+                    client.getConnectionManager().shutdown();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.test.handlers;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.ForwardedHandler;
+import io.undertow.test.utils.AjpIgnore;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that {@link ForwardedHandler} restores the client details of real requests.
+ */
+@AjpIgnore
+@RunWith(DefaultServer.class)
+public class ForwardedRequestTestCase {
+
+    private static final HttpHandler ECHO_HANDLER = new HttpHandler() {
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) throws Exception {
+            exchange.getResponseHeaders().put(HttpString.tryFromString("source"), exchange.getSourceAddress().getAddress().getHostAddress());
+            exchange.getResponseHeaders().put(HttpString.tryFromString("scheme"), exchange.getRequestScheme());
+            exchange.getResponseHeaders().put(HttpString.tryFromString("host"), exchange.getRequestHeaders().getFirst(Headers.HOST));
+            exchange.endExchange();
+        }
+    };
+
+    @Test
+    public void testUntrustedPeerIsIgnored() throws IOException {
+        DefaultServer.setRootHandler(new ForwardedHandler(ECHO_HANDLER).addTrustedProxy("10.0.0.0/8"));
+        final HttpResponse result = get(Headers.FORWARDED_STRING, "for=203.0.113.7;proto=https;host=example.com");
+        Assert.assertTrue(InetAddress.getByName(header(result, "source")).isLoopbackAddress());
+        Assert.assertEquals("http", header(result, "scheme"));
+        Assert.assertFalse("example.com".equals(header(result, "host")));
+    }
+
+    @Test
+    public void testTrustedHopsAreSkipped() throws IOException {
+        DefaultServer.setRootHandler(trustingHandler());
+        final HttpResponse result = get(Headers.FORWARDED_STRING, "for=203.0.113.7;proto=https;host=example.com, for=10.0.0.2;proto=http, for=10.0.0.1");
+        Assert.assertEquals("203.0.113.7", header(result, "source"));
+        Assert.assertEquals("https", header(result, "scheme"));
+        Assert.assertEquals("example.com", header(result, "host"));
+    }
+
+    @Test
+    public void testXForwardedHeaders() throws IOException {
+        DefaultServer.setRootHandler(trustingHandler());
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            final HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
+            get.addHeader(Headers.X_FORWARDED_FOR_STRING, "198.51.100.1, 10.0.0.3");
+            get.addHeader(Headers.X_FORWARDED_PROTO_STRING, "https");
+            get.addHeader(Headers.X_FORWARDED_HOST_STRING, "example.org");
+            final HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("198.51.100.1", header(result, "source"));
+            Assert.assertEquals("https", header(result, "scheme"));
+            Assert.assertEquals("example.org", header(result, "host"));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testInvalidHostIsRejected() throws IOException {
+        DefaultServer.setRootHandler(trustingHandler());
+        final HttpResponse result = get(Headers.FORWARDED_STRING, "for=203.0.113.7;host=\"example.com/evil\"");
+        Assert.assertEquals("203.0.113.7", header(result, "source"));
+        Assert.assertFalse(header(result, "host").contains("example.com"));
+    }
+
+    private static ForwardedHandler trustingHandler() {
+        return new ForwardedHandler(ECHO_HANDLER).addTrustedProxies("127.0.0.0/8", "::1", "10.0.0.0/8");
+    }
+
+    private static HttpResponse get(final String header, final String value) throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            final HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
+            get.addHeader(header, value);
+            final HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            return result;
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static String header(final HttpResponse result, final String name) {
+        return result.getFirstHeader(name).getValue();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.test.handlers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import io.undertow.Undertow;
+import io.undertow.client.HttpClient;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.server.handlers.ProxyHandler;
+import io.undertow.test.utils.AjpIgnore;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+
+/**
+ * Tests a request that is proxied to a backend server, with bodies that are larger than the buffers
+ * that are used to splice them.
+ */
+@AjpIgnore
+@RunWith(DefaultServer.class)
+public class ProxyHandlerTestCase {
+
+    private static final int RESPONSE_SIZE = 512 * 1024;
+
+    private static Undertow backend;
+    private static HttpClient client;
+
+    @BeforeClass
+    public static void setup() {
+        final String host = DefaultServer.getHostAddress("default");
+        final int port = DefaultServer.getHostPort("default") + 2;
+        final BlockingHandler blockingHandler = new BlockingHandler();
+        blockingHandler.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                //echo the request body, followed by a large generated body
+                final ByteArrayOutputStream request = new ByteArrayOutputStream();
+                final InputStream inputStream = exchange.getInputStream();
+                final byte[] buffer = new byte[1024];
+                int r;
+                while ((r = inputStream.read(buffer)) > 0) {
+                    request.write(buffer, 0, r);
+                }
+                final OutputStream outputStream = exchange.getOutputStream();
+                outputStream.write(request.toByteArray());
+                outputStream.write(generate(RESPONSE_SIZE).getBytes("US-ASCII"));
+                outputStream.close();
+            }
+        });
+        backend = Undertow.builder()
+                .addListener(port, host)
+                .setIoThreads(2)
+                .setWorkerThreads(4)
+                .setDefaultHandler(blockingHandler)
+                .build();
+        backend.start();
+        client = HttpClient.create(DefaultServer.getWorker(), OptionMap.EMPTY);
+        DefaultServer.setRootHandler(new ProxyHandler(client, new InetSocketAddress(host, port)));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        IoUtils.safeClose(client);
+        backend.stop();
+    }
+
+    @Test
+    public void testLargeResponseBody() throws IOException {
+        TestHttpClient httpClient = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
+            HttpResponse result = httpClient.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(generate(RESPONSE_SIZE), HttpClientUtils.readResponse(result));
+        } finally {
+            httpClient.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testRequestBodyAndLargeResponseBody() throws IOException {
+        final String requestBody = generate(100000);
+        TestHttpClient httpClient = new TestHttpClient();
+        try {
+            for (int i = 0; i < 3; ++i) {
+                HttpPost post = new HttpPost(DefaultServer.getDefaultServerURL() + "/path");
+                post.setEntity(new StringEntity(requestBody));
+                HttpResponse result = httpClient.execute(post);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals(requestBody + generate(RESPONSE_SIZE), HttpClientUtils.readResponse(result));
+            }
+        } finally {
+            httpClient.getConnectionManager().shutdown();
+        }
+    }
+
+    private static String generate(final int size) {
+        final StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; i < size; ++i) {
+            builder.append((char) ('a' + i % 26));
+        }
+        return builder.toString();
+    }
+}
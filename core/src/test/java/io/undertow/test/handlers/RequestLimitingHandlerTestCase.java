@@ -0,0 +1,229 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.test.handlers;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.io.IoCallback;
+import io.undertow.predicate.Predicate;
+import io.undertow.predicate.Predicates;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.RequestLimitingHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(DefaultServer.class)
+public class RequestLimitingHandlerTestCase {
+
+    /**
+     * The paths of the requests that have been started by the next handler, in the order they were started
+     */
+    private static final BlockingQueue<String> started = new LinkedBlockingQueue<String>();
+
+    /**
+     * Each permit allows one started request to complete
+     */
+    private static final Semaphore release = new Semaphore(0);
+
+    /**
+     * Holds requests until they are released, and then responds with the request path
+     */
+    private static final HttpHandler BLOCKING_HANDLER = new HttpHandler() {
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) throws Exception {
+            exchange.dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    started.add(exchange.getRelativePath());
+                    try {
+                        release.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    exchange.getResponseSender().send(exchange.getRelativePath(), IoCallback.END_EXCHANGE);
+                }
+            });
+        }
+    };
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        started.clear();
+        release.drainPermits();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        release.release(100);
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testQueueFullAndPriority() throws Exception {
+        final RequestLimitingHandler handler = new RequestLimitingHandler(1, 2, -1, new Predicate[]{Predicates.path("/health")}, BLOCKING_HANDLER);
+        DefaultServer.setRootHandler(handler);
+
+        final Future<String> a = get("/a");
+        Assert.assertEquals("/a", started.poll(10, TimeUnit.SECONDS));
+        final Future<String> b = get("/b");
+        awaitQueued(handler, 1);
+        final Future<String> health = get("/health");
+        awaitQueued(handler, 2);
+
+        //the queue is full
+        Assert.assertEquals("503", get("/c").get(10, TimeUnit.SECONDS));
+
+        //the health check was queued last, but is run first
+        release.release();
+        Assert.assertEquals("/a", a.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals("/health", started.poll(10, TimeUnit.SECONDS));
+        release.release();
+        Assert.assertEquals("/health", health.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals("/b", started.poll(10, TimeUnit.SECONDS));
+        release.release();
+        Assert.assertEquals("/b", b.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, handler.getQueuedRequests());
+    }
+
+    @Test
+    public void testQueueTimeoutDoesNotFreeSlot() throws Exception {
+        final RequestLimitingHandler handler = new RequestLimitingHandler(1, 10, 200, new Predicate[0], BLOCKING_HANDLER);
+        DefaultServer.setRootHandler(handler);
+
+        final Future<String> a = get("/a");
+        Assert.assertEquals("/a", started.poll(10, TimeUnit.SECONDS));
+        Assert.assertEquals("503", get("/b").get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, handler.getQueuedRequests());
+        Assert.assertEquals(1, handler.getCurrentRequests());
+
+        //the timed out request did not release a slot, so the next request still has to wait
+        final Future<String> c = get("/c");
+        awaitQueued(handler, 1);
+        Assert.assertNull(started.poll(100, TimeUnit.MILLISECONDS));
+        release.release();
+        Assert.assertEquals("/a", a.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals("/c", started.poll(10, TimeUnit.SECONDS));
+        release.release();
+        Assert.assertEquals("/c", c.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSetNextHandler() throws Exception {
+        final RequestLimitingHandler handler = new RequestLimitingHandler(1, BLOCKING_HANDLER);
+        DefaultServer.setRootHandler(handler);
+
+        final Future<String> a = get("/a");
+        Assert.assertEquals("/a", started.poll(10, TimeUnit.SECONDS));
+        final Future<String> b = get("/b");
+        awaitQueued(handler, 1);
+
+        //the queued request is run by the new handler
+        handler.setNextHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                exchange.getResponseSender().send("next", IoCallback.END_EXCHANGE);
+            }
+        });
+        release.release();
+        Assert.assertEquals("/a", a.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals("next", b.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals("next", get("/c").get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRaisingMaximumDrainsQueue() throws Exception {
+        final RequestLimitingHandler handler = new RequestLimitingHandler(1, BLOCKING_HANDLER);
+        DefaultServer.setRootHandler(handler);
+
+        final Future<String> a = get("/a");
+        Assert.assertEquals("/a", started.poll(10, TimeUnit.SECONDS));
+        final Future<String> b = get("/b");
+        final Future<String> c = get("/c");
+        awaitQueued(handler, 2);
+
+        Assert.assertEquals(1, handler.setMaximumConcurrentRequests(3));
+        final String first = started.poll(10, TimeUnit.SECONDS);
+        final String second = started.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(first);
+        Assert.assertNotNull(second);
+        Assert.assertFalse(first.equals(second));
+        Assert.assertEquals(0, handler.getQueuedRequests());
+        Assert.assertEquals(3, handler.getCurrentRequests());
+
+        release.release(3);
+        Assert.assertEquals("/a", a.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals("/b", b.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals("/c", c.get(10, TimeUnit.SECONDS));
+    }
+
+    private static void awaitQueued(final RequestLimitingHandler handler, final int queued) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 10000;
+        while (handler.getQueuedRequests() != queued) {
+            if (System.currentTimeMillis() > end) {
+                Assert.fail("Expected " + queued + " queued requests, was " + handler.getQueuedRequests());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Sends a request in the background.
+     *
+     * @return The response body, or the status code if the request failed
+     */
+    private Future<String> get(final String path) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                final TestHttpClient client = new TestHttpClient();
+                try {
+                    final HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + path);
+                    final HttpResponse result = client.execute(get);
+                    final String body = HttpClientUtils.readResponse(result);
+                    if (result.getStatusLine().getStatusCode() != 200) {
+                        return Integer.toString(result.getStatusLine().getStatusCode());
+                    }
+                    return body;
+                } finally {
+                    client.getConnectionManager().shutdown();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import io.undertow.io.BlockingSenderImpl;
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.test.handlers.file.FileHandlerTestCase;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.IoUtils;
+
+/**
+ * Tests sending part of a file with {@link Sender#transferFrom(FileChannel, long, long, IoCallback)}, both when
+ * the file can be sent directly and when it has to be copied through the chunked encoding. In blocking mode the
+ * file is copied through a pooled buffer, so it is also tested with a file that is larger than a buffer.
+ */
+@RunWith(DefaultServer.class)
+public class SenderTransferFromTestCase {
+
+    private static final int OFFSET = 10;
+
+    /**
+     * The size of the large file, which spans several of the 8k buffers of the test server
+     */
+    private static final int LARGE_FILE_SIZE = 3 * 8192 + 123;
+
+    private static final String SENDER_HEADER = "sender";
+
+    private static Path file;
+    private static String contents;
+    private static Path largeFile;
+    private static String largeContents;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        file = Paths.get(FileHandlerTestCase.class.getResource("page.html").toURI());
+        contents = new String(Files.readAllBytes(file), "UTF-8");
+
+        final StringBuilder builder = new StringBuilder(LARGE_FILE_SIZE);
+        for (int i = 0; builder.length() < LARGE_FILE_SIZE; ++i) {
+            builder.append("line ").append(i).append('\n');
+        }
+        builder.setLength(LARGE_FILE_SIZE);
+        largeContents = builder.toString();
+        largeFile = Files.createTempFile("transfer", ".txt");
+        Files.write(largeFile, largeContents.getBytes("UTF-8"));
+
+        final HttpHandler transferHandler = new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                final String path = exchange.getRelativePath();
+                final FileChannel channel = FileChannel.open(path.contains("/large") ? largeFile : file, StandardOpenOption.READ);
+                final long count = channel.size() - OFFSET;
+                if (path.endsWith("/fixed")) {
+                    exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Long.toString(count));
+                }
+                final Sender sender = exchange.getResponseSender();
+                exchange.getResponseHeaders().put(new HttpString(SENDER_HEADER), sender.getClass().getSimpleName());
+                sender.transferFrom(channel, OFFSET, count, new IoCallback() {
+                    @Override
+                    public void onComplete(final HttpServerExchange exchange, final Sender sender) {
+                        IoUtils.safeClose(channel);
+                        IoCallback.END_EXCHANGE.onComplete(exchange, sender);
+                    }
+
+                    @Override
+                    public void onException(final HttpServerExchange exchange, final Sender sender, final IOException exception) {
+                        IoUtils.safeClose(channel);
+                        IoCallback.END_EXCHANGE.onException(exchange, sender, exception);
+                    }
+                });
+            }
+        };
+        final HttpHandler blockingHandler = new BlockingHandler(transferHandler);
+        DefaultServer.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                if (exchange.getRelativePath().startsWith("/blocking")) {
+                    blockingHandler.handleRequest(exchange);
+                } else {
+                    transferHandler.handleRequest(exchange);
+                }
+            }
+        });
+    }
+
+    @AfterClass
+    public static void cleanup() throws IOException {
+        Files.delete(largeFile);
+    }
+
+    @Test
+    public void testFixedLengthTransfer() throws IOException {
+        runTest("/fixed");
+    }
+
+    @Test
+    public void testChunkedTransfer() throws IOException {
+        runTest("/chunked");
+    }
+
+    @Test
+    public void testBlockingFixedLengthTransfer() throws IOException {
+        runTest("/blocking/fixed", contents, BlockingSenderImpl.class);
+    }
+
+    @Test
+    public void testBlockingChunkedTransfer() throws IOException {
+        runTest("/blocking/chunked", contents, BlockingSenderImpl.class);
+    }
+
+    @Test
+    public void testBlockingLargeFileTransfer() throws IOException {
+        runTest("/blocking/large/fixed", largeContents, BlockingSenderImpl.class);
+        runTest("/blocking/large/chunked", largeContents, BlockingSenderImpl.class);
+    }
+
+    private void runTest(final String path) throws IOException {
+        runTest(path, contents, null);
+    }
+
+    private void runTest(final String path, final String expected, final Class<? extends Sender> sender) throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 3; ++i) {
+                HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + path);
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                if (sender != null) {
+                    Assert.assertEquals(sender.getSimpleName(), result.getFirstHeader(SENDER_HEADER).getValue());
+                }
+                Assert.assertEquals(expected.substring(OFFSET), HttpClientUtils.readResponse(result));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -1,6 +1,14 @@
 package io.undertow.test.handlers.caching;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.undertow.io.IoCallback;
@@ -31,6 +39,24 @@ public class CacheHandlerTestCase {
 
 
     private static final AtomicInteger responseCount = new AtomicInteger();
+    private static final AtomicInteger varyResponseCount = new AtomicInteger();
+    private static final AtomicInteger collapseResponseCount = new AtomicInteger();
+    private static final CountDownLatch collapseLatch = new CountDownLatch(1);
+    private static final CountDownLatch collapseFillStarted = new CountDownLatch(1);
+
+    private static final int NUM_COLLAPSED_REQUESTS = 5;
+
+    private static final CountDownLatch collapseParked = new CountDownLatch(NUM_COLLAPSED_REQUESTS - 1);
+
+    private static final AtomicInteger variantResponseCount = new AtomicInteger();
+    private static final CountDownLatch variantLatch = new CountDownLatch(1);
+    private static final CountDownLatch variantFillStarted = new CountDownLatch(1);
+    private static volatile boolean blockVariant;
+
+    private static final AtomicInteger staleResponseCount = new AtomicInteger();
+    private static final CountDownLatch revalidationStarted = new CountDownLatch(1);
+    private static final CountDownLatch revalidationLatch = new CountDownLatch(1);
+    private static volatile boolean blockRevalidation;
 
     @BeforeClass
     public static void setup() {
@@ -40,14 +66,106 @@ public class CacheHandlerTestCase {
             public void handleRequest(final HttpServerExchange exchange) throws Exception {
                 final ResponseCache cache = exchange.getAttachment(ResponseCache.ATTACHMENT_KEY);
                 if(!cache.tryServeResponse()) {
-                    final String data = "Response " + responseCount.incrementAndGet();
+                    final String data;
+                    if (exchange.getRequestPath().equals("/collapse")) {
+                        exchange.dispatch(new Runnable() {
+                            @Override
+                            public void run() {
+                                collapseFillStarted.countDown();
+                                try {
+                                    collapseLatch.await(10, TimeUnit.SECONDS);
+                                } catch (InterruptedException e) {
+                                    throw new RuntimeException(e);
+                                }
+                                final String response = "Collapse " + collapseResponseCount.incrementAndGet();
+                                exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, response.length() + "");
+                                exchange.getResponseSender().send(response, IoCallback.END_EXCHANGE);
+                            }
+                        });
+                        return;
+                    } else if (exchange.getRequestPath().equals("/variant")) {
+                        final String language = exchange.getRequestHeaders().getFirst(Headers.ACCEPT_LANGUAGE);
+                        if (blockVariant && language.equals("en")) {
+                            blockVariant = false;
+                            exchange.dispatch(new Runnable() {
+                                @Override
+                                public void run() {
+                                    variantFillStarted.countDown();
+                                    try {
+                                        variantLatch.await(10, TimeUnit.SECONDS);
+                                    } catch (InterruptedException e) {
+                                        throw new RuntimeException(e);
+                                    }
+                                    sendVariantResponse(exchange, language);
+                                }
+                            });
+                        } else {
+                            sendVariantResponse(exchange, language);
+                        }
+                        return;
+                    } else if (exchange.getRequestPath().equals("/stale")) {
+                        if (blockRevalidation) {
+                            blockRevalidation = false;
+                            exchange.dispatch(new Runnable() {
+                                @Override
+                                public void run() {
+                                    revalidationStarted.countDown();
+                                    try {
+                                        revalidationLatch.await(10, TimeUnit.SECONDS);
+                                    } catch (InterruptedException e) {
+                                        throw new RuntimeException(e);
+                                    }
+                                    sendStaleResponse(exchange);
+                                }
+                            });
+                        } else {
+                            sendStaleResponse(exchange);
+                        }
+                        return;
+                    } else if (exchange.getRequestPath().equals("/vary")) {
+                        data = "Response " + exchange.getRequestHeaders().getFirst(Headers.ACCEPT_LANGUAGE) + " " + varyResponseCount.incrementAndGet();
+                        exchange.getResponseHeaders().put(Headers.VARY, Headers.ACCEPT_LANGUAGE_STRING);
+                    } else {
+                        data = "Response " + responseCount.incrementAndGet();
+                    }
                     exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, data.length() + "");
                     exchange.getResponseSender().send(data, IoCallback.END_EXCHANGE);
                 }
             }
         };
         final CacheHandler cacheHandler = new CacheHandler(new DirectBufferCache(100, 10, 1000), messageHandler);
-        DefaultServer.setRootHandler(cacheHandler);
+        DefaultServer.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                cacheHandler.handleRequest(exchange);
+                //a request that is parked on a cache fill returns before the cache is attached. It is added to
+                //the fill by its dispatch task, so we wrap that task to know when it has been parked
+                if (exchange.getRequestPath().equals("/collapse") && exchange.getAttachment(ResponseCache.ATTACHMENT_KEY) == null) {
+                    final Runnable task = exchange.getAttachment(HttpServerExchange.DISPATCH_TASK);
+                    exchange.putAttachment(HttpServerExchange.DISPATCH_TASK, new Runnable() {
+                        @Override
+                        public void run() {
+                            task.run();
+                            collapseParked.countDown();
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private static void sendStaleResponse(final HttpServerExchange exchange) {
+        final String response = "Stale " + staleResponseCount.incrementAndGet();
+        exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "max-age=1, stale-while-revalidate=2");
+        exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, response.length() + "");
+        exchange.getResponseSender().send(response, IoCallback.END_EXCHANGE);
+    }
+
+    private static void sendVariantResponse(final HttpServerExchange exchange, final String language) {
+        final String response = "Variant " + language + " " + variantResponseCount.incrementAndGet();
+        exchange.getResponseHeaders().put(Headers.VARY, Headers.ACCEPT_LANGUAGE_STRING);
+        exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, response.length() + "");
+        exchange.getResponseSender().send(response, IoCallback.END_EXCHANGE);
     }
 
     @Test
@@ -85,4 +203,161 @@ public class CacheHandlerTestCase {
         }
     }
 
+    @Test
+    public void testVaryHeaderCaching() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/vary");
+            get.setHeader(Headers.ACCEPT_LANGUAGE_STRING, "en");
+            //it takes 5 hits to make an entry actually get cached
+            for (int i = 1; i <= 5; ++i) {
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("Response en " + i, HttpClientUtils.readResponse(result));
+            }
+
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("Response en 5", HttpClientUtils.readResponse(result));
+            Assert.assertEquals(Headers.ACCEPT_LANGUAGE_STRING, result.getFirstHeader(Headers.VARY_STRING).getValue());
+
+            get.setHeader(Headers.ACCEPT_LANGUAGE_STRING, "fr");
+            for (int i = 6; i <= 10; ++i) {
+                result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("Response fr " + i, HttpClientUtils.readResponse(result));
+            }
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("Response fr 10", HttpClientUtils.readResponse(result));
+
+            get.setHeader(Headers.ACCEPT_LANGUAGE_STRING, "en");
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("Response en 5", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentMissesAreCollapsed() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(NUM_COLLAPSED_REQUESTS);
+        try {
+            final List<Future<String>> futures = new ArrayList<>();
+            futures.add(executor.submit(new GetRequest("/collapse")));
+            //the first request fills the cache, the others must only be sent once it has started
+            Assert.assertTrue(collapseFillStarted.await(10, TimeUnit.SECONDS));
+            for (int i = 1; i < NUM_COLLAPSED_REQUESTS; ++i) {
+                futures.add(executor.submit(new GetRequest("/collapse")));
+            }
+            Assert.assertTrue(collapseParked.await(10, TimeUnit.SECONDS));
+            collapseLatch.countDown();
+            for (Future<String> future : futures) {
+                Assert.assertEquals("Collapse 1", future.get());
+            }
+            Assert.assertEquals(1, collapseResponseCount.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentVariantsAreNotCollapsed() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            //the first response tells the cache that the path varies on Accept-Language
+            Assert.assertEquals("Variant en 1", new GetRequest("/variant", "en").call());
+
+            blockVariant = true;
+            final Future<String> english = executor.submit(new GetRequest("/variant", "en"));
+            Assert.assertTrue(variantFillStarted.await(10, TimeUnit.SECONDS));
+
+            //a different variant of the same path must not wait for the english fill, or be served its response
+            final Future<String> french = executor.submit(new GetRequest("/variant", "fr"));
+            Assert.assertEquals("Variant fr 2", french.get(5, TimeUnit.SECONDS));
+            Assert.assertFalse(english.isDone());
+
+            variantLatch.countDown();
+            Assert.assertEquals("Variant en 3", english.get());
+            Assert.assertEquals(3, variantResponseCount.get());
+        } finally {
+            variantLatch.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/stale");
+            //it takes 5 hits to make an entry actually get cached
+            for (int i = 1; i <= 5; ++i) {
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("Stale " + i, HttpClientUtils.readResponse(result));
+            }
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals("Stale 5", HttpClientUtils.readResponse(result));
+
+            //wait for the entry to pass its max-age of one second
+            Thread.sleep(1100);
+            blockRevalidation = true;
+            final Future<String> revalidation = executor.submit(new GetRequest("/stale"));
+            Assert.assertTrue(revalidationStarted.await(10, TimeUnit.SECONDS));
+
+            //while the entry is being revalidated the stale entry is served, without another revalidation
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("Stale 5", HttpClientUtils.readResponse(result));
+            Assert.assertEquals(6, staleResponseCount.get());
+
+            revalidationLatch.countDown();
+            Assert.assertEquals("Stale 6", revalidation.get());
+            result = client.execute(get);
+            Assert.assertEquals("Stale 6", HttpClientUtils.readResponse(result));
+
+            //once stale-while-revalidate has also passed the entry is fetched again before it is served
+            Thread.sleep(3100);
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("Stale 7", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+            executor.shutdown();
+        }
+    }
+
+    private static final class GetRequest implements Callable<String> {
+
+        private final String path;
+        private final String language;
+
+        private GetRequest(final String path) {
+            this(path, null);
+        }
+
+        private GetRequest(final String path, final String language) {
+            this.path = path;
+            this.language = language;
+        }
+
+        @Override
+        public String call() throws Exception {
+            TestHttpClient client = new TestHttpClient();
+            try {
+                HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + path);
+                if (language != null) {
+                    get.setHeader(Headers.ACCEPT_LANGUAGE_STRING, language);
+                }
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                return HttpClientUtils.readResponse(result);
+            } finally {
+                client.getConnectionManager().shutdown();
+            }
+        }
+    }
 }
@@ -20,11 +20,14 @@ package io.undertow.test.handlers.file;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import io.undertow.server.handlers.CanonicalPathHandler;
 import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.cache.MappedFileCache;
+import io.undertow.server.handlers.resource.CachingResourceManager;
 import io.undertow.server.handlers.resource.FileResourceManager;
 import io.undertow.server.handlers.resource.ResourceHandler;
 import io.undertow.test.utils.DefaultServer;
@@ -68,4 +71,34 @@ public class FileHandlerTestCase {
         }
     }
 
+    @Test
+    public void testMappedFileIsServed() throws IOException, URISyntaxException {
+        TestHttpClient client = new TestHttpClient();
+        Path rootPath = Paths.get(getClass().getResource("page.html").toURI()).getParent();
+        try {
+            //the file is bigger than the max file size, so it is served from the mapped file cache
+            final MappedFileCache mappedFileCache = new MappedFileCache(10000);
+            DefaultServer.setRootHandler(new CanonicalPathHandler()
+                    .setNext(new PathHandler()
+                            .addPath("/path", new ResourceHandler()
+                                    .setResourceManager(new CachingResourceManager(100, 10, null, mappedFileCache, new FileResourceManager(rootPath))))));
+
+            //the file is only mapped once it has been requested five times
+            for (int i = 1; i <= 6; ++i) {
+                HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                final String response = HttpClientUtils.readResponse(result);
+                Assert.assertTrue(response, response.contains("A web page"));
+                if (i < 5) {
+                    Assert.assertEquals(0, mappedFileCache.getMappedSize());
+                }
+            }
+            //the file was mapped, so it was served from the mapping
+            Assert.assertEquals(Files.size(rootPath.resolve("page.html")), mappedFileCache.getMappedSize());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
 }
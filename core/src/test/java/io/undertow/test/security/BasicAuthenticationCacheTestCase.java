@@ -0,0 +1,213 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.security;
+
+import static io.undertow.security.api.AuthenticationMechanism.AuthenticationMechanismOutcome.AUTHENTICATED;
+import static io.undertow.security.api.AuthenticationMechanism.AuthenticationMechanismOutcome.NOT_AUTHENTICATED;
+
+import java.nio.charset.Charset;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.undertow.security.api.AuthenticationMechanism;
+import io.undertow.security.api.AuthenticationMechanism.AuthenticationMechanismOutcome;
+import io.undertow.security.api.CredentialCache;
+import io.undertow.security.idm.Account;
+import io.undertow.security.idm.Credential;
+import io.undertow.security.idm.IdentityManager;
+import io.undertow.security.idm.PasswordCredential;
+import io.undertow.security.impl.BasicAuthenticationMechanism;
+import io.undertow.security.impl.SecurityContextImpl;
+import io.undertow.security.impl.SimpleCredentialCache;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.FlexBase64;
+import io.undertow.util.Headers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that cached basic credentials are still checked against the identity manager
+ */
+public class BasicAuthenticationCacheTestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private CredentialCache cache;
+    private TestIdentityManager identityManager;
+    private AuthenticationMechanism mechanism;
+
+    @Before
+    public void setup() {
+        cache = new SimpleCredentialCache();
+        identityManager = new TestIdentityManager();
+        identityManager.addUser("userOne", "passwordOne");
+        mechanism = new BasicAuthenticationMechanism("Test Realm", "BASIC", cache);
+    }
+
+    @Test
+    public void testCacheHitVerifiesAccount() {
+        Assert.assertEquals(AUTHENTICATED, authenticate(mechanism, identityManager, "userOne", "passwordOne"));
+        Assert.assertEquals(1, identityManager.credentialVerifications);
+        Assert.assertEquals(0, identityManager.accountVerifications);
+
+        final HttpServerExchange exchange = exchange("userOne", "passwordOne");
+        final SecurityContextImpl context = new SecurityContextImpl(exchange, identityManager);
+        Assert.assertEquals(AUTHENTICATED, mechanism.authenticate(exchange, context));
+        Assert.assertEquals("userOne", context.getAuthenticatedAccount().getPrincipal().getName());
+        //the password was not verified again, but the account was
+        Assert.assertEquals(1, identityManager.credentialVerifications);
+        Assert.assertEquals(1, identityManager.accountVerifications);
+    }
+
+    @Test
+    public void testDisabledAccountIsNotAuthenticated() {
+        Assert.assertEquals(AUTHENTICATED, authenticate(mechanism, identityManager, "userOne", "passwordOne"));
+        identityManager.disabled = true;
+        Assert.assertEquals(NOT_AUTHENTICATED, authenticate(mechanism, identityManager, "userOne", "passwordOne"));
+
+        //the entry was evicted, so the password is verified again once the account is enabled
+        identityManager.disabled = false;
+        final int verifications = identityManager.credentialVerifications;
+        Assert.assertEquals(AUTHENTICATED, authenticate(mechanism, identityManager, "userOne", "passwordOne"));
+        Assert.assertEquals(verifications + 1, identityManager.credentialVerifications);
+    }
+
+    @Test
+    public void testChangedPasswordIsNotAuthenticated() {
+        Assert.assertEquals(AUTHENTICATED, authenticate(mechanism, identityManager, "userOne", "passwordOne"));
+        identityManager.addUser("userOne", "passwordTwo");
+        Assert.assertEquals(NOT_AUTHENTICATED, authenticate(mechanism, identityManager, "userOne", "passwordOne"));
+        Assert.assertEquals(AUTHENTICATED, authenticate(mechanism, identityManager, "userOne", "passwordTwo"));
+    }
+
+    @Test
+    public void testWrongPasswordAfterCachedSuccess() {
+        Assert.assertEquals(AUTHENTICATED, authenticate(mechanism, identityManager, "userOne", "passwordOne"));
+        Assert.assertEquals(AUTHENTICATED, authenticate(mechanism, identityManager, "userOne", "passwordOne"));
+        Assert.assertEquals(NOT_AUTHENTICATED, authenticate(mechanism, identityManager, "userOne", "badPassword"));
+        Assert.assertEquals(NOT_AUTHENTICATED, authenticate(mechanism, identityManager, "userOne", ""));
+    }
+
+    @Test
+    public void testSharedCacheIsScopedToIdentityManager() {
+        final TestIdentityManager other = new TestIdentityManager();
+        final AuthenticationMechanism otherMechanism = new BasicAuthenticationMechanism("Other Realm", "BASIC", cache);
+        Assert.assertEquals(AUTHENTICATED, authenticate(mechanism, identityManager, "userOne", "passwordOne"));
+        //the other realm does not know the user, and has to verify the credential itself
+        Assert.assertEquals(NOT_AUTHENTICATED, authenticate(otherMechanism, other, "userOne", "passwordOne"));
+        Assert.assertEquals(1, other.credentialVerifications);
+        Assert.assertEquals(0, other.accountVerifications);
+    }
+
+    private static AuthenticationMechanismOutcome authenticate(final AuthenticationMechanism mechanism, final IdentityManager identityManager, final String userName, final String password) {
+        final HttpServerExchange exchange = exchange(userName, password);
+        return mechanism.authenticate(exchange, new SecurityContextImpl(exchange, identityManager));
+    }
+
+    private static HttpServerExchange exchange(final String userName, final String password) {
+        final HttpServerExchange exchange = new HttpServerExchange(null);
+        final String credential = FlexBase64.encodeString((userName + ":" + password).getBytes(UTF_8), false);
+        exchange.getRequestHeaders().add(Headers.AUTHORIZATION, Headers.BASIC + " " + credential);
+        return exchange;
+    }
+
+    /**
+     * An identity manager where each account records the password it was verified with, so that an account is no
+     * longer valid once the password has been changed.
+     */
+    private static final class TestIdentityManager implements IdentityManager {
+
+        private final Map<String, String> passwords = new HashMap<String, String>();
+        private volatile boolean disabled;
+        private int credentialVerifications;
+        private int accountVerifications;
+
+        void addUser(final String userName, final String password) {
+            passwords.put(userName, password);
+        }
+
+        @Override
+        public Account verify(final Account account) {
+            ++accountVerifications;
+            final TestAccount testAccount = (TestAccount) account;
+            if (disabled || !testAccount.password.equals(passwords.get(testAccount.name))) {
+                return null;
+            }
+            return account;
+        }
+
+        @Override
+        public Account verify(final String id, final Credential credential) {
+            ++credentialVerifications;
+            final String password = passwords.get(id);
+            if (disabled || password == null || !password.equals(new String(((PasswordCredential) credential).getPassword()))) {
+                return null;
+            }
+            return new TestAccount(id, password);
+        }
+
+        @Override
+        public Account verify(final Credential credential) {
+            return null;
+        }
+
+        @Override
+        public Account getAccount(final String id) {
+            return null;
+        }
+
+        @Override
+        public char[] getPassword(final Account account) {
+            return null;
+        }
+
+        @Override
+        public byte[] getHash(final Account account) {
+            return null;
+        }
+    }
+
+    private static final class TestAccount implements Account {
+
+        private final String name;
+        private final String password;
+
+        private TestAccount(final String name, final String password) {
+            this.name = name;
+            this.password = password;
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return new Principal() {
+                @Override
+                public String getName() {
+                    return name;
+                }
+            };
+        }
+
+        @Override
+        public boolean isUserInRole(final String role) {
+            return false;
+        }
+    }
+}
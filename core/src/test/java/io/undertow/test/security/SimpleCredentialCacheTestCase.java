@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.security;
+
+import java.security.Principal;
+
+import io.undertow.security.idm.Account;
+import io.undertow.security.idm.Credential;
+import io.undertow.security.idm.IdentityManager;
+import io.undertow.security.impl.SimpleCredentialCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the caching of verified credentials
+ */
+public class SimpleCredentialCacheTestCase {
+
+    private static final Account ACCOUNT = new Account() {
+        @Override
+        public Principal getPrincipal() {
+            return new Principal() {
+                @Override
+                public String getName() {
+                    return "userOne";
+                }
+            };
+        }
+
+        @Override
+        public boolean isUserInRole(final String role) {
+            return false;
+        }
+    };
+
+    private static final IdentityManager IDM = new TestIdentityManager();
+
+    @Test
+    public void testVerifiedCredentialIsCached() {
+        final SimpleCredentialCache cache = new SimpleCredentialCache();
+        Assert.assertNull(cache.get(IDM, "Basic dXNlck9uZTpwYXNzd29yZE9uZQ=="));
+        cache.put(IDM, "Basic dXNlck9uZTpwYXNzd29yZE9uZQ==", "userOne", ACCOUNT);
+        Assert.assertSame(ACCOUNT, cache.get(IDM, "Basic dXNlck9uZTpwYXNzd29yZE9uZQ=="));
+        Assert.assertNull(cache.get(IDM, "Basic dXNlck9uZTpiYWRQYXNzd29yZA=="));
+    }
+
+    @Test
+    public void testEntriesAreScopedToIdentityManager() {
+        final SimpleCredentialCache cache = new SimpleCredentialCache();
+        final IdentityManager other = new TestIdentityManager();
+        cache.put(IDM, "Basic dXNlck9uZTpwYXNzd29yZE9uZQ==", "userOne", ACCOUNT);
+        Assert.assertNull(cache.get(other, "Basic dXNlck9uZTpwYXNzd29yZE9uZQ=="));
+        Assert.assertSame(ACCOUNT, cache.get(IDM, "Basic dXNlck9uZTpwYXNzd29yZE9uZQ=="));
+    }
+
+    @Test
+    public void testRemovedCredentialIsNotReturned() {
+        final SimpleCredentialCache cache = new SimpleCredentialCache();
+        cache.put(IDM, "Basic dXNlck9uZTpwYXNzd29yZE9uZQ==", "userOne", ACCOUNT);
+        cache.remove(IDM, "Basic dXNlck9uZTpwYXNzd29yZE9uZQ==");
+        Assert.assertNull(cache.get(IDM, "Basic dXNlck9uZTpwYXNzd29yZE9uZQ=="));
+    }
+
+    @Test
+    public void testInvalidatedAccountIsRemoved() {
+        final SimpleCredentialCache cache = new SimpleCredentialCache();
+        cache.put(IDM, "Basic dXNlck9uZTpwYXNzd29yZE9uZQ==", "userOne", ACCOUNT);
+        cache.put(IDM, "Basic dXNlclR3bzpwYXNzd29yZFR3bw==", "userTwo", ACCOUNT);
+        cache.invalidate("userOne");
+        Assert.assertNull(cache.get(IDM, "Basic dXNlck9uZTpwYXNzd29yZE9uZQ=="));
+        Assert.assertSame(ACCOUNT, cache.get(IDM, "Basic dXNlclR3bzpwYXNzd29yZFR3bw=="));
+    }
+
+    @Test
+    public void testEntriesExpire() throws InterruptedException {
+        final SimpleCredentialCache cache = new SimpleCredentialCache(10, 50);
+        cache.put(IDM, "Basic dXNlck9uZTpwYXNzd29yZE9uZQ==", "userOne", ACCOUNT);
+        Assert.assertSame(ACCOUNT, cache.get(IDM, "Basic dXNlck9uZTpwYXNzd29yZE9uZQ=="));
+        Thread.sleep(100);
+        Assert.assertNull(cache.get(IDM, "Basic dXNlck9uZTpwYXNzd29yZE9uZQ=="));
+    }
+
+    private static final class TestIdentityManager implements IdentityManager {
+
+        @Override
+        public Account verify(final Account account) {
+            return account;
+        }
+
+        @Override
+        public Account verify(final String id, final Credential credential) {
+            return null;
+        }
+
+        @Override
+        public Account verify(final Credential credential) {
+            return null;
+        }
+
+        @Override
+        public Account getAccount(final String id) {
+            return null;
+        }
+
+        @Override
+        public char[] getPassword(final Account account) {
+            return null;
+        }
+
+        @Override
+        public byte[] getHash(final Account account) {
+            return null;
+        }
+    }
+}
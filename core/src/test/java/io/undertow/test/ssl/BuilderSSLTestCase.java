@@ -0,0 +1,80 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.test.ssl;
+
+import java.io.IOException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.test.utils.AjpIgnore;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests a HTTPS listener that is created by {@link Undertow.Builder}, using a supplied SSL context.
+ */
+@AjpIgnore
+@RunWith(DefaultServer.class)
+public class BuilderSSLTestCase {
+
+    @Test
+    public void testHttpsListenerWithSessionCacheSettings() throws IOException {
+        final SSLContext serverContext = DefaultServer.createServerSSLContext();
+        final String host = DefaultServer.getHostAddress("default");
+        final int port = DefaultServer.getHostSSLPort("default");
+        final Undertow undertow = Undertow.builder()
+                .addHttpsListener(port, host, serverContext)
+                .setSslSessionCacheSize(17)
+                .setSslSessionTimeout(300)
+                .setDefaultHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
+                        exchange.getResponseSender().send(exchange.getRequestScheme());
+                    }
+                })
+                .build();
+        undertow.start();
+        TestHttpClient client = new TestHttpClient();
+        client.setSSLContext(DefaultServer.createClientSSLContext());
+        try {
+            final SSLSessionContext sessionContext = serverContext.getServerSessionContext();
+            Assert.assertEquals(17, sessionContext.getSessionCacheSize());
+            Assert.assertEquals(300, sessionContext.getSessionTimeout());
+
+            HttpGet get = new HttpGet("https://" + host + ":" + port);
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("https", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+            undertow.stop();
+        }
+    }
+}
@@ -271,12 +271,26 @@ public class DefaultServer extends BlockJUnit4ClassRunner {
      * authentication.
      */
     public static void startSSLServer() throws IOException {
-        SSLContext serverContext = createSSLContext(loadKeyStore(SERVER_KEY_STORE), loadKeyStore(SERVER_TRUST_STORE));
-        clientSslContext = createSSLContext(loadKeyStore(CLIENT_KEY_STORE), loadKeyStore(CLIENT_TRUST_STORE));
+        SSLContext serverContext = createServerSSLContext();
+        clientSslContext = createClientSSLContext();
 
         startSSLServer(serverContext, OptionMap.create(SSL_CLIENT_AUTH_MODE, REQUESTED));
     }
 
+    /**
+     * @return A new SSLContext with the key for 'localhost' and the server trust store, for tests that start their own server
+     */
+    public static SSLContext createServerSSLContext() throws IOException {
+        return createSSLContext(loadKeyStore(SERVER_KEY_STORE), loadKeyStore(SERVER_TRUST_STORE));
+    }
+
+    /**
+     * @return A new SSLContext that trusts the server created by {@link #createServerSSLContext()}
+     */
+    public static SSLContext createClientSSLContext() throws IOException {
+        return createSSLContext(loadKeyStore(CLIENT_KEY_STORE), loadKeyStore(CLIENT_TRUST_STORE));
+    }
+
     /**
      * Start the SSL server using a custom SSLContext with additional options to pass to the JsseXnioSsl instance.
      *
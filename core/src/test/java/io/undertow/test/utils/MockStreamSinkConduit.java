@@ -0,0 +1,206 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.test.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.ConduitWritableByteChannel;
+import org.xnio.conduits.StreamSinkConduit;
+import org.xnio.conduits.WriteReadyHandler;
+
+/**
+ * A sink conduit that records everything that is written to it, for testing conduits without a connection.
+ * <p/>
+ * Each call to one of the write methods is recorded separately, so tests can check how many writes were used to
+ * send the data. The number of bytes the sink will accept can be limited, to simulate a socket whose send buffer
+ * is full.
+ */
+public class MockStreamSinkConduit implements StreamSinkConduit {
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final List<byte[]> writes = new ArrayList<byte[]>();
+    private int writableBytes = Integer.MAX_VALUE;
+    private boolean writeResumed;
+    private boolean writeShutdown;
+    private WriteReadyHandler writeReadyHandler;
+
+    /**
+     * Sets the number of bytes that will be accepted before writes stop accepting any data. Each write
+     * uses up part of this, until it is set again.
+     *
+     * @param writableBytes The number of bytes, or {@link Integer#MAX_VALUE} for no limit
+     */
+    public void setWritableBytes(final int writableBytes) {
+        this.writableBytes = writableBytes;
+    }
+
+    /**
+     * @return All the data that has been written so far
+     */
+    public byte[] getWritten() {
+        return written.toByteArray();
+    }
+
+    /**
+     * @return All the data that has been written so far, as a string
+     */
+    public String getWrittenString() {
+        try {
+            return written.toString("ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return The data that was accepted by each write call, including calls that did not accept any data
+     */
+    public List<byte[]> getWrites() {
+        return writes;
+    }
+
+    public void clear() {
+        written.reset();
+        writes.clear();
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[]{src}, 0, 1);
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offs, final int len) throws IOException {
+        if (writeShutdown) {
+            throw new ClosedChannelException();
+        }
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int remaining = writableBytes;
+        for (int i = offs; i < offs + len && remaining > 0; ++i) {
+            final ByteBuffer buffer = srcs[i];
+            while (buffer.hasRemaining() && remaining > 0) {
+                data.write(buffer.get());
+                --remaining;
+            }
+        }
+        final byte[] bytes = data.toByteArray();
+        if (writableBytes != Integer.MAX_VALUE) {
+            writableBytes -= bytes.length;
+        }
+        writes.add(bytes);
+        written.write(bytes, 0, bytes.length);
+        return bytes.length;
+    }
+
+    @Override
+    public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+        return src.transferTo(position, count, new ConduitWritableByteChannel(this));
+    }
+
+    @Override
+    public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+        throughBuffer.clear();
+        if (count < throughBuffer.remaining()) {
+            throughBuffer.limit((int) count);
+        }
+        final int read = source.read(throughBuffer);
+        throughBuffer.flip();
+        if (read <= 0) {
+            return read;
+        }
+        return write(throughBuffer);
+    }
+
+    @Override
+    public void terminateWrites() throws IOException {
+        writeShutdown = true;
+    }
+
+    @Override
+    public boolean isWriteShutdown() {
+        return writeShutdown;
+    }
+
+    @Override
+    public void resumeWrites() {
+        writeResumed = true;
+    }
+
+    @Override
+    public void suspendWrites() {
+        writeResumed = false;
+    }
+
+    @Override
+    public void wakeupWrites() {
+        writeResumed = true;
+    }
+
+    @Override
+    public boolean isWriteResumed() {
+        return writeResumed;
+    }
+
+    @Override
+    public void awaitWritable() throws IOException {
+    }
+
+    @Override
+    public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
+    }
+
+    @Override
+    public XnioIoThread getWriteThread() {
+        return null;
+    }
+
+    @Override
+    public void setWriteReadyHandler(final WriteReadyHandler handler) {
+        this.writeReadyHandler = handler;
+    }
+
+    public WriteReadyHandler getWriteReadyHandler() {
+        return writeReadyHandler;
+    }
+
+    @Override
+    public void truncateWrites() throws IOException {
+        writeShutdown = true;
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        return true;
+    }
+
+    @Override
+    public XnioWorker getWorker() {
+        return null;
+    }
+}
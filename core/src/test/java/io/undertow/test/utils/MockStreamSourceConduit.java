@@ -0,0 +1,172 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.test.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.conduits.ConduitReadableByteChannel;
+import org.xnio.conduits.ReadReadyHandler;
+import org.xnio.conduits.StreamSourceConduit;
+
+/**
+ * A source conduit that returns data supplied by a test, for testing conduits without a connection.
+ * <p/>
+ * Reads return whatever data has been added so far, and return 0 once it has all been read, as a socket
+ * would if the peer has not sent any more data yet.
+ */
+public class MockStreamSourceConduit implements StreamSourceConduit {
+
+    private ByteBuffer data = ByteBuffer.allocate(0);
+    private boolean endOfStream;
+    private boolean readResumed;
+    private boolean readShutdown;
+    private ReadReadyHandler readReadyHandler;
+
+    /**
+     * Adds data that will be returned by the following reads.
+     */
+    public void addData(final byte[] bytes) {
+        final ByteBuffer newData = ByteBuffer.allocate(data.remaining() + bytes.length);
+        newData.put(data);
+        newData.put(bytes);
+        newData.flip();
+        data = newData;
+    }
+
+    /**
+     * Makes reads return -1 once all the data has been read.
+     */
+    public void setEndOfStream() {
+        endOfStream = true;
+    }
+
+    /**
+     * @return The number of bytes that have been added but not read yet
+     */
+    public int getRemaining() {
+        return data.remaining();
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        if (!data.hasRemaining()) {
+            return endOfStream ? -1 : 0;
+        }
+        int read = 0;
+        while (data.hasRemaining() && dst.hasRemaining()) {
+            dst.put(data.get());
+            ++read;
+        }
+        return read;
+    }
+
+    @Override
+    public long read(final ByteBuffer[] dsts, final int offs, final int len) throws IOException {
+        long total = 0;
+        for (int i = offs; i < offs + len; ++i) {
+            int read = read(dsts[i]);
+            if (read == -1) {
+                return total == 0 ? -1 : total;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    @Override
+    public long transferTo(final long position, final long count, final FileChannel target) throws IOException {
+        return target.transferFrom(new ConduitReadableByteChannel(this), position, count);
+    }
+
+    @Override
+    public long transferTo(final long count, final ByteBuffer throughBuffer, final StreamSinkChannel target) throws IOException {
+        throughBuffer.clear();
+        if (count < throughBuffer.remaining()) {
+            throughBuffer.limit((int) count);
+        }
+        final int read = read(throughBuffer);
+        throughBuffer.flip();
+        if (read <= 0) {
+            return read;
+        }
+        return target.write(throughBuffer);
+    }
+
+    @Override
+    public void terminateReads() throws IOException {
+        readShutdown = true;
+    }
+
+    @Override
+    public boolean isReadShutdown() {
+        return readShutdown;
+    }
+
+    @Override
+    public void resumeReads() {
+        readResumed = true;
+    }
+
+    @Override
+    public void suspendReads() {
+        readResumed = false;
+    }
+
+    @Override
+    public void wakeupReads() {
+        readResumed = true;
+    }
+
+    @Override
+    public boolean isReadResumed() {
+        return readResumed;
+    }
+
+    @Override
+    public void awaitReadable() throws IOException {
+    }
+
+    @Override
+    public void awaitReadable(final long time, final TimeUnit timeUnit) throws IOException {
+    }
+
+    @Override
+    public XnioIoThread getReadThread() {
+        return null;
+    }
+
+    @Override
+    public void setReadReadyHandler(final ReadReadyHandler handler) {
+        this.readReadyHandler = handler;
+    }
+
+    public ReadReadyHandler getReadReadyHandler() {
+        return readReadyHandler;
+    }
+
+    @Override
+    public XnioWorker getWorker() {
+        return null;
+    }
+}
@@ -18,6 +18,7 @@
 
 package io.undertow.util;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import org.junit.Test;
@@ -74,4 +75,103 @@ public final class HeaderMapTestCase {
         }
         assertEquals(0, headerMap.size());
     }
+
+    @Test
+    public void testWellKnownHeaderLookupWithNonInternedName() {
+        final HeaderMap headerMap = new HeaderMap();
+        headerMap.add(Headers.HOST, "yay.undertow.io");
+        assertEquals("yay.undertow.io", headerMap.getFirst(new HttpString("host")));
+        headerMap.add(new HttpString("HOST"), "other.undertow.io");
+        assertEquals(1, headerMap.size());
+        assertEquals(2, headerMap.get(Headers.HOST).size());
+        assertNotNull(headerMap.remove(new HttpString("Host")));
+        assertFalse(headerMap.contains(Headers.HOST));
+        assertEquals(0, headerMap.size());
+    }
+
+    @Test
+    public void testMixedHeadersIterationAndRemoval() {
+        final HeaderMap headerMap = new HeaderMap();
+        final int custom = 50;
+        for (int i = 0; i < custom; i++) {
+            headerMap.add(new HttpString("X-Custom-" + i), "value" + i);
+        }
+        for (HttpString item : HTTP_STRING_LIST) {
+            headerMap.add(item, "Test value");
+        }
+        assertEquals(custom + HTTP_STRING_LIST.size(), headerMap.size());
+        int count = 0;
+        for (long c = headerMap.fastIterate(); c != -1L; c = headerMap.fiNext(c)) {
+            assertNotNull(headerMap.fiCurrent(c));
+            count++;
+        }
+        assertEquals(headerMap.size(), count);
+        for (int i = 0; i < custom; i += 2) {
+            assertNotNull(headerMap.remove(new HttpString("x-custom-" + i)));
+        }
+        for (int i = 0; i < custom; i++) {
+            assertEquals(i % 2 != 0, headerMap.contains(new HttpString("X-Custom-" + i)));
+            if (i % 2 != 0) {
+                assertEquals("value" + i, headerMap.getFirst(new HttpString("X-Custom-" + i)));
+            }
+        }
+        count = 0;
+        for (HeaderValues ignored : headerMap) {
+            count++;
+        }
+        assertEquals(custom / 2 + HTTP_STRING_LIST.size(), count);
+        headerMap.clear();
+        assertEquals(0, headerMap.size());
+        assertEquals(-1L, headerMap.fastIterate());
+    }
+
+    @Test
+    public void testCollidingNames() {
+        final List<HttpString> names = collidingNames(5);
+        assertEquals(names.get(0).hashCode(), names.get(31).hashCode());
+        final HeaderMap headerMap = new HeaderMap();
+        headerMap.add(Headers.HOST, "localhost");
+        for (int i = 0; i < 16; i++) {
+            headerMap.add(names.get(i), "value" + i);
+        }
+        assertEquals(17, headerMap.size());
+        for (int i = 0; i < 16; i++) {
+            assertEquals("value" + i, headerMap.getFirst(names.get(i)));
+        }
+        assertNull(headerMap.getFirst(names.get(16)));
+        assertFalse(headerMap.contains(names.get(31)));
+        try {
+            headerMap.add(names.get(16), "value16");
+            fail("Expected excessive collisions to be rejected");
+        } catch (SecurityException expected) {
+        }
+        assertEquals(17, headerMap.size());
+
+        //removing a name makes room for another one with the same hash
+        assertNotNull(headerMap.remove(names.get(3)));
+        headerMap.add(names.get(16), "value16");
+        for (int i = 0; i < 17; i++) {
+            if (i == 3) {
+                assertNull(headerMap.get(names.get(i)));
+            } else {
+                assertEquals("value" + i, headerMap.getFirst(names.get(i)));
+            }
+        }
+        assertEquals("localhost", headerMap.getFirst(Headers.HOST));
+    }
+
+    /**
+     * Each "br" or "ca" block contributes the same amount to the hash code, so all the names have the same hash code.
+     */
+    private static List<HttpString> collidingNames(final int blocks) {
+        final List<HttpString> names = new ArrayList<HttpString>();
+        for (int i = 0; i < 1 << blocks; i++) {
+            final StringBuilder name = new StringBuilder("x-");
+            for (int j = 0; j < blocks; j++) {
+                name.append((i & 1 << j) == 0 ? "br" : "ca");
+            }
+            names.add(new HttpString(name.toString()));
+        }
+        return names;
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.net.InetAddress;
+import java.net.SocketPermission;
+import java.net.UnknownHostException;
+import java.security.Permission;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class NetworkUtilsTestCase {
+
+    private static final String[] VALID = {
+            "::", "::1", "1::", "fe80::1", "2001:db8::ff00:42:8329", "2001:0db8:0000:0000:0000:ff00:0042:8329",
+            "1:2:3:4:5:6:7:8", "1:2:3:4:5:6:7::", "::2:3:4:5:6:7:8", "::ffff:192.0.2.1", "64:ff9b::192.0.2.1",
+            "1:2:3:4:5:6:192.0.2.1", "ABCD:EF01::"};
+
+    private static final String[] INVALID = {
+            "dead:beef", ":", ":::", "1:", ":1", "1::2::3", "12345::", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7:8::",
+            "::1:2:3:4:5:6:7:8", "1:2:3:4:5:6:7:192.0.2.1", "::192.0.2", "::192.0.2.256", "::1.2.3.4:1", "g::1",
+            "fe80::1%eth0", "::1 ", "[::1", "[]", "[1.2.3.4]", "::localhost", ".1::2", "[.::1]"};
+
+    @Test
+    public void testValidIpv6Addresses() throws UnknownHostException {
+        for (final String address : VALID) {
+            final InetAddress expected = InetAddress.getByName("[" + address + "]");
+            Assert.assertEquals(address, expected, NetworkUtils.parseIpAddress(address));
+            Assert.assertEquals(address, expected, NetworkUtils.parseIpAddress("[" + address + "]"));
+        }
+    }
+
+    @Test
+    public void testInvalidIpv6Addresses() {
+        for (final String address : INVALID) {
+            Assert.assertNull(address, NetworkUtils.parseIpAddress(address));
+        }
+    }
+
+    @Test
+    public void testInvalidAddressIsNotResolved() {
+        final SecurityManager original = System.getSecurityManager();
+        try {
+            System.setSecurityManager(new NoLookupSecurityManager());
+        } catch (UnsupportedOperationException e) {
+            Assume.assumeNoException(e);
+        }
+        try {
+            for (final String address : INVALID) {
+                Assert.assertNull(address, NetworkUtils.parseIpAddress(address));
+            }
+            Assert.assertNull(NetworkUtils.parseIpAddress("localhost"));
+            Assert.assertNotNull(NetworkUtils.parseIpAddress("2001:db8::1"));
+        } finally {
+            System.setSecurityManager(original);
+        }
+    }
+
+    /**
+     * Fails any host name lookup, and allows everything else.
+     */
+    private static final class NoLookupSecurityManager extends SecurityManager {
+
+        @Override
+        public void checkPermission(final Permission perm) {
+            if (perm instanceof SocketPermission && perm.getActions().contains("resolve")) {
+                throw new SecurityException("Attempted to resolve " + perm.getName());
+            }
+        }
+
+        @Override
+        public void checkPermission(final Permission perm, final Object context) {
+            checkPermission(perm);
+        }
+    }
+}
@@ -21,15 +21,19 @@ package io.undertow.servlet.core;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
 
 import io.undertow.UndertowMessages;
 import io.undertow.io.IoCallback;
 import io.undertow.io.Sender;
 import io.undertow.server.HttpServerExchange;
 import org.xnio.IoUtils;
+import org.xnio.Pooled;
 
 /**
  * A sender that uses an output stream.
@@ -45,6 +49,9 @@ public class BlockingWriterSenderImpl implements Sender {
     private final PrintWriter writer;
     private boolean inCall;
     private String next;
+    private FileChannel nextFile;
+    private long nextPosition;
+    private long nextCount;
     private IoCallback queuedCallback;
 
     public BlockingWriterSenderImpl(final HttpServerExchange exchange, final PrintWriter writer, final String charset) {
@@ -108,6 +115,17 @@ public class BlockingWriterSenderImpl implements Sender {
         }
     }
 
+    @Override
+    public void transferFrom(final FileChannel source, final long position, final long count, final IoCallback callback) {
+        if (inCall) {
+            queue(source, position, count, callback);
+            return;
+        }
+        if (writeFile(source, position, count, callback)) {
+            invokeOnComplete(callback);
+        }
+    }
+
     @Override
     public void close(final IoCallback callback) {
         writer.close();
@@ -138,6 +156,59 @@ public class BlockingWriterSenderImpl implements Sender {
     }
 
 
+    private boolean writeFile(final FileChannel source, final long position, final long count, final IoCallback callback) {
+        final Pooled<ByteBuffer> pooled = exchange.getConnection().getBufferPool().allocate();
+        try {
+            final ByteBuffer buffer = pooled.getResource();
+            final CharBuffer chars = CharBuffer.allocate(buffer.capacity());
+            buffer.clear();
+            charsetDecoder.reset();
+            final long end = position + count;
+            long pos = position;
+            boolean eof = false;
+            while (!eof) {
+                buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + end - pos));
+                int res = pos < end ? source.read(buffer, pos) : -1;
+                if (res == -1) {
+                    eof = true;
+                } else {
+                    pos += res;
+                }
+                buffer.flip();
+                //bytes of a character that is split across reads are left in the buffer for the next decode
+                CoderResult result;
+                do {
+                    result = charsetDecoder.decode(buffer, chars, eof);
+                    if (result.isError()) {
+                        result.throwException();
+                    }
+                    chars.flip();
+                    writer.append(chars);
+                    chars.clear();
+                } while (result.isOverflow());
+                if (eof) {
+                    do {
+                        result = charsetDecoder.flush(chars);
+                        chars.flip();
+                        writer.append(chars);
+                        chars.clear();
+                    } while (result.isOverflow());
+                }
+                buffer.compact();
+                if (writer.checkError()) {
+                    callback.onException(exchange, this, new IOException());
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            callback.onException(exchange, this, e);
+            return false;
+        } finally {
+            pooled.free();
+        }
+    }
+
     private void invokeOnComplete(final IoCallback callback) {
         inCall = true;
         try {
@@ -145,12 +216,20 @@ public class BlockingWriterSenderImpl implements Sender {
         } finally {
             inCall = false;
         }
-        while (next != null) {
+        while (next != null || nextFile != null) {
             String next = this.next;
+            FileChannel nextFile = this.nextFile;
             IoCallback queuedCallback = this.queuedCallback;
             this.next = null;
+            this.nextFile = null;
             this.queuedCallback = null;
-            writer.write(next);
+            if (nextFile != null) {
+                if (!writeFile(nextFile, nextPosition, nextCount, queuedCallback)) {
+                    return;
+                }
+            } else {
+                writer.write(next);
+            }
             if (writer.checkError()) {
                 queuedCallback.onException(exchange, this, new IOException());
             } else {
@@ -166,7 +245,7 @@ public class BlockingWriterSenderImpl implements Sender {
 
     private void queue(final ByteBuffer[] byteBuffers, final IoCallback ioCallback) {
         //if data is sent from withing the callback we queue it, to prevent the stack growing indefinitly
-        if (next != null) {
+        if (next != null || nextFile != null) {
             throw UndertowMessages.MESSAGES.dataAlreadyQueued();
         }
         StringBuilder builder = new StringBuilder();
@@ -182,9 +261,19 @@ public class BlockingWriterSenderImpl implements Sender {
         queuedCallback = ioCallback;
     }
 
+    private void queue(final FileChannel source, final long position, final long count, final IoCallback callback) {
+        if (next != null || nextFile != null) {
+            throw UndertowMessages.MESSAGES.dataAlreadyQueued();
+        }
+        nextFile = source;
+        nextPosition = position;
+        nextCount = count;
+        queuedCallback = callback;
+    }
+
     private void queue(final String data, final IoCallback callback) {
         //if data is sent from withing the callback we queue it, to prevent the stack growing indefinitly
-        if (next != null) {
+        if (next != null || nextFile != null) {
             throw UndertowMessages.MESSAGES.dataAlreadyQueued();
         }
         next = data;
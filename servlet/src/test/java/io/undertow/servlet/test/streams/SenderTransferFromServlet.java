@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.servlet.test.streams;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.servlet.spec.HttpServletRequestImpl;
+
+/**
+ * Sends the test file with {@link Sender#transferFrom(FileChannel, long, long, IoCallback)}. If the <code>writer</code>
+ * parameter is present the writer is acquired first, so the sender has to write the file through the writer.
+ */
+public class SenderTransferFromServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType("text/plain");
+        resp.setCharacterEncoding("UTF-8");
+        if (req.getParameter("writer") != null) {
+            resp.getWriter();
+        }
+        final HttpServerExchange exchange = HttpServletRequestImpl.getRequestImpl(req).getExchange();
+        final Sender sender = exchange.getResponseSender();
+        resp.setHeader(ServletSenderTransferFromTestCase.SENDER_HEADER, sender.getClass().getSimpleName());
+        final IOException[] failure = new IOException[1];
+        try (FileChannel channel = FileChannel.open(ServletSenderTransferFromTestCase.file, StandardOpenOption.READ)) {
+            sender.transferFrom(channel, ServletSenderTransferFromTestCase.OFFSET, channel.size() - ServletSenderTransferFromTestCase.OFFSET, new IoCallback() {
+                @Override
+                public void onComplete(final HttpServerExchange exchange, final Sender sender) {
+                }
+
+                @Override
+                public void onException(final HttpServerExchange exchange, final Sender sender, final IOException exception) {
+                    failure[0] = exception;
+                }
+            });
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.servlet.test.streams;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.servlet.ServletException;
+
+import io.undertow.io.BlockingSenderImpl;
+import io.undertow.servlet.api.ServletInfo;
+import io.undertow.servlet.core.BlockingWriterSenderImpl;
+import io.undertow.servlet.test.util.DeploymentUtils;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests sending a file from a servlet with the blocking senders, both through the servlet output stream and through
+ * the writer. The file is larger than a buffer, and it contains multi byte characters that are split across buffers,
+ * which the writer has to decode.
+ */
+@RunWith(DefaultServer.class)
+public class ServletSenderTransferFromTestCase {
+
+    static final int OFFSET = 10;
+    static final String SENDER_HEADER = "sender";
+    static Path file;
+
+    /**
+     * The size of the file, which spans several of the 8k buffers of the test server
+     */
+    private static final int FILE_SIZE = 3 * 8192 + 123;
+
+    private static final String SERVLET = "transfer";
+
+    private static String contents;
+
+    @BeforeClass
+    public static void setup() throws ServletException, IOException {
+        final StringBuilder builder = new StringBuilder("0123456789");
+        for (int i = 0; builder.toString().getBytes("UTF-8").length < FILE_SIZE; ++i) {
+            builder.append("l\u00ednea ").append(i).append(" \u20ac\n");
+        }
+        contents = builder.toString();
+        file = Files.createTempFile("transfer", ".txt");
+        Files.write(file, contents.getBytes("UTF-8"));
+
+        DeploymentUtils.setupServlet(
+                new ServletInfo(SERVLET, SenderTransferFromServlet.class)
+                        .addMapping("/" + SERVLET));
+    }
+
+    @AfterClass
+    public static void cleanup() throws IOException {
+        Files.delete(file);
+    }
+
+    @Test
+    public void testTransferThroughOutputStream() throws IOException {
+        runTest("", BlockingSenderImpl.class);
+    }
+
+    @Test
+    public void testTransferThroughWriter() throws IOException {
+        runTest("?writer=true", BlockingWriterSenderImpl.class);
+    }
+
+    private void runTest(final String query, final Class<?> sender) throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 3; ++i) {
+                HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/servletContext/" + SERVLET + query);
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals(sender.getSimpleName(), result.getFirstHeader(SENDER_HEADER).getValue());
+                Assert.assertEquals(contents.substring(OFFSET), new String(HttpClientUtils.readRawResponse(result), "UTF-8"));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}